@@ -0,0 +1 @@
+%Ɣ\#Pgzm:KA@z
\ No newline at end of file
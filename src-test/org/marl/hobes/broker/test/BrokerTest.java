@@ -0,0 +1,192 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.broker.test;
+
+import java.net.URL;
+import java.util.List;
+
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.broker.Broker;
+import org.marl.hobes.broker.Subscription;
+import org.marl.hobes.http.HobesHttpServer;
+import org.marl.hobes.http.HttpBrokerClient;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Unit test the {@link org.marl.hobes.broker.Broker} API, locally
+ * and through a {@link HobesHttpServer}.
+ */
+public class BrokerTest {
+
+	public static void main(String[] args) {
+		
+		HobesHttpServer server = null;
+		try {
+			TestObjectType testObject = TestPreferences.getTestObject();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing fan-out
+			//
+			System.out.println("... Testing fan-out");
+			Broker broker = new Broker(100, 1000 * 60);
+			Subscription s1 = broker.subscribe("news", 10, Subscription.DROP_OLDEST);
+			Subscription s2 = broker.subscribe("news", 10, Subscription.DROP_OLDEST);
+			Subscription other = broker.subscribe("sports", 10, Subscription.DROP_OLDEST);
+			assert(broker.publish("news", SourcedObject.GUEST_ID, testObject) == 2);
+			assert(broker.publish("weather", SourcedObject.GUEST_ID, testObject) == 0);
+			List<byte[]> m1 = s1.poll(10, 0);
+			List<byte[]> m2 = s2.poll(10, 0);
+			assert(m1.size() == 1 && m2.size() == 1);
+			// serialized once, shared by subscribers
+			assert(m1.get(0) == m2.get(0));
+			assert(other.poll(10, 0).isEmpty());
+			broker.publish("news", "alice", testObject);
+			SourcedObject received = s1.receive(0);
+			assert("alice".equals(received.getSource()));
+			assert(testObject.equals(received.getPayload()));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing overflow policies
+			//
+			System.out.println("... Testing overflow policies");
+			Subscription dropping = broker.subscribe("ticks", 3, Subscription.DROP_OLDEST);
+			Subscription blocking = broker.subscribe("ticks", 3, Subscription.BLOCK);
+			for (int i = 0; i < 5; i++){
+				broker.publish("ticks", SourcedObject.GUEST_ID, Integer.valueOf(i));
+			}
+			assert(dropping.getDropped() == 2);
+			assert((Integer) dropping.receive(0).getPayload() == 2);
+			// the blocking subscription held the publisher, then gave up on the newest messages
+			assert(blocking.getDropped() == 2);
+			assert((Integer) blocking.receive(0).getPayload() == 0);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing a blocked publisher resumes
+			//
+			System.out.println("... Testing a blocked publisher resumes");
+			final Broker slowBroker = new Broker(5000, 1000 * 60);
+			final Subscription slow = slowBroker.subscribe("ticks", 1, Subscription.BLOCK);
+			Thread publisher = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20; i++){
+							slowBroker.publish("ticks", SourcedObject.GUEST_ID, Integer.valueOf(i));
+						}
+					}
+					catch (HobesTransportException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			publisher.start();
+			for (int i = 0; i < 20; i++){
+				assert((Integer) slow.receive(1000).getPayload() == i);
+			}
+			publisher.join();
+			assert(slow.getDropped() == 0);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing subscriptions expire
+			//
+			System.out.println("... Testing subscriptions expire");
+			Broker expiring = new Broker(100, 50);
+			Subscription idle = expiring.subscribe("news", 10, Subscription.DROP_OLDEST);
+			Thread.sleep(100);
+			assert(expiring.expire() == 1);
+			assert(idle.isClosed());
+			assert(expiring.getSubscription(idle.getId()) == null);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing HTTP long-poll
+			//
+			server = new HobesHttpServer(0);
+			Broker httpBroker = new Broker();
+			server.mountBroker("/broker", httpBroker);
+			server.start();
+			URL brokerUrl = new URL("http://localhost:" + server.getAddress().getPort() + "/broker");
+			System.out.println("... Testing HTTP long-poll, using broker endpoint: " + brokerUrl);
+			final HttpBrokerClient client = new HttpBrokerClient(brokerUrl);
+			String id = client.subscribe("news", 10, Subscription.DROP_OLDEST);
+			assert(client.poll(id, 10, 0).isEmpty());
+			final TestObjectType published = testObject;
+			Thread delayed = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(200);
+						client.publish("news", "bob", published);
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			delayed.start();
+			long start = System.currentTimeMillis();
+			List<SourcedObject> messages = client.poll(id, 10, 5000);
+			long elapsed = System.currentTimeMillis() - start;
+			delayed.join();
+			assert(messages.size() == 1);
+			assert("bob".equals(messages.get(0).getSource()));
+			assert(testObject.equals(messages.get(0).getPayload()));
+			// answered as soon as published, not at the poll timeout
+			assert(elapsed < 2000);
+			assert(client.publish("news", "bob", "one") == 1);
+			assert(client.publish("news", "bob", "two") == 1);
+			messages = client.poll(id, 10, 0);
+			assert(messages.size() == 2);
+			assert("one".equals(messages.get(0).getPayload()));
+			assert("two".equals(messages.get(1).getPayload()));
+			client.unsubscribe(id);
+			try {
+				client.poll(id, 10, 0);
+				assert(false);
+			}
+			catch (HobesTransportException e) {
+				System.out.println("... polling after unsubscribe fails: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			if (server != null){
+				server.stop(0);
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.ctx.test;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.ctx.ChannelRegistry;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.secrets.HandshakeHello;
+import org.marl.hobes.secrets.PKCS3Alice;
+import org.marl.hobes.secrets.PKCS3Bob;
+
+/**
+ * Unit test the {@link ChannelRegistry} of {@link PKCS3BobContext}s.
+ */
+public class ChannelRegistryTest {
+
+	/**
+	 * @param args The unique argument is the temp directory,
+	 * which default to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String tmpDir = (args.length > 0) ? args[0] : "tmp";
+		try {
+			new File(tmpDir).mkdirs();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing handshakes replace channels
+			//
+			System.out.println("... Testing handshakes replace channels");
+			ChannelRegistry registry = new ChannelRegistry(0, 0);
+			PKCS3Bob former = new PKCS3Bob("alice");
+			PKCS3Bob latter = new PKCS3Bob("alice");
+			registry.put(former);
+			assert(registry.get("alice") == former);
+			registry.put(latter);
+			assert(registry.get("alice") == latter);
+			assert(registry.size() == 1);
+			assert(registry.getReplacements() == 1);
+			assert(registry.get("bob") == null);
+			assert(registry.remove("alice") && ! registry.remove("alice"));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing the least recently used are evicted
+			//
+			System.out.println("... Testing the least recently used are evicted");
+			registry = new ChannelRegistry(0, 3);
+			for (String id : new String[] { "a", "b", "c" }){
+				registry.put(new PKCS3Bob(id));
+			}
+			Thread.sleep(ChannelRegistry.MIN_TICK + 100);
+			assert(registry.get("a") != null);
+			registry.put(new PKCS3Bob("d"));
+			assert(registry.size() == 3);
+			assert(registry.getSizeEvictions() == 1);
+			assert(registry.get("b") == null);
+			assert((registry.get("a") != null) && (registry.get("c") != null) && (registry.get("d") != null));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing idle channels are evicted
+			//
+			System.out.println("... Testing idle channels are evicted");
+			registry = new ChannelRegistry(1500, 0);
+			registry.put(new PKCS3Bob("idle"));
+			registry.put(new PKCS3Bob("swept"));
+			registry.put(new PKCS3Bob("busy"));
+			for (int i = 0; i < 5; i++){
+				Thread.sleep(500);
+				assert(registry.get("busy") != null);
+			}
+			assert(registry.get("idle") == null);
+			registry.expire();
+			assert(registry.getIdleEvictions() == 2);
+			assert(registry.size() == 1);
+			assert(registry.get("busy") != null);
+			System.out.println("<-- seems fine: " + registry.getIdleEvictions() + " evicted");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing concurrent handshakes and lookups
+			//
+			System.out.println("... Testing concurrent handshakes and lookups");
+			final ChannelRegistry shared = new ChannelRegistry(0, 100);
+			final int perThread = 5000;
+			final PKCS3Bob[] pool = new PKCS3Bob[500];
+			for (int i = 0; i < pool.length; i++){
+				pool[i] = new PKCS3Bob("alice-" + i);
+			}
+			Thread[] threads = new Thread[4];
+			for (int i = 0; i < threads.length; i++){
+				final int seed = i;
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						for (int n = 0; n < perThread; n++){
+							PKCS3Bob handshake = pool[(n * 7 + seed * 13) % pool.length];
+							shared.put(handshake);
+							PKCS3Bob channel = shared.get(handshake.getId());
+							assert((channel == null) || handshake.getId().equals(channel.getId()));
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (Thread thread : threads){
+				thread.join();
+			}
+			assert(shared.size() <= 100);
+			assert(shared.size() + shared.getSizeEvictions() + shared.getReplacements() 
+					== threads.length * perThread);
+			System.out.println("<-- seems fine: " + shared.getSizeEvictions() + " evicted, " 
+					+ shared.getReplacements() + " replaced");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Bob configuration
+			//
+			System.out.println("... Testing Bob configuration");
+			File config = new File(tmpDir, "registry-bob.properties");
+			FileWriter writer = new FileWriter(config);
+			writer.write("java.lang.String=org.marl.hobes.ctx.EchoCommand\n");
+			writer.write(PKCS3BobContext.CONFIG_CHANNELS_MAX + "=1\n");
+			writer.write(PKCS3BobContext.CONFIG_CHANNELS_IDLE + "=60\n");
+			writer.close();
+			PKCS3BobContext context = new PKCS3BobContext(config.getPath());
+			assert(context.getChannels().getMaxSize() == 1);
+			assert(context.getChannels().getIdleTtl() == 60000);
+			for (String id : new String[] { "first", "second" }){
+				PKCS3Alice alice = new PKCS3Alice(id);
+				alice.protocolPhaseI();
+				context.onRequest(new SourcedObject(id, new HandshakeHello(alice.getPublicValue())));
+			}
+			assert(context.getChannels().size() == 1);
+			assert(context.getChannels().getSizeEvictions() == 1);
+			try {
+				context.onRequest(new SourcedObject("first", "hello"));
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			assert(new PKCS3BobContext(null).getChannels().getIdleTtl() 
+					== PKCS3BobContext.DEFAULT_CHANNEL_IDLE * 1000);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.http.AliceOutbox;
+import org.marl.hobes.http.PKCS3AliceHttp;
+import org.marl.hobes.net.LocalObjectBus;
+import org.marl.hobes.secrets.SecretManager;
+
+/**
+ * Unit test the {@link org.marl.hobes.http.AliceOutbox} API.
+ * <p>Bob is simulated by an Alice whose batches are either refused,
+ * as if out of reach, or recorded.
+ */
+public class AliceOutboxTest {
+
+	/**
+	 * @param args The temp directory, defaults to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String arg_tmpPath = args.length > 0 ? args [0] : "tmp";
+		
+		AliceOutbox outbox = null;
+		try {
+			File directory = new File(arg_tmpPath, "outbox");
+			directory.mkdirs();
+			for (File file : directory.listFiles()){
+				file.delete();
+			}
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing requests are journaled while offline
+			//
+			System.out.println("... Testing requests are journaled while offline: " + directory);
+			RecordingAlice alice = new RecordingAlice("mobile-alice");
+			outbox = new AliceOutbox(directory, SecretManager.getDefaultSecret(), 4, 2);
+			outbox.register(alice);
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < 10; i++){
+				outbox.enqueue(alice.getId(), Integer.valueOf(i));
+			}
+			System.out.println("... enqueued in " + (System.currentTimeMillis() - start) + " ms");
+			assert(! outbox.awaitDrained(200));
+			assert(outbox.getPendingCount(alice.getId()) == 10);
+			assert(alice.received.isEmpty());
+			outbox.close();
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing journaled requests are drained in order once online
+			//
+			System.out.println("... Testing journaled requests are recovered and drained in order");
+			outbox = new AliceOutbox(directory, SecretManager.getDefaultSecret(), 4, 2);
+			outbox.register(alice);
+			assert(outbox.getPendingCount(alice.getId()) == 10);
+			outbox.enqueue(alice.getId(), Integer.valueOf(10));
+			alice.online = true;
+			outbox.flush();
+			assert(outbox.awaitDrained(5000));
+			assert(alice.received.size() == 11);
+			for (int i = 0; i < 11; i++){
+				assert(alice.received.get(i).equals(Integer.valueOf(i)));
+			}
+			// 4 + 4 + 3 at most, fewer when enqueued while draining
+			assert(alice.batches >= 3);
+			// consumed journals are truncated
+			for (File file : directory.listFiles()){
+				assert(file.length() == 8);
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing order is preserved per source
+			//
+			System.out.println("... Testing order is preserved per source");
+			RecordingAlice[] alices = new RecordingAlice[3];
+			for (int a = 0; a < alices.length; a++){
+				alices[a] = new RecordingAlice("alice-" + a);
+				alices[a].online = true;
+				outbox.register(alices[a]);
+			}
+			for (int i = 0; i < 50; i++){
+				for (RecordingAlice a : alices){
+					outbox.enqueue(a.getId(), Integer.valueOf(i));
+				}
+			}
+			assert(outbox.awaitDrained(10000));
+			for (RecordingAlice a : alices){
+				assert(a.received.size() == 50);
+				for (int i = 0; i < 50; i++){
+					assert(a.received.get(i).equals(Integer.valueOf(i)));
+				}
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing refused requests are moved aside
+			//
+			System.out.println("... Testing refused requests are moved aside");
+			RecordingAlice strict = new RecordingAlice("strict-alice");
+			strict.online = true;
+			strict.refusing = true;
+			outbox.register(strict);
+			for (int i = 0; i < 3; i++){
+				outbox.enqueue(strict.getId(), Integer.valueOf(i));
+			}
+			assert(outbox.awaitDrained(5000));
+			assert(strict.received.isEmpty());
+			assert(outbox.getDeadLetterCount(strict.getId()) == 3);
+			strict.refusing = false;
+			outbox.enqueue(strict.getId(), Integer.valueOf(3));
+			assert(outbox.awaitDrained(5000));
+			assert(strict.received.size() == 1);
+			List<Object> deadLetters = outbox.takeDeadLetters(strict.getId());
+			assert(deadLetters.size() == 3);
+			for (int i = 0; i < 3; i++){
+				assert(deadLetters.get(i).equals(Integer.valueOf(i)));
+			}
+			assert(outbox.getDeadLetterCount(strict.getId()) == 0);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing journals that never empty are compacted
+			//
+			System.out.println("... Testing journals that never empty are compacted");
+			RecordingAlice flaky = new RecordingAlice("flaky-alice");
+			outbox.register(flaky);
+			for (int i = 0; i < 12; i++){
+				byte[] payload = new byte[200 * 1000];
+				payload[0] = (byte) i;
+				outbox.enqueue(flaky.getId(), payload);
+			}
+			long journalLength = 0;
+			for (File file : directory.listFiles()){
+				journalLength = Math.max(journalLength, file.length());
+			}
+			assert(journalLength > 2 * 1000 * 1000);
+			// goes offline again after two batches out of three
+			flaky.budget = 2;
+			flaky.online = true;
+			outbox.flush();
+			while (flaky.batches < 2){
+				Thread.sleep(10);
+			}
+			assert(outbox.getPendingCount(flaky.getId()) == 4);
+			journalLength = 0;
+			for (File file : directory.listFiles()){
+				journalLength = Math.max(journalLength, file.length());
+			}
+			assert(journalLength < 1000 * 1000);
+			flaky.budget = Integer.MAX_VALUE;
+			outbox.flush();
+			assert(outbox.awaitDrained(5000));
+			assert(flaky.received.size() == 12);
+			for (int i = 0; i < 12; i++){
+				assert(((byte[]) flaky.received.get(i))[0] == i);
+			}
+			System.out.println("<-- seems fine");
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			if (outbox != null){
+				outbox.close();
+			}
+		}
+	}
+	
+	private static class RecordingAlice extends PKCS3AliceHttp {
+		private volatile boolean online = false;
+		private volatile boolean refusing = false;
+		private volatile int budget = Integer.MAX_VALUE;
+		private volatile int batches = 0;
+		private final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+		
+		private RecordingAlice(String pId) throws HobesException {
+			super(pId, LocalObjectBus.createUrl("local://bob"));
+		}
+		
+		@Override
+		public Object[] postBatch(Object[] pData) throws HobesException {
+			if (! online || (batches >= budget)){
+				throw new HobesTransportException("offline");
+			}
+			if (refusing){
+				throw new HobesDataException("refused");
+			}
+			for (Object data : pData){
+				received.add(data);
+			}
+			batches++;
+			return pData;
+		}
+	}
+}
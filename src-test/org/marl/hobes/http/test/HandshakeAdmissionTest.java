@@ -0,0 +1,217 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+
+import org.marl.hobes.HobesBusyException;
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.http.HobesHttpServer;
+import org.marl.hobes.http.PKCS3AliceHttp;
+import org.marl.hobes.secrets.PKCS3Bob;
+
+/**
+ * Unit test the admission control of handshakes by 
+ * {@link org.marl.hobes.ctx.PKCS3BobContext}.
+ */
+public class HandshakeAdmissionTest {
+
+	/**
+	 * @param args The unique argument is the temp directory,
+	 * which default to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String tmpDir = (args.length > 0) ? args[0] : "tmp";
+		HobesHttpServer server = null;
+		final CountDownLatch gate = new CountDownLatch(1);
+		final CountDownLatch stormed = new CountDownLatch(1);
+		final CountDownLatch held = new CountDownLatch(1);
+		final CountDownLatch hold = new CountDownLatch(1);
+		try {
+			new File(tmpDir).mkdirs();
+			File config = new File(tmpDir, "admission-bob.properties");
+			FileWriter writer = new FileWriter(config);
+			writer.write("java.lang.String=org.marl.hobes.ctx.EchoCommand\n");
+			writer.write(PKCS3BobContext.CONFIG_HANDSHAKE_THREADS + "=1\n");
+			writer.write(PKCS3BobContext.CONFIG_HANDSHAKE_QUEUE + "=1\n");
+			writer.write(PKCS3BobContext.CONFIG_HANDSHAKE_RETRY_AFTER + "=7\n");
+			writer.close();
+			// key agreements of the storm wait for the gate, as during a reconnect storm
+			PKCS3BobContext context = new PKCS3BobContext(config.getPath()) {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected PKCS3Bob handshake(SourcedObject pRequest, OutputStream pOutStream) 
+						throws HobesException {
+					try {
+						if ("held".equals(pRequest.getSource())){
+							held.countDown();
+							hold.await();
+						}
+						else if (! "steady".equals(pRequest.getSource())){
+							stormed.countDown();
+							gate.await();
+						}
+					}
+					catch (InterruptedException e) {
+						throw new HobesTransportException(e);
+					}
+					return super.handshake(pRequest, pOutStream);
+				}
+			};
+			server = new HobesHttpServer(0);
+			server.mountBob(HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob", context);
+			server.start();
+			final URL bobUrl = new URL("http://localhost:" + server.getAddress().getPort()
+					+ HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob");
+			PKCS3AliceHttp steady = new PKCS3AliceHttp("steady", bobUrl);
+			steady.completeDiffieHellmanProtocol();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing handshakes beyond the queue are refused at once
+			//
+			System.out.println("... Testing handshakes beyond the queue are refused at once");
+			final PKCS3AliceHttp[] storm = new PKCS3AliceHttp[2];
+			Thread[] threads = new Thread[storm.length];
+			for (int i = 0; i < storm.length; i++){
+				storm[i] = new PKCS3AliceHttp("alice" + i, bobUrl);
+				final PKCS3AliceHttp alice = storm[i];
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							alice.completeDiffieHellmanProtocol();
+						}
+						catch (HobesException e) {
+							System.out.println("********** ERROR **********");
+							e.printStackTrace();
+						}
+					}
+				};
+				threads[i].start();
+			}
+			// one key agreement runs, the other waits
+			stormed.await();
+			long deadline = System.currentTimeMillis() + 10000;
+			while ((context.getPendingHandshakes() < 1) && (System.currentTimeMillis() < deadline)){
+				Thread.sleep(10);
+			}
+			assert(context.getPendingHandshakes() == 1);
+			PKCS3AliceHttp late = new PKCS3AliceHttp("late", bobUrl);
+			long start = System.currentTimeMillis();
+			try {
+				late.completeDiffieHellmanProtocol();
+				assert(false);
+			}
+			catch (HobesBusyException e) {
+				assert(e.getRetryAfter() == 7);
+				System.out.println("... refused in " + (System.currentTimeMillis() - start) 
+						+ " ms: " + e.getMessage() + ", retry after " + e.getRetryAfter() + " s");
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing sealed requests are served during the storm
+			//
+			System.out.println("... Testing sealed requests are served during the storm");
+			assert("hello".equals(steady.post("hello", true)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing pending handshakes complete after the storm
+			//
+			System.out.println("... Testing pending handshakes complete after the storm");
+			gate.countDown();
+			for (Thread thread : threads){
+				thread.join();
+			}
+			assert("hello".equals(storm[0].post("hello", true)));
+			assert("hello".equals(storm[1].post("hello", true)));
+			late.completeDiffieHellmanProtocol();
+			assert("hello".equals(late.post("hello", true)));
+			assert(context.getPendingHandshakes() == 0);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing handshakes beyond the serving threads allowed are refused
+			//
+			System.out.println("... Testing handshakes beyond the serving threads allowed are refused");
+			context.setMaxHandshakeWorkers(1);
+			final PKCS3AliceHttp holder = new PKCS3AliceHttp("held", bobUrl);
+			Thread holding = new Thread() {
+				@Override
+				public void run() {
+					try {
+						holder.completeDiffieHellmanProtocol();
+					}
+					catch (HobesException e) {
+						System.out.println("********** ERROR **********");
+						e.printStackTrace();
+					}
+				}
+			};
+			holding.start();
+			held.await();
+			// the handshake threads are free, but the serving thread allowed is held
+			assert(context.getPendingHandshakes() == 0);
+			PKCS3AliceHttp refused = new PKCS3AliceHttp("refused", bobUrl);
+			try {
+				refused.completeDiffieHellmanProtocol();
+				assert(false);
+			}
+			catch (HobesBusyException e) {
+				assert(e.getRetryAfter() == 7);
+			}
+			assert("hello".equals(steady.post("hello", true)));
+			hold.countDown();
+			holding.join();
+			assert("hello".equals(holder.post("hello", true)));
+			refused.completeDiffieHellmanProtocol();
+			assert("hello".equals(refused.post("hello", true)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			gate.countDown();
+			hold.countDown();
+			if (server != null){
+				server.stop(0);
+			}
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.http.DesObjectBusHttp;
+import org.marl.hobes.http.HobesHttpServer;
+import org.marl.hobes.http.HttpObjectBus;
+import org.marl.hobes.http.PKCS3AliceHttp;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.HandshakeHello;
+import org.marl.hobes.secrets.HandshakeReply;
+import org.marl.hobes.secrets.PKCS3Alice;
+import org.marl.hobes.secrets.SecretFactory;
+
+/**
+ * Unit test the negotiation of {@link ChannelProfile}s during the PKCS3 handshake, 
+ * with Bob endpoints mounted on a {@link HobesHttpServer}.
+ */
+public class HandshakeNegotiationTest {
+
+	/**
+	 * @param args The unique argument is the temp directory,
+	 * which default to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String tmpDir = (args.length > 0) ? args[0] : "tmp";
+		HobesHttpServer server = null;
+		try {
+			new File(tmpDir).mkdirs();
+			File config = new File(tmpDir, "negotiation-bob.properties");
+			FileWriter writer = new FileWriter(config);
+			writer.write("java.lang.String=org.marl.hobes.ctx.EchoCommand\n");
+			writer.write(PKCS3BobContext.CONFIG_SUITES + "=2,1\n");
+			writer.write(PKCS3BobContext.CONFIG_CODECS + "=1,0\n");
+			writer.close();
+			
+			server = new HobesHttpServer(0);
+			server.mountBob(HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob", new PKCS3BobContext(null));
+			server.mountBob(HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob-deflate", 
+					new PKCS3BobContext(config.getPath()));
+			server.start();
+			String base = "http://localhost:" + server.getAddress().getPort() 
+					+ HobesHttpServer.DEFAULT_CONTEXT_PATH;
+			URL bobUrl = new URL(base + "/bob");
+			URL deflateUrl = new URL(base + "/bob-deflate");
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Bob picks the fastest common profile
+			//
+			System.out.println("... Testing Bob picks the fastest common profile");
+			PKCS3AliceHttp alice = new PKCS3AliceHttp("alice", bobUrl);
+			alice.completeDiffieHellmanProtocol();
+			assert(alice.getProfile().equals(new ChannelProfile(CipherSuite.AES_128_GCM, 
+					ChannelProfile.CODEC_NONE, ChannelProfile.FRAMING_PARALLEL_CHUNKS)));
+			assert("hello".equals(alice.post("hello", true)));
+			Object[] echoes = alice.postBatch(new Object[] { "one", "two" });
+			assert("one".equals(echoes[0]) && "two".equals(echoes[1]));
+			System.out.println("<-- seems fine: " + alice.getProfile());
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Bob preferences
+			//
+			System.out.println("... Testing Bob preferences");
+			alice = new PKCS3AliceHttp("alice", deflateUrl);
+			alice.completeDiffieHellmanProtocol();
+			assert(alice.getProfile().equals(new ChannelProfile(CipherSuite.AES_256_GCM, 
+					ChannelProfile.CODEC_DEFLATE, ChannelProfile.FRAMING_PARALLEL_CHUNKS)));
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < 1000; i++){
+				text.append("compressible ");
+			}
+			assert(text.toString().equals(alice.post(text.toString(), true)));
+			System.out.println("<-- seems fine: " + alice.getProfile());
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing X25519 handshakes
+			//
+			System.out.println("... Testing X25519 handshakes");
+			alice = new PKCS3AliceHttp("x25519", bobUrl);
+			alice.setKeyAgreementAlgorithm(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM);
+			alice.completeDiffieHellmanProtocol();
+			assert(alice.getProfile().getSuite() == CipherSuite.AES_128_GCM);
+			assert("hello".equals(alice.post("hello", true)));
+			// an agreed Alice may switch back for the next handshake
+			alice.setKeyAgreementAlgorithm(SecretFactory.KEY_AGREEMENT_ALGORITHM);
+			alice.completeDiffieHellmanProtocol();
+			assert("hello".equals(alice.post("hello", true)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing former clients still get a channel
+			//
+			System.out.println("... Testing former clients still get a channel");
+			PKCS3Alice former = new PKCS3Alice("former");
+			former.setProfile(ChannelProfile.LEGACY);
+			former.protocolPhaseI();
+			Object reply = HttpObjectBus.postWithSource(former.getId(), bobUrl, former.getPublicValue(),
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+			assert(reply instanceof byte[]);
+			former.protocolPhaseII((byte[]) reply);
+			assert(former.getCipherSuite().getId() == CipherSuite.DES);
+			assert("hello".equals(DesObjectBusHttp.postWithSource(bobUrl, former.getId(), "hello", 
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true, 
+					former.getSecretKey(), ChannelProfile.LEGACY)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing limited offers
+			//
+			System.out.println("... Testing limited offers");
+			PKCS3BobContext context = new PKCS3BobContext(null);
+			PKCS3Alice limited = new PKCS3Alice("limited");
+			limited.protocolPhaseI();
+			reply = context.onRequest(new SourcedObject("limited", new HandshakeHello(
+					limited.getPublicValue(), new int[] { CipherSuite.DES, CipherSuite.AES_256_GCM }, 
+					new int[] { ChannelProfile.CODEC_NONE }, 
+					new int[] { ChannelProfile.FRAMING_SEALED_FRAME })));
+			assert(((HandshakeReply) reply).getProfile().getSuite() == CipherSuite.AES_256_GCM);
+			reply = context.onRequest(new SourcedObject("limited", new HandshakeHello(
+					limited.getPublicValue(), ChannelProfile.SUPPORTED_SUITES, 
+					ChannelProfile.SUPPORTED_CODECS, new int[] { ChannelProfile.FRAMING_SEALED_OBJECT })));
+			assert(((HandshakeReply) reply).getProfile().equals(ChannelProfile.LEGACY));
+			try {
+				context.onRequest(new SourcedObject("limited", new HandshakeHello(
+						limited.getPublicValue(), new int[] { 99 }, 
+						ChannelProfile.SUPPORTED_CODECS, ChannelProfile.SUPPORTED_FRAMINGS)));
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing hellos without offers are refused
+			//
+			System.out.println("... Testing hellos without offers are refused");
+			try {
+				context.onRequest(new SourcedObject("limited", new HandshakeHello(
+						limited.getPublicValue(), null, null, null)));
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing downgraded negotiations
+			//
+			System.out.println("... Testing downgraded negotiations");
+			// Alice refuses what she didn't offer
+			try {
+				new ChannelProfile(CipherSuite.DES, ChannelProfile.CODEC_NONE, ChannelProfile.FRAMING_SEALED_FRAME)
+						.checkOffered(new int[] { CipherSuite.AES_256_GCM }, 
+								ChannelProfile.SUPPORTED_CODECS, ChannelProfile.SUPPORTED_FRAMINGS);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			// a hello stripped on the way gives keys that don't match
+			PKCS3Alice downgraded = new PKCS3Alice("downgraded");
+			downgraded.protocolPhaseI();
+			HandshakeHello hello = new HandshakeHello(downgraded.getPublicValue());
+			HandshakeReply downgrade = (HandshakeReply) context.onRequest(new SourcedObject("downgraded", 
+					new HandshakeHello(downgraded.getPublicValue(), 
+							new int[] { CipherSuite.DES }, ChannelProfile.SUPPORTED_CODECS, 
+							ChannelProfile.SUPPORTED_FRAMINGS)));
+			assert(downgrade.getProfile().getSuite() == CipherSuite.DES);
+			downgraded.setProfile(downgrade.getProfile());
+			downgraded.protocolPhaseII(downgrade.getPublicValue(), 
+					hello.getTranscript(downgrade.getPublicValue(), downgrade.getProfile()));
+			try {
+				context.onRequest(new SourcedObject("downgraded", downgraded.cipher("hello")));
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			if (server != null){
+				server.stop(0);
+			}
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.http.HobesHttpServer;
+import org.marl.hobes.http.HttpEndpointPool;
+import org.marl.hobes.http.HttpObjectBus;
+import org.marl.hobes.http.PKCS3AliceHttp;
+import org.marl.hobes.http.HttpResponseCache;
+import org.marl.hobes.secrets.HandshakeHello;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Unit test the {@link org.marl.hobes.http.HobesHttpServer} API.
+ */
+public class HobesHttpServerTest {
+
+	public static void main(String[] args) {
+		
+		HobesHttpServer server = null;
+		HobesHttpServer saturated = null;
+		try {
+			server = new HobesHttpServer(0);
+			server.mountEcho(HobesHttpServer.DEFAULT_CONTEXT_PATH + "/echo");
+			PKCS3BobContext bob = new PKCS3BobContext(null);
+			server.mountBob(HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob", bob);
+			server.start();
+			URL echoUrl = new URL("http://localhost:" + server.getAddress().getPort()
+					+ HobesHttpServer.DEFAULT_CONTEXT_PATH + "/echo");
+			TestObjectType testObject = TestPreferences.getTestObject();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing embedded echo endpoint
+			//
+			System.out.println("... Testing embedded echo endpoint: " + echoUrl.toExternalForm());
+			Object echo = HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT,
+					HttpObjectBus.DEFAULT_HTTP_TIMEOUT,
+					true);
+			assert(testObject.equals(echo));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing cached calls to the echo endpoint
+			//
+			System.out.println("... Testing cached calls to the echo endpoint");
+			HttpResponseCache cache = new HttpResponseCache();
+			echo = HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, cache);
+			assert(testObject.equals(echo));
+			assert(cache.getMisses() == 1 && cache.size() == 1);
+			echo = HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, cache);
+			assert(testObject.equals(echo));
+			assert(cache.getHits() == 1);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing ETag revalidation with the echo endpoint
+			//
+			System.out.println("... Testing ETag revalidation with the echo endpoint");
+			cache = new HttpResponseCache(HttpResponseCache.DEFAULT_CAPACITY, 0);
+			HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, cache);
+			echo = HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, cache);
+			assert(testObject.equals(echo));
+			assert(cache.getRevalidations() == 1);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing cached calls through a PKCS3 channel
+			//
+			System.out.println("... Testing cached calls through a PKCS3 channel");
+			URL channelUrl = new URL("http://localhost:" + server.getAddress().getPort()
+					+ HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob");
+			PKCS3AliceHttp alice = new PKCS3AliceHttp("cached", channelUrl);
+			alice.completeDiffieHellmanProtocol();
+			cache = new HttpResponseCache();
+			alice.setResponseCache(cache);
+			assert("hello".equals(alice.post("hello", true)));
+			assert("hello".equals(alice.post("hello", true)));
+			assert(cache.getMisses() == 1 && cache.getHits() == 1);
+			cache = new HttpResponseCache(HttpResponseCache.DEFAULT_CAPACITY, 0);
+			alice.setResponseCache(cache);
+			assert("hello".equals(alice.post("hello", true)));
+			assert("hello".equals(alice.post("hello", true)));
+			assert(cache.getRevalidations() == 1 && cache.getNotModified() == 1);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing malformed requests are answered an error
+			//
+			System.out.println("... Testing malformed requests are answered an error");
+			URL bobUrl = new URL("http://localhost:" + server.getAddress().getPort()
+					+ HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob");
+			HttpURLConnection connection = (HttpURLConnection) bobUrl.openConnection();
+			connection.setDoOutput(true);
+			connection.setRequestMethod("POST");
+			OutputStream os = connection.getOutputStream();
+			ObjectBus.writeWithSource("malformed", os, new HandshakeHello((byte[]) null));
+			os.close();
+			assert(connection.getResponseCode() == HttpURLConnection.HTTP_INTERNAL_ERROR);
+			connection.disconnect();
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing errors answered by Bob don't eject his endpoint
+			//
+			System.out.println("... Testing errors answered by Bob don't eject his endpoint");
+			try {
+				HttpObjectBus.postWithSource("malformed", bobUrl, new HandshakeHello((byte[]) null),
+						HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+				assert(false);
+			}
+			catch (HobesException e) {
+				assert(! (e instanceof HobesTransportException));
+			}
+			HttpEndpointPool pool = new HttpEndpointPool(new URL[] { bobUrl }, 
+					HttpEndpointPool.LEAST_OUTSTANDING, 1, 1000 * 60);
+			PKCS3AliceHttp forgotten = new PKCS3AliceHttp("forgotten", pool);
+			forgotten.completeDiffieHellmanProtocol();
+			assert("hello".equals(forgotten.post("hello", true)));
+			// e.g. evicted as idle: a new channel is agreed on
+			bob.getChannels().remove(forgotten.getId());
+			assert("again".equals(forgotten.post("again", true)));
+			bob.getChannels().remove(forgotten.getId());
+			Object[] echoes = forgotten.postBatch(new Object[] { "one", "two" });
+			assert("one".equals(echoes[0]) && "two".equals(echoes[1]));
+			assert(pool.getEndpoints()[0].isAvailable());
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing saturated servers answer 503 rather than queue
+			//
+			System.out.println("... Testing saturated servers answer 503 rather than queue");
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			saturated = new HobesHttpServer(new InetSocketAddress(0), HobesHttpServer.DEFAULT_BACKLOG, 1);
+			saturated.mount("/slow", new HttpHandler() {
+				@Override
+				public void handle(HttpExchange pExchange) throws IOException {
+					started.countDown();
+					try {
+						release.await();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					pExchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+				}
+			});
+			saturated.start();
+			final URL slowUrl = new URL("http://localhost:" + saturated.getAddress().getPort() + "/slow");
+			Thread slow = new Thread() {
+				@Override
+				public void run() {
+					try {
+						((HttpURLConnection) slowUrl.openConnection()).getResponseCode();
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			slow.start();
+			started.await();
+			connection = (HttpURLConnection) slowUrl.openConnection();
+			assert(connection.getResponseCode() == HttpURLConnection.HTTP_UNAVAILABLE);
+			assert(connection.getHeaderField("Retry-After") != null);
+			connection.disconnect();
+			release.countDown();
+			slow.join();
+			connection = (HttpURLConnection) slowUrl.openConnection();
+			assert(connection.getResponseCode() == HttpURLConnection.HTTP_OK);
+			connection.disconnect();
+			System.out.println("<-- seems fine");
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			if (server != null){
+				server.stop(0);
+			}
+			if (saturated != null){
+				saturated.stop(0);
+			}
+		}
+	}
+}
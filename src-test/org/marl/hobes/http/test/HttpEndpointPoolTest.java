@@ -0,0 +1,108 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http.test;
+
+import java.net.URL;
+
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.http.HttpEndpoint;
+import org.marl.hobes.http.HttpEndpointPool;
+
+/**
+ * Unit test the {@link org.marl.hobes.http.HttpEndpointPool} API.
+ */
+public class HttpEndpointPoolTest {
+
+	public static void main(String[] args) {
+		
+		try {
+			URL[] urls = new URL[] {
+					new URL("http://localhost:8080/hobes-www/bob"),
+					new URL("http://localhost:8081/hobes-www/bob")
+			};
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing least outstanding requests selection
+			//
+			System.out.println("... Testing least outstanding requests selection");
+			HttpEndpointPool pool = new HttpEndpointPool(urls, HttpEndpointPool.LEAST_OUTSTANDING);
+			HttpEndpoint first = pool.select();
+			long start = first.begin();
+			HttpEndpoint second = pool.select();
+			assert(first != second);
+			first.end(start, true);
+			assert(first.getOutstanding() == 0);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing EWMA latency selection
+			//
+			System.out.println("... Testing EWMA latency selection");
+			pool = new HttpEndpointPool(urls, HttpEndpointPool.EWMA_LATENCY);
+			HttpEndpoint[] endpoints = pool.getEndpoints();
+			start = endpoints[0].begin();
+			Thread.sleep(20);
+			endpoints[0].end(start, true);
+			start = endpoints[1].begin();
+			endpoints[1].end(start, true);
+			assert(endpoints[1].getLatency() < endpoints[0].getLatency());
+			assert(pool.select() == endpoints[1]);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing health ejection
+			//
+			System.out.println("... Testing health ejection");
+			pool = new HttpEndpointPool(urls, HttpEndpointPool.LEAST_OUTSTANDING, 2, 1000 * 60);
+			endpoints = pool.getEndpoints();
+			endpoints[0].end(endpoints[0].begin(), false);
+			assert(endpoints[0].isAvailable());
+			endpoints[0].end(endpoints[0].begin(), false);
+			assert(! endpoints[0].isAvailable());
+			start = endpoints[1].begin();
+			assert(pool.select() == endpoints[1]);
+			endpoints[1].end(start, false);
+			endpoints[1].end(endpoints[1].begin(), false);
+			assert(! endpoints[1].isAvailable());
+			assert(pool.select() == endpoints[0]);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing channel affinity
+			//
+			System.out.println("... Testing channel affinity");
+			pool.bind(SourcedObject.GUEST_ID, endpoints[1]);
+			assert(pool.getBinding(SourcedObject.GUEST_ID) == endpoints[1]);
+			pool.unbind(SourcedObject.GUEST_ID);
+			assert(pool.getBinding(SourcedObject.GUEST_ID) == null);
+			System.out.println("<-- seems fine");
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
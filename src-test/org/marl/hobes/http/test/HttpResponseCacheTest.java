@@ -0,0 +1,128 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http.test;
+
+import java.net.URL;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.http.HttpResponseCache;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Unit test the {@link org.marl.hobes.http.HttpResponseCache} API.
+ */
+public class HttpResponseCacheTest {
+
+	public static void main(String[] args) {
+		
+		try {
+			URL url = TestPreferences.getEchoEndpointUrl();
+			TestObjectType testObject = TestPreferences.getTestObject();
+			byte[] request = ObjectBus.toBytes(testObject);
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing cache keys
+			//
+			System.out.println("... Testing cache keys");
+			String key = HttpResponseCache.createKey(url, request);
+			assert(key.equals(HttpResponseCache.createKey(url, ObjectBus.toBytes(testObject))));
+			assert(! key.equals(HttpResponseCache.createKey(url, 
+					ObjectBus.toBytes(new TestObjectType("other", 0)))));
+			assert(! key.equals(HttpResponseCache.createKey(TestPreferences.getTestDesUrl(), request)));
+			assert(! key.equals(HttpResponseCache.createKey(url, "alice", request)));
+			assert(! HttpResponseCache.createKey(url, "alice", request).equals(
+					HttpResponseCache.createKey(url, "bob", request)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing entity tags and Cache-Control parsing
+			//
+			System.out.println("... Testing entity tags and Cache-Control parsing");
+			String eTag = HttpResponseCache.createETag(request);
+			assert(HttpResponseCache.isNotModified(eTag, eTag));
+			assert(HttpResponseCache.isNotModified("\"foo\", W/" + eTag, eTag));
+			assert(HttpResponseCache.isNotModified("*", eTag));
+			assert(! HttpResponseCache.isNotModified("\"foo\"", eTag));
+			assert(! HttpResponseCache.isNotModified(null, eTag));
+			SecretKey channelKey = new SecretKeySpec(new byte[16], "AES");
+			String sealedTag = HttpResponseCache.createETag(channelKey, request);
+			assert(sealedTag.equals(HttpResponseCache.createETag(channelKey, ObjectBus.toBytes(testObject))));
+			assert(! sealedTag.equals(eTag));
+			assert(! sealedTag.equals(HttpResponseCache.createETag(
+					new SecretKeySpec(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 }, "AES"), 
+					request)));
+			assert(HttpResponseCache.parseMaxAge("public, max-age=60") == 60);
+			assert(HttpResponseCache.parseMaxAge("no-store") == -1);
+			assert(HttpResponseCache.parseMaxAge(null) == 0);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing freshness and revalidation
+			//
+			System.out.println("... Testing freshness and revalidation");
+			HttpResponseCache cache = new HttpResponseCache(2, 1000 * 60);
+			assert(cache.get(key) == null);
+			cache.put(key, request, eTag, 60);
+			assert(cache.get(key).isFresh());
+			assert(Arrays.equals(request, cache.get(key).getContent()));
+			cache.put(key, request, eTag, 0);
+			assert(! cache.get(key).isFresh());
+			assert(eTag.equals(cache.get(key).getETag()));
+			cache.revalidate(key, 60);
+			assert(cache.get(key).isFresh());
+			assert(cache.getNotModified() == 1);
+			cache.put(key, request, null, 0);
+			assert(cache.get(key) == null);
+			cache.put(key, request, eTag, -1);
+			assert(cache.get(key) == null);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing LRU eviction
+			//
+			System.out.println("... Testing LRU eviction");
+			cache.clear();
+			cache.put("a", request, eTag, 60);
+			cache.put("b", request, eTag, 60);
+			cache.get("a");
+			cache.put("c", request, eTag, 60);
+			assert(cache.size() == 2);
+			assert(cache.get("a") != null);
+			assert(cache.get("b") == null);
+			assert(cache.get("c") != null);
+			System.out.println("<-- seems fine");
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
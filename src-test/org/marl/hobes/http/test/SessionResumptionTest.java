@@ -0,0 +1,167 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.http.HobesHttpServer;
+import org.marl.hobes.http.PKCS3AliceHttp;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SessionTicket;
+
+/**
+ * Unit test the resumption of PKCS3 channels from session tickets, across
+ * Alice and Bob restarts.
+ */
+public class SessionResumptionTest {
+
+	/**
+	 * @param args The unique argument is the temp directory,
+	 * which default to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String tmpDir = (args.length > 0) ? args[0] : "tmp";
+		HobesHttpServer server = null;
+		try {
+			new File(tmpDir).mkdirs();
+			String secretPath = new File(tmpDir, "tickets.key").getPath();
+			ObjectBus.write(secretPath, SecretFactory.createSecretKey(CipherSuite.AES_256_GCM).getEncoded());
+			File config = new File(tmpDir, "tickets-bob.properties");
+			FileWriter writer = new FileWriter(config);
+			writer.write("java.lang.String=org.marl.hobes.ctx.EchoCommand\n");
+			writer.write(PKCS3BobContext.CONFIG_TICKET_SECRET + "=" + secretPath + "\n");
+			writer.close();
+			File disabled = new File(tmpDir, "no-tickets-bob.properties");
+			writer = new FileWriter(disabled);
+			writer.write("java.lang.String=org.marl.hobes.ctx.EchoCommand\n");
+			writer.write(PKCS3BobContext.CONFIG_TICKET_LIFETIME + "=0\n");
+			writer.close();
+			
+			server = startBob(config.getPath());
+			URL bobUrl = getUrl(server);
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Bob issues tickets
+			//
+			System.out.println("... Testing Bob issues tickets");
+			PKCS3AliceHttp alice = new PKCS3AliceHttp("alice", bobUrl);
+			alice.completeDiffieHellmanProtocol();
+			SessionTicket ticket = alice.getSessionTicket();
+			assert(ticket != null);
+			assert("hello".equals(alice.post("hello", true)));
+			String ticketPath = new File(tmpDir, "alice.ticket").getPath();
+			ObjectBus.write(ticketPath, ticket);
+			System.out.println("<-- seems fine: expires in " 
+					+ (ticket.getExpiry() - System.currentTimeMillis()) / 1000 + " s");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Alice restarts
+			//
+			System.out.println("... Testing Alice restarts");
+			alice = new PKCS3AliceHttp("alice", bobUrl);
+			alice.setSessionTicket((SessionTicket) ObjectBus.read(ticketPath));
+			alice.completeDiffieHellmanProtocol();
+			assert(isResumed(alice));
+			assert("hello".equals(alice.post("hello", true)));
+			assert(alice.getSessionTicket() != null);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Bob restarts
+			//
+			System.out.println("... Testing Bob restarts");
+			server.stop(0);
+			server = startBob(config.getPath());
+			alice = new PKCS3AliceHttp("alice", getUrl(server));
+			alice.setSessionTicket((SessionTicket) ObjectBus.read(ticketPath));
+			alice.completeDiffieHellmanProtocol();
+			assert(isResumed(alice));
+			assert("hello".equals(alice.post("hello", true)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing refused tickets fall back to key agreement
+			//
+			System.out.println("... Testing refused tickets fall back to key agreement");
+			server.stop(0);
+			server = startBob(null);
+			alice = new PKCS3AliceHttp("alice", getUrl(server));
+			alice.setSessionTicket((SessionTicket) ObjectBus.read(ticketPath));
+			alice.completeDiffieHellmanProtocol();
+			assert(! isResumed(alice));
+			assert("hello".equals(alice.post("hello", true)));
+			server.stop(0);
+			server = startBob(disabled.getPath());
+			alice = new PKCS3AliceHttp("alice", getUrl(server));
+			alice.setSessionTicket((SessionTicket) ObjectBus.read(ticketPath));
+			alice.completeDiffieHellmanProtocol();
+			assert(! isResumed(alice));
+			assert(alice.getSessionTicket() == null);
+			assert("hello".equals(alice.post("hello", true)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			if (server != null){
+				server.stop(0);
+			}
+		}
+	}
+	
+	private static HobesHttpServer startBob(String pConfigPath) throws Exception {
+		HobesHttpServer server = new HobesHttpServer(0);
+		server.mountBob(HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob", new PKCS3BobContext(pConfigPath));
+		server.start();
+		return server;
+	}
+	
+	private static URL getUrl(HobesHttpServer pServer) throws Exception {
+		return new URL("http://localhost:" + pServer.getAddress().getPort() 
+				+ HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob");
+	}
+	
+	private static boolean isResumed(PKCS3AliceHttp pAlice) {
+		// resumed channels skipped the key agreement, they have no public value
+		try {
+			pAlice.getPublicValue();
+			return false;
+		}
+		catch (HobesSecurityException e) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net.test;
+
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.marl.hobes.HobesBusyException;
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.http.DesObjectBusHttp;
+import org.marl.hobes.http.HttpObjectBus;
+import org.marl.hobes.http.HttpResponseCache;
+import org.marl.hobes.net.EchoFrameHandler;
+import org.marl.hobes.net.FrameHandler;
+import org.marl.hobes.net.FrameObjectBus;
+import org.marl.hobes.net.FrameServer;
+import org.marl.hobes.secrets.SecretManager;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Unit test the {@link org.marl.hobes.net.FrameObjectBus} API.
+ */
+public class FrameObjectBusTest {
+
+	public static void main(String[] args) {
+		
+		FrameServer echoServer = null;
+		FrameServer slowServer = null;
+		FrameServer failingServer = null;
+		try {
+			TestObjectType testObject = TestPreferences.getTestObject();
+			echoServer = new FrameServer(new InetSocketAddress("localhost", 0), new EchoFrameHandler());
+			echoServer.start();
+			URL echoUrl = FrameObjectBus.createUrl("hobes://localhost:"
+					+ ((InetSocketAddress) echoServer.getAddress()).getPort());
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing raw de/serialization on frame transport
+			//
+			System.out.println("... Testing raw de/serialization on frame transport, using echo endpoint: "
+					+ echoUrl.toExternalForm());
+			Object echo = HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+			assert(testObject.equals(echo));
+			echo = HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, false);
+			assert(echo == null);
+			// frame URLs bypass response caches
+			HttpResponseCache cache = new HttpResponseCache();
+			echo = HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, cache);
+			assert(testObject.equals(echo));
+			assert(cache.size() == 0);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing DES encrypted de/serialization on frame transport
+			//
+			System.out.println("... Testing DES encrypted de/serialization on frame transport");
+			echo = DesObjectBusHttp.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true,
+					SecretManager.getDefaultSecret());
+			assert(testObject.equals(echo));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing out of order responses on a shared connection
+			//
+			System.out.println("... Testing out of order responses on a shared connection");
+			slowServer = new FrameServer(new InetSocketAddress("localhost", 0), new FrameHandler() {
+				@Override
+				public byte[] onFrame(byte[] pRequest) throws HobesException {
+					Integer rank = (Integer) ObjectBus.fromBytes(pRequest);
+					try {
+						Thread.sleep(10 * (8 - rank));
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return pRequest;
+				}
+			});
+			slowServer.start();
+			final URL slowUrl = FrameObjectBus.createUrl("hobes://localhost:"
+					+ ((InetSocketAddress) slowServer.getAddress()).getPort());
+			final AtomicInteger matches = new AtomicInteger();
+			Thread[] clients = new Thread[8];
+			for (int i = 0; i < clients.length; i++){
+				final Integer rank = i;
+				clients[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							Object response = HttpObjectBus.post(slowUrl, rank,
+									HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+							if (rank.equals(response)){
+								matches.incrementAndGet();
+							}
+						}
+						catch (HobesException e) {
+							e.printStackTrace();
+						}
+					}
+				};
+				clients[i].start();
+			}
+			for (Thread client : clients){
+				client.join();
+			}
+			assert(matches.get() == clients.length);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing server errors are rethrown with their kind
+			//
+			System.out.println("... Testing server errors are rethrown with their kind");
+			failingServer = new FrameServer(new InetSocketAddress("localhost", 0), new FrameHandler() {
+				@Override
+				public byte[] onFrame(byte[] pRequest) throws HobesException {
+					switch ((Integer) ObjectBus.fromBytes(pRequest)) {
+					case 0:
+						throw new HobesBusyException("busy", 3);
+					case 1:
+						throw new HobesSecurityException("refused");
+					case 2:
+						throw new HobesDataException("malformed");
+					default:
+						throw new IllegalStateException("broken");
+					}
+				}
+			});
+			failingServer.start();
+			URL failingUrl = FrameObjectBus.createUrl("hobes://localhost:"
+					+ ((InetSocketAddress) failingServer.getAddress()).getPort());
+			Class<?>[] kinds = { HobesBusyException.class, HobesSecurityException.class, 
+					HobesDataException.class, HobesException.class };
+			for (int i = 0; i < kinds.length; i++){
+				try {
+					HttpObjectBus.post(failingUrl, i,
+							HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+					assert(false);
+				}
+				catch (HobesException e) {
+					assert(e.getClass() == kinds[i]);
+					if (e instanceof HobesBusyException){
+						assert(((HobesBusyException) e).getRetryAfter() == 3);
+					}
+				}
+			}
+			assert(failingServer.getFailure() == null);
+			System.out.println("<-- seems fine");
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			FrameObjectBus.closeConnections();
+			if (echoServer != null){
+				echoServer.stop(0);
+			}
+			if (slowServer != null){
+				slowServer.stop(0);
+			}
+			if (failingServer != null){
+				failingServer.stop(0);
+			}
+		}
+	}
+}
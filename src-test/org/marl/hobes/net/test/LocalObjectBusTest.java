@@ -0,0 +1,128 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net.test;
+
+import java.net.URL;
+
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ctx.EchoCommand;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.http.DesObjectBusHttp;
+import org.marl.hobes.http.HttpObjectBus;
+import org.marl.hobes.http.PKCS3AliceHttp;
+import org.marl.hobes.net.BobLocalHandler;
+import org.marl.hobes.net.CommandLocalHandler;
+import org.marl.hobes.net.LocalObjectBus;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.SecretManager;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Unit test the {@link org.marl.hobes.net.LocalObjectBus} API.
+ */
+public class LocalObjectBusTest {
+
+	public static void main(String[] args) {
+		
+		try {
+			TestObjectType testObject = TestPreferences.getTestObject();
+			URL echoUrl = LocalObjectBus.bind("echo", new CommandLocalHandler(new EchoCommand()), false);
+			URL copyUrl = LocalObjectBus.bind("copy", new CommandLocalHandler(new EchoCommand()), true);
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing in-process transport by reference
+			//
+			System.out.println("... Testing in-process transport by reference, using echo endpoint: "
+					+ echoUrl.toExternalForm());
+			Object echo = HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+			assert(echo == testObject);
+			echo = HttpObjectBus.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, false);
+			assert(echo == null);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing in-process transport with defensive copies
+			//
+			System.out.println("... Testing in-process transport with defensive copies");
+			echo = HttpObjectBus.postWithSource("copier", copyUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+			assert(echo != testObject);
+			assert(testObject.equals(echo));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing DES encrypted in-process transport
+			//
+			System.out.println("... Testing DES encrypted in-process transport");
+			echo = DesObjectBusHttp.post(echoUrl, testObject,
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true,
+					SecretManager.getDefaultSecret());
+			assert(testObject.equals(echo));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing PKCS3 channel over in-process transport
+			//
+			System.out.println("... Testing PKCS3 channel over in-process transport");
+			URL bobUrl = LocalObjectBus.bind("bob", new BobLocalHandler(new PKCS3BobContext(null)), false);
+			PKCS3AliceHttp alice = new PKCS3AliceHttp("alice", bobUrl);
+			alice.completeDiffieHellmanProtocol();
+			assert(alice.getCipherSuite().getId() == ChannelProfile.SUPPORTED_SUITES[0]);
+			assert("hello".equals(alice.post("hello", true)));
+			Object[] echoes = alice.postBatch(new Object[] { "one", "two" });
+			assert("one".equals(echoes[0]) && "two".equals(echoes[1]));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing unbound endpoints
+			//
+			System.out.println("... Testing unbound endpoints");
+			LocalObjectBus.unbind("echo");
+			try {
+				HttpObjectBus.post(echoUrl, testObject,
+						HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+				assert(false);
+			}
+			catch (HobesTransportException e) {
+				System.out.println("<-- seems fine: " + e.getMessage());
+			}
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			LocalObjectBus.unbind("echo");
+			LocalObjectBus.unbind("copy");
+			LocalObjectBus.unbind("bob");
+		}
+	}
+}
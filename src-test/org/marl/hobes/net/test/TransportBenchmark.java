@@ -0,0 +1,115 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net.test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.UnixDomainSocketAddress;
+import java.util.Arrays;
+
+import org.marl.hobes.http.HobesHttpServer;
+import org.marl.hobes.http.HttpObjectBus;
+import org.marl.hobes.net.EchoFrameHandler;
+import org.marl.hobes.net.FrameObjectBus;
+import org.marl.hobes.net.FrameServer;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Compares echo round trips over loopback HTTP, the TCP frame transport,
+ * and the Unix domain socket frame transport.
+ */
+public class TransportBenchmark {
+
+	/**
+	 * @param args The number of round trips per transport, defaults to 10000,
+	 * and the temp directory, which defaults to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		String arg_tmpPath = args.length > 1 ? args [1] : "tmp";
+		
+		HobesHttpServer httpServer = null;
+		FrameServer tcpServer = null;
+		FrameServer unixServer = null;
+		try {
+			HobesHttpServer.enableNoDelay();
+			httpServer = new HobesHttpServer(0);
+			httpServer.mountEcho("/echo");
+			httpServer.start();
+			tcpServer = new FrameServer(new InetSocketAddress("localhost", 0), new EchoFrameHandler());
+			tcpServer.start();
+			String socketPath = new File(arg_tmpPath, "hobes-bench.sock").getAbsolutePath();
+			unixServer = new FrameServer(UnixDomainSocketAddress.of(socketPath), new EchoFrameHandler());
+			unixServer.start();
+			
+			TestObjectType testObject = TestPreferences.getTestObject();
+			run("loopback HTTP", 
+					new URL("http://localhost:" + httpServer.getAddress().getPort() + "/echo"),
+					testObject, rounds);
+			run("TCP frames",
+					FrameObjectBus.createUrl("hobes://localhost:" 
+							+ ((InetSocketAddress) tcpServer.getAddress()).getPort()),
+					testObject, rounds);
+			run("Unix socket frames",
+					FrameObjectBus.createUrl("unix://" + socketPath),
+					testObject, rounds);
+			System.out.println("--done.");
+		}
+		catch (Exception e) {
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			FrameObjectBus.closeConnections();
+			if (httpServer != null){
+				httpServer.stop(0);
+			}
+			if (tcpServer != null){
+				tcpServer.stop(0);
+			}
+			if (unixServer != null){
+				unixServer.stop(0);
+			}
+		}
+	}
+	
+	private static void run(String pName, URL pUrl, Object pData, int pRounds) throws Exception {
+		// warm up
+		for (int i = 0; i < pRounds / 10; i++){
+			HttpObjectBus.post(pUrl, pData, 
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+		}
+		long[] latencies = new long[pRounds];
+		long start = System.nanoTime();
+		for (int i = 0; i < pRounds; i++){
+			long t0 = System.nanoTime();
+			HttpObjectBus.post(pUrl, pData, 
+					HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT, true);
+			latencies[i] = System.nanoTime() - t0;
+		}
+		long elapsed = System.nanoTime() - start;
+		Arrays.sort(latencies);
+		System.out.println(String.format("... %-20s %8.0f round trips/s, p50 %6d us, p99 %6d us",
+				pName,
+				pRounds * 1e9 / elapsed,
+				latencies[pRounds / 2] / 1000,
+				latencies[(int) (pRounds * 0.99)] / 1000));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.Serializable;
+
+import javax.crypto.Cipher;
+import javax.crypto.SealedObject;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.secrets.DesObjectBus;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SecretManager;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Compares sealing and unsealing a small object with a cipher looked up 
+ * for each message, as {@link DesObjectBus} used to, and with the
+ * {@link org.marl.hobes.secrets.CipherCache cached} ciphers it now uses.
+ */
+public class CipherCacheBenchmark {
+
+	/**
+	 * @param args The number of round trips per run, defaults to 50000,
+	 * and the number of threads, defaults to 4.
+	 */
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		
+		try {
+			final TestObjectType testObject = TestPreferences.getTestObject();
+			final SecretKey key = SecretManager.getDefaultSecret();
+			Task lookup = new Task() {
+				@Override
+				public void run() throws Exception {
+					Cipher cipher = Cipher.getInstance(SecretFactory.ENCRYPTION_ALGORITHM);
+					cipher.init(Cipher.ENCRYPT_MODE, key);
+					SealedObject sealed = new SealedObject((Serializable) testObject, cipher);
+					cipher = Cipher.getInstance(SecretFactory.ENCRYPTION_ALGORITHM);
+					cipher.init(Cipher.DECRYPT_MODE, key);
+					sealed.getObject(cipher);
+				}
+			};
+			Task cached = new Task() {
+				@Override
+				public void run() throws Exception {
+					DesObjectBus.decipher(DesObjectBus.cipher(testObject, key), key);
+				}
+			};
+			for (int i = 0; i < 2; i++){
+				// first pass warms up
+				String pass = (i == 0) ? " (warm-up)" : "";
+				run("lookup per message" + pass, lookup, rounds, 1);
+				run("cached cipher" + pass, cached, rounds, 1);
+				run("lookup per message, " + threads + " threads" + pass, lookup, rounds, threads);
+				run("cached cipher, " + threads + " threads" + pass, cached, rounds, threads);
+			}
+			System.out.println("--done.");
+		}
+		catch (Exception e) {
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+	
+	private interface Task {
+		void run() throws Exception;
+	}
+	
+	private static void run(String pName, final Task pTask, final int pRounds, int pThreads) 
+			throws InterruptedException {
+		Thread[] threads = new Thread[pThreads];
+		for (int t = 0; t < pThreads; t++){
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < pRounds / pThreads; i++){
+							pTask.run();
+						}
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread thread : threads){
+			thread.start();
+		}
+		for (Thread thread : threads){
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("... %-45s %8.0f round trips/s", 
+				pName, (pRounds / pThreads) * pThreads * 1e9 / elapsed));
+	}
+}
@@ -0,0 +1,145 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SealedObject;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.secrets.CipherCache;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.DesChannel;
+import org.marl.hobes.secrets.DesObjectBus;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SecretManager;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Unit test the {@link org.marl.hobes.secrets.CipherCache} API, through
+ * {@link org.marl.hobes.secrets.DesObjectBus}.
+ */
+public class CipherCacheTest {
+
+	public static void main(String[] args) {
+		
+		try {
+			final TestObjectType testObject = TestPreferences.getTestObject();
+			SecretKey defaultKey = SecretManager.getDefaultSecret();
+			SecretKey otherKey = SecretFactory.createSecretKey();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing ciphers are reused
+			//
+			System.out.println("... Testing ciphers are reused");
+			DesObjectBus.decipher(DesObjectBus.cipher(testObject, defaultKey), defaultKey);
+			int lookups = CipherCache.getLookupCount();
+			for (int i = 0; i < 100; i++){
+				SecretKey key = (i % 2 == 0) ? defaultKey : otherKey;
+				assert(testObject.equals(DesObjectBus.decipher(DesObjectBus.cipher(testObject, key), key)));
+			}
+			assert(CipherCache.getLookupCount() == lookups);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing a failure does not corrupt the cached cipher
+			//
+			System.out.println("... Testing a failure does not corrupt the cached cipher");
+			SealedObject sealed = DesObjectBus.cipher(testObject, defaultKey);
+			try {
+				DesObjectBus.decipher(sealed, otherKey);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... wrong key refused: " + e.getMessage());
+			}
+			catch (Exception e) {
+				// garbage may also fail deserialization
+				System.out.println("... wrong key refused: " + e.getMessage());
+			}
+			assert(testObject.equals(DesObjectBus.decipher(sealed, defaultKey)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing replaced keys are not kept reachable
+			//
+			System.out.println("... Testing replaced keys are not kept reachable");
+			SecretKey oldKey = SecretFactory.createSecretKey();
+			SecretKey oldMacKey = new SecretKeySpec(oldKey.getEncoded(), "HmacSHA256");
+			DesObjectBus.decipher(DesObjectBus.cipher(testObject, oldKey), oldKey);
+			CipherSuite.getInstance(CipherSuite.HMAC_SHA256).acquireMac(oldMacKey).doFinal();
+			WeakReference<SecretKey> oldKeyRef = new WeakReference<SecretKey>(oldKey);
+			WeakReference<SecretKey> oldMacKeyRef = new WeakReference<SecretKey>(oldMacKey);
+			oldKey = null;
+			oldMacKey = null;
+			for (int i = 0; (i < 10) && ((oldKeyRef.get() != null) || (oldMacKeyRef.get() != null)); i++){
+				System.gc();
+				Thread.sleep(10);
+			}
+			assert(oldKeyRef.get() == null);
+			assert(oldMacKeyRef.get() == null);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing concurrent use of a same channel
+			//
+			System.out.println("... Testing concurrent use of a same channel");
+			final DesChannel channel = new DesChannel("shared", defaultKey);
+			final AtomicInteger matches = new AtomicInteger();
+			Thread[] threads = new Thread[8];
+			for (int t = 0; t < threads.length; t++){
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for (int i = 0; i < 200; i++){
+								if (testObject.equals(channel.decipher(channel.cipher(testObject)))){
+									matches.incrementAndGet();
+								}
+							}
+						}
+						catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for (Thread thread : threads){
+				thread.join();
+			}
+			assert(matches.get() == threads.length * 200);
+			System.out.println("<-- seems fine");
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
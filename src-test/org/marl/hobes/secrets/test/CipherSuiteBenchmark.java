@@ -0,0 +1,79 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.DesObjectBus;
+import org.marl.hobes.secrets.SecretFactory;
+
+/**
+ * Compares the throughput of the {@link CipherSuite}s, writing and reading
+ * sealed frames of growing payloads through {@link DesObjectBus}.
+ */
+public class CipherSuiteBenchmark {
+
+	/**
+	 * @param args The number of payload bytes per size and suite, defaults to 64 MB.
+	 */
+	public static void main(String[] args) {
+		long volume = args.length > 0 ? Long.parseLong(args[0]) : (64L << 20);
+		int[] sizes = { 64, 1 << 10, 16 << 10, 256 << 10, 1 << 20 };
+		int[] suites = { CipherSuite.DES, CipherSuite.AES_128_GCM, CipherSuite.AES_256_GCM };
+		
+		try {
+			SecretKey[] keys = new SecretKey[suites.length];
+			for (int i = 0; i < suites.length; i++){
+				keys[i] = SecretFactory.createSecretKey(suites[i]);
+			}
+			for (int pass = 0; pass < 2; pass++){
+				// first pass warms up
+				System.out.println((pass == 0) ? "... warm-up" : "... measures");
+				for (int size : sizes){
+					byte[] payload = new byte[size];
+					for (int i = 0; i < size; i++){
+						payload[i] = (byte) (i * 31);
+					}
+					int rounds = (int) Math.max(1, ((pass == 0) ? volume / 8 : volume) / size);
+					StringBuilder line = new StringBuilder(String.format("... %8d bytes", size));
+					for (int i = 0; i < suites.length; i++){
+						long start = System.nanoTime();
+						for (int r = 0; r < rounds; r++){
+							ByteArrayOutputStream bos = new ByteArrayOutputStream(size + 256);
+							DesObjectBus.write(bos, payload, keys[i]);
+							DesObjectBus.read(new ByteArrayInputStream(bos.toByteArray()), keys[i]);
+						}
+						long elapsed = System.nanoTime() - start;
+						line.append(String.format("  %s %8.1f MB/s", CipherSuite.getInstance(suites[i]),
+								((double) rounds * size) / (1 << 20) * 1e9 / elapsed));
+					}
+					System.out.println(line);
+				}
+			}
+			System.out.println("--done.");
+		}
+		catch (Exception e) {
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
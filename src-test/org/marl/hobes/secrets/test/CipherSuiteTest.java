@@ -0,0 +1,169 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.crypto.SealedObject;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.DesObjectBus;
+import org.marl.hobes.secrets.PKCS3Alice;
+import org.marl.hobes.secrets.PKCS3Bob;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Unit test the {@link org.marl.hobes.secrets.CipherSuite} API, through
+ * {@link org.marl.hobes.secrets.DesObjectBus}.
+ */
+public class CipherSuiteTest {
+
+	public static void main(String[] args) {
+		
+		try {
+			TestObjectType etalonData = TestPreferences.getTestObject();
+			int[] suites = { CipherSuite.DES, CipherSuite.AES_128_GCM, CipherSuite.AES_256_GCM };
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing round trips for each suite
+			//
+			System.out.println("... Testing round trips for each suite");
+			for (int i = 0; i < suites.length; i++){
+				SecretKey key = SecretFactory.createSecretKey(suites[i]);
+				assert(CipherSuite.getInstance(key).getId() == suites[i]);
+				assert(SecretFactory.createSecretKey(key.getEncoded()).equals(key));
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				DesObjectBus.writeWithSource("alice", bos, etalonData, key);
+				assert(etalonData.equals(DesObjectBus.readWithSource(
+						new ByteArrayInputStream(bos.toByteArray()), key).getPayload()));
+				assert(etalonData.equals(DesObjectBus.decipher(DesObjectBus.cipher(etalonData, key), key)));
+				System.out.println("... " + CipherSuite.getInstance(suites[i]) + ": " + bos.size() + " bytes");
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing messages get their own nonce
+			//
+			System.out.println("... Testing messages get their own nonce");
+			SecretKey aesKey = SecretFactory.createSecretKey(CipherSuite.DEFAULT);
+			ByteArrayOutputStream first = new ByteArrayOutputStream();
+			ByteArrayOutputStream second = new ByteArrayOutputStream();
+			DesObjectBus.write(first, etalonData, aesKey);
+			DesObjectBus.write(second, etalonData, aesKey);
+			assert(first.size() == second.size());
+			assert(! Arrays.equals(first.toByteArray(), second.toByteArray()));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing tampered messages are refused
+			//
+			System.out.println("... Testing tampered messages are refused");
+			byte[] tampered = first.toByteArray();
+			tampered[tampered.length - 10] ^= 1;
+			try {
+				DesObjectBus.read(new ByteArrayInputStream(tampered), aesKey);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			// the header is authenticated too
+			ByteArrayOutputStream sourced = new ByteArrayOutputStream();
+			DesObjectBus.writeWithSource("alice", sourced, etalonData, aesKey);
+			tampered = sourced.toByteArray();
+			tampered[new String(tampered, "ISO-8859-1").indexOf("alice")] = 'A';
+			try {
+				DesObjectBus.readWithSource(new ByteArrayInputStream(tampered), aesKey);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing keys of another suite are refused
+			//
+			System.out.println("... Testing keys of another suite are refused");
+			SealedObject sealed = DesObjectBus.cipher(etalonData, aesKey);
+			try {
+				DesObjectBus.decipher(sealed, SecretFactory.createSecretKey(CipherSuite.DES));
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			try {
+				DesObjectBus.read(new ByteArrayInputStream(first.toByteArray()), 
+						SecretFactory.createSecretKey(CipherSuite.AES_128_GCM));
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing keys derived from agreed secrets
+			//
+			System.out.println("... Testing keys derived from agreed secrets");
+			for (int i = 0; i < suites.length; i++){
+				PKCS3Alice alice = new PKCS3Alice("alice");
+				PKCS3Bob bob = new PKCS3Bob("alice");
+				alice.setCipherSuite(suites[i]);
+				bob.setCipherSuite(suites[i]);
+				alice.protocolPhaseI();
+				bob.protocolPhaseI();
+				alice.protocolPhaseII(bob.getPublicValue());
+				bob.protocolPhaseII(alice.getPublicValue());
+				assert(alice.getSecretKey().equals(bob.getSecretKey()));
+				assert(alice.getCipherSuite().getId() == suites[i]);
+				assert(bob.getCipherSuite().getId() == suites[i]);
+				assert(etalonData.equals(bob.decipher(alice.cipher(etalonData))));
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(HobesException e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
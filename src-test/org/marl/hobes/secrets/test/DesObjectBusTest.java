@@ -20,8 +20,6 @@ package org.marl.hobes.secrets.test;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 
-import javax.crypto.SealedObject;
-
 import org.marl.hobes.SourcedObject;
 import org.marl.hobes.secrets.DesObjectBus;
 import org.marl.hobes.secrets.SecretManager;
@@ -93,7 +91,7 @@ public class DesObjectBusTest {
 					etalonData,
 					SecretManager.getDefaultSecret());
 			sourcedObj = DesObjectBus.readWithSource(pis);
-			echoData = DesObjectBus.decipher( (SealedObject) sourcedObj.getPayload(), 
+			echoData = DesObjectBus.decipher(sourcedObj.getPayload(), 
 					SecretManager.getDefaultSecret());
 			assert (echoData.getClass().equals(TestObjectType.class));
 			assert (etalonData.equals(echoData));
@@ -128,7 +126,7 @@ public class DesObjectBusTest {
 					etalonData,
 					SecretManager.getDefaultSecret());
 			sourcedObj = DesObjectBus.readWithSource(sszPath);
-			echoData = DesObjectBus.decipher((SealedObject) sourcedObj.getPayload(), SecretManager.getDefaultSecret());
+			echoData = DesObjectBus.decipher(sourcedObj.getPayload(), SecretManager.getDefaultSecret());
 			assert (echoData.getClass().equals(TestObjectType.class));
 			assert (etalonData.equals(echoData));
 			System.out.println("<-- Object seems to had a nice private read/write");
@@ -0,0 +1,160 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.util.Map;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.DesChannel;
+import org.marl.hobes.secrets.GroupChannel;
+import org.marl.hobes.secrets.GroupEnvelope;
+
+/**
+ * Unit test the encrypt-once {@link GroupChannel}s.
+ */
+public class GroupChannelTest {
+
+	/**
+	 * @param args None.
+	 */
+	public static void main(String[] args) {
+		try {
+			int[] suites = { CipherSuite.AES_128_GCM, CipherSuite.AES_256_GCM, CipherSuite.DES };
+			DesChannel[] channels = new DesChannel[suites.length];
+			for (int i = 0; i < suites.length; i++){
+				channels[i] = new DesChannel("alice-" + i, 
+						CipherSuite.getInstance(suites[i]).createKey());
+			}
+			GroupChannel group = new GroupChannel("group");
+			for (DesChannel channel : channels){
+				group.addMember(channel);
+			}
+			String text = "to all members";
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing members open their envelopes
+			//
+			System.out.println("... Testing members open their envelopes");
+			Map<String,GroupEnvelope> envelopes = group.seal(text);
+			assert(envelopes.size() == channels.length);
+			GroupEnvelope first = envelopes.get("alice-0");
+			for (DesChannel channel : channels){
+				GroupEnvelope envelope = (GroupEnvelope) ObjectBus.fromBytes(
+						ObjectBus.toBytes(envelopes.get(channel.getId())));
+				assert(text.equals(GroupChannel.open(envelope, channel.getSecretKey())));
+				// the payload is sealed once
+				assert(envelopes.get(channel.getId()).getPayload() == first.getPayload());
+			}
+			assert(group.getWrapCount() == channels.length);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing wraps are cached until the key rotates
+			//
+			System.out.println("... Testing wraps are cached until the key rotates");
+			for (int i = 0; i < 10; i++){
+				envelopes = group.seal(Integer.valueOf(i));
+				assert(Integer.valueOf(i).equals(GroupChannel.open(envelopes.get("alice-1"), 
+						channels[1].getSecretKey())));
+			}
+			assert(group.getWrapCount() == channels.length);
+			group.rotate();
+			assert(group.getEpoch() == 1);
+			envelopes = group.seal(text);
+			assert(envelopes.get("alice-0").getEpoch() == 1);
+			assert(text.equals(GroupChannel.open(envelopes.get("alice-0"), channels[0].getSecretKey())));
+			assert(group.getWrapCount() == 2 * channels.length);
+			// a new key agreement of a member makes its wrap stale
+			DesChannel renewed = new DesChannel("alice-0", CipherSuite.getDefault().createKey());
+			group.addMember(renewed);
+			envelopes = group.seal(text);
+			assert(text.equals(GroupChannel.open(envelopes.get("alice-0"), renewed.getSecretKey())));
+			assert(group.getWrapCount() == 2 * channels.length + 1);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing envelopes are refused to others
+			//
+			System.out.println("... Testing envelopes are refused to others");
+			try {
+				GroupChannel.open(envelopes.get("alice-1"), renewed.getSecretKey());
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			GroupEnvelope replayed = envelopes.get("alice-1");
+			group.removeMember("alice-1");
+			assert(group.getMemberCount() == channels.length - 1);
+			assert(group.getEpoch() == 2);
+			envelopes = group.seal(text);
+			assert(! envelopes.containsKey("alice-1"));
+			// a former member can't open later payloads with its former wrap
+			try {
+				GroupChannel.open(new GroupEnvelope("group", 1, replayed.getWrappedKey(), 
+						envelopes.get("alice-2").getPayload()), channels[1].getSecretKey());
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			try {
+				group.addMember(new DesChannel("mac", 
+						CipherSuite.getInstance(CipherSuite.HMAC_SHA256).createKey()));
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing compressed groups
+			//
+			System.out.println("... Testing compressed groups");
+			StringBuilder large = new StringBuilder();
+			for (int i = 0; i < 1000; i++){
+				large.append("compressible ");
+			}
+			group = new GroupChannel("deflated", CipherSuite.getInstance(CipherSuite.AES_256_GCM), 
+					ChannelProfile.CODEC_DEFLATE);
+			group.addMember(channels[0]);
+			GroupEnvelope envelope = group.seal(large.toString()).get("alice-0");
+			assert(envelope.getPayload().length < large.length() / 4);
+			assert(large.toString().equals(GroupChannel.open(envelope, channels[0].getSecretKey())));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
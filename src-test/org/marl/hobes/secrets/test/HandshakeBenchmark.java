@@ -0,0 +1,114 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import org.marl.hobes.secrets.KeyPairPool;
+import org.marl.hobes.secrets.PKCS3Alice;
+import org.marl.hobes.secrets.PKCS3Bob;
+import org.marl.hobes.secrets.SecretFactory;
+
+/**
+ * Compares the rate of complete in-process PKCS3 handshakes, both phases 
+ * at both ends, with the Diffie-Hellman and X25519 key agreements.
+ * <p>Then compares Alice phase I latency with inline key generation, and with
+ * keys taken from a {@link KeyPairPool}, handshakes being paced as if each 
+ * waited for a network round trip.
+ */
+public class HandshakeBenchmark {
+
+	/**
+	 * @param args The number of handshakes per algorithm, defaults to 2000,
+	 * and the emulated round trip in milliseconds, defaults to 2.
+	 */
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		long roundTrip = args.length > 1 ? Long.parseLong(args[1]) : 2;
+		String[] algorithms = { SecretFactory.KEY_AGREEMENT_ALGORITHM, 
+				SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM };
+		KeyPairPool pool = new KeyPairPool(KeyPairPool.DEFAULT_DEPTH, KeyPairPool.DEFAULT_THREADS);
+		
+		try {
+			for (int pass = 0; pass < 2; pass++){
+				// first pass warms up
+				System.out.println((pass == 0) ? "... warm-up" : "... measures");
+				int count = (pass == 0) ? Math.max(1, rounds / 4) : rounds;
+				for (String algorithm : algorithms){
+					int pvLength = 0;
+					long start = System.nanoTime();
+					for (int r = 0; r < count; r++){
+						PKCS3Alice alice = new PKCS3Alice("alice");
+						alice.setKeyPairPool(null);
+						alice.setKeyAgreementAlgorithm(algorithm);
+						alice.protocolPhaseI();
+						handshake(alice);
+						pvLength = alice.getPublicValue().length;
+					}
+					long elapsed = System.nanoTime() - start;
+					System.out.println(String.format("... %-6s %8.1f handshakes/s  %6.3f ms each  %4d bytes PV", 
+							algorithm, count * 1e9 / elapsed, elapsed / 1e6 / count, pvLength));
+				}
+			}
+			
+			int paced = Math.max(1, rounds / 4);
+			for (int pass = 0; pass < 2; pass++){
+				// first pass warms up
+				System.out.println((pass == 0) ? "... Alice phase I warm-up" 
+						: "... Alice phase I, " + roundTrip + " ms round trips");
+				for (String algorithm : algorithms){
+					double inline = pacePhaseI(algorithm, null, paced, roundTrip);
+					long hits = pool.getHits();
+					double pooled = pacePhaseI(algorithm, pool, paced, roundTrip);
+					System.out.println(String.format("... %-6s inline %8.1f us  pooled %8.1f us  %5.1f%% hits", 
+							algorithm, inline, pooled, (pool.getHits() - hits) * 100.0 / paced));
+				}
+			}
+			System.out.println("--done.");
+		}
+		catch (Exception e) {
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
+	private static double pacePhaseI(String pAlgorithm, KeyPairPool pPool, int pCount, long pRoundTrip) 
+			throws Exception {
+		long phaseI = 0;
+		for (int r = 0; r < pCount; r++){
+			PKCS3Alice alice = new PKCS3Alice("alice");
+			alice.setKeyPairPool(pPool);
+			alice.setKeyAgreementAlgorithm(pAlgorithm);
+			long start = System.nanoTime();
+			alice.protocolPhaseI();
+			phaseI += System.nanoTime() - start;
+			Thread.sleep(pRoundTrip);
+			handshake(alice);
+		}
+		return phaseI / 1e3 / pCount;
+	}
+	
+	private static void handshake(PKCS3Alice pAlice) throws Exception {
+		PKCS3Bob bob = new PKCS3Bob(pAlice.getId());
+		bob.setKeyAgreementAlgorithm(pAlice.getKeyAgreementAlgorithm());
+		bob.protocolPhaseI();
+		bob.protocolPhaseII(pAlice.getPublicValue());
+		pAlice.protocolPhaseII(bob.getPublicValue());
+	}
+}
@@ -0,0 +1,159 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.security.PublicKey;
+import java.util.Arrays;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.secrets.HandshakeHello;
+import org.marl.hobes.secrets.HandshakeReply;
+import org.marl.hobes.secrets.PKCS3Alice;
+import org.marl.hobes.secrets.PKCS3Bob;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SecretManager;
+
+/**
+ * Unit test the X25519 key agreement option of the PKCS3 actors.
+ */
+public class KeyAgreementTest {
+
+	/**
+	 * @param args The unique argument is the temp directory,
+	 * which default to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String tmpDir = (args.length > 0) ? args[0] : "tmp";
+		try {
+			new File(tmpDir).mkdirs();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing the raw X25519 key format
+			//
+			System.out.println("... Testing the raw X25519 key format");
+			String prefix = tmpDir + "/test.x25519";
+			PublicKey generated = SecretFactory.createXdhPVx(prefix).getPublic();
+			assert(new File(prefix + ".PV").length() == SecretFactory.XDH_KEY_LENGTH);
+			assert(new File(prefix + ".x").length() == SecretFactory.XDH_KEY_LENGTH);
+			byte[] raw = SecretFactory.encodeXdhPublicKey(generated);
+			assert(Arrays.equals(generated.getEncoded(), 
+					SecretFactory.createXdhPublicKey(raw).getEncoded()));
+			PublicKey trusted = SecretManager.getTrustedPublicValue(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM);
+			assert(SecretManager.isTrustedPublicValue(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, 
+					trusted.getEncoded()));
+			assert(! SecretManager.isTrustedPublicValue(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, 
+					generated.getEncoded()));
+			System.out.println("<-- seems fine: " + ObjectBus.bytestoHex(SecretFactory.encodeXdhPublicKey(trusted)));
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing X25519 agreement
+			//
+			System.out.println("... Testing X25519 agreement");
+			PKCS3Alice alice = new PKCS3Alice("alice");
+			alice.setKeyAgreementAlgorithm(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM);
+			alice.protocolPhaseI();
+			PKCS3Bob bob = new PKCS3Bob(alice.getId());
+			bob.setKeyAgreementAlgorithm(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM);
+			bob.protocolPhaseI();
+			assert(Arrays.equals(bob.getPublicValue(), trusted.getEncoded()));
+			bob.protocolPhaseII(alice.getPublicValue());
+			alice.protocolPhaseII(bob.getPublicValue());
+			assert(Arrays.equals(alice.getSecretKey().getEncoded(), bob.getSecretKey().getEncoded()));
+			assert("hello".equals(bob.decipher(alice.cipher("hello"))));
+			System.out.println("<-- seems fine: " + alice.getPublicValue().length + " bytes public value");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Alice declines untrusted X25519 public values
+			//
+			System.out.println("... Testing Alice declines untrusted X25519 public values");
+			alice = new PKCS3Alice("alice");
+			alice.setKeyAgreementAlgorithm(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM);
+			alice.protocolPhaseI();
+			PKCS3Alice badBob = new PKCS3Alice("bad bob");
+			badBob.setKeyAgreementAlgorithm(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM);
+			badBob.protocolPhaseI();
+			try {
+				alice.protocolPhaseII(badBob.getPublicValue());
+				assert(false);
+			}
+			catch (HobesException e) {
+				System.out.println("... declined: " + e.getMessage());
+			}
+			try {
+				alice.setKeyAgreementAlgorithm("ECMQV");
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Bob key agreement configuration
+			//
+			System.out.println("... Testing Bob key agreement configuration");
+			File config = new File(tmpDir, "x25519-bob.properties");
+			FileWriter writer = new FileWriter(config);
+			writer.write("java.lang.String=org.marl.hobes.ctx.EchoCommand\n");
+			writer.write(PKCS3BobContext.CONFIG_AGREEMENTS + "=" 
+					+ SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM + "\n");
+			writer.close();
+			PKCS3BobContext context = new PKCS3BobContext(config.getPath());
+			alice = new PKCS3Alice("alice");
+			alice.setKeyAgreementAlgorithm(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM);
+			alice.protocolPhaseI();
+			HandshakeHello hello = new HandshakeHello(alice.getKeyAgreementAlgorithm(), alice.getPublicValue());
+			HandshakeReply reply = (HandshakeReply) context.onRequest(new SourcedObject(alice.getId(), hello));
+			alice.setProfile(reply.getProfile());
+			alice.protocolPhaseII(reply.getPublicValue(), 
+					hello.getTranscript(reply.getPublicValue(), reply.getProfile()));
+			assert("hello".equals(alice.decipher(context.onRequest(
+					new SourcedObject(alice.getId(), alice.cipher("hello"))))));
+			PKCS3Alice dhAlice = new PKCS3Alice("dh alice");
+			dhAlice.protocolPhaseI();
+			try {
+				context.onRequest(new SourcedObject(dhAlice.getId(), new HandshakeHello(dhAlice.getPublicValue())));
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.security.KeyPair;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.NamedParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.spec.DHParameterSpec;
+
+import org.marl.hobes.secrets.KeyPairPool;
+import org.marl.hobes.secrets.PKCS3Alice;
+import org.marl.hobes.secrets.PKCS3Bob;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SecretManager;
+
+/**
+ * Unit test the background generation of ephemeral key pairs.
+ */
+public class KeyPairPoolTest {
+
+	/**
+	 * @param args None.
+	 */
+	public static void main(String[] args) {
+		KeyPairPool pool = new KeyPairPool(4, 1);
+		try {
+			DHParameterSpec dhspec = SecretManager.getTrustedPublicValue().getParams();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing reserves fill in the background
+			//
+			System.out.println("... Testing reserves fill in the background");
+			pool.prime(SecretFactory.KEY_AGREEMENT_ALGORITHM, dhspec);
+			pool.prime(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, NamedParameterSpec.X25519);
+			waitFull(pool, SecretFactory.KEY_AGREEMENT_ALGORITHM, dhspec);
+			waitFull(pool, SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, NamedParameterSpec.X25519);
+			assert(pool.getGenerated() == 8);
+			// equal parameters share a reserve
+			DHParameterSpec copy = new DHParameterSpec(dhspec.getP(), dhspec.getG(), dhspec.getL());
+			assert(pool.getSize(SecretFactory.KEY_AGREEMENT_ALGORITHM, copy) == 4);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing pairs are handed out once
+			//
+			System.out.println("... Testing pairs are handed out once");
+			KeyPair[] pairs = new KeyPair[6];
+			for (int i = 0; i < pairs.length; i++){
+				pairs[i] = pool.take(SecretFactory.KEY_AGREEMENT_ALGORITHM, copy);
+			}
+			for (int i = 0; i < pairs.length; i++){
+				for (int j = i + 1; j < pairs.length; j++){
+					assert(! Arrays.equals(pairs[i].getPublic().getEncoded(), pairs[j].getPublic().getEncoded()));
+				}
+			}
+			assert(pool.getHits() + pool.getMisses() == 6);
+			assert(pool.getHits() >= 4);
+			waitFull(pool, SecretFactory.KEY_AGREEMENT_ALGORITHM, dhspec);
+			System.out.println("<-- seems fine: " + pool.getHits() + " hits, " + pool.getMisses() + " misses");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Alice agrees with pooled keys
+			//
+			System.out.println("... Testing Alice agrees with pooled keys");
+			String[] algorithms = { SecretFactory.KEY_AGREEMENT_ALGORITHM, SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM };
+			for (String algorithm : algorithms){
+				long hits = pool.getHits();
+				PKCS3Alice alice = new PKCS3Alice("alice");
+				alice.setKeyPairPool(pool);
+				alice.setKeyAgreementAlgorithm(algorithm);
+				alice.protocolPhaseI();
+				assert(pool.getHits() == hits + 1);
+				PKCS3Bob bob = new PKCS3Bob(alice.getId());
+				bob.setKeyAgreementAlgorithm(algorithm);
+				bob.protocolPhaseI();
+				bob.protocolPhaseII(alice.getPublicValue());
+				alice.protocolPhaseII(bob.getPublicValue());
+				assert(Arrays.equals(alice.getSecretKey().getEncoded(), bob.getSecretKey().getEncoded()));
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing inline generation once shut down
+			//
+			System.out.println("... Testing inline generation once shut down");
+			pool.shutdown();
+			long misses = pool.getMisses();
+			for (int i = 0; i < 6; i++){
+				assert(pool.take(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, NamedParameterSpec.X25519) != null);
+			}
+			assert(pool.getMisses() > misses);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
+	private static void waitFull(KeyPairPool pPool, String pAlgorithm, 
+			AlgorithmParameterSpec pParams) throws InterruptedException {
+		for (int i = 0; (i < 500) && (pPool.getSize(pAlgorithm, pParams) < pPool.getDepth()); i++){
+			Thread.sleep(10);
+		}
+		assert(pPool.getSize(pAlgorithm, pParams) == pPool.getDepth());
+	}
+}
@@ -0,0 +1,234 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.crypto.SealedObject;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.http.HobesHttpServer;
+import org.marl.hobes.http.PKCS3AliceHttp;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.DesObjectBus;
+import org.marl.hobes.secrets.SealedFrame;
+
+/**
+ * Unit test the authenticate-only {@link CipherSuite#HMAC_SHA256} channels.
+ */
+public class MacChannelTest {
+
+	/**
+	 * @param args The unique argument is the temp directory,
+	 * which default to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String tmpDir = (args.length > 0) ? args[0] : "tmp";
+		HobesHttpServer server = null;
+		try {
+			new File(tmpDir).mkdirs();
+			CipherSuite suite = CipherSuite.getInstance(CipherSuite.HMAC_SHA256);
+			SecretKey key = suite.createKey();
+			String text = "authenticated, not secret";
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing frames round trip in clear
+			//
+			System.out.println("... Testing frames round trip in clear");
+			assert(suite.isMacOnly() && ! suite.isAuthenticated());
+			assert(CipherSuite.getInstance(key) == suite);
+			for (int codec : ChannelProfile.SUPPORTED_CODECS){
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				SealedFrame.write(bos, "alice", text, key, codec);
+				SealedFrame frame = SealedFrame.read(new ByteArrayInputStream(bos.toByteArray()));
+				assert(frame.getCipherSuite() == suite);
+				assert("alice".equals(frame.getSource()));
+				assert(text.equals(frame.getObject(key)));
+			}
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			SealedFrame.write(bos, "alice", text, key);
+			byte[] bytes = bos.toByteArray();
+			assert(new String(bytes, StandardCharsets.ISO_8859_1).contains(text));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing tampered frames are refused
+			//
+			System.out.println("... Testing tampered frames are refused");
+			int at = new String(bytes, StandardCharsets.ISO_8859_1).indexOf(text);
+			bytes[at] ^= 1;
+			try {
+				SealedFrame.read(new ByteArrayInputStream(bytes)).getObject(key);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			bytes[at] ^= 1;
+			try {
+				SealedFrame.read(new ByteArrayInputStream(bytes)).getObject(suite.createKey());
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			try {
+				SealedFrame.read(new ByteArrayInputStream(bytes, 0, bytes.length - 4)).getObject(key);
+				assert(false);
+			}
+			catch (HobesTransportException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing sealed objects and epochs
+			//
+			System.out.println("... Testing sealed objects and epochs");
+			SealedObject sealed = DesObjectBus.cipher(text, key);
+			assert(text.equals(DesObjectBus.decipher(sealed, key)));
+			SecretKey rekeyed = suite.rekey(key, 2);
+			sealed = DesObjectBus.cipher(text, rekeyed, 2);
+			assert(DesObjectBus.getKeyEpoch(sealed) == 2);
+			assert(text.equals(DesObjectBus.decipher(sealed, rekeyed)));
+			try {
+				DesObjectBus.decipher(sealed, key);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			// epochs are authenticated, in sealed objects and frames
+			int epoch = 0x5A5A5A5A;
+			bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(DesObjectBus.cipher(text, key, epoch));
+			oos.close();
+			bytes = relabel(bos.toByteArray(), epoch);
+			sealed = (SealedObject) new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+			assert(DesObjectBus.getKeyEpoch(sealed) == epoch + 1);
+			try {
+				DesObjectBus.decipher(sealed, key);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			bos = new ByteArrayOutputStream();
+			SealedFrame.write(bos, "alice", text, key, ChannelProfile.CODEC_NONE, epoch, false);
+			bytes = relabel(bos.toByteArray(), epoch);
+			try {
+				SealedFrame.read(new ByteArrayInputStream(bytes)).getObject(key);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing the suite is only negotiated when both ends want it
+			//
+			System.out.println("... Testing the suite is only negotiated when both ends want it");
+			File config = new File(tmpDir, "mac-bob.properties");
+			FileWriter writer = new FileWriter(config);
+			writer.write("java.lang.String=org.marl.hobes.ctx.EchoCommand\n");
+			writer.write(PKCS3BobContext.CONFIG_SUITES + "=3,1,2,0\n");
+			writer.close();
+			server = new HobesHttpServer(0);
+			server.mountBob(HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob", new PKCS3BobContext(null));
+			server.mountBob(HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob-trusted", 
+					new PKCS3BobContext(config.getPath()));
+			server.start();
+			String base = "http://localhost:" + server.getAddress().getPort() 
+					+ HobesHttpServer.DEFAULT_CONTEXT_PATH;
+			int[] trusted = { CipherSuite.HMAC_SHA256, CipherSuite.AES_128_GCM, 
+					CipherSuite.AES_256_GCM, CipherSuite.DES };
+			
+			PKCS3AliceHttp alice = new PKCS3AliceHttp("alice", new URL(base + "/bob-trusted"));
+			alice.completeDiffieHellmanProtocol();
+			assert(alice.getProfile().getSuite() == CipherSuite.AES_128_GCM);
+			alice.setOfferedSuites(trusted);
+			alice.completeDiffieHellmanProtocol();
+			assert(alice.getProfile().getSuite() == CipherSuite.HMAC_SHA256);
+			assert(alice.getCipherSuite().isMacOnly());
+			assert(text.equals(alice.post(text, true)));
+			
+			// Alice refuses the suite unless she offered it
+			try {
+				new ChannelProfile(CipherSuite.HMAC_SHA256, ChannelProfile.CODEC_NONE, 
+						ChannelProfile.FRAMING_KEY_EPOCHS).checkOffered(new PKCS3AliceHttp("alice", 
+								new URL(base + "/bob")).getOfferedSuites(), 
+								ChannelProfile.SUPPORTED_CODECS, ChannelProfile.SUPPORTED_FRAMINGS);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			
+			alice = new PKCS3AliceHttp("alice", new URL(base + "/bob"));
+			alice.setOfferedSuites(trusted);
+			alice.completeDiffieHellmanProtocol();
+			assert(alice.getProfile().getSuite() == CipherSuite.AES_128_GCM);
+			assert(text.equals(alice.post(text, true)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			if (server != null){
+				server.stop(0);
+			}
+		}
+	}
+	
+	// moves the first occurrence of an epoch to the next one
+	private static byte[] relabel(byte[] pBytes, int pEpoch) {
+		for (int i = 0; i + 4 <= pBytes.length; i++){
+			if (ByteBuffer.wrap(pBytes, i, 4).getInt() == pEpoch){
+				ByteBuffer.wrap(pBytes).putInt(i, pEpoch + 1);
+				return pBytes;
+			}
+		}
+		throw new AssertionError("epoch not found");
+	}
+}
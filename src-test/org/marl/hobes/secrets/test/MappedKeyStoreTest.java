@@ -0,0 +1,216 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.security.KeyPair;
+import java.security.spec.NamedParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.secrets.CipherCache;
+import org.marl.hobes.secrets.HandshakeHello;
+import org.marl.hobes.secrets.HandshakeReply;
+import org.marl.hobes.secrets.MappedKeyStore;
+import org.marl.hobes.secrets.PKCS3Alice;
+import org.marl.hobes.secrets.PKCS3Bob;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SecretManager;
+import org.marl.hobes.secrets.TrustedKeyEntry;
+
+/**
+ * Unit test the memory-mapped store of trusted keys per key id.
+ */
+public class MappedKeyStoreTest {
+
+	private static final long DAY = 24 * 3600 * 1000L;
+	
+	/**
+	 * @param args The unique argument is the temp directory,
+	 * which default to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String tmpDir = (args.length > 0) ? args[0] : "tmp";
+		try {
+			new File(tmpDir).mkdirs();
+			long now = System.currentTimeMillis();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing lookups by key id
+			//
+			System.out.println("... Testing lookups by key id");
+			List<TrustedKeyEntry> entries = new ArrayList<TrustedKeyEntry>();
+			for (int tenant = 0; tenant < 500; tenant++){
+				entries.add(createEntry("tenant" + tenant + "/eu-west/1", now - DAY, now + DAY));
+			}
+			// a rotation, both keys valid during the overlap
+			entries.add(createEntry("acme/us-east/1", now - 2 * DAY, now + DAY));
+			entries.add(createEntry("acme/us-east/2", now - DAY, now + 2 * DAY));
+			entries.add(createEntry("acme/us-east/3", now + DAY, now + 3 * DAY));
+			KeyPair dhKeys = CipherCache.getKeyPairGenerator(SecretFactory.KEY_AGREEMENT_ALGORITHM, 
+					SecretManager.getTrustedPublicValue().getParams()).generateKeyPair();
+			entries.add(new TrustedKeyEntry("acme/dh", SecretFactory.KEY_AGREEMENT_ALGORITHM, 
+					dhKeys.getPublic(), dhKeys.getPrivate(), now - DAY, Long.MAX_VALUE));
+			String bobPath = tmpDir + "/bob.keys";
+			String alicePath = tmpDir + "/alice.keys";
+			MappedKeyStore.create(bobPath, entries, true);
+			MappedKeyStore.create(alicePath, entries, false);
+			
+			MappedKeyStore bobStore = new MappedKeyStore(bobPath);
+			assert(bobStore.getSize() == entries.size());
+			for (TrustedKeyEntry entry : entries){
+				TrustedKeyEntry found = bobStore.get(entry.getKeyId());
+				assert(found.getKeyId().equals(entry.getKeyId()));
+				assert(found.getAlgorithm().equals(entry.getAlgorithm()));
+				assert(Arrays.equals(found.getPublicValue().getEncoded(), 
+						entry.getPublicValue().getEncoded()));
+				assert(Arrays.equals(found.getPrivateValue().getEncoded(), 
+						entry.getPrivateValue().getEncoded()));
+				assert(found.getNotBefore() == entry.getNotBefore());
+				assert(found.getNotAfter() == entry.getNotAfter());
+				assert(bobStore.get(entry.getKeyId()) == found);
+			}
+			assert(bobStore.get("nobody/1") == null);
+			MappedKeyStore aliceStore = new MappedKeyStore(alicePath);
+			assert(aliceStore.get("acme/us-east/2").getPrivateValue() == null);
+			assert(aliceStore.getDecodedSize() == 1);
+			try {
+				entries.add(entries.get(0));
+				MappedKeyStore.create(tmpDir + "/duplicated.keys", entries, true);
+				assert(false);
+			}
+			catch (HobesDataException e) {
+				entries.remove(entries.size() - 1);
+			}
+			System.out.println("<-- seems fine: " + new File(bobPath).length() + " bytes");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing key rotation windows
+			//
+			System.out.println("... Testing key rotation windows");
+			assert(aliceStore.select("acme/us-east/", now).equals("acme/us-east/2"));
+			assert(aliceStore.select("acme/us-east/", now - 3 * DAY / 2).equals("acme/us-east/1"));
+			assert(aliceStore.select("acme/us-east/", now + 5 * DAY / 2).equals("acme/us-east/3"));
+			assert(aliceStore.select("acme/us-east/", now + 4 * DAY) == null);
+			assert(bobStore.get("acme/us-east/1").isValid(now));
+			assert(! bobStore.get("acme/us-east/3").isValid(now));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing handshakes naming a key id
+			//
+			System.out.println("... Testing handshakes naming a key id");
+			File config = new File(tmpDir, "keystore-bob.properties");
+			FileWriter writer = new FileWriter(config);
+			writer.write("java.lang.String=org.marl.hobes.ctx.EchoCommand\n");
+			writer.write(PKCS3BobContext.CONFIG_KEYSTORE + "=" + bobPath + "\n");
+			writer.close();
+			PKCS3BobContext context = new PKCS3BobContext(config.getPath());
+			for (String keyId : new String[]{"acme/us-east/1", "acme/us-east/2", "tenant42/eu-west/1", "acme/dh"}){
+				PKCS3Alice alice = new PKCS3Alice("alice " + keyId);
+				alice.setTrustedKey(aliceStore, keyId);
+				alice.protocolPhaseI();
+				HandshakeHello hello = new HandshakeHello(alice.getKeyAgreementAlgorithm(), 
+						alice.getKeyId(), alice.getPublicValue());
+				HandshakeReply reply = (HandshakeReply) context.onRequest(new SourcedObject(alice.getId(), hello));
+				alice.setProfile(reply.getProfile());
+				alice.protocolPhaseII(reply.getPublicValue(), 
+						hello.getTranscript(reply.getPublicValue(), reply.getProfile()));
+				assert("hello".equals(alice.decipher(context.onRequest(
+						new SourcedObject(alice.getId(), alice.cipher("hello"))))));
+			}
+			// the default keys aren't those of the key id
+			PKCS3Alice alice = new PKCS3Alice("alice");
+			alice.setTrustedKey(aliceStore, "acme/dh");
+			alice.protocolPhaseI();
+			PKCS3Bob bob = new PKCS3Bob(alice.getId());
+			bob.protocolPhaseI();
+			try {
+				alice.protocolPhaseII(bob.getPublicValue());
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			for (String keyId : new String[]{"acme/us-east/3", "nobody/1"}){
+				alice = new PKCS3Alice("alice");
+				alice.setKeyAgreementAlgorithm(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM);
+				alice.protocolPhaseI();
+				try {
+					context.onRequest(new SourcedObject(alice.getId(), 
+							new HandshakeHello(alice.getKeyAgreementAlgorithm(), keyId, alice.getPublicValue())));
+					assert(false);
+				}
+				catch (HobesSecurityException e) {
+					System.out.println("... refused: " + e.getMessage());
+				}
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing lookup costs
+			//
+			System.out.println("... Testing lookup costs");
+			MappedKeyStore coldStore = new MappedKeyStore(bobPath);
+			long start = System.nanoTime();
+			for (TrustedKeyEntry entry : entries){
+				coldStore.get(entry.getKeyId());
+			}
+			long cold = (System.nanoTime() - start) / entries.size();
+			start = System.nanoTime();
+			for (int i = 0; i < 100; i++){
+				for (TrustedKeyEntry entry : entries){
+					coldStore.get(entry.getKeyId());
+				}
+			}
+			long warm = (System.nanoTime() - start) / (100 * entries.size());
+			System.out.println("<-- seems fine: first lookup " + cold / 1000 + " us, then " + warm + " ns");
+			System.out.println();
+			
+			new File(bobPath).delete();
+			new File(alicePath).delete();
+			config.delete();
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+	
+	private static TrustedKeyEntry createEntry(String pKeyId, long pNotBefore, long pNotAfter) 
+			throws HobesSecurityException {
+		KeyPair keys = CipherCache.getKeyPairGenerator(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, 
+				NamedParameterSpec.X25519).generateKeyPair();
+		return new TrustedKeyEntry(pKeyId, SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, 
+				keys.getPublic(), keys.getPrivate(), pNotBefore, pNotAfter);
+	}
+}
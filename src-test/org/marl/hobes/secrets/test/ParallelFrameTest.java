@@ -0,0 +1,216 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.DesObjectBus;
+import org.marl.hobes.secrets.SealedFrame;
+
+/**
+ * Unit test {@link org.marl.hobes.secrets.SealedFrame}s sealed as parallel chunks.
+ */
+public class ParallelFrameTest {
+
+	public static void main(String[] args) {
+		
+		try {
+			SecretKey key = CipherSuite.getDefault().createKey();
+			ChannelProfile parallel = new ChannelProfile(CipherSuite.DEFAULT, 
+					ChannelProfile.CODEC_NONE, ChannelProfile.FRAMING_PARALLEL_CHUNKS);
+			ChannelProfile sequential = new ChannelProfile(CipherSuite.DEFAULT, 
+					ChannelProfile.CODEC_NONE, ChannelProfile.FRAMING_KEY_EPOCHS);
+			byte[] large = new byte[SealedFrame.PARALLEL_THRESHOLD * 4 + 12345];
+			for (int i = 0; i < large.length; i++){
+				large[i] = (byte) (i * 31);
+			}
+			ByteArrayOutputStream bos;
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing large payloads round trip
+			//
+			System.out.println("... Testing large payloads round trip");
+			bos = new ByteArrayOutputStream();
+			DesObjectBus.write(bos, large, key, parallel);
+			byte[] frame = bos.toByteArray();
+			assert(SealedFrame.read(new ByteArrayInputStream(frame)).isParallel());
+			assert(Arrays.equals(large, 
+					(byte[]) DesObjectBus.read(new ByteArrayInputStream(frame), key)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing small payloads and former framings stay sequential
+			//
+			System.out.println("... Testing small payloads and former framings stay sequential");
+			bos = new ByteArrayOutputStream();
+			DesObjectBus.write(bos, "small", key, parallel);
+			assert(! SealedFrame.read(new ByteArrayInputStream(bos.toByteArray())).isParallel());
+			assert("small".equals(DesObjectBus.read(new ByteArrayInputStream(bos.toByteArray()), key)));
+			bos = new ByteArrayOutputStream();
+			DesObjectBus.write(bos, large, key, sequential);
+			assert(! SealedFrame.read(new ByteArrayInputStream(bos.toByteArray())).isParallel());
+			assert(Arrays.equals(large, 
+					(byte[]) DesObjectBus.read(new ByteArrayInputStream(bos.toByteArray()), key)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing sources, epochs and codecs with parallel chunks
+			//
+			System.out.println("... Testing sources, epochs and codecs with parallel chunks");
+			bos = new ByteArrayOutputStream();
+			SealedFrame.write(bos, "alice", large, key, ChannelProfile.CODEC_DEFLATE, 7, true);
+			SealedFrame sealed = SealedFrame.read(new ByteArrayInputStream(bos.toByteArray()));
+			assert("alice".equals(sealed.getSource()));
+			assert(sealed.getKeyEpoch() == 7);
+			// the pattern deflates below the threshold
+			assert(! sealed.isParallel());
+			assert(Arrays.equals(large, (byte[]) sealed.getObject(key)));
+			byte[] random = new byte[large.length];
+			new java.util.Random(17).nextBytes(random);
+			bos = new ByteArrayOutputStream();
+			SealedFrame.write(bos, "alice", random, key, ChannelProfile.CODEC_DEFLATE, 7, true);
+			sealed = SealedFrame.read(new ByteArrayInputStream(bos.toByteArray()));
+			assert(sealed.isParallel());
+			assert(Arrays.equals(random, (byte[]) sealed.getObject(key)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing tampered chunks are refused
+			//
+			System.out.println("... Testing tampered chunks are refused");
+			byte[] tampered = frame.clone();
+			tampered[tampered.length / 2] ^= 1;
+			try {
+				DesObjectBus.read(new ByteArrayInputStream(tampered), key);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing truncated frames are refused
+			//
+			System.out.println("... Testing truncated frames are refused");
+			byte[] truncated = Arrays.copyOf(frame, frame.length - SealedFrame.PARALLEL_CHUNK_SIZE);
+			try {
+				DesObjectBus.read(new ByteArrayInputStream(truncated), key);
+				assert(false);
+			}
+			catch (HobesTransportException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing forged chunk headers are refused
+			//
+			System.out.println("... Testing forged chunk headers are refused");
+			// magic, flags and suite, then the chunk size and count
+			int sizeOffset = SealedFrame.MAGIC.length + 2;
+			assert(ByteBuffer.wrap(frame).getInt(sizeOffset) == SealedFrame.PARALLEL_CHUNK_SIZE);
+			for (int[] forged : new int[][] { 
+					{ Integer.MAX_VALUE, 4 }, { SealedFrame.PARALLEL_CHUNK_SIZE / 2, 8 }, 
+					{ SealedFrame.PARALLEL_CHUNK_SIZE, Integer.MAX_VALUE }, { SealedFrame.PARALLEL_CHUNK_SIZE, -1 } }){
+				tampered = frame.clone();
+				ByteBuffer.wrap(tampered).putInt(sizeOffset, forged[0]).putInt(sizeOffset + 4, forged[1]);
+				try {
+					SealedFrame.read(new ByteArrayInputStream(tampered));
+					assert(false);
+				}
+				catch (HobesDataException e) {
+					System.out.println("... refused: " + e.getMessage());
+				}
+			}
+			// more chunks than the frame holds end with it
+			tampered = frame.clone();
+			ByteBuffer.wrap(tampered).putInt(sizeOffset + 4, SealedFrame.MAX_PARALLEL_CHUNKS);
+			try {
+				DesObjectBus.read(new ByteArrayInputStream(tampered), key);
+				assert(false);
+			}
+			catch (HobesTransportException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing wrong keys are refused
+			//
+			System.out.println("... Testing wrong keys are refused");
+			try {
+				DesObjectBus.read(new ByteArrayInputStream(frame), CipherSuite.getDefault().createKey());
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing parallel and sequential throughput
+			//
+			System.out.println("... Testing parallel and sequential throughput, " 
+					+ Runtime.getRuntime().availableProcessors() + " processors");
+			for (ChannelProfile profile : new ChannelProfile[] { sequential, parallel, sequential, parallel }){
+				long start = System.nanoTime();
+				for (int i = 0; i < 10; i++){
+					bos = new ByteArrayOutputStream(large.length + 4096);
+					DesObjectBus.write(bos, large, key, profile);
+					DesObjectBus.read(new ByteArrayInputStream(bos.toByteArray()), key);
+				}
+				System.out.println("... framing " + profile.getFraming() + ": " 
+						+ ((System.nanoTime() - start) / 10000000) + " ms per round trip");
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+import java.util.Arrays;
+
+import javax.crypto.SealedObject;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.http.HobesHttpServer;
+import org.marl.hobes.http.PKCS3AliceHttp;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.HandshakeHello;
+import org.marl.hobes.secrets.HandshakeReply;
+import org.marl.hobes.secrets.KeyEpoch;
+import org.marl.hobes.secrets.KeyEpochs;
+import org.marl.hobes.secrets.PKCS3Alice;
+import org.marl.hobes.secrets.SealedFrame;
+
+/**
+ * Unit test the in-band rekeying of channels.
+ */
+public class RekeyTest {
+
+	/**
+	 * @param args The unique argument is the temp directory,
+	 * which default to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String tmpDir = (args.length > 0) ? args[0] : "tmp";
+		HobesHttpServer server = null;
+		try {
+			new File(tmpDir).mkdirs();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing both ends derive the same keys
+			//
+			System.out.println("... Testing both ends derive the same keys");
+			SecretKey agreed = CipherSuite.getDefault().createKey();
+			KeyEpochs sender = new KeyEpochs(agreed, 0);
+			KeyEpochs receiver = new KeyEpochs(agreed, 0);
+			sender.setPolicy(3, 0, 1000);
+			for (int i = 0; i < 10; i++){
+				KeyEpoch key = sender.next(i);
+				assert(key.getEpoch() == i / 3);
+				assert(Arrays.equals(key.getKey().getEncoded(), 
+						receiver.getKey(key.getEpoch(), i).getEncoded()));
+				receiver.accept(key.getEpoch(), i);
+			}
+			assert(receiver.getEpoch() == 3);
+			assert(! Arrays.equals(agreed.getEncoded(), receiver.getKey(3, 10).getEncoded()));
+			// time based, with an overlap for messages in flight
+			sender.setPolicy(0, 100, 50);
+			receiver.setPolicy(0, 0, 50);
+			assert(sender.next(100).getEpoch() == 3);
+			assert(sender.next(209).getEpoch() == 4);
+			receiver.accept(4, 210);
+			receiver.getKey(3, 259);
+			expectRefused(receiver, 3, 260);
+			// too far ahead, or forged epochs don't move the receiver
+			expectRefused(receiver, 4 + KeyEpochs.MAX_SKIPPED_EPOCHS + 1, 260);
+			receiver.getKey(20, 260);
+			assert(receiver.getEpoch() == 4);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing messages interleaved across several epochs
+			//
+			System.out.println("... Testing messages interleaved across several epochs");
+			sender = new KeyEpochs(agreed, 0);
+			receiver = new KeyEpochs(agreed, 0);
+			sender.setPolicy(1, 0, 50);
+			receiver.setPolicy(0, 0, 50);
+			KeyEpoch[] sent = new KeyEpoch[KeyEpochs.MAX_RECENT_EPOCHS + 4];
+			for (int i = 0; i < sent.length; i++){
+				sent[i] = sender.next(0);
+			}
+			// the last message arrives first, the others were in flight
+			int last = sent.length - 1;
+			receiver.getKey(last, 10);
+			receiver.accept(last, 10);
+			for (int i = last - 1; i >= last - KeyEpochs.MAX_RECENT_EPOCHS; i--){
+				assert(Arrays.equals(sent[i].getKey().getEncoded(), 
+						receiver.getKey(sent[i].getEpoch(), 20).getEncoded()));
+			}
+			// the recent epochs are bounded, and so is their overlap
+			expectRefused(receiver, last - KeyEpochs.MAX_RECENT_EPOCHS - 1, 20);
+			expectRefused(receiver, last - 2, 60);
+			assert(receiver.getEpoch() == last);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing channels name the epoch of their messages
+			//
+			System.out.println("... Testing channels name the epoch of their messages");
+			PKCS3Alice alice = new PKCS3Alice("alice");
+			alice.protocolPhaseI();
+			PKCS3BobContext context = new PKCS3BobContext(null);
+			HandshakeHello hello = new HandshakeHello(alice.getPublicValue());
+			HandshakeReply reply = (HandshakeReply) context.onRequest(new SourcedObject(alice.getId(), hello));
+			assert(reply.getProfile().getFraming() >= ChannelProfile.FRAMING_KEY_EPOCHS);
+			alice.setProfile(reply.getProfile());
+			alice.protocolPhaseII(reply.getPublicValue(), 
+					hello.getTranscript(reply.getPublicValue(), reply.getProfile()));
+			alice.setRekeyPolicy(4, 0, KeyEpochs.DEFAULT_OVERLAP);
+			for (int i = 0; i < 20; i++){
+				SealedObject request = alice.cipher("hello " + i);
+				assert(("hello " + i).equals(alice.decipher(context.onRequest(
+						new SourcedObject(alice.getId(), request)))));
+			}
+			assert(alice.getKeyEpoch() == 4);
+			// a message still in flight when Bob moves on
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			alice.writeWithSource(alice.getId(), bos, "in flight");
+			for (int i = 0; i < 3; i++){
+				alice.cipher("skipped");
+			}
+			assert("moved on".equals(alice.decipher(context.onRequest(
+					new SourcedObject(alice.getId(), alice.cipher("moved on"))))));
+			assert(alice.getKeyEpoch() == 6);
+			SealedFrame frame = SealedFrame.read(new ByteArrayInputStream(bos.toByteArray()));
+			assert(frame.getKeyEpoch() == 5);
+			assert("in flight".equals(alice.decipher(context.onRequest(
+					new SourcedObject(alice.getId(), frame)))));
+			System.out.println("<-- seems fine: epoch " + alice.getKeyEpoch());
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing Alice follows Bob rekeying
+			//
+			System.out.println("... Testing Alice follows Bob rekeying");
+			File config = new File(tmpDir, "rekey-bob.properties");
+			FileWriter writer = new FileWriter(config);
+			writer.write("java.lang.String=org.marl.hobes.ctx.EchoCommand\n");
+			writer.write(PKCS3BobContext.CONFIG_REKEY_MESSAGES + "=2\n");
+			writer.close();
+			server = new HobesHttpServer(0);
+			server.mountBob(HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob", new PKCS3BobContext(config.getPath()));
+			server.start();
+			URL bobUrl = new URL("http://localhost:" + server.getAddress().getPort() 
+					+ HobesHttpServer.DEFAULT_CONTEXT_PATH + "/bob");
+			PKCS3AliceHttp httpAlice = new PKCS3AliceHttp("http alice", bobUrl);
+			httpAlice.completeDiffieHellmanProtocol();
+			for (int i = 0; i < 10; i++){
+				assert(("hello " + i).equals(httpAlice.post("hello " + i, true)));
+			}
+			// Bob answered the 3rd message with epoch 1, the 5th with epoch 2...
+			assert(httpAlice.getKeyEpoch() == 4);
+			Object[] echoes = httpAlice.postBatch(new Object[] { "one", "two" });
+			assert("one".equals(echoes[0]) && "two".equals(echoes[1]));
+			System.out.println("<-- seems fine: epoch " + httpAlice.getKeyEpoch());
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing the cost of rekeying
+			//
+			System.out.println("... Testing the cost of rekeying");
+			KeyEpochs epochs = new KeyEpochs(agreed, 0);
+			epochs.setPolicy(1, 0, 0);
+			long start = System.nanoTime();
+			for (int i = 0; i < 10000; i++){
+				epochs.next(i);
+			}
+			System.out.println("<-- seems fine: " + (System.nanoTime() - start) / 10000 + " ns per new key");
+			System.out.println();
+			
+			config.delete();
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			if (server != null){
+				server.stop(0);
+			}
+		}
+	}
+	
+	private static void expectRefused(KeyEpochs pEpochs, int pEpoch, long pNow) {
+		try {
+			pEpochs.getKey(pEpoch, pNow);
+			assert(false);
+		}
+		catch (HobesSecurityException e) {
+			// out of window
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.secrets.DesObjectBus;
+import org.marl.hobes.secrets.SealedFrame;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SecretManager;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Unit test the {@link org.marl.hobes.secrets.SealedFrame} format, through
+ * {@link org.marl.hobes.secrets.DesObjectBus}.
+ */
+public class SealedFrameTest {
+
+	public static void main(String[] args) {
+		
+		try {
+			TestObjectType etalonData = TestPreferences.getTestObject();
+			SecretKey key = SecretManager.getDefaultSecret();
+			ByteArrayOutputStream bos;
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing frames round trip
+			//
+			System.out.println("... Testing frames round trip");
+			bos = new ByteArrayOutputStream();
+			DesObjectBus.write(bos, etalonData, key);
+			byte[] frame = bos.toByteArray();
+			assert(SealedFrame.isSealedFrame(frame));
+			assert(etalonData.equals(DesObjectBus.read(new ByteArrayInputStream(frame), key)));
+			bos = new ByteArrayOutputStream();
+			DesObjectBus.writeWithSource("alice", bos, etalonData, key);
+			SourcedObject sourced = DesObjectBus.readWithSource(
+					new ByteArrayInputStream(bos.toByteArray()), key);
+			assert("alice".equals(sourced.getSource()));
+			assert(etalonData.equals(sourced.getPayload()));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing blind read, then decipher
+			//
+			System.out.println("... Testing blind read, then decipher");
+			sourced = DesObjectBus.readWithSource(new ByteArrayInputStream(bos.toByteArray()));
+			assert("alice".equals(sourced.getSource()));
+			assert(sourced.getPayload() instanceof SealedFrame);
+			assert(etalonData.equals(DesObjectBus.decipher(sourced.getPayload(), key)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing former streams are still read
+			//
+			System.out.println("... Testing former streams are still read");
+			byte[] legacy = ObjectBus.toBytes(DesObjectBus.cipher(etalonData, key));
+			assert(! SealedFrame.isSealedFrame(legacy));
+			assert(etalonData.equals(DesObjectBus.read(new ByteArrayInputStream(legacy), key)));
+			bos = new ByteArrayOutputStream();
+			ObjectBus.writeWithSource("alice", bos, DesObjectBus.cipher(etalonData, key));
+			byte[] legacySourced = bos.toByteArray();
+			sourced = DesObjectBus.readWithSource(new ByteArrayInputStream(legacySourced), key);
+			assert("alice".equals(sourced.getSource()));
+			assert(etalonData.equals(sourced.getPayload()));
+			sourced = DesObjectBus.readWithSource(new ByteArrayInputStream(legacySourced));
+			assert(etalonData.equals(DesObjectBus.decipher(sourced.getPayload(), key)));
+			System.out.println("... frame is " + frame.length + " bytes, former stream " 
+					+ legacy.length + " bytes");
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing large objects span several chunks
+			//
+			System.out.println("... Testing large objects span several chunks");
+			byte[] large = new byte[1 << 20];
+			for (int i = 0; i < large.length; i++){
+				large[i] = (byte) (i * 31);
+			}
+			bos = new ByteArrayOutputStream();
+			DesObjectBus.write(bos, large, key);
+			assert(bos.size() > large.length);
+			assert(Arrays.equals(large, 
+					(byte[]) DesObjectBus.read(new ByteArrayInputStream(bos.toByteArray()), key)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing truncated frames are refused
+			//
+			System.out.println("... Testing truncated frames are refused");
+			byte[] truncated = Arrays.copyOf(bos.toByteArray(), bos.size() - 4);
+			try {
+				DesObjectBus.read(new ByteArrayInputStream(truncated), key);
+				assert(false);
+			}
+			catch (HobesTransportException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing wrong keys are refused
+			//
+			System.out.println("... Testing wrong keys are refused");
+			try {
+				DesObjectBus.read(new ByteArrayInputStream(frame), SecretFactory.createSecretKey());
+				assert(false);
+			}
+			catch (HobesException e) {
+				// garbage may also fail deserialization
+				System.out.println("... refused: " + e.getMessage());
+			}
+			assert(etalonData.equals(DesObjectBus.read(new ByteArrayInputStream(frame), key)));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,323 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.SealedStore;
+import org.marl.hobes.secrets.SecretManager;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Unit test the encrypted, append-only {@link org.marl.hobes.secrets.SealedStore}.
+ */
+public class SealedStoreTest {
+
+	/**
+	 * @param args The unique argument is the temp directory,
+	 * which default to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String tmpDir = (args.length > 0) ? args[0] : "tmp";
+		try {
+			File dir = new File(tmpDir, "sealed-store");
+			if (dir.isDirectory()){
+				for (File file : dir.listFiles()){
+					file.delete();
+				}
+			}
+			SecretKey key = CipherSuite.getDefault().createKey();
+			TestObjectType etalonData = TestPreferences.getTestObject();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing records round trip
+			//
+			System.out.println("... Testing records round trip");
+			SealedStore store = new SealedStore(dir, key);
+			store.put("etalon", etalonData);
+			store.put("greeting", "hello");
+			store.put("greeting", "hello again");
+			assert(etalonData.equals(store.get("etalon")));
+			assert("hello again".equals(store.get("greeting")));
+			assert(store.get("missing") == null);
+			assert(store.remove("greeting"));
+			assert(! store.remove("greeting"));
+			assert(store.get("greeting") == null);
+			assert(store.size() == 1);
+			assert(store.getLiveBytes() < store.getTotalBytes());
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing the index is rebuilt when reopened
+			//
+			System.out.println("... Testing the index is rebuilt when reopened");
+			long live = store.getLiveBytes();
+			store.close();
+			store = new SealedStore(dir, key);
+			assert(store.size() == 1);
+			assert(store.getLiveBytes() == live);
+			assert(etalonData.equals(store.get("etalon")));
+			assert(store.get("greeting") == null);
+			store.close();
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing records span several segments
+			//
+			System.out.println("... Testing records span several segments");
+			store = new SealedStore(dir, key, 4096);
+			for (int i = 0; i < 100; i++){
+				store.put("record" + i, new byte[100 + i]);
+			}
+			assert(store.getSegmentCount() > 1);
+			for (int i = 0; i < 100; i++){
+				assert(((byte[]) store.get("record" + i)).length == 100 + i);
+			}
+			System.out.println("... " + store.getSegmentCount() + " segments");
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing tampered records are refused, and only them
+			//
+			System.out.println("... Testing tampered records are refused, and only them");
+			store.put("tampered", "original");
+			store.put("neighbour", "intact");
+			store.sync();
+			File last = lastSegment(dir);
+			byte[] content = Files.readAllBytes(last.toPath());
+			// a ciphertext byte, past the key and nonce of the record
+			int offset = indexOf(content, "tampered".getBytes()) + "tampered".length() + 16;
+			flip(last, offset);
+			try {
+				store.get("tampered");
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			assert("intact".equals(store.get("neighbour")));
+			store.close();
+			// records are authenticated when reopened too
+			try {
+				new SealedStore(dir, key, 4096);
+				assert(false);
+			}
+			catch (HobesDataException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			assert(last.length() == content.length);
+			flip(last, offset);
+			store = new SealedStore(dir, key, 4096);
+			assert("original".equals(store.get("tampered")));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing forged tombstones are discarded
+			//
+			System.out.println("... Testing forged tombstones are discarded");
+			store.close();
+			RandomAccessFile raf = new RandomAccessFile(last, "rw");
+			byte[] forgedKey = "neighbour".getBytes();
+			raf.seek(raf.length());
+			raf.writeInt(3 + forgedKey.length + CipherSuite.GCM_NONCE_LENGTH + CipherSuite.GCM_TAG_LENGTH / 8);
+			raf.writeByte(1);
+			raf.writeShort(forgedKey.length);
+			raf.write(forgedKey);
+			raf.write(new byte[CipherSuite.GCM_NONCE_LENGTH + CipherSuite.GCM_TAG_LENGTH / 8]);
+			raf.close();
+			store = new SealedStore(dir, key, 4096);
+			assert("intact".equals(store.get("neighbour")));
+			assert(last.length() == content.length);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing former segments are never truncated
+			//
+			System.out.println("... Testing former segments are never truncated");
+			store.close();
+			File first = dir.listFiles()[0];
+			for (File file : dir.listFiles()){
+				if (file.getName().compareTo(first.getName()) < 0){
+					first = file;
+				}
+			}
+			byte[] firstContent = Files.readAllBytes(first.toPath());
+			long firstLength = firstContent.length;
+			raf = new RandomAccessFile(first, "rw");
+			raf.setLength(firstLength - 3);
+			raf.close();
+			try {
+				new SealedStore(dir, key, 4096);
+				assert(false);
+			}
+			catch (HobesDataException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			assert(first.length() == firstLength - 3);
+			// a malformed length is no partial record either
+			Files.write(first.toPath(), firstContent);
+			raf = new RandomAccessFile(first, "rw");
+			raf.seek(SealedStore.MAGIC.length + 2 + 8);
+			raf.writeInt(1);
+			raf.close();
+			try {
+				new SealedStore(dir, key, 4096);
+				assert(false);
+			}
+			catch (HobesDataException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			Files.write(first.toPath(), firstContent);
+			store = new SealedStore(dir, key, 4096);
+			assert(((byte[]) store.get("record0")).length == 100);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing partial records are discarded when reopened
+			//
+			System.out.println("... Testing partial records are discarded when reopened");
+			store.put("partial", "lost");
+			store.close();
+			last = lastSegment(dir);
+			raf = new RandomAccessFile(last, "rw");
+			raf.setLength(raf.length() - 3);
+			raf.close();
+			store = new SealedStore(dir, key, 4096);
+			assert(! store.containsKey("partial"));
+			assert("intact".equals(store.get("neighbour")));
+			store.put("partial", "kept");
+			assert("kept".equals(store.get("partial")));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing compaction under a new key
+			//
+			System.out.println("... Testing compaction under a new key");
+			store.put("neighbour", "intact again");
+			store.remove("tampered");
+			SecretKey newKey = CipherSuite.getInstance(CipherSuite.AES_128_GCM).createKey();
+			int size = store.size();
+			long total = store.getTotalBytes();
+			store.compact(newKey);
+			assert(store.getSegmentCount() == 1);
+			assert(store.size() == size);
+			assert(store.getTotalBytes() < total);
+			assert(store.getLiveBytes() == store.getTotalBytes());
+			assert("intact again".equals(store.get("neighbour")));
+			store.put("after", "compaction");
+			store.close();
+			try {
+				new SealedStore(dir, key);
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... former key refused: " + e.getMessage());
+			}
+			// an interrupted compaction leaves a temporary segment behind
+			new File(dir, "99999999.seg.tmp").createNewFile();
+			store = new SealedStore(dir, newKey);
+			assert(store.size() == size + 1);
+			assert("compaction".equals(store.get("after")));
+			assert(((byte[]) store.get("record99")).length == 199);
+			assert(! new File(dir, "99999999.seg.tmp").exists());
+			store.close();
+			System.out.println("... " + total + " bytes compacted to " + store.getTotalBytes());
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing unauthenticated suites are refused
+			//
+			System.out.println("... Testing unauthenticated suites are refused");
+			try {
+				new SealedStore(new File(tmpDir, "des-store"), SecretManager.getDefaultSecret());
+				assert(false);
+			}
+			catch (HobesSecurityException e) {
+				System.out.println("... refused: " + e.getMessage());
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+	
+	private static void flip(File pFile, int pOffset) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(pFile, "rw");
+		raf.seek(pOffset);
+		int b = raf.read();
+		raf.seek(pOffset);
+		raf.write(b ^ 1);
+		raf.close();
+	}
+	
+	private static File lastSegment(File pDir) {
+		File last = null;
+		for (File file : pDir.listFiles()){
+			if (file.getName().endsWith(".seg") 
+					&& ((last == null) || (file.getName().compareTo(last.getName()) > 0))){
+				last = file;
+			}
+		}
+		return last;
+	}
+	
+	private static int indexOf(byte[] pContent, byte[] pPattern) {
+		int found = -1;
+		for (int i = 0; i + pPattern.length <= pContent.length; i++){
+			int j = 0;
+			while ((j < pPattern.length) && (pContent[i + j] == pPattern[j])){
+				j++;
+			}
+			if (j == pPattern.length){
+				found = i;
+			}
+		}
+		return found;
+	}
+}
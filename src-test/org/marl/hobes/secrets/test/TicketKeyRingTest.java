@@ -0,0 +1,113 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SessionTicket;
+import org.marl.hobes.secrets.TicketKeyRing;
+
+/**
+ * Unit test the sealing and opening of session tickets.
+ */
+public class TicketKeyRingTest {
+
+	/**
+	 * @param args None.
+	 */
+	public static void main(String[] args) {
+		try {
+			byte[] master = new byte[32];
+			Arrays.fill(master, (byte) 7);
+			TicketKeyRing ring = new TicketKeyRing(master, 3600 * 1000L, 12 * 3600 * 1000L);
+			SecretKey secret = SecretFactory.createSecretKey(CipherSuite.AES_128_GCM);
+			ChannelProfile profile = new ChannelProfile(CipherSuite.AES_128_GCM, 
+					ChannelProfile.CODEC_DEFLATE, ChannelProfile.FRAMING_SEALED_FRAME);
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing tickets round trip
+			//
+			System.out.println("... Testing tickets round trip");
+			SessionTicket sealed = ring.seal("alice", secret, profile);
+			SessionTicket opened = ring.open("alice", sealed.getTicket());
+			assert(Arrays.equals(secret.getEncoded(), opened.getSecret().getEncoded()));
+			assert(profile.equals(opened.getProfile()));
+			assert(sealed.getExpiry() == opened.getExpiry());
+			assert(! opened.isExpired(System.currentTimeMillis()));
+			System.out.println("<-- seems fine: " + sealed.getTicket().length + " bytes ticket");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing nodes sharing the master secret
+			//
+			System.out.println("... Testing nodes sharing the master secret");
+			TicketKeyRing other = new TicketKeyRing(master.clone(), 3600 * 1000L, 12 * 3600 * 1000L);
+			opened = other.open("alice", sealed.getTicket());
+			assert(Arrays.equals(secret.getEncoded(), opened.getSecret().getEncoded()));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing refused tickets
+			//
+			System.out.println("... Testing refused tickets");
+			assert(isRefused(new TicketKeyRing(3600 * 1000L, 12 * 3600 * 1000L), "alice", sealed.getTicket()));
+			assert(isRefused(ring, "mallory", sealed.getTicket()));
+			byte[] tampered = sealed.getTicket().clone();
+			tampered[tampered.length / 2] ^= 1;
+			assert(isRefused(ring, "alice", tampered));
+			tampered = sealed.getTicket().clone();
+			tampered[8] ^= 1;
+			assert(isRefused(ring, "alice", tampered));
+			assert(isRefused(ring, "alice", new byte[4]));
+			TicketKeyRing shortLived = new TicketKeyRing(master, 50, 100);
+			byte[] ticket = shortLived.seal("alice", secret, profile).getTicket();
+			shortLived.open("alice", ticket);
+			Thread.sleep(250);
+			assert(isRefused(shortLived, "alice", ticket));
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+	
+	private static boolean isRefused(TicketKeyRing pRing, String pSource, byte[] pTicket) {
+		try {
+			pRing.open(pSource, pTicket);
+			return false;
+		}
+		catch (HobesSecurityException e) {
+			System.out.println("... refused: " + e.getMessage());
+			return true;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyPair;
+import java.security.PublicKey;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SecretManager;
+import org.marl.hobes.secrets.TrustedKeyRegistry;
+
+/**
+ * Unit test the cached, reloadable trusted keys.
+ */
+public class TrustedKeyRegistryTest {
+
+	/**
+	 * @param args None.
+	 */
+	public static void main(String[] args) {
+		TrustedKeyRegistry registry = null;
+		try {
+			String x25519 = SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM;
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing keys are decoded once
+			//
+			System.out.println("... Testing keys are decoded once");
+			TrustedKeyRegistry resources = new TrustedKeyRegistry();
+			PublicKey pv = resources.getPublicValue(SecretFactory.KEY_AGREEMENT_ALGORITHM);
+			byte[] encodedPV = pv.getEncoded();
+			for (int i = 0; i < 1000; i++){
+				assert(resources.isTrusted(SecretFactory.KEY_AGREEMENT_ALGORITHM, encodedPV));
+				assert(resources.getPublicValue(SecretFactory.KEY_AGREEMENT_ALGORITHM) == pv);
+			}
+			resources.getPrivateValue(SecretFactory.KEY_AGREEMENT_ALGORITHM);
+			assert(resources.getLoads() == 2);
+			assert(SecretManager.getTrustedPublicValue() == SecretManager.getTrustedPublicValue());
+			try {
+				resources.getPublicValue("RSA");
+				assert(false);
+			}
+			catch (HobesException e) {
+				// unsupported
+			}
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing keys reload when their file changes
+			//
+			System.out.println("... Testing keys reload when their file changes");
+			File dir = Files.createTempDirectory("hobes-keys").toFile();
+			KeyPair first = SecretFactory.createXdhPVx(new File(dir, "bob.x25519").getPath());
+			registry = new TrustedKeyRegistry(dir);
+			registry.startWatching();
+			assert(registry.isTrusted(x25519, first.getPublic().getEncoded()));
+			registry.getPrivateValue(x25519);
+			
+			KeyPair second = SecretFactory.createXdhPVx(new File(dir, "next").getPath());
+			Files.move(new File(dir, "next.x").toPath(), new File(dir, "bob.x25519.x").toPath(), 
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(new File(dir, "next.PV").toPath(), new File(dir, "bob.x25519.PV").toPath(), 
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			waitTrusted(registry, second.getPublic().getEncoded());
+			assert(! registry.isTrusted(x25519, first.getPublic().getEncoded()));
+			assert(registry.getReloads() >= 1);
+			System.out.println("<-- seems fine: " + registry.getReloads() + " reloads");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing corrupted files keep the former keys
+			//
+			System.out.println("... Testing corrupted files keep the former keys");
+			long failed = registry.getFailedReloads();
+			FileOutputStream fos = new FileOutputStream(new File(dir, "bob.x25519.PV"));
+			fos.write(new byte[7]);
+			fos.close();
+			for (int i = 0; (i < 100) && (registry.getFailedReloads() == failed); i++){
+				Thread.sleep(50);
+			}
+			assert(registry.getFailedReloads() > failed);
+			assert(registry.isTrusted(x25519, second.getPublic().getEncoded()));
+			registry.stopWatching();
+			for (File file : dir.listFiles()){
+				file.delete();
+			}
+			dir.delete();
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+		finally {
+			if (registry != null){
+				registry.stopWatching();
+			}
+		}
+	}
+	
+	private static void waitTrusted(TrustedKeyRegistry pRegistry, byte[] pEncodedPV) 
+			throws HobesException, InterruptedException {
+		for (int i = 0; i < 100; i++){
+			if (pRegistry.isTrusted(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, pEncodedPV)){
+				return;
+			}
+			Thread.sleep(50);
+		}
+		assert(false);
+	}
+}
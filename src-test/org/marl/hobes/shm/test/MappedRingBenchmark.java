@@ -0,0 +1,115 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.shm.test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.shm.MappedRing;
+import org.marl.hobes.shm.ShmObjectBus;
+
+/**
+ * Measures the throughput and latency of sourced objects sent over a
+ * {@link MappedRing}, for each producer mode and wait strategy.
+ * <p>Throughput is measured with the ring kept full, latency with a single
+ * message in flight, so that it does not account for queueing.
+ * <p>Producer and consumer map the ring separately, as two processes would.
+ */
+public class MappedRingBenchmark {
+
+	/**
+	 * @param args The number of messages per run, defaults to 200000,
+	 * and the ring directory, which defaults to <code>/dev/shm</code> if it
+	 * exists, <code>$PWD/tmp</code> otherwise.
+	 */
+	public static void main(String[] args) {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		String arg_tmpPath = args.length > 1 ? args [1] 
+				: (new File("/dev/shm").isDirectory() ? "/dev/shm" : "tmp");
+		
+		try {
+			String[] waits = { "spin", "yield", "park" };
+			for (int mode = MappedRing.SINGLE_PRODUCER; mode <= MappedRing.MULTI_PRODUCER; mode++){
+				for (int wait = MappedRing.WAIT_SPIN; wait <= MappedRing.WAIT_PARK; wait++){
+					String path = new File(arg_tmpPath, "hobes-bench.ring").getAbsolutePath();
+					new File(path).delete();
+					run(((mode == MappedRing.SINGLE_PRODUCER) ? "spsc/" : "mpsc/") + waits[wait],
+							path, mode, wait, messages);
+					new File(path).delete();
+				}
+			}
+			System.out.println("--done.");
+		}
+		catch (Exception e) {
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+	
+	private static void run(String pName, String pPath, int pMode, int pWait, final int pMessages) 
+			throws Exception {
+		final MappedRing producer = new MappedRing(pPath, MappedRing.DEFAULT_CAPACITY, pMode, pWait);
+		MappedRing consumer = new MappedRing(pPath, MappedRing.DEFAULT_CAPACITY, pMode, pWait);
+		final int latencyMessages = pMessages / 10;
+		Thread producerThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					// throughput, as fast as the ring accepts messages
+					for (int i = 0; i < pMessages; i++){
+						ShmObjectBus.writeWithSource(producer, SourcedObject.GUEST_ID, 
+								Long.valueOf(System.nanoTime()), 10000);
+					}
+					// latency, one message in flight at a time
+					for (int i = 0; i < latencyMessages; i++){
+						while (producer.size() > 0){
+							Thread.yield();
+						}
+						ShmObjectBus.writeWithSource(producer, SourcedObject.GUEST_ID, 
+								Long.valueOf(System.nanoTime()), 10000);
+					}
+				}
+				catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		long start = System.nanoTime();
+		producerThread.start();
+		for (int i = 0; i < pMessages; i++){
+			ShmObjectBus.readWithSource(consumer, 10000);
+		}
+		long elapsed = System.nanoTime() - start;
+		long[] latencies = new long[latencyMessages];
+		for (int i = 0; i < latencyMessages; i++){
+			SourcedObject received = ShmObjectBus.readWithSource(consumer, 10000);
+			latencies[i] = System.nanoTime() - (Long) received.getPayload();
+		}
+		producerThread.join();
+		producer.close();
+		consumer.close();
+		Arrays.sort(latencies);
+		System.out.println(String.format("... %-12s %9.0f msgs/s, p50 %6d us, p99 %6d us, p99.9 %6d us",
+				pName,
+				pMessages * 1e9 / elapsed,
+				latencies[latencyMessages / 2] / 1000,
+				latencies[(int) (latencyMessages * 0.99)] / 1000,
+				latencies[(int) (latencyMessages * 0.999)] / 1000));
+	}
+}
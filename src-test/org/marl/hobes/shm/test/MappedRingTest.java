@@ -0,0 +1,167 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.shm.test;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.shm.MappedRing;
+import org.marl.hobes.shm.ShmObjectBus;
+import org.marl.hobes.test.TestObjectType;
+import org.marl.hobes.test.TestPreferences;
+
+/**
+ * Unit test the {@link org.marl.hobes.shm.MappedRing} and 
+ * {@link org.marl.hobes.shm.ShmObjectBus} API.
+ */
+public class MappedRingTest {
+
+	/**
+	 * @param args The temp directory, defaults to <code>$PWD/tmp</code>.
+	 */
+	public static void main(String[] args) {
+		String arg_tmpPath = args.length > 0 ? args [0] : "tmp";
+		
+		try {
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing single producer ring, with wrap around
+			//
+			String spscPath = new File(arg_tmpPath, "hobes-spsc.ring").getAbsolutePath();
+			new File(spscPath).delete();
+			System.out.println("... Testing single producer ring: " + spscPath);
+			MappedRing producer = new MappedRing(spscPath, 4096, MappedRing.SINGLE_PRODUCER, MappedRing.WAIT_SPIN);
+			MappedRing consumer = new MappedRing(spscPath, 4096, MappedRing.SINGLE_PRODUCER, MappedRing.WAIT_SPIN);
+			assert(consumer.poll() == null);
+			for (int i = 0; i < 10000; i++){
+				byte[] record = new byte[2 + (i % 700)];
+				record[0] = (byte) i;
+				record[record.length - 1] = (byte) (i >> 8);
+				assert(producer.offer(record));
+				byte[] received = consumer.poll();
+				assert(received.length == record.length);
+				assert(received[0] == (byte) i);
+				assert(received[received.length - 1] == (byte) (i >> 8));
+			}
+			assert(consumer.poll() == null);
+			assert(producer.size() == 0);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing a full ring
+			//
+			System.out.println("... Testing a full ring");
+			int count = 0;
+			while (producer.offer(new byte[100])){
+				count++;
+			}
+			assert(count == 4096 / 104);
+			assert(! producer.offer(new byte[100], 10));
+			assert(consumer.poll() != null);
+			assert(producer.offer(new byte[100]));
+			while (consumer.poll() != null){
+				count--;
+			}
+			assert(count == 0);
+			try {
+				new MappedRing(spscPath, 8192, MappedRing.SINGLE_PRODUCER, MappedRing.WAIT_SPIN);
+				assert(false);
+			}
+			catch (HobesTransportException e) {
+				System.out.println("... reopening with another capacity fails: " + e.getMessage());
+			}
+			producer.close();
+			consumer.close();
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing multiple producers ring
+			//
+			String mpscPath = new File(arg_tmpPath, "hobes-mpsc.ring").getAbsolutePath();
+			new File(mpscPath).delete();
+			System.out.println("... Testing multiple producers ring: " + mpscPath);
+			final MappedRing mpscConsumer = new MappedRing(mpscPath, 1 << 14, MappedRing.MULTI_PRODUCER, MappedRing.WAIT_YIELD);
+			final int records = 20000;
+			final AtomicInteger failures = new AtomicInteger();
+			Thread[] producers = new Thread[4];
+			for (int p = 0; p < producers.length; p++){
+				final byte id = (byte) p;
+				final MappedRing ring = new MappedRing(mpscPath, 1 << 14, MappedRing.MULTI_PRODUCER, MappedRing.WAIT_YIELD);
+				producers[p] = new Thread() {
+					@Override
+					public void run() {
+						for (int i = 0; i < records; i++){
+							byte[] record = new byte[5 + (i % 50)];
+							record[0] = id;
+							record[1] = (byte) (i >> 24);
+							record[2] = (byte) (i >> 16);
+							record[3] = (byte) (i >> 8);
+							record[4] = (byte) i;
+							if (! ring.offer(record, 10000)){
+								failures.incrementAndGet();
+							}
+						}
+						ring.close();
+					}
+				};
+				producers[p].start();
+			}
+			int[] next = new int[producers.length];
+			for (int i = 0; i < records * producers.length; i++){
+				byte[] record = mpscConsumer.poll(10000);
+				int seq = ((record[1] & 0xFF) << 24) | ((record[2] & 0xFF) << 16)
+						| ((record[3] & 0xFF) << 8) | (record[4] & 0xFF);
+				// each producer records are consumed in order
+				assert(seq == next[record[0]]++);
+				assert(record.length == 5 + (seq % 50));
+			}
+			for (Thread t : producers){
+				t.join();
+			}
+			assert(failures.get() == 0);
+			assert(mpscConsumer.poll() == null);
+			System.out.println("<-- seems fine");
+			System.out.println();
+			
+			///////////////////////////////////////////////////////////////////
+			//
+			// Testing sourced objects on a ring
+			//
+			System.out.println("... Testing sourced objects on a ring");
+			TestObjectType testObject = TestPreferences.getTestObject();
+			ShmObjectBus.writeWithSource(mpscConsumer, SourcedObject.GUEST_ID, testObject, 1000);
+			SourcedObject received = ShmObjectBus.readWithSource(mpscConsumer, 1000);
+			assert(SourcedObject.GUEST_ID.equals(received.getSource()));
+			assert(testObject.equals(received.getPayload()));
+			assert(ShmObjectBus.readWithSource(mpscConsumer, 10) == null);
+			mpscConsumer.close();
+			System.out.println("<-- seems fine");
+			System.out.println("--done.");
+		}
+		catch(Exception e){
+			System.out.println("********** ERROR **********");
+			e.printStackTrace();
+		}
+	}
+}
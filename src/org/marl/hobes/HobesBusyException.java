@@ -0,0 +1,47 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes;
+
+/** Represent a request refused because the server is saturated, which
+ * may be sent again after some delay.
+ * 
+ * @author chris
+ */
+public class HobesBusyException extends HobesTransportException {
+	private static final long serialVersionUID = 1L;
+	
+	private final int retryAfter;
+
+	/**
+	 * @param message The detail message.
+	 * @param pRetryAfter The delay, in seconds, before the request may be sent again.
+	 */
+	public HobesBusyException(String message, int pRetryAfter) {
+		super(message);
+		this.retryAfter = pRetryAfter;
+	}
+	
+	/**
+	 * Answers the delay before the request may be sent again.
+	 * 
+	 * @return That's it, in seconds.
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -17,6 +17,8 @@ along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
 */
 package org.marl.hobes;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -240,6 +242,38 @@ public abstract class ObjectBus {
 		
 	}
 	
+	/**
+	 * Serializes an object to a byte array.
+	 * <p>The returned bytes are exactly those {@link #write(OutputStream, Object)}
+	 * would have sent to a stream, and can be replayed with {@link #fromBytes(byte[])}.
+	 *
+	 * @param pData A serializable object.
+	 *
+	 * @return The serialized form of the object.
+	 *
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	public static byte[] toBytes(Object pData) throws HobesTransportException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		write(bos, pData);
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Deserializes an object from a byte array.
+	 *
+	 * @param pBytes Bytes created using the {@link #toBytes(Object)} API.
+	 *
+	 * @return The deserialized object. Its type should correspond to the serialization type.
+	 *
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a marshaling error occurs.
+	 */
+	public static Object fromBytes(byte[] pBytes)
+			throws HobesTransportException, HobesDataException {
+		return read(new ByteArrayInputStream(pBytes));
+	}
+
 	/** Testing helper, converts bytes to a hexadecimal string representation.
 	 * <p>See
 	 * <a href="http://stackoverflow.com/questions/332079/in-java-how-do-i-convert-a-byte-array-to-a-string-of-hex-digits-while-keeping-l/2197650#2197650">
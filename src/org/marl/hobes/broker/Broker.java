@@ -0,0 +1,208 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.broker;
+
+import java.io.ByteArrayOutputStream;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+
+/**
+ * A topic-based publish/subscribe broker of {@link org.marl.hobes.SourcedObject sourced objects}.
+ * <p>A topic exists as soon as it's subscribed to, and may have any number of
+ * {@link Subscription subscriptions}. A message published to a topic is serialized 
+ * once, and the same bytes are queued to each of its subscriptions: fanning out to 
+ * more subscribers costs no extra serialization.
+ * <p>Subscriptions that are not polled for longer than the broker idle time
+ * are removed by {@link #expire()}, so that remote subscribers that went away 
+ * don't retain messages forever.
+ * 
+ * @see org.marl.hobes.http.HobesHttpServer#mountBroker(String, Broker)
+ */
+public class Broker {
+
+	/** Default time a {@link Subscription#BLOCK} subscription may hold a publisher, in milliseconds. */
+	public static final long DEFAULT_BLOCK_TIMEOUT = 1000;
+	/** Default time after which a subscription that is not polled expires, in milliseconds. */
+	public static final long DEFAULT_IDLE_TIME = 1000 * 60;
+	
+	private final ConcurrentHashMap<String,CopyOnWriteArrayList<Subscription>> topics = 
+			new ConcurrentHashMap<String,CopyOnWriteArrayList<Subscription>>();
+	private final ConcurrentHashMap<String,Subscription> subscriptions = 
+			new ConcurrentHashMap<String,Subscription>();
+	private final AtomicLong published = new AtomicLong();
+	private final long blockTimeout;
+	private final long idleTime;
+	
+	/**
+	 * @param pBlockTimeout The time a {@link Subscription#BLOCK} subscription may 
+	 * hold a publisher, in milliseconds.
+	 * @param pIdleTime The time after which a subscription that is not polled expires,
+	 * in milliseconds.
+	 */
+	public Broker(long pBlockTimeout, long pIdleTime) {
+		this.blockTimeout = pBlockTimeout;
+		this.idleTime = pIdleTime;
+	}
+	
+	/** Creates a broker with default timeouts. */
+	public Broker() {
+		this(DEFAULT_BLOCK_TIMEOUT, DEFAULT_IDLE_TIME);
+	}
+	
+	/**
+	 * Subscribes to a topic.
+	 * 
+	 * @param pTopic The topic name.
+	 * @param pCapacity The maximum number of messages queued for the subscriber.
+	 * @param pPolicy The overflow policy, {@link Subscription#DROP_OLDEST} or {@link Subscription#BLOCK}.
+	 * 
+	 * @return The new subscription, which only receives messages published from now on.
+	 */
+	public Subscription subscribe(String pTopic, int pCapacity, int pPolicy) {
+		Subscription subscription = new Subscription(UUID.randomUUID().toString(), 
+				pTopic, pCapacity, pPolicy);
+		this.subscriptions.put(subscription.getId(), subscription);
+		CopyOnWriteArrayList<Subscription> topic = this.topics.get(pTopic);
+		if (topic == null){
+			topic = new CopyOnWriteArrayList<Subscription>();
+			CopyOnWriteArrayList<Subscription> previous = this.topics.putIfAbsent(pTopic, topic);
+			if (previous != null){
+				topic = previous;
+			}
+		}
+		topic.add(subscription);
+		return subscription;
+	}
+	
+	/**
+	 * Answers a subscription.
+	 * 
+	 * @param pId The subscription identifier.
+	 * 
+	 * @return The subscription, or <code>null</code> if it's unknown or expired.
+	 */
+	public Subscription getSubscription(String pId) {
+		return this.subscriptions.get(pId);
+	}
+	
+	/**
+	 * Cancels a subscription, discarding its queued messages.
+	 * 
+	 * @param pId The subscription identifier.
+	 */
+	public void unsubscribe(String pId) {
+		Subscription subscription = this.subscriptions.remove(pId);
+		if (subscription != null){
+			subscription.close();
+			CopyOnWriteArrayList<Subscription> topic = this.topics.get(subscription.getTopic());
+			if (topic != null){
+				topic.remove(subscription);
+			}
+		}
+	}
+	
+	/**
+	 * Publishes an object to a topic, on behalf of a source.
+	 * 
+	 * @param pTopic The topic name.
+	 * @param pSourceId The source identifier.
+	 * @param pData A serializable object.
+	 * 
+	 * @return The number of subscriptions the message was queued to.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs, or the publishing thread is interrupted.
+	 */
+	public int publish(String pTopic, String pSourceId, Object pData) throws HobesTransportException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectBus.writeWithSource(pSourceId, bos, pData);
+		return publish(pTopic, bos.toByteArray());
+	}
+	
+	/**
+	 * Publishes a message already serialized, e.g. received from a remote publisher.
+	 * 
+	 * @param pTopic The topic name.
+	 * @param pMessage An object and its source, as written by 
+	 * {@link ObjectBus#writeWithSource(String, java.io.OutputStream, Object)}.
+	 * The array is shared by subscriptions, and must not be modified afterwards.
+	 * 
+	 * @return The number of subscriptions the message was queued to.
+	 * 
+	 * @throws HobesTransportException When the publishing thread is interrupted.
+	 */
+	public int publish(String pTopic, byte[] pMessage) throws HobesTransportException {
+		this.published.incrementAndGet();
+		CopyOnWriteArrayList<Subscription> topic = this.topics.get(pTopic);
+		if (topic == null){
+			return 0;
+		}
+		int count = 0;
+		try {
+			for (Subscription subscription : topic){
+				if (subscription.offer(pMessage, this.blockTimeout)){
+					count++;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HobesTransportException(pTopic, e);
+		}
+		return count;
+	}
+	
+	/**
+	 * Removes the subscriptions that were not polled for longer than this broker idle time.
+	 * 
+	 * @return The number of subscriptions removed.
+	 */
+	public int expire() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (Subscription subscription : this.subscriptions.values()){
+			if (subscription.getIdleTime(now) > this.idleTime){
+				unsubscribe(subscription.getId());
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Answers the number of messages published so far.
+	 * 
+	 * @return That's it.
+	 */
+	public long getPublished() {
+		return this.published.get();
+	}
+	
+	/**
+	 * Answers the number of active subscriptions.
+	 * 
+	 * @return That's it.
+	 */
+	public int getSubscriptionCount() {
+		return this.subscriptions.size();
+	}
+}
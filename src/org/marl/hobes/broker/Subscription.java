@@ -0,0 +1,281 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.broker;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.SourcedObject;
+
+/**
+ * A subscriber's view of a {@link Broker} topic: a bounded queue of the
+ * messages published since the subscription was created.
+ * <p>Messages are queued in their serialized form, as written by
+ * {@link ObjectBus#writeWithSource(String, java.io.OutputStream, Object)}, and
+ * the same bytes are shared by all the subscriptions of a topic.
+ * When the queue is full, the subscription overflow policy applies:
+ * {@link #DROP_OLDEST} makes room by discarding the oldest message, 
+ * {@link #BLOCK} makes the publisher wait for the subscriber, at most
+ * the broker block timeout, after which the new message is discarded.
+ */
+public class Subscription {
+
+	/** Discard the oldest queued message to make room for a new one. */
+	public static final int DROP_OLDEST = 0;
+	/** Make the publisher wait until the subscriber has consumed a message. */
+	public static final int BLOCK = 1;
+	
+	private final String id;
+	private final String topic;
+	private final int capacity;
+	private final int policy;
+	private final ArrayDeque<byte[]> queue;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private boolean closed = false;
+	private long lastPoll;
+	private long delivered = 0;
+	private long dropped = 0;
+	
+	Subscription(String pId, String pTopic, int pCapacity, int pPolicy) {
+		if (pCapacity < 1){
+			throw new IllegalArgumentException("Invalid capacity: " + pCapacity);
+		}
+		this.id = pId;
+		this.topic = pTopic;
+		this.capacity = pCapacity;
+		this.policy = pPolicy;
+		this.queue = new ArrayDeque<byte[]>(pCapacity);
+		this.lastPoll = System.currentTimeMillis();
+	}
+	
+	public String getId() {
+		return id;
+	}
+	public String getTopic() {
+		return topic;
+	}
+	public int getCapacity() {
+		return capacity;
+	}
+	public int getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * Answers the number of messages handed to the subscriber so far.
+	 * 
+	 * @return That's it.
+	 */
+	public long getDelivered() {
+		lock.lock();
+		try {
+			return delivered;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Answers the number of messages discarded by the overflow policy so far.
+	 * 
+	 * @return That's it.
+	 */
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Answers the number of messages waiting for the subscriber.
+	 * 
+	 * @return That's it.
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return queue.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes queued messages, waiting for at least one if needed.
+	 * 
+	 * @param pMax The maximum number of messages to remove.
+	 * @param pTimeout How long to wait, in milliseconds.
+	 * 
+	 * @return The serialized messages, in publication order, possibly none 
+	 * when the timeout expired or the subscription was closed.
+	 * 
+	 * @throws InterruptedException When the calling thread is interrupted.
+	 */
+	public List<byte[]> poll(int pMax, long pTimeout) throws InterruptedException {
+		List<byte[]> messages = new ArrayList<byte[]>();
+		long nanos = TimeUnit.MILLISECONDS.toNanos(pTimeout);
+		lock.lock();
+		try {
+			lastPoll = System.currentTimeMillis();
+			while (queue.isEmpty() && ! closed && (nanos > 0)){
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			while (! queue.isEmpty() && (messages.size() < pMax)){
+				messages.add(queue.poll());
+			}
+			delivered += messages.size();
+			if (! messages.isEmpty()){
+				notFull.signalAll();
+			}
+			lastPoll = System.currentTimeMillis();
+			return messages;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the next message, waiting for it if needed, and deserializes it.
+	 * 
+	 * @param pTimeout How long to wait, in milliseconds.
+	 * 
+	 * @return The message source and payload, or <code>null</code> if the
+	 * timeout expired or the subscription was closed.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a marshaling error occurs.
+	 * @throws InterruptedException When the calling thread is interrupted.
+	 */
+	public SourcedObject receive(long pTimeout) 
+			throws HobesTransportException, HobesDataException, InterruptedException {
+		List<byte[]> messages = poll(1, pTimeout);
+		if (messages.isEmpty()){
+			return null;
+		}
+		return ObjectBus.readWithSource(new ByteArrayInputStream(messages.get(0)));
+	}
+	
+	/**
+	 * Answers whether this subscription is closed.
+	 * 
+	 * @return That's it.
+	 */
+	public boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Queues a message, applying the overflow policy.
+	 * 
+	 * @param pMessage The serialized message.
+	 * @param pBlockTimeout How long a {@link #BLOCK} subscription may make the publisher wait,
+	 * in milliseconds.
+	 * 
+	 * @return Whether the message was queued, it's not when the subscription
+	 * is closed or the block timeout expired.
+	 * 
+	 * @throws InterruptedException When the calling thread is interrupted.
+	 */
+	boolean offer(byte[] pMessage, long pBlockTimeout) throws InterruptedException {
+		long nanos = TimeUnit.MILLISECONDS.toNanos(pBlockTimeout);
+		lock.lock();
+		try {
+			if (closed){
+				return false;
+			}
+			if (queue.size() >= capacity){
+				if (policy == DROP_OLDEST){
+					queue.poll();
+					dropped++;
+				}
+				else {
+					while ((queue.size() >= capacity) && ! closed && (nanos > 0)){
+						nanos = notFull.awaitNanos(nanos);
+					}
+					if (closed){
+						return false;
+					}
+					if (queue.size() >= capacity){
+						dropped++;
+						return false;
+					}
+				}
+			}
+			queue.add(pMessage);
+			notEmpty.signal();
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Answers for how long this subscription has not been polled.
+	 * 
+	 * @param pNow The current time, in milliseconds.
+	 * 
+	 * @return The time elapsed since the last poll started or ended, in milliseconds.
+	 */
+	long getIdleTime(long pNow) {
+		lock.lock();
+		try {
+			return pNow - lastPoll;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Closes this subscription, waking up waiting subscribers and publishers. */
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			queue.clear();
+			notEmpty.signalAll();
+			notFull.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+}
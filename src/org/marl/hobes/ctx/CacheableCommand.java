@@ -0,0 +1,36 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.ctx;
+
+/**
+ * A command whose result depends only on its request, and may therefore
+ * be reused by clients and intermediaries for a while.
+ * <p>The hosting transport answers such commands with an <code>ETag</code>
+ * and a <code>Cache-Control: max-age</code> header, and replies
+ * <code>304 Not Modified</code> when a client revalidates an unchanged result.
+ */
+public interface CacheableCommand extends HobesCommand {
+
+	/**
+	 * Answers how long a result of this command remains fresh.
+	 * 
+	 * @return The freshness lifetime, in seconds.
+	 */
+	public int getMaxAge();
+
+}
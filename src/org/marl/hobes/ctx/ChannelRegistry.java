@@ -0,0 +1,303 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.ctx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.marl.hobes.secrets.PKCS3Bob;
+
+/**
+ * The channels a {@link PKCS3BobContext} established, by source identifier.
+ * <p>Lookups and registrations don't lock: a new handshake atomically replaces
+ * the former channel of its source. Channels that are not used for longer than
+ * the idle TTL are evicted, and so are the least recently used ones when the
+ * registry is full, so that it doesn't grow as Alices come and go.
+ * <p>Evictions are driven by a timing wheel of {@link #WHEEL_SLOTS} slots, each
+ * holding the channels due in a tick of time. Channels are put in the slot of
+ * their deadline when registered, and only moved when their slot comes up, if
+ * they were used meanwhile: lookups merely record the time. The wheel turns as
+ * the registry is used, by the thread that gets to it first, without a thread
+ * of its own; lookups still refuse channels idle for longer than the TTL, even
+ * if the wheel is late.
+ */
+public class ChannelRegistry {
+
+	/** Number of slots of the timing wheel. */
+	public static final int WHEEL_SLOTS = 512;
+	/** Shortest tick of the timing wheel, in milliseconds. */
+	public static final long MIN_TICK = 1000;
+
+	private final ConcurrentHashMap<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+	private final List<ConcurrentLinkedQueue<Entry>> wheel;
+	private final ReentrantLock turning = new ReentrantLock();
+	private final long idleTtl;
+	private final int maxSize;
+	private final long tick;
+	private final long horizon;
+	// the last tick swept, the current one is swept once elapsed
+	private volatile long lastTick;
+
+	private final AtomicLong idleEvictions = new AtomicLong();
+	private final AtomicLong sizeEvictions = new AtomicLong();
+	private final AtomicLong replacements = new AtomicLong();
+
+	/**
+	 * Creates a registry.
+	 *
+	 * @param pIdleTtl The time after which an unused channel is evicted, in milliseconds,
+	 * <code>0</code> for no limit.
+	 * @param pMaxSize The maximum number of channels, <code>0</code> for no limit.
+	 */
+	public ChannelRegistry(long pIdleTtl, int pMaxSize) {
+		this.idleTtl = pIdleTtl;
+		this.maxSize = pMaxSize;
+		this.tick = Math.max(MIN_TICK, (pIdleTtl + WHEEL_SLOTS - 2) / (WHEEL_SLOTS - 1));
+		// without TTL, the wheel still orders channels by last use, over a turn
+		this.horizon = (pIdleTtl > 0) ? pIdleTtl : this.tick * (WHEEL_SLOTS - 1);
+		this.wheel = new ArrayList<ConcurrentLinkedQueue<Entry>>(WHEEL_SLOTS);
+		for (int i = 0; i < WHEEL_SLOTS; i++){
+			this.wheel.add(new ConcurrentLinkedQueue<Entry>());
+		}
+		this.lastTick = System.currentTimeMillis() / this.tick - 1;
+	}
+
+	/**
+	 * Registers a channel, replacing the former channel of the same source.
+	 *
+	 * @param pChannel The channel.
+	 */
+	public void put(PKCS3Bob pChannel) {
+		long now = System.currentTimeMillis();
+		Entry entry = new Entry(pChannel, now);
+		if (this.entries.put(pChannel.getId(), entry) != null){
+			this.replacements.incrementAndGet();
+		}
+		schedule(entry, now + this.horizon);
+		turn(now);
+		if ((this.maxSize > 0) && (this.entries.size() > this.maxSize)){
+			evictLeastRecentlyUsed(now);
+		}
+	}
+
+	/**
+	 * Answers the channel of a source, and records it's used.
+	 *
+	 * @param pSourceId The source identifier.
+	 *
+	 * @return The channel, <code>null</code> if it's unknown or was evicted.
+	 */
+	public PKCS3Bob get(String pSourceId) {
+		long now = System.currentTimeMillis();
+		turn(now);
+		Entry entry = this.entries.get(pSourceId);
+		if (entry == null){
+			return null;
+		}
+		if (isIdle(entry, now)){
+			if (this.entries.remove(pSourceId, entry)){
+				this.idleEvictions.incrementAndGet();
+			}
+			return null;
+		}
+		entry.lastAccess = now;
+		return entry.channel;
+	}
+
+	/**
+	 * Forgets the channel of a source.
+	 *
+	 * @param pSourceId The source identifier.
+	 *
+	 * @return Whether a channel was registered.
+	 */
+	public boolean remove(String pSourceId) {
+		return (this.entries.remove(pSourceId) != null);
+	}
+
+	/**
+	 * Evicts the channels that are idle for longer than the TTL, as the wheel turns.
+	 *
+	 * @return The number of channels evicted.
+	 */
+	public int expire() {
+		long before = this.idleEvictions.get();
+		turn(System.currentTimeMillis());
+		return (int) (this.idleEvictions.get() - before);
+	}
+
+	/**
+	 * Answers the number of channels.
+	 *
+	 * @return That's it.
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Answers the number of channels evicted as idle so far.
+	 *
+	 * @return That's it.
+	 */
+	public long getIdleEvictions() {
+		return this.idleEvictions.get();
+	}
+
+	/**
+	 * Answers the number of channels evicted to make room so far.
+	 *
+	 * @return That's it.
+	 */
+	public long getSizeEvictions() {
+		return this.sizeEvictions.get();
+	}
+
+	/**
+	 * Answers the number of channels replaced by a new handshake of their source so far.
+	 *
+	 * @return That's it.
+	 */
+	public long getReplacements() {
+		return this.replacements.get();
+	}
+
+	/**
+	 * Answers the time after which an unused channel is evicted.
+	 *
+	 * @return The TTL in milliseconds, <code>0</code> for no limit.
+	 */
+	public long getIdleTtl() {
+		return this.idleTtl;
+	}
+
+	/**
+	 * Answers the maximum number of channels.
+	 *
+	 * @return That's it, <code>0</code> for no limit.
+	 */
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	private boolean isIdle(Entry pEntry, long pNow) {
+		return (this.idleTtl > 0) && (pNow - pEntry.lastAccess >= this.idleTtl);
+	}
+
+	private boolean isCurrent(Entry pEntry) {
+		return (this.entries.get(pEntry.channel.getId()) == pEntry);
+	}
+
+	private void schedule(Entry pEntry, long pDeadline) {
+		this.wheel.get((int) ((pDeadline / this.tick) % WHEEL_SLOTS)).add(pEntry);
+	}
+
+	// sweeps the slots of the ticks elapsed, unless another thread does
+	private void turn(long pNow) {
+		long elapsed = pNow / this.tick - 1;
+		if ((elapsed <= this.lastTick) || ! this.turning.tryLock()){
+			return;
+		}
+		try {
+			long from = Math.max(this.lastTick + 1, elapsed - WHEEL_SLOTS + 1);
+			for (long t = from; t <= elapsed; t++){
+				sweep(this.wheel.get((int) (t % WHEEL_SLOTS)), pNow);
+			}
+			this.lastTick = Math.max(this.lastTick, elapsed);
+		}
+		finally {
+			this.turning.unlock();
+		}
+	}
+
+	private void sweep(ConcurrentLinkedQueue<Entry> pSlot, long pNow) {
+		// entries scheduled meanwhile wait for the next turn
+		for (int n = pSlot.size(); n > 0; n--){
+			Entry entry = pSlot.poll();
+			if (entry == null){
+				return;
+			}
+			if (! isCurrent(entry)){
+				continue;
+			}
+			if (isIdle(entry, pNow)){
+				if (this.entries.remove(entry.channel.getId(), entry)){
+					this.idleEvictions.incrementAndGet();
+				}
+				continue;
+			}
+			long deadline = entry.lastAccess + this.horizon;
+			while (deadline <= pNow){
+				deadline += this.horizon;
+			}
+			schedule(entry, deadline);
+		}
+	}
+
+	// walks the wheel from the next tick, which holds the channels used the longest ago
+	private void evictLeastRecentlyUsed(long pNow) {
+		this.turning.lock();
+		try {
+			long next = this.lastTick + 1;
+			for (int pass = 0; pass < 2; pass++){
+				for (long t = next; t < next + WHEEL_SLOTS; t++){
+					ConcurrentLinkedQueue<Entry> slot = this.wheel.get((int) (t % WHEEL_SLOTS));
+					for (int n = slot.size(); n > 0; n--){
+						if (this.entries.size() <= this.maxSize){
+							return;
+						}
+						Entry entry = slot.poll();
+						if (entry == null){
+							break;
+						}
+						if (! isCurrent(entry)){
+							continue;
+						}
+						long deadline = entry.lastAccess + this.horizon;
+						// used meanwhile, it's due later, unless the second pass evicts anyway
+						if ((pass == 0) && (deadline / this.tick > t)){
+							schedule(entry, deadline);
+							continue;
+						}
+						if (this.entries.remove(entry.channel.getId(), entry)){
+							this.sizeEvictions.incrementAndGet();
+						}
+					}
+				}
+			}
+		}
+		finally {
+			this.turning.unlock();
+		}
+	}
+
+	// a registered channel, and when it was last used
+	private static class Entry {
+		final PKCS3Bob channel;
+		volatile long lastAccess;
+
+		Entry(PKCS3Bob pChannel, long pNow) {
+			this.channel = pChannel;
+			this.lastAccess = pNow;
+		}
+	}
+}
@@ -1,10 +1,18 @@
 package org.marl.hobes.ctx;
 
-public class EchoCommand implements HobesCommand {
+public class EchoCommand implements CacheableCommand {
+
+	/** An echo never changes, one hour is a reasonable freshness lifetime. */
+	public static final int MAX_AGE = 60 * 60;
 
 	@Override
 	public Object execute(String source, Object request) {
 		return request;
 	}
 
+	@Override
+	public int getMaxAge() {
+		return MAX_AGE;
+	}
+
 }
@@ -2,20 +2,31 @@ package org.marl.hobes.ctx;
 
 public class HobesResponse {
 
+	/** Max age of a response that must not be reused. */
+	public static final int NOT_CACHEABLE = -1;
+
 	private String requestSource;
 	private Object requestContent;
 	private Class<? extends HobesCommand> commandType;
 	private Object content;
+	private int maxAge;
 	
 	
 	
 	public HobesResponse(String requestSource, Object requestContent,
 			Class<? extends HobesCommand> commandType, Object content) {
+		this(requestSource, requestContent, commandType, content, NOT_CACHEABLE);
+	}
+	
+	public HobesResponse(String requestSource, Object requestContent,
+			Class<? extends HobesCommand> commandType, Object content,
+			int maxAge) {
 		super();
 		this.requestSource = requestSource;
 		this.requestContent = requestContent;
 		this.commandType = commandType;
 		this.content = content;
+		this.maxAge = maxAge;
 	}
 	
 	public String getRequestSource() {
@@ -31,4 +42,22 @@ public class HobesResponse {
 		return content;
 	}
 	
+	/**
+	 * Answers whether this response was produced by a {@link CacheableCommand}.
+	 * 
+	 * @return That's it.
+	 */
+	public boolean isCacheable() {
+		return maxAge >= 0;
+	}
+	
+	/**
+	 * Answers the freshness lifetime of this response.
+	 * 
+	 * @return A number of seconds, or {@link #NOT_CACHEABLE}.
+	 */
+	public int getMaxAge() {
+		return maxAge;
+	}
+	
 }
@@ -7,22 +7,120 @@ import java.io.OutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import javax.crypto.SealedObject;
+
+import org.marl.hobes.HobesBusyException;
 import org.marl.hobes.HobesDataException;
 import org.marl.hobes.HobesException;
 import org.marl.hobes.HobesSecurityException;
 import org.marl.hobes.HobesTransportException;
 import org.marl.hobes.ObjectBus;
 import org.marl.hobes.SourcedObject;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.DesChannel;
+import org.marl.hobes.secrets.DesObjectBus;
+import org.marl.hobes.secrets.HandshakeHello;
+import org.marl.hobes.secrets.HandshakeReply;
+import org.marl.hobes.secrets.HandshakeResume;
+import org.marl.hobes.secrets.KeyEpochs;
+import org.marl.hobes.secrets.MappedKeyStore;
 import org.marl.hobes.secrets.PKCS3Bob;
+import org.marl.hobes.secrets.SecretFactory;
+import org.marl.hobes.secrets.SecretManager;
+import org.marl.hobes.secrets.SessionTicket;
+import org.marl.hobes.secrets.TicketKeyRing;
 
 public class PKCS3BobContext implements Serializable {
 	private static final long serialVersionUID = 1L;
+	
+	/** Configuration key of the cipher suites Bob accepts, in order of preference, 
+	 * e.g. <code>1,2,0</code>. Defaults to {@link ChannelProfile#SUPPORTED_SUITES}, list
+	 * <code>3</code> to accept authenticate-only channels from Alices offering them. */
+	public static final String CONFIG_SUITES = "hobes.suites";
+	/** Configuration key of the codecs Bob accepts, in order of preference. 
+	 * Defaults to {@link ChannelProfile#SUPPORTED_CODECS}. */
+	public static final String CONFIG_CODECS = "hobes.codecs";
+	/** Configuration key of the framing versions Bob accepts, in order of preference. 
+	 * Defaults to {@link ChannelProfile#SUPPORTED_FRAMINGS}. */
+	public static final String CONFIG_FRAMINGS = "hobes.framings";
+	/** Configuration key of the key agreement algorithms Bob accepts, 
+	 * e.g. <code>X25519</code>. Defaults to any supported one. */
+	public static final String CONFIG_AGREEMENTS = "hobes.agreements";
+	/** Configuration key of the session ticket lifetime, in seconds, 
+	 * <code>0</code> not to issue tickets. Defaults to {@link #DEFAULT_TICKET_LIFETIME}. */
+	public static final String CONFIG_TICKET_LIFETIME = "hobes.tickets.lifetime";
+	/** Configuration key of the ticket keys rotation period, in seconds. 
+	 * Defaults to {@link #DEFAULT_TICKET_PERIOD}. */
+	public static final String CONFIG_TICKET_PERIOD = "hobes.tickets.period";
+	/** Configuration key of the path to the ticket master secret, a serialized 
+	 * <code>byte[]</code> such as a key file, shared by Bob nodes so that they accept 
+	 * each other tickets, across restarts. Without it, a random secret is used. */
+	public static final String CONFIG_TICKET_SECRET = "hobes.tickets.secret";
+	/** Configuration key of the path to the {@link MappedKeyStore} of the key ids
+	 * Alice may name. Without it, only the {@link SecretManager} keys are used. */
+	public static final String CONFIG_KEYSTORE = "hobes.keystore";
+	/** Configuration key of the messages Bob sends per key before rekeying in-band,
+	 * see {@link DesChannel#setRekeyPolicy(long, long, long)}. Defaults to no limit. */
+	public static final String CONFIG_REKEY_MESSAGES = "hobes.rekey.messages";
+	/** Configuration key of the time, in seconds, Bob sends with a key before
+	 * rekeying in-band. Defaults to no limit. */
+	public static final String CONFIG_REKEY_AGE = "hobes.rekey.age";
+	/** Configuration key of the time, in seconds, a former key is still accepted.
+	 * Defaults to {@link KeyEpochs#DEFAULT_OVERLAP}. */
+	public static final String CONFIG_REKEY_OVERLAP = "hobes.rekey.overlap";
+	/** Configuration key of the number of threads running key agreements. 
+	 * Defaults to the number of processors. */
+	public static final String CONFIG_HANDSHAKE_THREADS = "hobes.handshakes.threads";
+	/** Configuration key of the number of key agreements waiting for a thread, 
+	 * beyond which handshakes are refused. Defaults to {@link #DEFAULT_HANDSHAKE_QUEUE}.
+	 * Serving threads wait along with them, so that it must stay well below the 
+	 * number of threads of the server. */
+	public static final String CONFIG_HANDSHAKE_QUEUE = "hobes.handshakes.queue";
+	/** Configuration key of the delay, in seconds, Alice is asked to wait when 
+	 * handshakes are refused. Defaults to {@link #DEFAULT_HANDSHAKE_RETRY_AFTER}. */
+	public static final String CONFIG_HANDSHAKE_RETRY_AFTER = "hobes.handshakes.retryafter";
+	/** Configuration key of the time, in seconds, after which an unused channel is 
+	 * evicted, <code>0</code> for no limit. Defaults to {@link #DEFAULT_CHANNEL_IDLE}. */
+	public static final String CONFIG_CHANNELS_IDLE = "hobes.channels.idle";
+	/** Configuration key of the maximum number of channels, beyond which the least 
+	 * recently used are evicted. Defaults to no limit. */
+	public static final String CONFIG_CHANNELS_MAX = "hobes.channels.max";
+	
+	/** Message prefix of the errors answered to sources Bob has no channel with,
+	 * e.g. since it was evicted: Alice then agrees on a new one. */
+	public static final String UNDEFINED_CHANNEL = "Undefined channel";
+	
+	/** Default session ticket lifetime, in seconds. */
+	public static final long DEFAULT_TICKET_LIFETIME = 12 * 3600;
+	/** Default ticket keys rotation period, in seconds. */
+	public static final long DEFAULT_TICKET_PERIOD = 3600;
+	/** Default number of key agreements waiting for a thread. */
+	public static final int DEFAULT_HANDSHAKE_QUEUE = 64;
+	/** Default delay, in seconds, Alice is asked to wait when handshakes are refused. */
+	public static final int DEFAULT_HANDSHAKE_RETRY_AFTER = 1;
+	/** Default time, in seconds, after which an unused channel is evicted: Alices
+	 * holding a session ticket may still resume it. */
+	public static final long DEFAULT_CHANNEL_IDLE = DEFAULT_TICKET_LIFETIME;
 
-	private HashMap<String,PKCS3Bob> channels;
+	private ChannelRegistry channels;
 	private Properties ctxConfig;
+	private TicketKeyRing tickets;
+	private transient MappedKeyStore keyStore;
+	private transient ThreadPoolExecutor handshakes;
+	private transient volatile Semaphore handshakeWorkers;
 
 	/**
 	 * @param pPath
@@ -33,7 +131,6 @@ public class PKCS3BobContext implements Serializable {
 	public PKCS3BobContext(String pPath) throws HobesTransportException,
 			HobesDataException, HobesSecurityException {
 		
-		this.channels = new HashMap<String,PKCS3Bob>(); 
 		this.ctxConfig = new Properties();
 		InputStream is;
 		try{
@@ -49,71 +146,514 @@ public class PKCS3BobContext implements Serializable {
 		catch(IOException e){
 			throw new HobesDataException(pPath, e);
 		}
+		this.channels = createChannelRegistry();
+		this.tickets = createTicketKeyRing();
+		String keyStorePath = this.ctxConfig.getProperty(CONFIG_KEYSTORE);
+		if (keyStorePath != null){
+			this.keyStore = new MappedKeyStore(keyStorePath.trim());
+		}
+	}
+	
+	private ChannelRegistry createChannelRegistry() throws HobesDataException {
+		long idle;
+		try {
+			idle = Long.parseLong(this.ctxConfig.getProperty(CONFIG_CHANNELS_IDLE, 
+					String.valueOf(DEFAULT_CHANNEL_IDLE)).trim());
+		}
+		catch (NumberFormatException e) {
+			throw new HobesDataException(CONFIG_CHANNELS_IDLE, e);
+		}
+		return new ChannelRegistry(Math.max(0, idle) * 1000, Math.max(0, getInt(CONFIG_CHANNELS_MAX, 0)));
+	}
+	
+	/**
+	 * Answers the channels established so far, e.g. to watch their evictions.
+	 * 
+	 * @return The channel registry.
+	 */
+	public ChannelRegistry getChannels() {
+		return this.channels;
+	}
+	
+	private TicketKeyRing createTicketKeyRing() throws HobesTransportException, HobesDataException {
+		long lifetime;
+		long period;
+		try {
+			lifetime = Long.parseLong(this.ctxConfig.getProperty(CONFIG_TICKET_LIFETIME, 
+					String.valueOf(DEFAULT_TICKET_LIFETIME)).trim());
+			period = Long.parseLong(this.ctxConfig.getProperty(CONFIG_TICKET_PERIOD, 
+					String.valueOf(DEFAULT_TICKET_PERIOD)).trim());
+		}
+		catch (NumberFormatException e) {
+			throw new HobesDataException(CONFIG_TICKET_LIFETIME, e);
+		}
+		if ((lifetime <= 0) || (period <= 0)){
+			return null;
+		}
+		String secretPath = this.ctxConfig.getProperty(CONFIG_TICKET_SECRET);
+		if (secretPath == null){
+			return new TicketKeyRing(period * 1000, lifetime * 1000);
+		}
+		Object secret = ObjectBus.read(secretPath.trim());
+		if (! (secret instanceof byte[])){
+			throw new HobesDataException(CONFIG_TICKET_SECRET);
+		}
+		return new TicketKeyRing((byte[]) secret, period * 1000, lifetime * 1000);
 	}
 
 	public Object onRequest(InputStream httpInStream, 
 			OutputStream httpOutStream,
 			boolean isSilentModeFlag) throws HobesException {
 		
-		SourcedObject request = ObjectBus.readWithSource(httpInStream);
-		if (request.getPayload() instanceof byte[]){
+		SourcedObject request = DesObjectBus.readWithSource(httpInStream);
+		if (isHandshake(request)){
 			// we assume (re)configuring the channel
-			byte[] aliceEncodedPV = (byte[]) request.getPayload();
-			PKCS3Bob channel = new PKCS3Bob(request.getSource());
-			channel.protocolPhaseI();
-			ObjectBus.write(httpOutStream, channel.getPublicValue());
-			channel.protocolPhaseII(aliceEncodedPV);
-			
-			if (this.channels.containsKey(channel.getId())){
-				this.channels.remove(channel.getId());
-			}
-			this.channels.put(channel.getId(), channel);
-			
+			PKCS3Bob channel = admitHandshake(request, httpOutStream);
 			return channel;
 		}
+		else if (request.getPayload() instanceof SealedObject[]){
+			// we assume a batch of sealed payloads
+			PKCS3Bob channel = getChannel(request.getSource());
+			HobesResponse[] responses = executeBatch(channel, request);
+			if (! isSilentModeFlag){
+				// batches are answered as they're sent, a sealed object
+				ObjectBus.write(httpOutStream, channel.cipher(getContents(responses)));
+			}
+			return responses;
+		}
 		else{
 			// we assume sealed payload
-			PKCS3Bob channel = this.channels.get(request.getSource());
-			if (channel == null){
-				throw new HobesSecurityException("Undefined channel: "+request.getSource());
+			PKCS3Bob channel = getChannel(request.getSource());
+			HobesResponse response = execute(channel, request);
+			if (! isSilentModeFlag){
+				channel.write(httpOutStream, response.getContent());
 			}
-			Object plainRequest = channel.decipher(request.getPayload());
-			
-			Class<? extends HobesCommand> cmdClass = findCommandType(plainRequest);
-			Constructor<? extends HobesCommand> constructor;
-			try {
-				constructor = cmdClass.getConstructor(new Class[] {});
-				HobesCommand cmd = constructor.newInstance(new Object[] {});
-				Object result = cmd.execute(request.getSource(), plainRequest);
-				
-				if (! isSilentModeFlag){
-					channel.write(httpOutStream, plainRequest);
+			return response;
+		}
+	}
+	
+	/**
+	 * Serves a request already deserialized, typically by an in-process transport.
+	 * 
+	 * @param pRequest Either a handshake, with a {@link HandshakeHello}, a 
+	 * {@link HandshakeResume} or Alice public value as payload, a sealed request, 
+	 * or a batch of sealed requests.
+	 * 
+	 * @return The {@link HandshakeReply}, or Bob public value, for a handshake, 
+	 * the sealed command result otherwise.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public Object onRequest(SourcedObject pRequest) throws HobesException {
+		if (isHandshake(pRequest)){
+			return createReply(pRequest, admitHandshake(pRequest, null));
+		}
+		PKCS3Bob channel = getChannel(pRequest.getSource());
+		if (pRequest.getPayload() instanceof SealedObject[]){
+			return channel.cipher(getContents(executeBatch(channel, pRequest)));
+		}
+		return channel.cipher(execute(channel, pRequest).getContent());
+	}
+	
+	private static boolean isHandshake(SourcedObject pRequest) {
+		return (pRequest.getPayload() instanceof HandshakeHello) 
+				|| (pRequest.getPayload() instanceof HandshakeResume)
+				|| (pRequest.getPayload() instanceof byte[]);
+	}
+	
+	/**
+	 * Runs a key agreement on the handshake threads, or refuses it at once when 
+	 * too many are pending. Resumptions are cheap, and run on the calling thread.
+	 * <p>The calling thread waits for the agreement: a storm of reconnecting clients
+	 * holds up to <code>hobes.handshakes.threads</code> plus <code>hobes.handshakes.queue</code>
+	 * serving threads, bounded by {@link #setMaxHandshakeWorkers(int)}, and those 
+	 * left serve sealed requests. Both settings must stay well below the number 
+	 * of threads of the server.
+	 * 
+	 * @param pRequest The handshake request.
+	 * @param pOutStream A stream to write the answer to, or <code>null</code>.
+	 * 
+	 * @return The new channel, <code>null</code> if the ticket was refused.
+	 * 
+	 * @throws HobesBusyException When too many handshakes are pending.
+	 * @throws HobesException When an error occurs, typically no common profile.
+	 */
+	private PKCS3Bob admitHandshake(final SourcedObject pRequest, final OutputStream pOutStream) 
+			throws HobesException {
+		if (pRequest.getPayload() instanceof HandshakeResume){
+			return handshake(pRequest, pOutStream);
+		}
+		Semaphore workers = this.handshakeWorkers;
+		if ((workers != null) && (! workers.tryAcquire())){
+			throw new HobesBusyException("Too many pending handshakes", 
+					getInt(CONFIG_HANDSHAKE_RETRY_AFTER, DEFAULT_HANDSHAKE_RETRY_AFTER));
+		}
+		try {
+			return agree(pRequest, pOutStream);
+		}
+		finally {
+			if (workers != null){
+				workers.release();
+			}
+		}
+	}
+	
+	/**
+	 * Limits the number of serving threads that may wait for key agreements at 
+	 * once, beyond which handshakes are refused, so that a reconnect storm can't
+	 * hold all the threads of the server. Servers call it when mounting a context,
+	 * see {@link org.marl.hobes.http.HobesHttpServer#mountBob(String, PKCS3BobContext)}.
+	 * 
+	 * @param pMaxWorkers The maximum number of serving threads, <code>0</code> for no limit
+	 * but the handshake threads and queue.
+	 */
+	public void setMaxHandshakeWorkers(int pMaxWorkers) {
+		this.handshakeWorkers = (pMaxWorkers > 0) ? new Semaphore(pMaxWorkers) : null;
+	}
+	
+	// runs a key agreement on the handshake threads, and waits for it
+	private PKCS3Bob agree(final SourcedObject pRequest, final OutputStream pOutStream) 
+			throws HobesException {
+		Future<PKCS3Bob> future;
+		try {
+			future = getHandshakeExecutor().submit(new Callable<PKCS3Bob>() {
+				@Override
+				public PKCS3Bob call() throws HobesException {
+					return handshake(pRequest, pOutStream);
 				}
-				
-				return new HobesResponse(request.getSource(),
-						plainRequest,
-						cmdClass,
-						result);
-			} 
-			catch (NoSuchMethodException e) {
-				throw new HobesDataException(e);
+			});
+		}
+		catch (RejectedExecutionException e) {
+			throw new HobesBusyException("Too many pending handshakes", 
+					getInt(CONFIG_HANDSHAKE_RETRY_AFTER, DEFAULT_HANDSHAKE_RETRY_AFTER));
+		}
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof HobesException){
+				throw (HobesException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error){
+				throw (Error) e.getCause();
+			}
+			throw new HobesSecurityException(e.getCause());
+		}
+		catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	private synchronized ThreadPoolExecutor getHandshakeExecutor() throws HobesDataException {
+		if (this.handshakes == null){
+			int threads = getInt(CONFIG_HANDSHAKE_THREADS, Runtime.getRuntime().availableProcessors());
+			int queue = getInt(CONFIG_HANDSHAKE_QUEUE, DEFAULT_HANDSHAKE_QUEUE);
+			if (threads <= 0){
+				throw new HobesDataException(CONFIG_HANDSHAKE_THREADS);
+			}
+			BlockingQueue<Runnable> pending = (queue > 0) ? 
+					new ArrayBlockingQueue<Runnable>(queue) : new SynchronousQueue<Runnable>();
+			ThreadFactory daemons = new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable pTask) {
+					Thread thread = new Thread(pTask, "hobes-handshakes");
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+			// refuses handshakes when all threads are busy and the queue is full
+			this.handshakes = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+					pending, daemons, new ThreadPoolExecutor.AbortPolicy());
+			this.handshakes.allowCoreThreadTimeOut(true);
+		}
+		return this.handshakes;
+	}
+	
+	/**
+	 * Answers how many key agreements wait for a handshake thread.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized int getPendingHandshakes() {
+		return (this.handshakes == null) ? 0 : this.handshakes.getQueue().size();
+	}
+	
+	private int getInt(String pKey, int pDefault) throws HobesDataException {
+		try {
+			return Integer.parseInt(this.ctxConfig.getProperty(pKey, String.valueOf(pDefault)).trim());
+		}
+		catch (NumberFormatException e) {
+			throw new HobesDataException(pKey, e);
+		}
+	}
+	
+	private Object createReply(SourcedObject pRequest, PKCS3Bob pChannel) throws HobesException {
+		if (pRequest.getPayload() instanceof byte[]){
+			return pChannel.getPublicValue();
+		}
+		if (pChannel == null){
+			// refused ticket, Alice falls back to a full handshake
+			return new HandshakeReply(null, null);
+		}
+		byte[] publicValue = (pRequest.getPayload() instanceof HandshakeHello) ? 
+				pChannel.getPublicValue() : null;
+		if (this.tickets == null){
+			return new HandshakeReply(publicValue, pChannel.getProfile());
+		}
+		SessionTicket ticket = this.tickets.seal(pChannel.getId(), 
+				pChannel.getSecretKey(), pChannel.getProfile());
+		return new HandshakeReply(publicValue, pChannel.getProfile(), 
+				ticket.getTicket(), ticket.getExpiry());
+	}
+	
+	/**
+	 * Agrees on a new secret with Alice, replacing any previous channel of the same source.
+	 * <p>A {@link HandshakeHello} is answered a {@link HandshakeReply} with the negotiated
+	 * profile, a bare public value is answered Bob public value, and gets the 
+	 * {@link ChannelProfile#LEGACY} profile.
+	 * <p>Alice chooses the key agreement algorithm, Diffie-Hellman for bare public 
+	 * values, Bob only checks it is among the configured ones. Alice may also name
+	 * the id of the trusted keys in Bob {@link MappedKeyStore}, which must be valid 
+	 * and of that algorithm.
+	 * <p>Unless disabled, hellos and resumptions are issued a session ticket. A 
+	 * {@link HandshakeResume} restores the channel sealed in its ticket, without 
+	 * key agreement, and is answered without public value. Refused tickets are
+	 * answered without profile.
+	 * 
+	 * @param pRequest The handshake request, with a {@link HandshakeHello}, a 
+	 * {@link HandshakeResume} or Alice public value as payload.
+	 * @param pOutStream A stream to write the answer to, or <code>null</code>.
+	 * 
+	 * @return The new channel, <code>null</code> if the ticket was refused.
+	 * 
+	 * @throws HobesException When an error occurs, typically no common profile.
+	 */
+	protected PKCS3Bob handshake(SourcedObject pRequest, OutputStream pOutStream) 
+			throws HobesException {
+		if (pRequest.getPayload() instanceof HandshakeResume){
+			PKCS3Bob channel = resume(pRequest);
+			if (channel != null){
+				this.channels.put(channel);
+			}
+			if (pOutStream != null){
+				ObjectBus.write(pOutStream, createReply(pRequest, channel));
+			}
+			return channel;
+		}
+		byte[] aliceEncodedPV;
+		HandshakeHello hello = null;
+		ChannelProfile profile;
+		String agreement = SecretFactory.KEY_AGREEMENT_ALGORITHM;
+		String keyId = null;
+		if (pRequest.getPayload() instanceof HandshakeHello){
+			hello = (HandshakeHello) pRequest.getPayload();
+			aliceEncodedPV = hello.getPublicValue();
+			agreement = hello.getAgreement();
+			keyId = hello.getKeyId();
+			profile = ChannelProfile.negotiate(hello, 
+					getPreferences(CONFIG_SUITES, ChannelProfile.SUPPORTED_SUITES),
+					getPreferences(CONFIG_CODECS, ChannelProfile.SUPPORTED_CODECS),
+					getPreferences(CONFIG_FRAMINGS, ChannelProfile.SUPPORTED_FRAMINGS));
+		}
+		else {
+			aliceEncodedPV = (byte[]) pRequest.getPayload();
+			profile = ChannelProfile.LEGACY;
+		}
+		if (! isAcceptedAgreement(agreement)){
+			throw new HobesSecurityException("No common key agreement: "+agreement);
+		}
+		PKCS3Bob channel = new PKCS3Bob(pRequest.getSource());
+		if (keyId != null){
+			if (this.keyStore == null){
+				throw new HobesSecurityException("Unknown key id: "+keyId);
+			}
+			channel.setTrustedKey(this.keyStore, keyId);
+			if (! channel.getKeyAgreementAlgorithm().equals(agreement)){
+				throw new HobesSecurityException("Key id "+keyId+" is not for "+agreement);
 			}
-			catch (SecurityException e) {
-				throw new HobesSecurityException(e);
-			} 
-			catch (InstantiationException e) {
-				throw new HobesDataException(e);
-			} 
-			catch (IllegalAccessException e) {
-				throw new HobesDataException(e);
-			} 
-			catch (IllegalArgumentException e) {
-				throw new HobesDataException(e);
-			} 
-			catch (InvocationTargetException e) {
-				throw new HobesDataException(e);
-			} 
 		}
+		else {
+			channel.setKeyAgreementAlgorithm(agreement);
+		}
+		channel.setProfile(profile);
+		setRekeyPolicy(channel);
+		channel.protocolPhaseI();
+		if (hello != null){
+			// the key is bound to what both ends saw of the negotiation
+			channel.protocolPhaseII(aliceEncodedPV, 
+					hello.getTranscript(channel.getPublicValue(), profile));
+		}
+		else {
+			channel.protocolPhaseII(aliceEncodedPV);
+		}
+		
+		this.channels.put(channel);
+		
+		if (pOutStream != null){
+			ObjectBus.write(pOutStream, createReply(pRequest, channel));
+		}
+		return channel;
+	}
+	
+	private PKCS3Bob resume(SourcedObject pRequest) throws HobesException {
+		if (this.tickets == null){
+			return null;
+		}
+		SessionTicket ticket;
+		try {
+			ticket = this.tickets.open(pRequest.getSource(), 
+					((HandshakeResume) pRequest.getPayload()).getTicket());
+		}
+		catch (HobesSecurityException e) {
+			return null;
+		}
+		PKCS3Bob channel = new PKCS3Bob(pRequest.getSource());
+		channel.resumeSession(ticket);
+		setRekeyPolicy(channel);
+		return channel;
+	}
+	
+	private void setRekeyPolicy(PKCS3Bob pChannel) throws HobesDataException {
+		try {
+			long messages = Long.parseLong(this.ctxConfig.getProperty(CONFIG_REKEY_MESSAGES, "0").trim());
+			long age = Long.parseLong(this.ctxConfig.getProperty(CONFIG_REKEY_AGE, "0").trim());
+			long overlap = Long.parseLong(this.ctxConfig.getProperty(CONFIG_REKEY_OVERLAP, 
+					String.valueOf(KeyEpochs.DEFAULT_OVERLAP / 1000)).trim());
+			pChannel.setRekeyPolicy(messages, age * 1000, overlap * 1000);
+		}
+		catch (NumberFormatException e) {
+			throw new HobesDataException(CONFIG_REKEY_MESSAGES, e);
+		}
+	}
+	
+	private boolean isAcceptedAgreement(String pAgreement) {
+		String value = this.ctxConfig.getProperty(CONFIG_AGREEMENTS);
+		if (value == null){
+			return true;
+		}
+		for (String item : value.split(",")){
+			if (item.trim().equals(pAgreement)){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private int[] getPreferences(String pKey, int[] pDefaults) throws HobesDataException {
+		String value = this.ctxConfig.getProperty(pKey);
+		if (value == null){
+			return pDefaults;
+		}
+		String[] items = value.split(",");
+		int[] preferences = new int[items.length];
+		try {
+			for (int i = 0; i < items.length; i++){
+				preferences[i] = Integer.parseInt(items[i].trim());
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new HobesDataException(pKey, e);
+		}
+		return preferences;
+	}
+	
+	/**
+	 * Answers the channel established with a source.
+	 * 
+	 * @param pSourceId The source identifier.
+	 * 
+	 * @return The channel.
+	 * 
+	 * @throws HobesSecurityException When no channel was established with this source,
+	 * or it was evicted.
+	 */
+	protected PKCS3Bob getChannel(String pSourceId) throws HobesSecurityException {
+		PKCS3Bob channel = this.channels.get(pSourceId);
+		if (channel == null){
+			throw new HobesSecurityException(UNDEFINED_CHANNEL + ": " + pSourceId);
+		}
+		return channel;
+	}
+	
+	/**
+	 * Deciphers a sealed request, and executes the corresponding command.
+	 * 
+	 * @param pChannel The channel established with the request source.
+	 * @param pRequest The sealed request.
+	 * 
+	 * @return The command response.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	protected HobesResponse execute(PKCS3Bob pChannel, SourcedObject pRequest) 
+			throws HobesException {
+		Object plainRequest = pChannel.decipher(pRequest.getPayload());
+		
+		Class<? extends HobesCommand> cmdClass = findCommandType(plainRequest);
+		Constructor<? extends HobesCommand> constructor;
+		try {
+			constructor = cmdClass.getConstructor(new Class[] {});
+			HobesCommand cmd = constructor.newInstance(new Object[] {});
+			Object result = cmd.execute(pRequest.getSource(), plainRequest);
+			
+			return new HobesResponse(pRequest.getSource(),
+					plainRequest,
+					cmdClass,
+					result,
+					(cmd instanceof CacheableCommand) ? 
+							((CacheableCommand) cmd).getMaxAge() : HobesResponse.NOT_CACHEABLE);
+		} 
+		catch (NoSuchMethodException e) {
+			throw new HobesDataException(e);
+		}
+		catch (SecurityException e) {
+			throw new HobesSecurityException(e);
+		} 
+		catch (InstantiationException e) {
+			throw new HobesDataException(e);
+		} 
+		catch (IllegalAccessException e) {
+			throw new HobesDataException(e);
+		} 
+		catch (IllegalArgumentException e) {
+			throw new HobesDataException(e);
+		} 
+		catch (InvocationTargetException e) {
+			throw new HobesDataException(e);
+		} 
+	}
+	
+	/**
+	 * Executes a batch of sealed requests, in order.
+	 * 
+	 * @param pChannel The channel established with the request source.
+	 * @param pRequest The batch, a <code>SealedObject[]</code> payload.
+	 * 
+	 * @return The command responses, in the requests order.
+	 * 
+	 * @throws HobesException When an error occurs, the remaining requests are then not executed.
+	 */
+	protected HobesResponse[] executeBatch(PKCS3Bob pChannel, SourcedObject pRequest) 
+			throws HobesException {
+		SealedObject[] batch = (SealedObject[]) pRequest.getPayload();
+		HobesResponse[] responses = new HobesResponse[batch.length];
+		for (int i = 0; i < batch.length; i++){
+			responses[i] = execute(pChannel, new SourcedObject(pRequest.getSource(), batch[i]));
+		}
+		return responses;
+	}
+	
+	private static Object[] getContents(HobesResponse[] pResponses) {
+		Object[] contents = new Object[pResponses.length];
+		for (int i = 0; i < pResponses.length; i++){
+			contents[i] = pResponses[i].getContent();
+		}
+		return contents;
 	}
 	
 	protected Class<? extends HobesCommand> findCommandType(Object request)
@@ -0,0 +1,396 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.SealedObject;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesBusyException;
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.secrets.DesObjectBus;
+
+/**
+ * A store-and-forward outbox for {@link PKCS3AliceHttp} clients that are
+ * often disconnected.
+ * <p>Requests are journaled to disk when {@link #enqueue(String, Object) enqueued},
+ * sealed with a local journal key since the channel secret may change before
+ * they're sent, and the caller returns at once. They are then drained in the
+ * background with {@link PKCS3AliceHttp#postBatch(Object[])}, in batches, as soon
+ * as Bob is reachable. When he's not, draining is retried with an exponential backoff,
+ * and pending requests survive a restart of the client.
+ * <p>Requests of a same source are sent in order, one batch at a time; at most
+ * <code>maxConcurrency</code> sources are drained concurrently. Delivery is
+ * at least once: a batch whose response was lost is sent again.
+ * <p>Only transport failures are retried, busy endpoints being given the delay
+ * they ask for. A batch Bob refused, e.g. as malformed, would be refused again:
+ * it's moved aside to a dead letter journal instead, for the application to
+ * {@link #takeDeadLetters(String) take} and deal with, so that it doesn't block
+ * the requests enqueued after it.
+ */
+public class AliceOutbox {
+
+	/** Default maximum number of requests per batch. */
+	public static final int DEFAULT_BATCH_SIZE = 32;
+	/** Default maximum number of sources drained concurrently. */
+	public static final int DEFAULT_MAX_CONCURRENCY = 4;
+	/** Delay before the first retry of an unreachable endpoint, in milliseconds. */
+	public static final long MIN_RETRY_DELAY = 1000;
+	/** Longest delay between retries of an unreachable endpoint, in milliseconds. */
+	public static final long MAX_RETRY_DELAY = 1000 * 60;
+	
+	private final File directory;
+	private final SecretKey journalKey;
+	private final int batchSize;
+	private final ConcurrentHashMap<String,Mailbox> mailboxes = new ConcurrentHashMap<String,Mailbox>();
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService workers;
+	
+	/**
+	 * Creates an outbox.
+	 * 
+	 * @param pDirectory The directory to keep journals in.
+	 * @param pJournalKey The key journaled requests are sealed with.
+	 * @param pBatchSize The maximum number of requests per batch.
+	 * @param pMaxConcurrency The maximum number of sources drained concurrently.
+	 */
+	public AliceOutbox(File pDirectory, SecretKey pJournalKey, int pBatchSize, int pMaxConcurrency) {
+		this.directory = pDirectory;
+		this.journalKey = pJournalKey;
+		this.batchSize = pBatchSize;
+		ThreadFactory daemons = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable pTask) {
+				Thread thread = new Thread(pTask, "hobes-outbox");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(daemons);
+		this.workers = Executors.newFixedThreadPool(pMaxConcurrency, daemons);
+	}
+	
+	/**
+	 * Creates an outbox with default limits.
+	 * 
+	 * @param pDirectory The directory to keep journals in.
+	 * @param pJournalKey The key journaled requests are sealed with.
+	 */
+	public AliceOutbox(File pDirectory, SecretKey pJournalKey) {
+		this(pDirectory, pJournalKey, DEFAULT_BATCH_SIZE, DEFAULT_MAX_CONCURRENCY);
+	}
+	
+	/**
+	 * Registers the client of a source, whose journal is opened, or recovered, 
+	 * and drained.
+	 * 
+	 * @param pAlice The client requests of its source are sent with.
+	 * 
+	 * @throws HobesException When the journal can't be opened.
+	 */
+	public void register(PKCS3AliceHttp pAlice) throws HobesException {
+		Mailbox mailbox = this.mailboxes.get(pAlice.getId());
+		if (mailbox != null){
+			mailbox.alice = pAlice;
+		}
+		else {
+			mailbox = new Mailbox(pAlice, 
+					new OutboxJournal(new File(this.directory, getJournalName(pAlice.getId(), ".outbox"))),
+					new OutboxJournal(new File(this.directory, getJournalName(pAlice.getId(), ".dead"))));
+			this.mailboxes.put(pAlice.getId(), mailbox);
+		}
+		schedule(mailbox, 0);
+	}
+	
+	/**
+	 * Journals a request, to be sent as soon as possible.
+	 * <p>This function never waits for the network.
+	 * 
+	 * @param pSourceId The identifier of a {@link #register registered} source.
+	 * @param pData A serializable object.
+	 * 
+	 * @throws HobesException When the source is not registered, or the request 
+	 * can't be journaled.
+	 */
+	public void enqueue(String pSourceId, Object pData) throws HobesException {
+		Mailbox mailbox = getMailbox(pSourceId);
+		mailbox.journal.append(ObjectBus.toBytes(DesObjectBus.cipher(pData, this.journalKey)));
+		schedule(mailbox, 0);
+	}
+	
+	/**
+	 * Answers the number of requests of a source not sent yet.
+	 * 
+	 * @param pSourceId The identifier of a registered source.
+	 * 
+	 * @return That's it.
+	 * 
+	 * @throws HobesException When the source is not registered.
+	 */
+	public int getPendingCount(String pSourceId) throws HobesException {
+		return getMailbox(pSourceId).journal.size();
+	}
+	
+	/**
+	 * Answers the number of requests of a source Bob refused, and which were
+	 * moved aside.
+	 * 
+	 * @param pSourceId The identifier of a registered source.
+	 * 
+	 * @return That's it.
+	 * 
+	 * @throws HobesException When the source is not registered.
+	 */
+	public int getDeadLetterCount(String pSourceId) throws HobesException {
+		return getMailbox(pSourceId).deadLetters.size();
+	}
+	
+	/**
+	 * Takes the requests of a source Bob refused, which are then forgotten.
+	 * 
+	 * @param pSourceId The identifier of a registered source.
+	 * 
+	 * @return The requests, in the order they were enqueued.
+	 * 
+	 * @throws HobesException When the source is not registered, or the dead 
+	 * letter journal can't be read.
+	 */
+	public List<Object> takeDeadLetters(String pSourceId) throws HobesException {
+		OutboxJournal deadLetters = getMailbox(pSourceId).deadLetters;
+		synchronized (deadLetters) {
+			List<byte[]> records = deadLetters.peek(Integer.MAX_VALUE);
+			List<Object> requests = new ArrayList<Object>(records.size());
+			for (byte[] record : records){
+				requests.add(unseal(record));
+			}
+			deadLetters.ack(records);
+			return requests;
+		}
+	}
+	
+	/**
+	 * Retries draining all sources now, e.g. when the network comes back,
+	 * rather than waiting for their backoff delay to expire.
+	 */
+	public void flush() {
+		for (Mailbox mailbox : this.mailboxes.values()){
+			mailbox.retryDelay = 0;
+			ScheduledFuture<?> retry = mailbox.retry;
+			if ((retry != null) && retry.cancel(false)){
+				mailbox.draining.set(false);
+			}
+			schedule(mailbox, 0);
+		}
+	}
+	
+	/**
+	 * Waits until all the requests enqueued so far were sent.
+	 * 
+	 * @param pTimeout How long to wait, in milliseconds.
+	 * 
+	 * @return Whether all requests were sent before the timeout.
+	 * 
+	 * @throws InterruptedException When the calling thread is interrupted.
+	 */
+	public boolean awaitDrained(long pTimeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + pTimeout;
+		while (true){
+			boolean drained = true;
+			for (Mailbox mailbox : this.mailboxes.values()){
+				drained &= (mailbox.journal.size() == 0);
+			}
+			if (drained){
+				return true;
+			}
+			if (System.currentTimeMillis() >= deadline){
+				return false;
+			}
+			Thread.sleep(10);
+		}
+	}
+	
+	/** 
+	 * Stops draining, and closes journals. Pending requests will be 
+	 * recovered by the next outbox registering their source. 
+	 */
+	public void close() {
+		this.scheduler.shutdownNow();
+		this.workers.shutdown();
+		try {
+			this.workers.awaitTermination(MAX_RETRY_DELAY, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Mailbox mailbox : this.mailboxes.values()){
+			mailbox.journal.close();
+			mailbox.deadLetters.close();
+		}
+		this.mailboxes.clear();
+	}
+	
+	private Mailbox getMailbox(String pSourceId) throws HobesException {
+		Mailbox mailbox = this.mailboxes.get(pSourceId);
+		if (mailbox == null){
+			throw new HobesDataException("Unregistered source: " + pSourceId);
+		}
+		return mailbox;
+	}
+	
+	private void schedule(final Mailbox pMailbox, long pDelay) {
+		if (! pMailbox.draining.compareAndSet(false, true)){
+			// the running drain will see new requests
+			return;
+		}
+		final Runnable drain = new Runnable() {
+			@Override
+			public void run() {
+				drain(pMailbox);
+			}
+		};
+		if (pDelay <= 0){
+			execute(pMailbox, drain);
+			return;
+		}
+		try {
+			pMailbox.retry = this.scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					execute(pMailbox, drain);
+				}
+			}, pDelay, TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e) {
+			// closed
+			pMailbox.draining.set(false);
+		}
+	}
+	
+	private void execute(Mailbox pMailbox, Runnable pDrain) {
+		try {
+			this.workers.execute(pDrain);
+		}
+		catch (RejectedExecutionException e) {
+			// closed
+			pMailbox.draining.set(false);
+		}
+	}
+	
+	private void drain(Mailbox pMailbox) {
+		long retryDelay = 0;
+		try {
+			List<byte[]> records;
+			while (! (records = pMailbox.journal.peek(this.batchSize)).isEmpty()){
+				try {
+					Object[] batch = new Object[records.size()];
+					for (int i = 0; i < batch.length; i++){
+						batch[i] = unseal(records.get(i));
+					}
+					pMailbox.alice.postBatch(batch);
+				}
+				catch (HobesTransportException e) {
+					throw e;
+				}
+				catch (HobesException e) {
+					// refused, it would be again: moved aside rather than retried
+					for (byte[] record : records){
+						pMailbox.deadLetters.append(record);
+					}
+				}
+				pMailbox.journal.ack(records);
+				pMailbox.retryDelay = 0;
+			}
+		}
+		catch (HobesTransportException e) {
+			// Bob is out of reach, or busy: try again later
+			retryDelay = Math.min(MAX_RETRY_DELAY, 
+					Math.max(MIN_RETRY_DELAY, pMailbox.retryDelay * 2));
+			if (e instanceof HobesBusyException){
+				retryDelay = Math.max(retryDelay, 1000L * ((HobesBusyException) e).getRetryAfter());
+			}
+			pMailbox.retryDelay = retryDelay;
+		}
+		catch (HobesException e) {
+			// the journal is corrupt, retrying won't help
+			return;
+		}
+		finally {
+			pMailbox.draining.set(false);
+		}
+		if (retryDelay > 0){
+			schedule(pMailbox, retryDelay);
+		}
+		else if (pMailbox.journal.size() > 0){
+			// enqueued while we were finishing
+			schedule(pMailbox, 0);
+		}
+	}
+	
+	private Object unseal(byte[] pRecord) throws HobesException {
+		Object sealed = ObjectBus.fromBytes(pRecord);
+		if (! (sealed instanceof SealedObject)){
+			throw new HobesDataException(String.valueOf(sealed));
+		}
+		return DesObjectBus.decipher((SealedObject) sealed, this.journalKey);
+	}
+	
+	private static String getJournalName(String pSourceId, String pSuffix) throws HobesSecurityException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(pSourceId.getBytes(StandardCharsets.UTF_8));
+			return ObjectBus.bytestoHex(hash).substring(0, 32).toLowerCase() + pSuffix;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	private static class Mailbox {
+		private volatile PKCS3AliceHttp alice;
+		private final OutboxJournal journal;
+		private final OutboxJournal deadLetters;
+		private final AtomicBoolean draining = new AtomicBoolean(false);
+		private volatile long retryDelay = 0;
+		private volatile ScheduledFuture<?> retry;
+		
+		private Mailbox(PKCS3AliceHttp pAlice, OutboxJournal pJournal, OutboxJournal pDeadLetters) {
+			this.alice = pAlice;
+			this.journal = pJournal;
+			this.deadLetters = pDeadLetters;
+		}
+	}
+}
@@ -17,16 +17,24 @@ along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
 */
 package org.marl.hobes.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
+import javax.crypto.SealedObject;
 import javax.crypto.SecretKey;
 
 import org.marl.hobes.HobesDataException;
 import org.marl.hobes.HobesException;
 import org.marl.hobes.HobesSecurityException;
 import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.net.FrameObjectBus;
+import org.marl.hobes.net.LocalObjectBus;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.DesChannel;
 import org.marl.hobes.secrets.DesObjectBus;
 
 /** 
@@ -64,6 +72,16 @@ public class DesObjectBusHttp {
 			boolean pUseResponseFlag,
 			SecretKey pSharedKey) throws HobesException {
 		
+		if (FrameObjectBus.isFrameUrl(pUrl)){
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DesObjectBus.write(bos, pData, pSharedKey);
+			return readResponse(FrameObjectBus.exchange(pUrl, bos.toByteArray(), 
+					pTcpTimeout, pHttpTimeout, pUseResponseFlag), pSharedKey);
+		}
+		if (LocalObjectBus.isLocalUrl(pUrl)){
+			return decipherResponse(LocalObjectBus.post(pUrl, 
+					DesObjectBus.cipher(pData, pSharedKey), pUseResponseFlag), pSharedKey);
+		}
 		try {
 			HttpURLConnection connection = (HttpURLConnection) pUrl.openConnection();
 			connection.setConnectTimeout(pTcpTimeout);
@@ -75,6 +93,7 @@ public class DesObjectBusHttp {
 			
 			DesObjectBus.write(connection.getOutputStream(), pData, pSharedKey) ;
 			if (pUseResponseFlag) {
+				HttpObjectBus.checkStatus(connection);
 				return DesObjectBus.read(connection.getInputStream(), pSharedKey);
 			}
 			else {
@@ -102,6 +121,40 @@ public class DesObjectBusHttp {
 			int pHttpTimeout,
 			boolean pUseResponseFlag,
 			SecretKey pSharedKey) throws HobesException {
+		return postWithSource(pUrl, pSource, pData, pTcpTimeout, pHttpTimeout, pUseResponseFlag,
+				pSharedKey, ChannelProfile.DEFAULT);
+	}
+	
+	/**
+	 * Serializes an object along with its source, as agreed on for a channel.
+	 * <p>Same as {@link #postWithSource(URL, String, Object, int, int, boolean, SecretKey)},
+	 * the request being written with the profile codec and framing version.
+	 * 
+	 * @param pProfile The channel profile.
+	 * 
+	 * @return The deserialized object, or <code>null</code> if the
+	 * <code>pUseResponseFlag</code> is not set.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public static Object postWithSource(URL pUrl,
+			String pSource,
+			Object pData, 
+			int pTcpTimeout,
+			int pHttpTimeout,
+			boolean pUseResponseFlag,
+			SecretKey pSharedKey,
+			ChannelProfile pProfile) throws HobesException {
+		if (FrameObjectBus.isFrameUrl(pUrl)){
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DesObjectBus.writeWithSource(pSource, bos, pData, pSharedKey, pProfile);
+			return readResponse(FrameObjectBus.exchange(pUrl, bos.toByteArray(), 
+					pTcpTimeout, pHttpTimeout, pUseResponseFlag), pSharedKey);
+		}
+		if (LocalObjectBus.isLocalUrl(pUrl)){
+			return decipherResponse(LocalObjectBus.postWithSource(pSource, pUrl, 
+					DesObjectBus.cipher(pData, pSharedKey), pUseResponseFlag), pSharedKey);
+		}
 		try {
 			HttpURLConnection connection = (HttpURLConnection) pUrl.openConnection();
 			connection.setConnectTimeout(pTcpTimeout);
@@ -111,8 +164,9 @@ public class DesObjectBusHttp {
 			connection.setDoInput(pUseResponseFlag);
 			connection.connect();
 			
-			DesObjectBus.writeWithSource(pSource, connection.getOutputStream(), pData, pSharedKey) ;
+			DesObjectBus.writeWithSource(pSource, connection.getOutputStream(), pData, pSharedKey, pProfile);
 			if (pUseResponseFlag) {
+				HttpObjectBus.checkStatus(connection);
 				return DesObjectBus.read(connection.getInputStream(), pSharedKey);
 			}
 			else {
@@ -123,4 +177,142 @@ public class DesObjectBusHttp {
 			throw new HobesTransportException(e);
 		}
 	}
+	
+	/**
+	 * Serializes an object along with its source, through a channel.
+	 * <p>Same as {@link #postWithSource(URL, String, Object, int, int, boolean, SecretKey, ChannelProfile)},
+	 * the request being ciphered, and the response deciphered, by the channel, 
+	 * so that it may rekey in-band.
+	 * 
+	 * @param pChannel The channel, its identifier being the source.
+	 * 
+	 * @return The deserialized object, or <code>null</code> if the
+	 * <code>pUseResponseFlag</code> is not set.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public static Object postWithSource(URL pUrl,
+			Object pData, 
+			int pTcpTimeout,
+			int pHttpTimeout,
+			boolean pUseResponseFlag,
+			DesChannel pChannel) throws HobesException {
+		if (FrameObjectBus.isFrameUrl(pUrl)){
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			pChannel.writeWithSource(pChannel.getId(), bos, pData);
+			byte[] response = FrameObjectBus.exchange(pUrl, bos.toByteArray(), 
+					pTcpTimeout, pHttpTimeout, pUseResponseFlag);
+			return (response == null) ? null : pChannel.read(new ByteArrayInputStream(response));
+		}
+		if (LocalObjectBus.isLocalUrl(pUrl)){
+			Object response = LocalObjectBus.postWithSource(pChannel.getId(), pUrl, 
+					pChannel.cipher(pData), pUseResponseFlag);
+			return (response == null) ? null : pChannel.decipher(response);
+		}
+		try {
+			HttpURLConnection connection = (HttpURLConnection) pUrl.openConnection();
+			connection.setConnectTimeout(pTcpTimeout);
+			connection.setReadTimeout(pHttpTimeout);
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setDoInput(pUseResponseFlag);
+			connection.connect();
+			
+			pChannel.writeWithSource(pChannel.getId(), connection.getOutputStream(), pData);
+			if (pUseResponseFlag) {
+				HttpObjectBus.checkStatus(connection);
+				return pChannel.read(connection.getInputStream());
+			}
+			else {
+				return null;
+			}
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	/**
+	 * Serializes an object along with its source, through a channel, 
+	 * reusing a cached response when possible.
+	 * <p>Same as {@link #postWithSource(URL, Object, int, int, boolean, DesChannel)},
+	 * though sealed exchanges never repeat, so responses are cached by their plain
+	 * request and response: a fresh one is answered without any network exchange,
+	 * a stale one is revalidated against the entity tag Bob gave the plain response.
+	 * 
+	 * @param pChannel The channel, its identifier being the source.
+	 * @param pCache The response cache to use.
+	 * 
+	 * @return The deserialized object.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 * 
+	 * @see HttpObjectBus#post(URL, Object, int, int, HttpResponseCache)
+	 */
+	public static Object postWithSource(URL pUrl,
+			Object pData, 
+			int pTcpTimeout,
+			int pHttpTimeout,
+			DesChannel pChannel,
+			HttpResponseCache pCache) throws HobesException {
+		if (FrameObjectBus.isFrameUrl(pUrl) || LocalObjectBus.isLocalUrl(pUrl)){
+			// no caching headers there, the cache is bypassed
+			return postWithSource(pUrl, pData, pTcpTimeout, pHttpTimeout, true, pChannel);
+		}
+		String key = HttpResponseCache.createKey(pUrl, pChannel.getId(), ObjectBus.toBytes(pData));
+		HttpResponseCache.Entry entry = pCache.get(key);
+		if ((entry != null) && entry.isFresh()){
+			return ObjectBus.fromBytes(entry.getContent());
+		}
+		
+		try {
+			HttpURLConnection connection = (HttpURLConnection) pUrl.openConnection();
+			connection.setConnectTimeout(pTcpTimeout);
+			connection.setReadTimeout(pHttpTimeout);
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setDoInput(true);
+			if ((entry != null) && (entry.getETag() != null)){
+				connection.setRequestProperty(HttpObjectBus.IF_NONE_MATCH_HEADER, entry.getETag());
+			}
+			connection.connect();
+			
+			pChannel.writeWithSource(pChannel.getId(), connection.getOutputStream(), pData);
+			HttpObjectBus.checkStatus(connection);
+			int maxAge = HttpResponseCache.parseMaxAge(
+					connection.getHeaderField(HttpObjectBus.CACHE_CONTROL_HEADER));
+			if ((entry != null) 
+					&& (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)){
+				pCache.revalidate(key, maxAge);
+				return ObjectBus.fromBytes(entry.getContent());
+			}
+			
+			Object response = pChannel.read(connection.getInputStream());
+			pCache.put(key, ObjectBus.toBytes(response), 
+					connection.getHeaderField(HttpObjectBus.ETAG_HEADER), maxAge);
+			return response;
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	private static Object readResponse(byte[] pResponse, SecretKey pSharedKey) 
+			throws HobesException {
+		if (pResponse == null){
+			return null;
+		}
+		return DesObjectBus.read(new ByteArrayInputStream(pResponse), pSharedKey);
+	}
+	
+	private static Object decipherResponse(Object pResponse, SecretKey pSharedKey) 
+			throws HobesException {
+		if (pResponse == null){
+			return null;
+		}
+		if (! (pResponse instanceof SealedObject)){
+			throw new HobesDataException(pResponse.getClass().getName());
+		}
+		return DesObjectBus.decipher((SealedObject) pResponse, pSharedKey);
+	}
 }
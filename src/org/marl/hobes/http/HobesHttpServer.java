@@ -0,0 +1,607 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.marl.hobes.HobesBusyException;
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.broker.Broker;
+import org.marl.hobes.broker.Subscription;
+import org.marl.hobes.ctx.EchoCommand;
+import org.marl.hobes.ctx.HobesResponse;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.secrets.PKCS3Bob;
+import org.marl.hobes.secrets.SealedFrame;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP server hosting HOBes endpoints, built upon the JDK
+ * <code>com.sun.net.httpserver</code> package.
+ * <p>Two kinds of endpoints can be mounted:
+ * <ul>
+ * <li>an echo endpoint, that answers the object it receives, 
+ * conforming to the {@link HttpObjectBus} API;</li>
+ * <li>a Bob endpoint, that delegates to a {@link PKCS3BobContext},
+ * conforming to the {@link PKCS3AliceHttp} API;</li>
+ * <li>a broker endpoint, that publishes to and long-polls a {@link Broker},
+ * conforming to the {@link HttpBrokerClient} API.</li>
+ * </ul>
+ * <p>Each request runs on its own virtual thread when the runtime provides them,
+ * on a fixed pool of worker threads otherwise. In both cases at most
+ * <code>maxWorkers</code> requests are served concurrently: requests are admitted
+ * when they're handed off to a worker, not queued. Extra requests are answered 
+ * <code>503 Service Unavailable</code> with a <code>Retry-After</code> header by a
+ * few threads of their own. Handshakes refused by the admission control of 
+ * {@link PKCS3BobContext} are answered <code>503</code> as well; since key 
+ * agreements hold their worker, at most half the workers may wait for them.
+ * Responses of cacheable commands carry an <code>ETag</code>, computed over
+ * the plain response for Bob calls, see {@link HttpResponseCache}.
+ */
+public class HobesHttpServer {
+
+	/** Default listening port. */
+	public static final int DEFAULT_PORT = 8080;
+	/** Default context path, under which endpoints are mounted. */
+	public static final String DEFAULT_CONTEXT_PATH = "/hobes-www";
+	/** Default maximum number of pending TCP connections. */
+	public static final int DEFAULT_BACKLOG = 128;
+	/** Default maximum number of requests served concurrently. */
+	public static final int DEFAULT_MAX_WORKERS = 256;
+	/** Delay, in seconds, clients are asked to wait when the server is saturated. */
+	public static final int RETRY_AFTER = 1;
+	/** Longest time a broker poll may wait for messages, in milliseconds. */
+	public static final long MAX_POLL_TIMEOUT = 1000 * 30;
+	/** Most messages a broker poll may answer at once. */
+	public static final int MAX_POLL_MESSAGES = 1000;
+	
+	/** Number of threads answering the requests refused when the server is saturated. */
+	public static final int REFUSAL_WORKERS = 4;
+	/** System property mounting the broker endpoint in {@link #main(String[])}, off by default. */
+	public static final String BROKER_PROPERTY = "hobes.httpd.broker";
+	
+	// set while a refused request runs, for the handlers to answer 503
+	private static final ThreadLocal<Boolean> refused = new ThreadLocal<Boolean>();
+	
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ExecutorService refusals;
+	private final Semaphore workers;
+	private final int maxWorkers;
+	
+	/**
+	 * Creates a server, not started yet.
+	 * 
+	 * @param pAddress The address to listen on.
+	 * @param pBacklog The maximum number of pending TCP connections.
+	 * @param pMaxWorkers The maximum number of requests served concurrently.
+	 * 
+	 * @throws HobesTransportException When the address can't be bound.
+	 */
+	public HobesHttpServer(InetSocketAddress pAddress, int pBacklog, int pMaxWorkers)
+			throws HobesTransportException {
+		try {
+			this.server = HttpServer.create(pAddress, pBacklog);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(String.valueOf(pAddress), e);
+		}
+		this.executor = createExecutor(pMaxWorkers);
+		// refusals are quick, those beyond the backlog are answered by the dispatcher
+		this.refusals = new ThreadPoolExecutor(0, REFUSAL_WORKERS, 60, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(Math.max(pBacklog, 1)), 
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		this.workers = new Semaphore(pMaxWorkers);
+		this.maxWorkers = pMaxWorkers;
+		this.server.setExecutor(new Executor() {
+			@Override
+			public void execute(Runnable pTask) {
+				admit(pTask);
+			}
+		});
+	}
+	
+	/**
+	 * Enables <code>TCP_NODELAY</code> on the connections of the servers created afterwards.
+	 * <p>The JDK server leaves Nagle's algorithm on, which delays small responses by 
+	 * a delayed-ACK period (~40 ms). The setting is JVM-wide, hence left to applications.
+	 */
+	public static void enableNoDelay() {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null){
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+	
+	/**
+	 * Creates a server listening on all interfaces, with default limits.
+	 * 
+	 * @param pPort The port to listen on, <code>0</code> for an ephemeral port.
+	 * 
+	 * @throws HobesTransportException When the port can't be bound.
+	 */
+	public HobesHttpServer(int pPort) throws HobesTransportException {
+		this(new InetSocketAddress(pPort), DEFAULT_BACKLOG, DEFAULT_MAX_WORKERS);
+	}
+	
+	/**
+	 * Mounts an echo endpoint.
+	 * 
+	 * @param pPath The endpoint path, e.g. <code>/hobes-www/echo</code>.
+	 */
+	public void mountEcho(String pPath) {
+		this.server.createContext(pPath, new EchoHandler());
+	}
+	
+	/**
+	 * Mounts a Bob endpoint.
+	 * <p>A key agreement holds its worker until it completes: the context is
+	 * let hold half of this server workers at most, so that a reconnect storm
+	 * leaves the others to sealed requests.
+	 * 
+	 * @param pPath The endpoint path, e.g. <code>/hobes-www/bob</code>.
+	 * @param pContext The context requests are delegated to.
+	 * 
+	 * @see PKCS3BobContext#setMaxHandshakeWorkers(int)
+	 */
+	public void mountBob(String pPath, PKCS3BobContext pContext) {
+		pContext.setMaxHandshakeWorkers(Math.max(1, this.maxWorkers / 2));
+		this.server.createContext(pPath, new BobHandler(pContext));
+	}
+	
+	/**
+	 * Mounts a broker endpoint.
+	 * <p>Pending long-polls count against this server workers limit.
+	 * <p>The endpoint authenticates no one: whoever reaches it may publish,
+	 * and subscribers deserialize whatever was published. Mount it on trusted
+	 * networks only, or have publishers seal their messages, e.g. with a 
+	 * {@link org.marl.hobes.secrets.GroupChannel}, so that subscribers open 
+	 * nothing they can't authenticate.
+	 * 
+	 * @param pPath The endpoint path, e.g. <code>/hobes-www/broker</code>.
+	 * @param pBroker The broker requests are delegated to.
+	 */
+	public void mountBroker(String pPath, Broker pBroker) {
+		this.server.createContext(pPath, new BrokerHandler(pPath, pBroker));
+	}
+	
+	/**
+	 * Mounts an arbitrary handler, which then shares this server workers limit.
+	 * 
+	 * @param pPath The endpoint path.
+	 * @param pHandler The handler.
+	 */
+	public void mount(String pPath, final HttpHandler pHandler) {
+		this.server.createContext(pPath, new LimitedHandler() {
+			@Override
+			protected void serve(HttpExchange pExchange) throws IOException {
+				pHandler.handle(pExchange);
+			}
+		});
+	}
+	
+	/**
+	 * Answers the address this server is bound to.
+	 * 
+	 * @return That's it, including the actual port when an ephemeral one was asked.
+	 */
+	public InetSocketAddress getAddress() {
+		return this.server.getAddress();
+	}
+	
+	/** Starts serving requests. */
+	public void start() {
+		this.server.start();
+	}
+	
+	/**
+	 * Stops this server gracefully: new connections are refused at once, 
+	 * while requests in progress are given some time to complete.
+	 * 
+	 * @param pGracePeriod The maximum time to wait for requests in progress, in seconds.
+	 */
+	public void stop(int pGracePeriod) {
+		this.server.stop(pGracePeriod);
+		this.refusals.shutdown();
+		this.executor.shutdown();
+		try {
+			if (! this.executor.awaitTermination(pGracePeriod, TimeUnit.SECONDS)){
+				this.executor.shutdownNow();
+			}
+		}
+		catch (InterruptedException e) {
+			this.executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Runs a server, with an echo endpoint at <code>/hobes-www/echo</code>,
+	 * and a Bob endpoint at <code>/hobes-www/bob</code>. A broker endpoint is 
+	 * mounted at <code>/hobes-www/broker</code> only when the {@link #BROKER_PROPERTY}
+	 * system property is <code>true</code>, since it's not authenticated, 
+	 * see {@link #mountBroker(String, Broker)}.
+	 * <p>Usage: hobes_httpd [&lt;port&gt;] [&lt;bob context properties&gt;].
+	 * 
+	 * @param args An optional port, defaults to 8080, and an optional
+	 * Bob context configuration, defaults to the <code>org/marl/hobes/ctx/bob.properties</code> resource.
+	 */
+	public static void main(String[] args) {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		String ctxPath = args.length > 1 ? args[1] : null;
+		
+		try {
+			enableNoDelay();
+			final HobesHttpServer server = new HobesHttpServer(port);
+			server.mountEcho(DEFAULT_CONTEXT_PATH + "/echo");
+			server.mountBob(DEFAULT_CONTEXT_PATH + "/bob", new PKCS3BobContext(ctxPath));
+			if (Boolean.getBoolean(BROKER_PROPERTY)){
+				server.mountBroker(DEFAULT_CONTEXT_PATH + "/broker", new Broker());
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					server.stop(5);
+				}
+			});
+			server.start();
+			System.out.println("... HOBes HTTP server listening on: " + server.getAddress());
+		}
+		catch (HobesException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes a serialized object as the response of an exchange.
+	 * <p>When the response is cacheable it's given an entity tag, and a
+	 * <code>304 Not Modified</code> is answered if the client already has it.
+	 * 
+	 * @param pExchange The exchange.
+	 * @param pContent The serialized object, possibly empty.
+	 * @param pMaxAge The response freshness lifetime in seconds, or
+	 * {@link HobesResponse#NOT_CACHEABLE}.
+	 * 
+	 * @throws IOException When an I/O error occurs.
+	 * @throws HobesException When the entity tag can't be computed.
+	 */
+	protected static void sendObject(HttpExchange pExchange, byte[] pContent, int pMaxAge)
+			throws IOException, HobesException {
+		sendObject(pExchange, pContent, pMaxAge, 
+				(pMaxAge < 0) ? null : HttpResponseCache.createETag(pContent));
+	}
+	
+	/**
+	 * Writes a serialized object as the response of an exchange, tagged by the caller.
+	 * <p>Sealed responses are tagged after their plain content, since their 
+	 * fresh nonces would change the tag on every call.
+	 * 
+	 * @param pExchange The exchange.
+	 * @param pContent The serialized object, possibly empty.
+	 * @param pMaxAge The response freshness lifetime in seconds, or
+	 * {@link HobesResponse#NOT_CACHEABLE}.
+	 * @param pETag The entity tag of the response, ignored when it's not cacheable.
+	 * 
+	 * @throws IOException When an I/O error occurs.
+	 * 
+	 * @see HttpResponseCache#createETag(javax.crypto.SecretKey, byte[])
+	 */
+	protected static void sendObject(HttpExchange pExchange, byte[] pContent, int pMaxAge,
+			String pETag) throws IOException {
+		Headers headers = pExchange.getResponseHeaders();
+		headers.set("Content-Type", HttpObjectBus.HOBES_CONTENT_TYPE);
+		if (pMaxAge < 0){
+			headers.set(HttpObjectBus.CACHE_CONTROL_HEADER, "no-store");
+		}
+		else {
+			headers.set(HttpObjectBus.ETAG_HEADER, pETag);
+			headers.set(HttpObjectBus.CACHE_CONTROL_HEADER, "max-age=" + pMaxAge);
+			if (HttpResponseCache.isNotModified(
+					pExchange.getRequestHeaders().getFirst(HttpObjectBus.IF_NONE_MATCH_HEADER), pETag)){
+				pExchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+				return;
+			}
+		}
+		pExchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 
+				pContent.length > 0 ? pContent.length : -1);
+		if (pContent.length > 0){
+			OutputStream os = pExchange.getResponseBody();
+			os.write(pContent);
+			os.close();
+		}
+	}
+	
+	// hands an exchange off to a worker if one is free, to the refusals otherwise
+	private void admit(final Runnable pTask) {
+		if (! this.workers.tryAcquire()){
+			this.refusals.execute(new Runnable() {
+				@Override
+				public void run() {
+					refused.set(Boolean.TRUE);
+					try {
+						pTask.run();
+					}
+					finally {
+						refused.remove();
+					}
+				}
+			});
+			return;
+		}
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						pTask.run();
+					}
+					finally {
+						workers.release();
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// stopping
+			this.workers.release();
+			throw e;
+		}
+	}
+	
+	private static ExecutorService createExecutor(int pMaxWorkers) {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (NoSuchMethodException e) {
+			// the runtime predates virtual threads
+		}
+		catch (IllegalAccessException e) {
+			// fall back to platform threads
+		}
+		catch (InvocationTargetException e) {
+			// virtual threads are a disabled preview feature
+		}
+		return Executors.newFixedThreadPool(pMaxWorkers);
+	}
+	
+	/**
+	 * Base handler, that answers the requests refused by the server workers limit,
+	 * and maps errors, unchecked ones included, to HTTP statuses.
+	 */
+	private abstract class LimitedHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange pExchange) throws IOException {
+			if (refused.get() != null){
+				pExchange.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER));
+				pExchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+				pExchange.close();
+				return;
+			}
+			try {
+				serve(pExchange);
+			}
+			catch (HobesBusyException e) {
+				pExchange.getResponseHeaders().set("Retry-After", String.valueOf(e.getRetryAfter()));
+				pExchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+			}
+			catch (HobesException e) {
+				sendError(pExchange, e);
+			}
+			catch (RuntimeException e) {
+				// e.g. a malformed request, answered rather than dropped
+				pExchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+			}
+			finally {
+				pExchange.close();
+			}
+		}
+		
+		// the error kind goes along, so that the client rethrows the same exception
+		private void sendError(HttpExchange pExchange, HobesException pError) throws IOException {
+			Headers headers = pExchange.getResponseHeaders();
+			String kind = HttpObjectBus.getErrorKind(pError);
+			if (kind != null){
+				headers.set(HttpObjectBus.ERROR_HEADER, kind);
+			}
+			String text = (pError.getMessage() != null) ? pError.getMessage() : "";
+			byte[] message = text.getBytes(StandardCharsets.UTF_8);
+			headers.set("Content-Type", "text/plain; charset=utf-8");
+			pExchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, message.length);
+			OutputStream os = pExchange.getResponseBody();
+			os.write(message);
+			os.close();
+		}
+		
+		/**
+		 * Serves an exchange.
+		 * 
+		 * @param pExchange The exchange.
+		 * 
+		 * @throws IOException When an I/O error occurs.
+		 * @throws HobesException When the request can't be served.
+		 */
+		protected abstract void serve(HttpExchange pExchange) throws IOException, HobesException;
+	}
+	
+	private class EchoHandler extends LimitedHandler {
+
+		@Override
+		protected void serve(HttpExchange pExchange) throws IOException, HobesException {
+			byte[] request = pExchange.getRequestBody().readAllBytes();
+			if (! SealedFrame.isSealedFrame(request)){
+				// sealed frames are answered as received
+				request = ObjectBus.toBytes(ObjectBus.fromBytes(request));
+			}
+			sendObject(pExchange, request, EchoCommand.MAX_AGE);
+		}
+	}
+	
+	private class BobHandler extends LimitedHandler {
+		
+		private final PKCS3BobContext context;
+		
+		BobHandler(PKCS3BobContext pContext) {
+			this.context = pContext;
+		}
+
+		@Override
+		protected void serve(HttpExchange pExchange) throws IOException, HobesException {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			Object result = this.context.onRequest(pExchange.getRequestBody(), bos, false);
+			if ((result instanceof HobesResponse) && ((HobesResponse) result).isCacheable()){
+				HobesResponse response = (HobesResponse) result;
+				// tagged after the plain content, under a key of the channel
+				PKCS3Bob channel = this.context.getChannels().get(response.getRequestSource());
+				sendObject(pExchange, bos.toByteArray(), response.getMaxAge(), 
+						HttpResponseCache.createETag(channel.getSecretKey(), 
+								ObjectBus.toBytes(response.getContent())));
+			}
+			else {
+				sendObject(pExchange, bos.toByteArray(), HobesResponse.NOT_CACHEABLE);
+			}
+		}
+	}
+	
+	private class BrokerHandler extends LimitedHandler {
+		
+		private final String path;
+		private final Broker broker;
+		
+		BrokerHandler(String pPath, Broker pBroker) {
+			this.path = pPath.endsWith("/") ? pPath : pPath + "/";
+			this.broker = pBroker;
+		}
+
+		@Override
+		protected void serve(HttpExchange pExchange) throws IOException, HobesException {
+			String action = pExchange.getRequestURI().getPath();
+			action = action.startsWith(this.path) ? action.substring(this.path.length()) : "";
+			Map<String,String> query = parseQuery(pExchange.getRequestURI().getRawQuery());
+			try {
+				if ("publish".equals(action)){
+					String topic = required(query, "topic");
+					byte[] message = pExchange.getRequestBody().readAllBytes();
+					// forwarded as is, subscribers deserialize it
+					sendText(pExchange, String.valueOf(this.broker.publish(topic, message)));
+				}
+				else if ("subscribe".equals(action)){
+					this.broker.expire();
+					Subscription subscription = this.broker.subscribe(required(query, "topic"), 
+							Integer.parseInt(required(query, "capacity")),
+							HttpBrokerClient.BLOCK.equals(query.get("policy")) ? 
+									Subscription.BLOCK : Subscription.DROP_OLDEST);
+					sendText(pExchange, subscription.getId());
+				}
+				else if ("poll".equals(action)){
+					Subscription subscription = this.broker.getSubscription(required(query, "subscription"));
+					if (subscription == null){
+						pExchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+						return;
+					}
+					int max = query.containsKey("max") ? 
+							Math.min(Integer.parseInt(query.get("max")), MAX_POLL_MESSAGES) : MAX_POLL_MESSAGES;
+					long timeout = query.containsKey("timeout") ? 
+							Math.min(Long.parseLong(query.get("timeout")), MAX_POLL_TIMEOUT) : 0;
+					List<byte[]> messages = subscription.poll(max, timeout);
+					ByteArrayOutputStream bos = new ByteArrayOutputStream();
+					HttpBrokerClient.writeMessages(bos, messages);
+					pExchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+					pExchange.getResponseHeaders().set(HttpObjectBus.CACHE_CONTROL_HEADER, "no-store");
+					pExchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, bos.size() > 0 ? bos.size() : -1);
+					if (bos.size() > 0){
+						OutputStream os = pExchange.getResponseBody();
+						bos.writeTo(os);
+						os.close();
+					}
+				}
+				else if ("unsubscribe".equals(action)){
+					this.broker.unsubscribe(required(query, "subscription"));
+					pExchange.sendResponseHeaders(HttpURLConnection.HTTP_NO_CONTENT, -1);
+				}
+				else {
+					pExchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+				}
+			}
+			catch (IllegalArgumentException e) {
+				// includes NumberFormatException
+				pExchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_REQUEST, -1);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				pExchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+			}
+		}
+		
+		private void sendText(HttpExchange pExchange, String pText) throws IOException {
+			byte[] content = pText.getBytes(StandardCharsets.UTF_8);
+			pExchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			pExchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, content.length);
+			OutputStream os = pExchange.getResponseBody();
+			os.write(content);
+			os.close();
+		}
+		
+		private String required(Map<String,String> pQuery, String pName) {
+			String value = pQuery.get(pName);
+			if ((value == null) || value.isEmpty()){
+				throw new IllegalArgumentException(pName);
+			}
+			return value;
+		}
+		
+		private Map<String,String> parseQuery(String pRawQuery) {
+			Map<String,String> query = new HashMap<String,String>();
+			if (pRawQuery != null){
+				for (String parameter : pRawQuery.split("&")){
+					int i = parameter.indexOf('=');
+					if (i > 0){
+						query.put(URLDecoder.decode(parameter.substring(0, i), StandardCharsets.UTF_8),
+								URLDecoder.decode(parameter.substring(i + 1), StandardCharsets.UTF_8));
+					}
+				}
+			}
+			return query;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.broker.Subscription;
+
+/**
+ * A client of a {@link org.marl.hobes.broker.Broker} mounted on a 
+ * {@link HobesHttpServer}, see {@link HobesHttpServer#mountBroker}.
+ * <p>The broker endpoint understands:
+ * <ul>
+ * <li><code>POST publish?topic=</code>, the content being an object written
+ * with {@link ObjectBus#writeWithSource}, answers the number of subscribers reached;</li>
+ * <li><code>POST subscribe?topic=&amp;capacity=&amp;policy=drop-oldest|block</code>,
+ * answers the subscription identifier;</li>
+ * <li><code>GET poll?subscription=&amp;max=&amp;timeout=</code>, a long-poll
+ * answering the queued messages, each prefixed by its int length, or
+ * <code>404 Not Found</code> when the subscription expired;</li>
+ * <li><code>POST unsubscribe?subscription=</code>.</li>
+ * </ul>
+ */
+public class HttpBrokerClient {
+
+	/** Query value of the {@link Subscription#DROP_OLDEST} policy. */
+	public static final String DROP_OLDEST = "drop-oldest";
+	/** Query value of the {@link Subscription#BLOCK} policy. */
+	public static final String BLOCK = "block";
+	
+	private final String brokerUrl;
+	private final int tcpTimeout;
+	private final int httpTimeout;
+	
+	/**
+	 * @param pBrokerUrl The broker endpoint, e.g. <code>http://localhost:8080/hobes-www/broker</code>.
+	 * @param pTcpTimeout The TCP connection timeout.
+	 * @param pHttpTimeout The HTTP read timeout, poll timeouts are added to it.
+	 */
+	public HttpBrokerClient(URL pBrokerUrl, int pTcpTimeout, int pHttpTimeout) {
+		String url = pBrokerUrl.toExternalForm();
+		this.brokerUrl = url.endsWith("/") ? url : url + "/";
+		this.tcpTimeout = pTcpTimeout;
+		this.httpTimeout = pHttpTimeout;
+	}
+	
+	/**
+	 * @param pBrokerUrl The broker endpoint.
+	 */
+	public HttpBrokerClient(URL pBrokerUrl) {
+		this(pBrokerUrl, HttpObjectBus.DEFAULT_TCP_TIMEOUT, HttpObjectBus.DEFAULT_HTTP_TIMEOUT);
+	}
+	
+	/**
+	 * Publishes an object to a topic.
+	 * 
+	 * @param pTopic The topic name.
+	 * @param pSourceId The source identifier.
+	 * @param pData A serializable object.
+	 * 
+	 * @return The number of subscribers the message was queued to.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public int publish(String pTopic, String pSourceId, Object pData) throws HobesException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectBus.writeWithSource(pSourceId, bos, pData);
+		String count = new String(exchange("POST", "publish?topic=" + encode(pTopic), 
+				bos.toByteArray(), 0), StandardCharsets.UTF_8);
+		return Integer.parseInt(count.trim());
+	}
+	
+	/**
+	 * Subscribes to a topic.
+	 * 
+	 * @param pTopic The topic name.
+	 * @param pCapacity The maximum number of messages queued by the broker.
+	 * @param pPolicy The overflow policy, {@link Subscription#DROP_OLDEST} or {@link Subscription#BLOCK}.
+	 * 
+	 * @return The subscription identifier.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public String subscribe(String pTopic, int pCapacity, int pPolicy) throws HobesException {
+		byte[] id = exchange("POST", "subscribe?topic=" + encode(pTopic) 
+				+ "&capacity=" + pCapacity
+				+ "&policy=" + ((pPolicy == Subscription.BLOCK) ? BLOCK : DROP_OLDEST), 
+				null, 0);
+		return new String(id, StandardCharsets.UTF_8).trim();
+	}
+	
+	/**
+	 * Waits for messages published to a subscribed topic.
+	 * 
+	 * @param pSubscriptionId The subscription identifier.
+	 * @param pMax The maximum number of messages to answer.
+	 * @param pTimeout How long the broker may wait for a message, in milliseconds.
+	 * 
+	 * @return The messages, in publication order, possibly none.
+	 * 
+	 * @throws HobesException When an error occurs, including when the subscription expired.
+	 */
+	public List<SourcedObject> poll(String pSubscriptionId, int pMax, long pTimeout) 
+			throws HobesException {
+		byte[] content = exchange("GET", "poll?subscription=" + encode(pSubscriptionId) 
+				+ "&max=" + pMax + "&timeout=" + pTimeout, null, (int) pTimeout);
+		List<SourcedObject> messages = new ArrayList<SourcedObject>();
+		for (byte[] message : readMessages(new ByteArrayInputStream(content))){
+			messages.add(ObjectBus.readWithSource(new ByteArrayInputStream(message)));
+		}
+		return messages;
+	}
+	
+	/**
+	 * Cancels a subscription.
+	 * 
+	 * @param pSubscriptionId The subscription identifier.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public void unsubscribe(String pSubscriptionId) throws HobesException {
+		exchange("POST", "unsubscribe?subscription=" + encode(pSubscriptionId), null, 0);
+	}
+	
+	/**
+	 * Writes messages, each prefixed by its int length.
+	 * 
+	 * @param pOutStream The stream to write to.
+	 * @param pMessages The messages.
+	 * 
+	 * @throws IOException When an I/O error occurs.
+	 */
+	static void writeMessages(OutputStream pOutStream, List<byte[]> pMessages) throws IOException {
+		DataOutputStream dos = new DataOutputStream(pOutStream);
+		for (byte[] message : pMessages){
+			dos.writeInt(message.length);
+			dos.write(message);
+		}
+		dos.flush();
+	}
+	
+	/**
+	 * Reads messages written by {@link #writeMessages(OutputStream, List)}, up to the end of stream.
+	 * 
+	 * @param pInStream The stream to read from.
+	 * 
+	 * @return The messages.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	static List<byte[]> readMessages(InputStream pInStream) throws HobesTransportException {
+		List<byte[]> messages = new ArrayList<byte[]>();
+		DataInputStream dis = new DataInputStream(pInStream);
+		try {
+			while (true){
+				int length;
+				try {
+					length = dis.readInt();
+				}
+				catch (EOFException e) {
+					return messages;
+				}
+				byte[] message = new byte[length];
+				dis.readFully(message);
+				messages.add(message);
+			}
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	private byte[] exchange(String pMethod, String pQuery, byte[] pContent, int pExtraTimeout) 
+			throws HobesTransportException {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(this.brokerUrl + pQuery).openConnection();
+			connection.setConnectTimeout(this.tcpTimeout);
+			connection.setReadTimeout(this.httpTimeout + pExtraTimeout);
+			connection.setRequestMethod(pMethod);
+			if (pContent != null){
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", HttpObjectBus.HOBES_CONTENT_TYPE);
+				OutputStream os = connection.getOutputStream();
+				os.write(pContent);
+				os.close();
+			}
+			int status = connection.getResponseCode();
+			if (status >= 300){
+				throw new HobesTransportException(this.brokerUrl + pQuery + ": HTTP " + status);
+			}
+			InputStream is = connection.getInputStream();
+			byte[] response = is.readAllBytes();
+			is.close();
+			return response;
+		}
+		catch (MalformedURLException e) {
+			throw new HobesTransportException(this.brokerUrl + pQuery, e);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(this.brokerUrl + pQuery, e);
+		}
+	}
+	
+	private static String encode(String pValue) {
+		return URLEncoder.encode(pValue, StandardCharsets.UTF_8);
+	}
+}
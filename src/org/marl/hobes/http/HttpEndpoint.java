@@ -0,0 +1,135 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http;
+
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One member of an {@link HttpEndpointPool}, with the load and health
+ * statistics the pool selects on.
+ * <p>Each exchange is bracketed by {@link #begin()} and {@link #end(long, boolean)},
+ * which maintain the number of outstanding requests, an exponentially weighted
+ * moving average (EWMA) of the latency, and the count of consecutive failures.
+ */
+public class HttpEndpoint {
+
+	/** Weight of the latest sample in the latency moving average. */
+	public static final double EWMA_WEIGHT = 0.2;
+	
+	private final URL url;
+	private final AtomicInteger outstanding = new AtomicInteger();
+	
+	// guarded by this
+	private double ewmaLatency = 0;
+	private int consecutiveFailures = 0;
+	private long ejectedUntil = 0;
+	
+	private final int maxFailures;
+	private final long ejectionTime;
+	
+	/**
+	 * Creates an endpoint.
+	 * 
+	 * @param pUrl The endpoint location.
+	 * @param pMaxFailures The number of consecutive failures after which the 
+	 * endpoint is ejected.
+	 * @param pEjectionTime How long an ejected endpoint is left aside, in milliseconds.
+	 */
+	public HttpEndpoint(URL pUrl, int pMaxFailures, long pEjectionTime) {
+		this.url = pUrl;
+		this.maxFailures = pMaxFailures;
+		this.ejectionTime = pEjectionTime;
+	}
+	
+	/** Answers this endpoint location.
+	 * 
+	 * @return The URL to post to.
+	 */
+	public URL getUrl() {
+		return url;
+	}
+	
+	/** Answers the number of requests currently in flight.
+	 * 
+	 * @return That's it.
+	 */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+	
+	/** Answers the latency moving average.
+	 * 
+	 * @return The average latency, in nanoseconds, <code>0</code> 
+	 * until a first exchange completes.
+	 */
+	public synchronized double getLatency() {
+		return ewmaLatency;
+	}
+	
+	/** Answers whether this endpoint may be selected.
+	 * 
+	 * @return <code>false</code> while the endpoint is ejected.
+	 */
+	public synchronized boolean isAvailable() {
+		return System.currentTimeMillis() >= ejectedUntil;
+	}
+	
+	synchronized long getEjectedUntil() {
+		return ejectedUntil;
+	}
+	
+	/**
+	 * Accounts for a new exchange with this endpoint.
+	 * 
+	 * @return A timestamp to pass to {@link #end(long, boolean)}.
+	 */
+	public long begin() {
+		outstanding.incrementAndGet();
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Accounts for a completed exchange.
+	 * <p>A success resets the failure count; a failure at the transport level
+	 * ejects the endpoint once too many occurred in a row. An endpoint 
+	 * coming back from ejection is ejected again on its first failure.
+	 * 
+	 * @param pStart The timestamp answered by {@link #begin()}.
+	 * @param pSuccess Whether the endpoint answered.
+	 */
+	public void end(long pStart, boolean pSuccess) {
+		long latency = System.nanoTime() - pStart;
+		outstanding.decrementAndGet();
+		synchronized (this) {
+			if (pSuccess){
+				ewmaLatency = (ewmaLatency == 0) ? latency 
+						: (EWMA_WEIGHT * latency) + ((1 - EWMA_WEIGHT) * ewmaLatency);
+				consecutiveFailures = 0;
+			}
+			else if (++consecutiveFailures >= maxFailures){
+				ejectedUntil = System.currentTimeMillis() + ejectionTime;
+			}
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return url.toExternalForm();
+	}
+}
@@ -0,0 +1,171 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spreads HOBes traffic over several equivalent endpoints, typically
+ * several Bob instances sharing the same trusted key pair.
+ * <p>The pool selects endpoints according to one of two policies:
+ * <ul>
+ * <li>{@link #LEAST_OUTSTANDING}: fewest requests in flight, latency breaking ties;</li>
+ * <li>{@link #EWMA_LATENCY}: lowest latency moving average, weighted by the
+ * requests in flight.</li>
+ * </ul>
+ * Endpoints failing repeatedly are ejected for a while.
+ * <p>Since a Diffie-Hellman secret only lives on the Bob that agreed on it,
+ * the pool also records which endpoint each source is bound to, 
+ * see {@link #bind(String, HttpEndpoint)}.
+ * 
+ * @see PKCS3AliceHttp
+ */
+public class HttpEndpointPool {
+
+	/** Selects the endpoint with the fewest requests in flight. */
+	public static final int LEAST_OUTSTANDING = 0;
+	/** Selects the endpoint with the lowest load-weighted latency average. */
+	public static final int EWMA_LATENCY = 1;
+	
+	/** Default number of consecutive failures before ejection. */
+	public static final int DEFAULT_MAX_FAILURES = 3;
+	/** Default ejection time, 30 seconds. */
+	public static final long DEFAULT_EJECTION_TIME = 1000 * 30;
+	
+	private final HttpEndpoint[] endpoints;
+	private final int policy;
+	private final ConcurrentHashMap<String,HttpEndpoint> bindings;
+	
+	/**
+	 * Creates a pool.
+	 * 
+	 * @param pUrls The endpoint locations.
+	 * @param pPolicy One of {@link #LEAST_OUTSTANDING}, {@link #EWMA_LATENCY}.
+	 * @param pMaxFailures The number of consecutive failures after which
+	 * an endpoint is ejected.
+	 * @param pEjectionTime How long an ejected endpoint is left aside, in milliseconds.
+	 */
+	public HttpEndpointPool(URL[] pUrls, int pPolicy, int pMaxFailures, long pEjectionTime) {
+		if (pUrls.length == 0){
+			throw new IllegalArgumentException("No endpoint");
+		}
+		this.endpoints = new HttpEndpoint[pUrls.length];
+		for (int i = 0; i < pUrls.length; i++){
+			this.endpoints[i] = new HttpEndpoint(pUrls[i], pMaxFailures, pEjectionTime);
+		}
+		this.policy = pPolicy;
+		this.bindings = new ConcurrentHashMap<String,HttpEndpoint>();
+	}
+	
+	/**
+	 * Creates a pool with default ejection settings.
+	 * 
+	 * @param pUrls The endpoint locations.
+	 * @param pPolicy One of {@link #LEAST_OUTSTANDING}, {@link #EWMA_LATENCY}.
+	 */
+	public HttpEndpointPool(URL[] pUrls, int pPolicy) {
+		this(pUrls, pPolicy, DEFAULT_MAX_FAILURES, DEFAULT_EJECTION_TIME);
+	}
+	
+	/**
+	 * Creates a pool with a single endpoint.
+	 * 
+	 * @param pUrl The endpoint location.
+	 */
+	public HttpEndpointPool(URL pUrl) {
+		this(new URL[] {pUrl}, LEAST_OUTSTANDING);
+	}
+	
+	/** Answers the pool members.
+	 * 
+	 * @return The endpoints, in configuration order.
+	 */
+	public HttpEndpoint[] getEndpoints() {
+		return endpoints.clone();
+	}
+	
+	/**
+	 * Selects an endpoint for a new exchange, according to the pool policy.
+	 * <p>When all endpoints are ejected, the one coming back first is answered,
+	 * so that the caller gets an error from the network rather than from the pool.
+	 * 
+	 * @return The selected endpoint.
+	 */
+	public HttpEndpoint select() {
+		HttpEndpoint selected = null;
+		double selectedScore = 0;
+		for (HttpEndpoint endpoint : this.endpoints){
+			if (! endpoint.isAvailable()){
+				continue;
+			}
+			double score = score(endpoint);
+			if ((selected == null) || (score < selectedScore)){
+				selected = endpoint;
+				selectedScore = score;
+			}
+		}
+		if (selected == null){
+			for (HttpEndpoint endpoint : this.endpoints){
+				if ((selected == null) || (endpoint.getEjectedUntil() < selected.getEjectedUntil())){
+					selected = endpoint;
+				}
+			}
+		}
+		return selected;
+	}
+	
+	/**
+	 * Binds a source to the endpoint that holds its channel secret.
+	 * 
+	 * @param pSourceId The source identifier.
+	 * @param pEndpoint A member of this pool.
+	 */
+	public void bind(String pSourceId, HttpEndpoint pEndpoint) {
+		this.bindings.put(pSourceId, pEndpoint);
+	}
+	
+	/**
+	 * Answers the endpoint a source is bound to.
+	 * 
+	 * @param pSourceId The source identifier.
+	 * 
+	 * @return The bound endpoint, or <code>null</code>.
+	 */
+	public HttpEndpoint getBinding(String pSourceId) {
+		return this.bindings.get(pSourceId);
+	}
+	
+	/**
+	 * Forgets the endpoint a source is bound to.
+	 * 
+	 * @param pSourceId The source identifier.
+	 */
+	public void unbind(String pSourceId) {
+		this.bindings.remove(pSourceId);
+	}
+	
+	private double score(HttpEndpoint pEndpoint) {
+		if (this.policy == EWMA_LATENCY){
+			return pEndpoint.getLatency() * (pEndpoint.getOutstanding() + 1);
+		}
+		// latency in [0,1) so that it only breaks ties
+		double latency = pEndpoint.getLatency();
+		return pEndpoint.getOutstanding() + (latency / (latency + 1));
+	}
+}
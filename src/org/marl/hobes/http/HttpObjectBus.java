@@ -18,12 +18,20 @@ along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
 package org.marl.hobes.http;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
+import org.marl.hobes.HobesBusyException;
+import org.marl.hobes.HobesDataException;
 import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesSecurityException;
 import org.marl.hobes.HobesTransportException;
 import org.marl.hobes.ObjectBus;
+import org.marl.hobes.net.FrameObjectBus;
+import org.marl.hobes.net.LocalObjectBus;
 
 /** 
  * Provides an API similar to {@link org.marl.hobes.ObjectBus}, but adapted to HTP transport.
@@ -45,6 +53,21 @@ public class HttpObjectBus {
 	/** Debug HTTP read timeout, infinite. */
 	public static final int DEBUG_HTTP_TIMEOUT = 0;
 	
+	/** Response header carrying the entity tag of a cacheable result. */
+	public static final String ETAG_HEADER = "ETag";
+	/** Request header carrying the entity tag of a cached result. */
+	public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+	/** Response header carrying the freshness lifetime of a result. */
+	public static final String CACHE_CONTROL_HEADER = "Cache-Control";
+	/** Header of the delay, in seconds, saturated servers ask clients to wait. */
+	public static final String RETRY_AFTER_HEADER = "Retry-After";
+	/** Response header of the kind of error a server failed with, see {@link #getErrorKind}. */
+	public static final String ERROR_HEADER = "X-Hobes-Error";
+	/** Error kind of a refused request, see {@link HobesSecurityException}. */
+	public static final String ERROR_SECURITY = "security";
+	/** Error kind of a malformed request, see {@link HobesDataException}. */
+	public static final String ERROR_DATA = "data";
+	
 	/** 
 	 * Open an bidirectional HTTP connection using specified timeouts.
 	 * 
@@ -103,6 +126,8 @@ public class HttpObjectBus {
 	 * Serializes an object as the payload of an HTTP <code>POST</code> request.
 	 * <p> When the <code>pUseResponseFlag</code> parameter is set,
 	 * the function also deserializes an object from the response content.
+	 * <p>Frame transport URLs are delegated to {@link FrameObjectBus}, 
+	 * in-process URLs to {@link LocalObjectBus}.
 	 * 
 	 * @param pUrl The location of an agent that conforms to the
 	 * {@link org.marl.hobes.ObjectBus#read} and
@@ -124,6 +149,12 @@ public class HttpObjectBus {
 			int pHttpTimeout,
 			boolean pUseResponseFlag) throws HobesException {
 		
+		if (FrameObjectBus.isFrameUrl(pUrl)){
+			return FrameObjectBus.post(pUrl, pData, pTcpTimeout, pHttpTimeout, pUseResponseFlag);
+		}
+		if (LocalObjectBus.isLocalUrl(pUrl)){
+			return LocalObjectBus.post(pUrl, pData, pUseResponseFlag);
+		}
 		try {
 			HttpURLConnection connection = (HttpURLConnection) pUrl.openConnection();
 			connection.setConnectTimeout(pTcpTimeout);
@@ -135,6 +166,7 @@ public class HttpObjectBus {
 			
 			ObjectBus.write(connection.getOutputStream(), pData) ;
 			if (pUseResponseFlag) {
+				checkStatus(connection);
 				return ObjectBus.read(connection.getInputStream());
 			}
 			else {
@@ -163,6 +195,13 @@ public class HttpObjectBus {
 			int pHttpTimeout,
 			boolean pUseResponseFlag) throws HobesException {
 
+		if (FrameObjectBus.isFrameUrl(pUrl)){
+			return FrameObjectBus.postWithSource(pSourceId, pUrl, pData, 
+					pTcpTimeout, pHttpTimeout, pUseResponseFlag);
+		}
+		if (LocalObjectBus.isLocalUrl(pUrl)){
+			return LocalObjectBus.postWithSource(pSourceId, pUrl, pData, pUseResponseFlag);
+		}
 		try {
 			HttpURLConnection connection = (HttpURLConnection) pUrl.openConnection();
 			connection.setConnectTimeout(pTcpTimeout);
@@ -174,6 +213,7 @@ public class HttpObjectBus {
 			
 			ObjectBus.writeWithSource(pSourceId, connection.getOutputStream(), pData) ;
 			if (pUseResponseFlag) {
+				checkStatus(connection);
 				return ObjectBus.read(connection.getInputStream());
 			}
 			else {
@@ -185,4 +225,147 @@ public class HttpObjectBus {
 		}
 		
 	}
+
+	/** 
+	 * Serializes an object as the payload of an HTTP <code>POST</code> request,
+	 * and deserializes the response, reusing a cached response when possible.
+	 * <p>A fresh cached response is answered without any network exchange.
+	 * A stale one is revalidated with an <code>If-None-Match</code> header, 
+	 * and a <code>304 Not Modified</code> answer is served from the cache.
+	 * Only responses the server announced as cacheable are stored.
+	 * 
+	 * @param pUrl The location of an agent that conforms to the
+	 * {@link org.marl.hobes.ObjectBus#read} and
+	 * {@link org.marl.hobes.ObjectBus#write} API.
+	 * @param pData A serializable object.
+	 * @param pTcpTimeout The TCP connection timeout.
+	 * @param pHttpTimeout The HTTP read timeout.
+	 * @param pCache The response cache to use.
+	 * 
+	 * @return The deserialized object.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public static Object post(URL pUrl,
+			Object pData, 
+			int pTcpTimeout,
+			int pHttpTimeout,
+			HttpResponseCache pCache) throws HobesException {
+		
+		if (FrameObjectBus.isFrameUrl(pUrl)){
+			// frames carry no caching headers, the cache is bypassed
+			return FrameObjectBus.post(pUrl, pData, pTcpTimeout, pHttpTimeout, true);
+		}
+		if (LocalObjectBus.isLocalUrl(pUrl)){
+			// nothing to save in-process
+			return LocalObjectBus.post(pUrl, pData, true);
+		}
+		byte[] request = ObjectBus.toBytes(pData);
+		String key = HttpResponseCache.createKey(pUrl, request);
+		HttpResponseCache.Entry entry = pCache.get(key);
+		if ((entry != null) && entry.isFresh()){
+			return ObjectBus.fromBytes(entry.getContent());
+		}
+		
+		try {
+			HttpURLConnection connection = (HttpURLConnection) pUrl.openConnection();
+			connection.setConnectTimeout(pTcpTimeout);
+			connection.setReadTimeout(pHttpTimeout);
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setDoInput(true);
+			connection.setRequestProperty("Content-Type", HOBES_CONTENT_TYPE);
+			if ((entry != null) && (entry.getETag() != null)){
+				connection.setRequestProperty(IF_NONE_MATCH_HEADER, entry.getETag());
+			}
+			connection.connect();
+			
+			OutputStream os = connection.getOutputStream();
+			os.write(request);
+			os.close();
+			
+			checkStatus(connection);
+			int maxAge = HttpResponseCache.parseMaxAge(
+					connection.getHeaderField(CACHE_CONTROL_HEADER));
+			if ((entry != null) 
+					&& (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)){
+				pCache.revalidate(key, maxAge);
+				return ObjectBus.fromBytes(entry.getContent());
+			}
+			
+			InputStream in = connection.getInputStream();
+			byte[] content = in.readAllBytes();
+			in.close();
+			pCache.put(key, content, connection.getHeaderField(ETAG_HEADER), maxAge);
+			return ObjectBus.fromBytes(content);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	/**
+	 * Answers the kind of error a server sends along with an error status.
+	 * 
+	 * @param pError The error the request failed with.
+	 * 
+	 * @return One of the <code>ERROR_</code> constants, or <code>null</code> for
+	 * errors clients can't do anything about.
+	 */
+	public static String getErrorKind(HobesException pError) {
+		if (pError instanceof HobesSecurityException){
+			return ERROR_SECURITY;
+		}
+		if (pError instanceof HobesDataException){
+			return ERROR_DATA;
+		}
+		return null;
+	}
+	
+	/**
+	 * Reports the error statuses of a response, telling a server that could not
+	 * be reached from one that failed to serve the request.
+	 * <p>Saturated servers answer <code>503 Service Unavailable</code>, so that 
+	 * requests are sent again after the delay they ask for. Other error statuses
+	 * are rethrown with the kind the server failed with, never as a 
+	 * {@link HobesTransportException}, since the server was reached.
+	 * 
+	 * @param pConnection A connection, its request sent.
+	 * 
+	 * @throws HobesBusyException When the server is saturated.
+	 * @throws HobesException When the server answered an error status.
+	 * @throws IOException When an I/O error occurs, e.g. the server can't be reached.
+	 */
+	static void checkStatus(HttpURLConnection pConnection) throws HobesException, IOException {
+		int status = pConnection.getResponseCode();
+		if (status == HttpURLConnection.HTTP_UNAVAILABLE){
+			int retryAfter = 1;
+			try {
+				String value = pConnection.getHeaderField(RETRY_AFTER_HEADER);
+				if (value != null){
+					retryAfter = Integer.parseInt(value.trim());
+				}
+			}
+			catch (NumberFormatException e) {
+				// HTTP dates are not sent by Bob, keep the default
+			}
+			throw new HobesBusyException(pConnection.getURL() + " is busy", retryAfter);
+		}
+		if (status >= HttpURLConnection.HTTP_BAD_REQUEST){
+			String message = pConnection.getURL() + ": " + status;
+			InputStream error = pConnection.getErrorStream();
+			if (error != null){
+				message += " " + new String(error.readAllBytes(), StandardCharsets.UTF_8);
+				error.close();
+			}
+			String kind = pConnection.getHeaderField(ERROR_HEADER);
+			if (ERROR_SECURITY.equals(kind)){
+				throw new HobesSecurityException(message);
+			}
+			if (ERROR_DATA.equals(kind)){
+				throw new HobesDataException(message);
+			}
+			throw new HobesException(message);
+		}
+	}
 }
@@ -0,0 +1,385 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.ObjectBus;
+
+/**
+ * A client-side cache of serialized HTTP responses, for idempotent HOBes calls.
+ * <p>Entries are keyed by endpoint and by a digest of the serialized request,
+ * so that two requests with equal content share the same entry.
+ * An entry stays fresh for the <code>max-age</code> announced by the
+ * server (bounded by this cache TTL); a stale entry that carries an 
+ * <code>ETag</code> is kept for revalidation with <code>If-None-Match</code>.
+ * <p>The least recently used entries are evicted once the cache is full.
+ * <p>Sealed calls carry a fresh nonce each time, so they're cached by their
+ * plain request and response: Bob tags the plain response before sealing it,
+ * under a key of the channel, so that equal responses keep their tag without
+ * telling eavesdroppers what they hold.
+ * 
+ * @see HttpObjectBus#post(URL, Object, int, int, HttpResponseCache)
+ * @see PKCS3AliceHttp#setResponseCache(HttpResponseCache)
+ */
+public class HttpResponseCache {
+
+	/** Default maximum number of entries. */
+	public static final int DEFAULT_CAPACITY = 256;
+	/** Default freshness lifetime, 1 minute. */
+	public static final long DEFAULT_TTL = 1000 * 60;
+	
+	/** Digest algorithm used for cache keys and entity tags. */
+	public static final String DIGEST_ALGORITHM = "SHA-256";
+	/** MAC algorithm used for the entity tags of sealed responses. */
+	public static final String MAC_ALGORITHM = "HmacSHA256";
+	
+	private static final byte[] ETAG_LABEL = "hobes-etag".getBytes(StandardCharsets.US_ASCII);
+	
+	/**
+	 * A cached response.
+	 */
+	public static class Entry {
+		private final byte[] content;
+		private final String eTag;
+		private volatile long expires;
+		
+		Entry(byte[] content, String eTag, long expires) {
+			this.content = content;
+			this.eTag = eTag;
+			this.expires = expires;
+		}
+		
+		/** Answers the serialized response content.
+		 * 
+		 * @return The bytes received from the server.
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+		
+		/** Answers the entity tag associated to this response.
+		 * 
+		 * @return The server entity tag, or <code>null</code>.
+		 */
+		public String getETag() {
+			return eTag;
+		}
+		
+		/** Answers whether this response can be used without revalidation.
+		 * 
+		 * @return That's it.
+		 */
+		public boolean isFresh() {
+			return System.currentTimeMillis() < expires;
+		}
+	}
+	
+	private final long ttl;
+	private final LinkedHashMap<String,Entry> entries;
+	
+	private long hits;
+	private long misses;
+	private long revalidations;
+	private long notModified;
+	
+	/**
+	 * Creates a response cache.
+	 * 
+	 * @param pCapacity The maximum number of entries.
+	 * @param pTtl The maximum freshness lifetime of an entry, in milliseconds.
+	 */
+	public HttpResponseCache(final int pCapacity, long pTtl) {
+		this.ttl = pTtl;
+		this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+				return size() > pCapacity;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a response cache with default capacity and TTL.
+	 */
+	public HttpResponseCache() {
+		this(DEFAULT_CAPACITY, DEFAULT_TTL);
+	}
+	
+	/**
+	 * Computes the cache key of a request.
+	 * 
+	 * @param pUrl The endpoint.
+	 * @param pSerializedRequest The serialized request.
+	 * 
+	 * @return A key identifying the request on this endpoint.
+	 * 
+	 * @throws HobesSecurityException When the digest algorithm is unavailable.
+	 */
+	public static String createKey(URL pUrl, byte[] pSerializedRequest) 
+			throws HobesSecurityException {
+		return pUrl.toExternalForm() + '#' + ObjectBus.bytestoHex(digest(pSerializedRequest));
+	}
+	
+	/**
+	 * Computes the cache key of a request sent by a source.
+	 * 
+	 * @param pUrl The endpoint.
+	 * @param pSourceId The source identifier.
+	 * @param pSerializedRequest The serialized plain request.
+	 * 
+	 * @return A key identifying the request of the source on this endpoint.
+	 * 
+	 * @throws HobesSecurityException When the digest algorithm is unavailable.
+	 */
+	public static String createKey(URL pUrl, String pSourceId, byte[] pSerializedRequest) 
+			throws HobesSecurityException {
+		MessageDigest digest = getDigest();
+		digest.update(pSourceId.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		return pUrl.toExternalForm() + '#' + ObjectBus.bytestoHex(digest.digest(pSerializedRequest));
+	}
+	
+	/**
+	 * Computes a strong entity tag for a plain response, keyed by a channel.
+	 * 
+	 * @param pKey The channel key.
+	 * @param pSerializedResponse The serialized plain response.
+	 * 
+	 * @return A quoted entity tag, suitable for the <code>ETag</code> header.
+	 * 
+	 * @throws HobesSecurityException When the MAC algorithm is unavailable.
+	 */
+	public static String createETag(SecretKey pKey, byte[] pSerializedResponse) 
+			throws HobesSecurityException {
+		MessageDigest digest = getDigest();
+		digest.update(ETAG_LABEL);
+		byte[] tagKey = digest.digest(pKey.getEncoded());
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(tagKey, MAC_ALGORITHM));
+			return '"' + ObjectBus.bytestoHex(mac.doFinal(pSerializedResponse)) + '"';
+		}
+		catch (GeneralSecurityException e) {
+			throw new HobesSecurityException(e);
+		}
+		finally {
+			Arrays.fill(tagKey, (byte) 0);
+		}
+	}
+	
+	/**
+	 * Computes a strong entity tag for a serialized response.
+	 * 
+	 * @param pSerializedResponse The serialized response.
+	 * 
+	 * @return A quoted entity tag, suitable for the <code>ETag</code> header.
+	 * 
+	 * @throws HobesSecurityException When the digest algorithm is unavailable.
+	 */
+	public static String createETag(byte[] pSerializedResponse) 
+			throws HobesSecurityException {
+		return '"' + ObjectBus.bytestoHex(digest(pSerializedResponse)) + '"';
+	}
+	
+	/**
+	 * Answers whether an <code>If-None-Match</code> request header matches
+	 * the current entity tag of a resource.
+	 * 
+	 * @param pIfNoneMatch The request header value, possibly <code>null</code>.
+	 * @param pETag The current entity tag.
+	 * 
+	 * @return <code>true</code> when a <code>304 Not Modified</code> should be answered.
+	 */
+	public static boolean isNotModified(String pIfNoneMatch, String pETag) {
+		if ((pIfNoneMatch == null) || (pETag == null)){
+			return false;
+		}
+		for (String candidate : pIfNoneMatch.split(",")){
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")){
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(pETag)){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Parses the <code>max-age</code> directive of a <code>Cache-Control</code> header.
+	 * 
+	 * @param pCacheControl The header value, possibly <code>null</code>.
+	 * 
+	 * @return The max age in seconds, <code>0</code> when the response should 
+	 * be revalidated on each use, or <code>-1</code> when the response 
+	 * must not be stored.
+	 */
+	public static int parseMaxAge(String pCacheControl) {
+		if (pCacheControl == null){
+			return 0;
+		}
+		int maxAge = 0;
+		for (String directive : pCacheControl.split(",")){
+			directive = directive.trim().toLowerCase();
+			if (directive.equals("no-store")){
+				return -1;
+			}
+			if (directive.startsWith("max-age=")){
+				try {
+					maxAge = Integer.parseInt(directive.substring("max-age=".length()));
+				}
+				catch (NumberFormatException e) {
+					maxAge = 0;
+				}
+			}
+		}
+		return maxAge;
+	}
+	
+	/**
+	 * Looks a response up.
+	 * 
+	 * @param pKey A key created by the {@link #createKey} API.
+	 * 
+	 * @return The cached entry, fresh or stale, or <code>null</code>.
+	 */
+	public synchronized Entry get(String pKey) {
+		Entry entry = this.entries.get(pKey);
+		if (entry == null){
+			misses++;
+		}
+		else if (entry.isFresh()){
+			hits++;
+		}
+		else {
+			revalidations++;
+		}
+		return entry;
+	}
+	
+	/**
+	 * Stores a response.
+	 * <p>Responses without entity tag nor freshness lifetime are useless
+	 * and not stored.
+	 * 
+	 * @param pKey A key created by the {@link #createKey} API.
+	 * @param pContent The serialized response.
+	 * @param pETag The response entity tag, possibly <code>null</code>.
+	 * @param pMaxAge The freshness lifetime announced by the server, in seconds.
+	 */
+	public synchronized void put(String pKey, byte[] pContent, String pETag, int pMaxAge) {
+		if ((pMaxAge < 0) || ((pMaxAge == 0) && (pETag == null))){
+			this.entries.remove(pKey);
+			return;
+		}
+		this.entries.put(pKey, new Entry(pContent, pETag, expires(pMaxAge)));
+	}
+	
+	/**
+	 * Marks a stale entry as fresh again, after the server answered
+	 * <code>304 Not Modified</code>.
+	 * 
+	 * @param pKey A key created by the {@link #createKey} API.
+	 * @param pMaxAge The freshness lifetime announced by the server, in seconds.
+	 */
+	public synchronized void revalidate(String pKey, int pMaxAge) {
+		Entry entry = this.entries.get(pKey);
+		if (entry != null){
+			entry.expires = expires(pMaxAge);
+			notModified++;
+		}
+	}
+	
+	/** Removes all entries. */
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+	
+	/** Answers the number of cached responses.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+	
+	/** Answers the number of lookups served by a fresh entry.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/** Answers the number of lookups that found nothing.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/** Answers the number of lookups that found a stale entry.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized long getRevalidations() {
+		return revalidations;
+	}
+	
+	/** Answers the number of stale entries the server confirmed unchanged.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized long getNotModified() {
+		return notModified;
+	}
+	
+	private long expires(int pMaxAge) {
+		return System.currentTimeMillis() + Math.min(this.ttl, 1000L * pMaxAge);
+	}
+	
+	private static byte[] digest(byte[] pBytes) throws HobesSecurityException {
+		return getDigest().digest(pBytes);
+	}
+	
+	private static MessageDigest getDigest() throws HobesSecurityException {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+}
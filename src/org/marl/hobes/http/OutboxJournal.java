@@ -0,0 +1,280 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+
+/**
+ * The append-only file an {@link AliceOutbox} keeps the pending requests
+ * of one source in.
+ * <p>The file layout is:
+ * <pre>
+ *   long consumed       // offset of the first pending record
+ *   { int length; byte[length] record; }*
+ * </pre>
+ * Records are forced to disk when appended. The consumed offset is forced 
+ * when records are acknowledged, and the file is truncated back to its header
+ * once every record is consumed. Since a journal that's never empty would 
+ * grow forever, pending records are rewritten to a new file, which replaces
+ * the journal, once consumed ones take most of it.
+ * A record partially written by a crash is discarded when the journal is reopened.
+ */
+class OutboxJournal {
+
+	private static final int HEADER_LENGTH = 8;
+	
+	/** Size of the consumed records past which the journal may be compacted, 1 MB. */
+	static final long COMPACTION_THRESHOLD = 1024 * 1024;
+	
+	private final File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private long consumed;
+	private long end;
+	private int size;
+	
+	/**
+	 * Opens a journal, creating it or recovering its pending records.
+	 * 
+	 * @param pFile The journal file.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	OutboxJournal(File pFile) throws HobesTransportException {
+		this.file = pFile;
+		try {
+			this.raf = new RandomAccessFile(pFile, "rw");
+			this.channel = this.raf.getChannel();
+			if (this.channel.size() < HEADER_LENGTH){
+				writeConsumed(HEADER_LENGTH);
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			this.channel.read(header, 0);
+			this.consumed = header.getLong(0);
+			// scan pending records, up to the first incomplete one
+			long fileSize = this.channel.size();
+			if ((this.consumed < HEADER_LENGTH) || (this.consumed > fileSize)){
+				throw new IOException("Corrupt journal, consumed offset: " + this.consumed);
+			}
+			long position = this.consumed;
+			ByteBuffer length = ByteBuffer.allocate(4);
+			while (position + 4 <= fileSize){
+				length.clear();
+				this.channel.read(length, position);
+				long next = position + 4 + length.getInt(0);
+				if ((length.getInt(0) < 0) || (next > fileSize)){
+					break;
+				}
+				position = next;
+				this.size++;
+			}
+			this.end = position;
+			if (this.end < fileSize){
+				this.channel.truncate(this.end);
+			}
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(pFile.getPath(), e);
+		}
+	}
+	
+	/**
+	 * Appends a record, and forces it to disk.
+	 * 
+	 * @param pRecord The record.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	synchronized void append(byte[] pRecord) throws HobesTransportException {
+		ByteBuffer buffer = ByteBuffer.allocate(4 + pRecord.length);
+		buffer.putInt(pRecord.length).put(pRecord).flip();
+		try {
+			long position = this.end;
+			while (buffer.hasRemaining()){
+				position += this.channel.write(buffer, position);
+			}
+			this.channel.force(false);
+			this.end = position;
+			this.size++;
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(this.file.getPath(), e);
+		}
+	}
+	
+	/**
+	 * Reads the oldest pending records, without consuming them.
+	 * 
+	 * @param pMax The maximum number of records to read.
+	 * 
+	 * @return The records, possibly none.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a record length runs past the journal end.
+	 */
+	synchronized List<byte[]> peek(int pMax) throws HobesException {
+		List<byte[]> records = new ArrayList<byte[]>();
+		long position = this.consumed;
+		ByteBuffer length = ByteBuffer.allocate(4);
+		try {
+			while ((position < this.end) && (records.size() < pMax)){
+				length.clear();
+				readFully(length, position);
+				checkLength(length.getInt(0), position);
+				ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+				readFully(record, position + 4);
+				records.add(record.array());
+				position += 4 + record.capacity();
+			}
+			return records;
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(this.file.getPath(), e);
+		}
+	}
+	
+	/**
+	 * Consumes the oldest pending records.
+	 * 
+	 * @param pRecords The records, as answered by {@link #peek(int)}.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	synchronized void ack(List<byte[]> pRecords) throws HobesTransportException {
+		long position = this.consumed;
+		for (byte[] record : pRecords){
+			position += 4 + record.length;
+		}
+		try {
+			if (position >= this.end){
+				// all consumed, start over
+				writeConsumed(HEADER_LENGTH);
+				this.channel.truncate(HEADER_LENGTH);
+				this.end = HEADER_LENGTH;
+				position = HEADER_LENGTH;
+			}
+			else {
+				writeConsumed(position);
+			}
+			this.consumed = position;
+			this.size -= pRecords.size();
+			if ((this.consumed > COMPACTION_THRESHOLD) 
+					&& (this.consumed - HEADER_LENGTH > this.end - this.consumed)){
+				try {
+					compact();
+				}
+				catch (IOException e) {
+					// the journal is still whole, compacted on a later ack
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(this.file.getPath(), e);
+		}
+	}
+	
+	/**
+	 * Answers the number of pending records.
+	 * 
+	 * @return That's it.
+	 */
+	synchronized int size() {
+		return this.size;
+	}
+	
+	/** Closes the journal file. */
+	synchronized void close() {
+		try {
+			this.raf.close();
+		}
+		catch (IOException e) {
+			// records were forced already
+		}
+	}
+	
+	// a length read from disk must stay within the pending records
+	private void checkLength(int pLength, long pPosition) throws HobesDataException {
+		if ((pLength < 0) || (pPosition + 4 + pLength > this.end)){
+			throw new HobesDataException(this.file.getPath() 
+					+ ": corrupt record at " + pPosition + ", length " + pLength);
+		}
+	}
+	
+	// copies pending records to a new file, then renames it over the journal,
+	// so that a crash leaves either journal whole
+	private void compact() throws IOException {
+		File compacted = new File(this.file.getPath() + ".compact");
+		FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, 
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		long pending = this.end - this.consumed;
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.putLong(0, HEADER_LENGTH);
+			while (header.hasRemaining()){
+				out.write(header);
+			}
+			long copied = 0;
+			while (copied < pending){
+				copied += this.channel.transferTo(this.consumed + copied, pending - copied, out);
+			}
+			out.force(true);
+		}
+		finally {
+			out.close();
+		}
+		this.raf.close();
+		try {
+			Files.move(compacted.toPath(), this.file.toPath(), 
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			this.raf = new RandomAccessFile(this.file, "rw");
+			this.channel = this.raf.getChannel();
+		}
+		this.consumed = HEADER_LENGTH;
+		this.end = HEADER_LENGTH + pending;
+	}
+	
+	private void writeConsumed(long pOffset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putLong(0, pOffset);
+		this.channel.write(header, 0);
+		this.channel.force(false);
+	}
+	
+	private void readFully(ByteBuffer pBuffer, long pPosition) throws IOException {
+		while (pBuffer.hasRemaining()){
+			if (this.channel.read(pBuffer, pPosition + pBuffer.position()) < 0){
+				throw new IOException("Truncated journal");
+			}
+		}
+	}
+}
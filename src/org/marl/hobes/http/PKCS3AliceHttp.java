@@ -19,19 +19,50 @@ package org.marl.hobes.http;
 
 import java.net.URL;
 
+import javax.crypto.SealedObject;
+
+import org.marl.hobes.HobesBusyException;
+import org.marl.hobes.HobesDataException;
 import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ctx.PKCS3BobContext;
+import org.marl.hobes.secrets.ChannelProfile;
+import org.marl.hobes.secrets.CipherSuite;
+import org.marl.hobes.secrets.HandshakeHello;
+import org.marl.hobes.secrets.HandshakeReply;
+import org.marl.hobes.secrets.HandshakeResume;
 import org.marl.hobes.secrets.PKCS3Alice;
+import org.marl.hobes.secrets.SessionTicket;
 
 /**
  * Adds HTTP transport support to the {@link PKCS3Alice} API.
+ * <p>Alice may be given several equivalent Bob endpoints through an
+ * {@link HttpEndpointPool}: the handshake goes to the endpoint selected by
+ * the pool, and subsequent requests stick to that endpoint since it's the
+ * only one knowing the agreed secret. When the bound endpoint gets ejected,
+ * the next {@link #post} transparently agrees on a new secret with another one.
+ * Only endpoints that can't be reached get ejected: errors Bob answers don't 
+ * count, and when he answers he no longer knows the channel, e.g. evicted as 
+ * idle, a new secret is agreed on and the request sent again.
+ * <p>When Bob issues session tickets, Alice keeps the last one, and presents it 
+ * on the next handshake to restore the channel without key agreement, e.g. after
+ * Bob restarted. The ticket may be saved with {@link #getSessionTicket()}, and
+ * given back to a new Alice with {@link #setSessionTicket(SessionTicket)}.
+ * <p>Responses of cacheable commands may be kept in a {@link HttpResponseCache},
+ * see {@link #setResponseCache(HttpResponseCache)}.
  *  
  * @author chris
  */
 public class PKCS3AliceHttp extends PKCS3Alice {
 
 	protected URL trustedPkcs3URL;
+	protected HttpEndpointPool endpoints;
 	protected int tcpTimeout;
 	protected int httpTimeout;
+	protected SessionTicket sessionTicket;
+	protected int[] offeredSuites = ChannelProfile.SUPPORTED_SUITES;
+	protected HttpResponseCache responseCache;
 	
 	/**
 	 * @param id
@@ -44,10 +75,7 @@ public class PKCS3AliceHttp extends PKCS3Alice {
 			URL pTrustedPkcs3Url,
 			int pTcpTimeout,
 			int pHttpTimeout) throws HobesException {
-		super(id);
-		this.trustedPkcs3URL = pTrustedPkcs3Url;
-		this.tcpTimeout = pTcpTimeout;
-		this.httpTimeout = pHttpTimeout;
+		this(id, new HttpEndpointPool(pTrustedPkcs3Url), pTcpTimeout, pHttpTimeout);
 	}
 
 	/**
@@ -56,25 +84,204 @@ public class PKCS3AliceHttp extends PKCS3Alice {
 	 * @throws HobesException
 	 */
 	public PKCS3AliceHttp(String id, URL pTrustedPkcs3Url) throws HobesException {
+		this(id, new HttpEndpointPool(pTrustedPkcs3Url));
+	}
+	
+	/**
+	 * @param id
+	 * @param pTrustedEndpoints Equivalent Bob endpoints.
+	 * @param pTcpTimeout
+	 * @param pHttpTimeout
+	 * @throws HobesException
+	 */
+	public PKCS3AliceHttp(String id,
+			HttpEndpointPool pTrustedEndpoints,
+			int pTcpTimeout,
+			int pHttpTimeout) throws HobesException {
 		super(id);
-		this.trustedPkcs3URL = pTrustedPkcs3Url;
-		this.tcpTimeout = HttpObjectBus.DEFAULT_TCP_TIMEOUT;
-		this.httpTimeout = HttpObjectBus.DEFAULT_HTTP_TIMEOUT;
+		this.endpoints = pTrustedEndpoints;
+		this.trustedPkcs3URL = pTrustedEndpoints.getEndpoints()[0].getUrl();
+		this.tcpTimeout = pTcpTimeout;
+		this.httpTimeout = pHttpTimeout;
 	}
 	
 	/**
+	 * @param id
+	 * @param pTrustedEndpoints Equivalent Bob endpoints.
+	 * @throws HobesException
+	 */
+	public PKCS3AliceHttp(String id, HttpEndpointPool pTrustedEndpoints) throws HobesException {
+		this(id, pTrustedEndpoints, 
+				HttpObjectBus.DEFAULT_TCP_TIMEOUT, 
+				HttpObjectBus.DEFAULT_HTTP_TIMEOUT);
+	}
+	
+	/**
+	 * Answers the last session ticket Bob issued.
+	 * <p>The ticket holds the channel secret in clear: it should be stored
+	 * with the same care as a key file.
+	 * 
+	 * @return The ticket, or <code>null</code>.
+	 */
+	public SessionTicket getSessionTicket() {
+		return sessionTicket;
+	}
+	
+	/**
+	 * Sets the ticket to present on the next handshake.
+	 * 
+	 * @param pTicket A ticket answered by {@link #getSessionTicket()}, or <code>null</code>.
+	 */
+	public void setSessionTicket(SessionTicket pTicket) {
+		this.sessionTicket = pTicket;
+	}
+	
+	/**
+	 * Answers the cipher suites offered to Bob during the handshake.
+	 * 
+	 * @return The {@link CipherSuite} identifiers, in order of preference.
+	 */
+	public int[] getOfferedSuites() {
+		return offeredSuites.clone();
+	}
+	
+	/**
+	 * Sets the cipher suites offered to Bob during the next handshake, e.g. to 
+	 * offer {@link CipherSuite#HMAC_SHA256} on trusted networks, which Bob picks 
+	 * only if he accepts it too. The session ticket is dropped, since resuming 
+	 * would keep the former suite.
+	 * 
+	 * @param pSuites The {@link CipherSuite} identifiers, in order of preference.
+	 */
+	public void setOfferedSuites(int[] pSuites) {
+		this.offeredSuites = pSuites.clone();
+		this.sessionTicket = null;
+	}
+	
+	/**
+	 * Answers the cache of the responses to {@link #post} calls.
+	 * 
+	 * @return The cache, or <code>null</code>.
+	 */
+	public HttpResponseCache getResponseCache() {
+		return responseCache;
+	}
+	
+	/**
+	 * Sets the cache of the responses to {@link #post} calls expecting one.
+	 * <p>Requests are looked up by their plain content, and responses are 
+	 * revalidated against the entity tag Bob gave their plain content, so that
+	 * the fresh nonces of sealed calls don't defeat the cache.
+	 * 
+	 * @param pCache A cache, or <code>null</code> to disable caching.
+	 * 
+	 * @see DesObjectBusHttp#postWithSource(URL, Object, int, int, org.marl.hobes.secrets.DesChannel, HttpResponseCache)
+	 */
+	public void setResponseCache(HttpResponseCache pCache) {
+		this.responseCache = pCache;
+	}
+	
+	/**
+	 * Agrees on a new secret with an endpoint selected by the pool,
+	 * and binds this source to it.
+	 * <p>A valid session ticket is presented first, the secret is agreed on 
+	 * only if Bob refuses it.
+	 * 
 	 * @throws HobesException
 	 */
 	public void completeDiffieHellmanProtocol() 
 					throws HobesException{
+		if ((this.sessionTicket != null) 
+				&& (! this.sessionTicket.isExpired(System.currentTimeMillis()))){
+			try {
+				if (presentSessionTicket()){
+					return;
+				}
+			}
+			catch (HobesTransportException e) {
+				// former Bobs fail on tickets, the full handshake tells
+			}
+		}
+		this.sessionTicket = null;
+		HttpEndpoint endpoint = this.endpoints.select();
+		// a channel is re-agreed from scratch, Bob may pick another profile
+		this.state = STATE_NEW;
+		setProfile(ChannelProfile.DEFAULT);
 		protocolPhaseI();
-		byte[] bobPublicValue = (byte[]) HttpObjectBus.postWithSource(getId(), 
-				trustedPkcs3URL,
-				getPublicValue(),
-				this.tcpTimeout,
-				this.httpTimeout,
-				true);
-		protocolPhaseII(bobPublicValue);
+		HandshakeHello hello = createHello();
+		Object reply = postObject(endpoint, hello);
+		ChannelProfile profile;
+		byte[] bobPublicValue;
+		if (reply instanceof HandshakeReply){
+			profile = ((HandshakeReply) reply).getProfile();
+			bobPublicValue = ((HandshakeReply) reply).getPublicValue();
+		}
+		else if (reply instanceof byte[]){
+			profile = ChannelProfile.LEGACY;
+			bobPublicValue = (byte[]) reply;
+		}
+		else {
+			throw new HobesDataException((reply == null) ? null : reply.getClass().getName());
+		}
+		// the handshake isn't authenticated, Bob may only pick among our offers
+		profile.checkOffered(hello.getSuites(), hello.getCodecs(), hello.getFramings());
+		setProfile(profile);
+		if (reply instanceof HandshakeReply){
+			protocolPhaseII(bobPublicValue, hello.getTranscript(bobPublicValue, profile));
+		}
+		else {
+			// former Bobs don't bind the negotiation
+			protocolPhaseII(bobPublicValue);
+		}
+		if (reply instanceof HandshakeReply){
+			keepSessionTicket((HandshakeReply) reply);
+		}
+		
+		this.endpoints.bind(getId(), endpoint);
+		this.trustedPkcs3URL = endpoint.getUrl();
+	}
+	
+	/**
+	 * Presents the session ticket to an endpoint selected by the pool.
+	 * 
+	 * @return Whether Bob restored the channel, in which case this source
+	 * gets bound to the endpoint.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	protected boolean presentSessionTicket() throws HobesException {
+		HttpEndpoint endpoint = this.endpoints.select();
+		Object reply = postObject(endpoint, new HandshakeResume(this.sessionTicket.getTicket()));
+		if (! (reply instanceof HandshakeReply) || (((HandshakeReply) reply).getProfile() == null)){
+			// e.g. expired, or sealed under a key Bob forgot
+			return false;
+		}
+		resumeSession(this.sessionTicket);
+		keepSessionTicket((HandshakeReply) reply);
+		
+		this.endpoints.bind(getId(), endpoint);
+		this.trustedPkcs3URL = endpoint.getUrl();
+		return true;
+	}
+	
+	private void keepSessionTicket(HandshakeReply pReply) throws HobesException {
+		if (pReply.getTicket() != null){
+			this.sessionTicket = new SessionTicket(getId(), pReply.getTicket(), 
+					getSecretKey(), getProfile(), pReply.getTicketExpiry());
+		}
+	}
+	
+	/**
+	 * Answers the capabilities offered to Bob during the handshake.
+	 * 
+	 * @return A hello with this agent public value, offering every supported codec and 
+	 * framing version, and the offered suites.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	protected HandshakeHello createHello() throws HobesException {
+		return new HandshakeHello(getKeyAgreementAlgorithm(), getKeyId(), getPublicValue(), 
+				this.offeredSuites, ChannelProfile.SUPPORTED_CODECS, ChannelProfile.SUPPORTED_FRAMINGS);
 	}
 	
 	/**
@@ -83,16 +290,143 @@ public class PKCS3AliceHttp extends PKCS3Alice {
 	 * @return
 	 * @throws HobesException
 	 */
-	public Object post(Object pData, boolean pUseResponseFlag) 
+	public Object post(final Object pData, final boolean pUseResponseFlag) 
 			throws HobesException{
 		
-			return DesObjectBusHttp.postWithSource(trustedPkcs3URL, 
-					getId(),
-					pData,
-					this.tcpTimeout,
-					this.httpTimeout,
-					pUseResponseFlag,
-					getSecretKey());
+		EndpointCall post = new EndpointCall() {
+			@Override
+			public Object call(URL pUrl) throws HobesException {
+				HttpResponseCache cache = responseCache;
+				if (pUseResponseFlag && (cache != null)){
+					return DesObjectBusHttp.postWithSource(pUrl, 
+							pData,
+							tcpTimeout,
+							httpTimeout,
+							PKCS3AliceHttp.this,
+							cache);
+				}
+				return DesObjectBusHttp.postWithSource(pUrl, 
+						pData,
+						tcpTimeout,
+						httpTimeout,
+						pUseResponseFlag,
+						PKCS3AliceHttp.this);
+			}
+		};
+		try {
+			return call(getBoundEndpoint(), post);
+		}
+		catch (HobesSecurityException e) {
+			if (! isUndefinedChannel(e)){
+				throw e;
+			}
+			// Bob forgot the channel, it was not used: agree on a new one
+			completeDiffieHellmanProtocol();
+			return call(getBoundEndpoint(), post);
+		}
+	}
+	
+	/**
+	 * Posts several requests at once, Bob executing them in order.
+	 * <p>A channel is first agreed on if needed. Each request is sealed
+	 * separately, and the batch is sent as a <code>SealedObject[]</code> payload.
+	 * 
+	 * @param pData The requests.
+	 * 
+	 * @return The responses, in the requests order.
+	 * 
+	 * @throws HobesException When an error occurs, in which case Bob may 
+	 * have executed some of the requests.
+	 */
+	public Object[] postBatch(Object[] pData) throws HobesException {
+		if (getState() < STATE_PHASE_II){
+			completeDiffieHellmanProtocol();
+		}
+		try {
+			return sendBatch(pData);
+		}
+		catch (HobesSecurityException e) {
+			if (! isUndefinedChannel(e)){
+				throw e;
+			}
+			// Bob forgot the channel, none of the requests was executed
+			completeDiffieHellmanProtocol();
+			return sendBatch(pData);
+		}
+	}
+	
+	// seals and posts a batch with the current channel
+	private Object[] sendBatch(Object[] pData) throws HobesException {
+		HttpEndpoint endpoint = getBoundEndpoint();
+		SealedObject[] batch = new SealedObject[pData.length];
+		for (int i = 0; i < pData.length; i++){
+			batch[i] = cipher(pData[i]);
+		}
+		
+		Object response = postObject(endpoint, batch);
+		Object results = decipher(response);
+		if (! (results instanceof Object[])){
+			throw new HobesDataException(results.getClass().getName());
+		}
+		return (Object[]) results;
+	}
+	
+	// whether Bob has no channel with this source, e.g. evicted as idle, or lost on restart
+	private static boolean isUndefinedChannel(HobesSecurityException pError) {
+		return (pError.getMessage() != null) 
+				&& pError.getMessage().contains(PKCS3BobContext.UNDEFINED_CHANNEL);
+	}
+	
+	// the endpoint this source is bound to, failing over if it's out of reach
+	private HttpEndpoint getBoundEndpoint() throws HobesException {
+		HttpEndpoint endpoint = this.endpoints.getBinding(getId());
+		if ((endpoint != null) && (! endpoint.isAvailable())){
+			// fail over: the secret we agreed on is out of reach
+			completeDiffieHellmanProtocol();
+			endpoint = this.endpoints.getBinding(getId());
+		}
+		return endpoint;
+	}
+	
+	// posts a plain object with this source
+	private Object postObject(HttpEndpoint pEndpoint, final Object pPayload) throws HobesException {
+		return call(pEndpoint, new EndpointCall() {
+			@Override
+			public Object call(URL pUrl) throws HobesException {
+				return HttpObjectBus.postWithSource(getId(), 
+						pUrl,
+						pPayload,
+						tcpTimeout,
+						httpTimeout,
+						true);
+			}
+		});
+	}
+	
+	// runs a call against an endpoint, recording whether it was reachable,
+	// or against the trusted URL without endpoint: only transport failures mean
+	// it was not, errors answered by Bob don't
+	private Object call(HttpEndpoint pEndpoint, EndpointCall pCall) throws HobesException {
+		if (pEndpoint == null){
+			return pCall.call(this.trustedPkcs3URL);
+		}
+		long start = pEndpoint.begin();
+		boolean isReachable = true;
+		try {
+			return pCall.call(pEndpoint.getUrl());
+		}
+		catch (HobesTransportException e) {
+			// busy endpoints are reachable, they only ask for some delay
+			isReachable = (e instanceof HobesBusyException);
+			throw e;
+		}
+		finally {
+			pEndpoint.end(start, isReachable);
+		}
+	}
+	
+	// a call to Bob, at some URL
+	private interface EndpointCall {
+		Object call(URL pUrl) throws HobesException;
 	}
-
 }
@@ -0,0 +1,49 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.ctx.PKCS3BobContext;
+
+/**
+ * Delegates the frames it receives to a {@link PKCS3BobContext}, 
+ * conforming to the {@link org.marl.hobes.http.PKCS3AliceHttp} API
+ * when Alice is given a frame transport URL.
+ */
+public class BobFrameHandler implements FrameHandler {
+
+	private final PKCS3BobContext context;
+	
+	/**
+	 * @param pContext The context requests are delegated to.
+	 */
+	public BobFrameHandler(PKCS3BobContext pContext) {
+		this.context = pContext;
+	}
+
+	@Override
+	public byte[] onFrame(byte[] pRequest) throws HobesException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		this.context.onRequest(new ByteArrayInputStream(pRequest), bos, false);
+		return bos.toByteArray();
+	}
+
+}
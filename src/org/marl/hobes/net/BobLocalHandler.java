@@ -0,0 +1,45 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.ctx.PKCS3BobContext;
+
+/**
+ * Delegates the requests it receives to a {@link PKCS3BobContext}, 
+ * conforming to the {@link org.marl.hobes.http.PKCS3AliceHttp} API
+ * when Alice is given a local transport URL.
+ */
+public class BobLocalHandler implements LocalHandler {
+
+	private final PKCS3BobContext context;
+	
+	/**
+	 * @param pContext The context requests are delegated to.
+	 */
+	public BobLocalHandler(PKCS3BobContext pContext) {
+		this.context = pContext;
+	}
+
+	@Override
+	public Object onRequest(SourcedObject pRequest) throws HobesException {
+		return this.context.onRequest(pRequest);
+	}
+
+}
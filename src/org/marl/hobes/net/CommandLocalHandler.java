@@ -0,0 +1,44 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import org.marl.hobes.SourcedObject;
+import org.marl.hobes.ctx.HobesCommand;
+
+/**
+ * Executes a {@link HobesCommand} on the requests it receives, 
+ * e.g. an {@link org.marl.hobes.ctx.EchoCommand} to answer the 
+ * {@link LocalObjectBus#post} API.
+ */
+public class CommandLocalHandler implements LocalHandler {
+
+	private final HobesCommand command;
+	
+	/**
+	 * @param pCommand The command to execute.
+	 */
+	public CommandLocalHandler(HobesCommand pCommand) {
+		this.command = pCommand;
+	}
+
+	@Override
+	public Object onRequest(SourcedObject pRequest) {
+		return this.command.execute(pRequest.getSource(), pRequest.getPayload());
+	}
+
+}
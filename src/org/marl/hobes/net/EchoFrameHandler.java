@@ -0,0 +1,39 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.secrets.SealedFrame;
+
+/**
+ * Answers the object it receives, conforming to the 
+ * {@link FrameObjectBus#post} API.
+ * <p>Sealed frames are answered as received, since they can't be deserialized without their key.
+ */
+public class EchoFrameHandler implements FrameHandler {
+
+	@Override
+	public byte[] onFrame(byte[] pRequest) throws HobesException {
+		if (SealedFrame.isSealedFrame(pRequest)){
+			return pRequest;
+		}
+		return ObjectBus.toBytes(ObjectBus.fromBytes(pRequest));
+	}
+
+}
@@ -0,0 +1,305 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.marl.hobes.HobesBusyException;
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+
+/**
+ * A length-prefixed HOBes frame, as exchanged over persistent connections.
+ * <p>The wire format is:
+ * <pre>
+ *   int  length     // of what follows, big endian
+ *   long requestId  // echoed back in the response
+ *   byte flags      // FLAG_NO_REPLY, FLAG_ERROR
+ *   byte[length-9] payload
+ * </pre>
+ * The request identifier lets a connection carry several requests at once,
+ * and responses come back in completion order.
+ * <p>The payload of an error response is:
+ * <pre>
+ *   byte kind       // ERROR_INTERNAL, ERROR_TRANSPORT, ERROR_BUSY, ...
+ *   int  retryAfter // in seconds, for ERROR_BUSY
+ *   byte[] message  // UTF-8
+ * </pre>
+ * so that clients get the exception the server failed with, see {@link #toException(String)}.
+ */
+public class Frame {
+
+	/** Size of the frame header, length prefix included. */
+	public static final int HEADER_LENGTH = 4 + 8 + 1;
+	/** Maximum frame length, 64 MB. */
+	public static final int MAX_LENGTH = 1 << 26;
+	
+	/** The client does not expect a response to this request. */
+	public static final byte FLAG_NO_REPLY = 0x01;
+	/** The payload of this response describes an error. */
+	public static final byte FLAG_ERROR = 0x02;
+	
+	/** The server failed unexpectedly. */
+	public static final byte ERROR_INTERNAL = 0;
+	/** The server failed to reach a resource, see {@link HobesTransportException}. */
+	public static final byte ERROR_TRANSPORT = 1;
+	/** The server is saturated, see {@link HobesBusyException}. */
+	public static final byte ERROR_BUSY = 2;
+	/** The request was refused, see {@link HobesSecurityException}. */
+	public static final byte ERROR_SECURITY = 3;
+	/** The request was malformed, see {@link HobesDataException}. */
+	public static final byte ERROR_DATA = 4;
+	
+	private static final int ERROR_HEADER_LENGTH = 1 + 4;
+	
+	private final long requestId;
+	private final byte flags;
+	private final byte[] payload;
+	
+	/**
+	 * Creates a frame.
+	 * 
+	 * @param pRequestId The request identifier.
+	 * @param pFlags The frame flags.
+	 * @param pPayload The frame payload.
+	 */
+	public Frame(long pRequestId, byte pFlags, byte[] pPayload) {
+		this.requestId = pRequestId;
+		this.flags = pFlags;
+		this.payload = pPayload;
+	}
+	
+	public long getRequestId() {
+		return requestId;
+	}
+	public byte getFlags() {
+		return flags;
+	}
+	public byte[] getPayload() {
+		return payload;
+	}
+	
+	/** Answers whether a flag is set on this frame.
+	 * 
+	 * @param pFlag One of the <code>FLAG_</code> constants.
+	 * @return That's it.
+	 */
+	public boolean hasFlag(byte pFlag) {
+		return (this.flags & pFlag) != 0;
+	}
+	
+	/**
+	 * Creates the error response to a request.
+	 * 
+	 * @param pRequestId The request identifier.
+	 * @param pError The error the request failed with.
+	 * 
+	 * @return A frame flagged {@link #FLAG_ERROR}, carrying the error kind.
+	 */
+	public static Frame error(long pRequestId, Exception pError) {
+		byte kind = ERROR_INTERNAL;
+		int retryAfter = 0;
+		String message = String.valueOf(pError);
+		if (pError instanceof HobesException){
+			if (pError instanceof HobesBusyException){
+				kind = ERROR_BUSY;
+				retryAfter = ((HobesBusyException) pError).getRetryAfter();
+			}
+			else if (pError instanceof HobesTransportException){
+				kind = ERROR_TRANSPORT;
+			}
+			else if (pError instanceof HobesSecurityException){
+				kind = ERROR_SECURITY;
+			}
+			else if (pError instanceof HobesDataException){
+				kind = ERROR_DATA;
+			}
+			if (pError.getMessage() != null){
+				message = pError.getMessage();
+			}
+		}
+		byte[] text = message.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(ERROR_HEADER_LENGTH + text.length);
+		payload.put(kind).putInt(retryAfter).put(text);
+		return new Frame(pRequestId, FLAG_ERROR, payload.array());
+	}
+	
+	/**
+	 * Rebuilds the exception described by an error response.
+	 * 
+	 * @param pName A name for the server, typically its address.
+	 * 
+	 * @return An exception of the kind the server failed with, a plain
+	 * {@link HobesException} when it failed unexpectedly.
+	 */
+	public HobesException toException(String pName) {
+		if (this.payload.length < ERROR_HEADER_LENGTH){
+			return new HobesTransportException(pName + ": malformed error response");
+		}
+		ByteBuffer payload = ByteBuffer.wrap(this.payload);
+		byte kind = payload.get();
+		int retryAfter = payload.getInt();
+		String message = pName + ": " + new String(this.payload, ERROR_HEADER_LENGTH, 
+				this.payload.length - ERROR_HEADER_LENGTH, StandardCharsets.UTF_8);
+		switch (kind) {
+		case ERROR_TRANSPORT:
+			return new HobesTransportException(message);
+		case ERROR_BUSY:
+			return new HobesBusyException(message, retryAfter);
+		case ERROR_SECURITY:
+			return new HobesSecurityException(message);
+		case ERROR_DATA:
+			return new HobesDataException(message);
+		default:
+			return new HobesException(message);
+		}
+	}
+	
+	/**
+	 * Encodes this frame header.
+	 * 
+	 * @return A buffer ready to be written, to be followed by the payload.
+	 */
+	public ByteBuffer encodeHeader() {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(HEADER_LENGTH - 4 + this.payload.length);
+		header.putLong(this.requestId);
+		header.put(this.flags);
+		header.flip();
+		return header;
+	}
+	
+	/**
+	 * Encodes this frame, header and payload.
+	 * 
+	 * @return Buffers ready for a gathering write.
+	 */
+	public ByteBuffer[] encode() {
+		return new ByteBuffer[] { encodeHeader(), ByteBuffer.wrap(this.payload) };
+	}
+	
+	/**
+	 * Writes this frame to a blocking channel.
+	 * 
+	 * @param pChannel The channel.
+	 * 
+	 * @throws IOException When an I/O error occurs.
+	 */
+	public void write(WritableByteChannel pChannel) throws IOException {
+		ByteBuffer[] buffers = encode();
+		for (ByteBuffer buffer : buffers){
+			while (buffer.hasRemaining()){
+				pChannel.write(buffer);
+			}
+		}
+	}
+	
+	/**
+	 * Reads a frame from a blocking channel.
+	 * 
+	 * @param pChannel The channel.
+	 * 
+	 * @return The frame, or <code>null</code> when the channel reached end of stream.
+	 * 
+	 * @throws IOException When an I/O error occurs, or the frame is malformed.
+	 */
+	public static Frame read(ReadableByteChannel pChannel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		if (! readFully(pChannel, header)){
+			return null;
+		}
+		header.flip();
+		int length = header.getInt();
+		checkLength(length);
+		long requestId = header.getLong();
+		byte flags = header.get();
+		ByteBuffer payload = ByteBuffer.allocate(length - (HEADER_LENGTH - 4));
+		if (! readFully(pChannel, payload)){
+			throw new IOException("Truncated frame");
+		}
+		return new Frame(requestId, flags, payload.array());
+	}
+	
+	/**
+	 * Decodes a frame from a buffer, if it holds a complete one.
+	 * 
+	 * @param pBuffer A buffer in read mode. Its position is moved past
+	 * the frame when one is decoded, and left untouched otherwise.
+	 * 
+	 * @return The decoded frame, or <code>null</code> when more bytes are needed.
+	 * 
+	 * @throws IOException When the frame is malformed.
+	 */
+	public static Frame decode(ByteBuffer pBuffer) throws IOException {
+		if (pBuffer.remaining() < HEADER_LENGTH){
+			return null;
+		}
+		int start = pBuffer.position();
+		int length = pBuffer.getInt(start);
+		checkLength(length);
+		if (pBuffer.remaining() < 4 + length){
+			return null;
+		}
+		pBuffer.position(start + 4);
+		long requestId = pBuffer.getLong();
+		byte flags = pBuffer.get();
+		byte[] payload = new byte[length - (HEADER_LENGTH - 4)];
+		pBuffer.get(payload);
+		return new Frame(requestId, flags, payload);
+	}
+	
+	/**
+	 * Answers the number of bytes a buffer needs to hold the next frame.
+	 * 
+	 * @param pBuffer A buffer in read mode, holding at least a length prefix.
+	 * 
+	 * @return The size of the next frame, length prefix included.
+	 * 
+	 * @throws IOException When the frame is malformed.
+	 */
+	static int peekSize(ByteBuffer pBuffer) throws IOException {
+		int length = pBuffer.getInt(pBuffer.position());
+		checkLength(length);
+		return 4 + length;
+	}
+	
+	private static void checkLength(int pLength) throws IOException {
+		if ((pLength < HEADER_LENGTH - 4) || (pLength > MAX_LENGTH)){
+			throw new IOException("Invalid frame length: " + pLength);
+		}
+	}
+	
+	private static boolean readFully(ReadableByteChannel pChannel, ByteBuffer pBuffer) 
+			throws IOException {
+		while (pBuffer.hasRemaining()){
+			if (pChannel.read(pBuffer) < 0){
+				if (pBuffer.position() == 0){
+					return false;
+				}
+				throw new IOException("Truncated frame");
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+
+/**
+ * The client end of a persistent, multiplexed frame connection.
+ * <p>Any number of threads may {@link #exchange} concurrently on a connection:
+ * each request gets its own identifier, and a reader thread hands each
+ * response to the thread waiting for it, whatever the order responses come in.
+ */
+public class FrameConnection {
+
+	/** A response some thread is waiting for. */
+	private static class PendingReply {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Frame response;
+		private volatile IOException error;
+		
+		void complete(Frame pResponse) {
+			this.response = pResponse;
+			this.done.countDown();
+		}
+		
+		void fail(IOException pError) {
+			this.error = pError;
+			this.done.countDown();
+		}
+	}
+	
+	private final String name;
+	private final ByteChannel channel;
+	private final Object writeLock = new Object();
+	private final AtomicLong nextRequestId = new AtomicLong();
+	private final ConcurrentHashMap<Long,PendingReply> pending;
+	private volatile IOException closeCause = null;
+	
+	/**
+	 * Opens a connection upon a connected, blocking channel, 
+	 * and starts its reader thread.
+	 * 
+	 * @param pName A name for this connection, typically the remote address.
+	 * @param pChannel The channel.
+	 */
+	public FrameConnection(String pName, ByteChannel pChannel) {
+		this.name = pName;
+		this.channel = pChannel;
+		this.pending = new ConcurrentHashMap<Long,PendingReply>();
+		
+		Thread reader = new Thread("hobes-frame-reader " + pName) {
+			@Override
+			public void run() {
+				readResponses();
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+	
+	/** Answers whether this connection is still usable.
+	 * 
+	 * @return That's it.
+	 */
+	public boolean isOpen() {
+		return (this.closeCause == null) && this.channel.isOpen();
+	}
+	
+	/**
+	 * Sends a request, and waits for its response.
+	 * 
+	 * @param pRequest The request payload.
+	 * @param pUseResponseFlag Determines whether a response is expected.
+	 * @param pReadTimeout The maximum time to wait for the response, in milliseconds,
+	 * <code>0</code> for no limit.
+	 * 
+	 * @return The response payload, or <code>null</code> when the
+	 * <code>pUseResponseFlag</code> is not set.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs, or the response does not
+	 * come in time.
+	 * @throws HobesException When the server failed to serve the request, of the 
+	 * kind it failed with, see {@link Frame#toException(String)}.
+	 */
+	public byte[] exchange(byte[] pRequest, boolean pUseResponseFlag, int pReadTimeout)
+			throws HobesException {
+		
+		long requestId = this.nextRequestId.incrementAndGet();
+		PendingReply reply = null;
+		if (pUseResponseFlag){
+			reply = new PendingReply();
+			this.pending.put(requestId, reply);
+		}
+		
+		try {
+			if (this.closeCause != null){
+				throw this.closeCause;
+			}
+			Frame request = new Frame(requestId, 
+					pUseResponseFlag ? 0 : Frame.FLAG_NO_REPLY, 
+					pRequest);
+			synchronized (this.writeLock) {
+				request.write(this.channel);
+			}
+			if (reply == null){
+				return null;
+			}
+			
+			if (pReadTimeout > 0){
+				if (! reply.done.await(pReadTimeout, TimeUnit.MILLISECONDS)){
+					throw new HobesTransportException(this.name + ": read timed out");
+				}
+			}
+			else {
+				reply.done.await();
+			}
+			if (reply.error != null){
+				throw reply.error;
+			}
+			if (reply.response.hasFlag(Frame.FLAG_ERROR)){
+				throw reply.response.toException(this.name);
+			}
+			return reply.response.getPayload();
+		}
+		catch (IOException e) {
+			close(e);
+			throw new HobesTransportException(this.name, e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HobesTransportException(this.name, e);
+		}
+		finally {
+			this.pending.remove(requestId);
+		}
+	}
+	
+	/** Closes this connection, failing the requests waiting for a response. */
+	public void close() {
+		close(new IOException("Connection closed"));
+	}
+	
+	private void close(IOException pCause) {
+		if (this.closeCause == null){
+			this.closeCause = pCause;
+		}
+		try {
+			this.channel.close();
+		}
+		catch (IOException e) {
+			// already failing
+		}
+		Iterator<PendingReply> replies = this.pending.values().iterator();
+		while (replies.hasNext()){
+			replies.next().fail(this.closeCause);
+			replies.remove();
+		}
+	}
+	
+	private void readResponses() {
+		try {
+			Frame response;
+			while ((response = Frame.read(this.channel)) != null){
+				PendingReply reply = this.pending.remove(response.getRequestId());
+				if (reply != null){
+					reply.complete(response);
+				}
+			}
+			close(new IOException(this.name + ": connection closed by peer"));
+		}
+		catch (IOException e) {
+			close(e);
+		}
+	}
+}
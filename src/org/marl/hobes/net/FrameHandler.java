@@ -0,0 +1,41 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import org.marl.hobes.HobesException;
+
+/**
+ * Serves the frames received by a {@link FrameServer}.
+ * <p>Handlers are called concurrently, from the server worker threads.
+ */
+public interface FrameHandler {
+
+	/**
+	 * Serves a request frame.
+	 * 
+	 * @param pRequest The request payload, typically bytes written by the 
+	 * {@link org.marl.hobes.ObjectBus} or {@link org.marl.hobes.secrets.DesObjectBus} API.
+	 * 
+	 * @return The response payload, possibly empty.
+	 * 
+	 * @throws HobesException When the request can't be served, the error kind and 
+	 * message are then sent back to the client, which rethrows the same kind.
+	 */
+	public byte[] onFrame(byte[] pRequest) throws HobesException;
+
+}
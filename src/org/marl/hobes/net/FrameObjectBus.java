@@ -0,0 +1,245 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+
+/** 
+ * Provides an API similar to {@link org.marl.hobes.http.HttpObjectBus}, but adapted
+ * to a binary transport of {@link Frame frames} over persistent connections.
+ * <p>Endpoints are designated by <code>hobes://host:port</code> URLs for TCP, or
+ * <code>unix:///path</code> URLs for Unix domain sockets between co-located 
+ * processes, both created with {@link #createUrl(String)}. The {@link org.marl.hobes.http.HttpObjectBus} and
+ * {@link org.marl.hobes.http.DesObjectBusHttp} functions delegate to this API
+ * when given such URLs, so switching transport only takes changing the URL.
+ * <p>One connection is kept open per endpoint, and shared by all threads.
+ * 
+ * @see FrameServer
+ */
+public class FrameObjectBus {
+	private FrameObjectBus() {}
+	
+	/** URL scheme of the TCP frame transport. */
+	public static final String TCP_SCHEME = "hobes";
+	/** URL scheme of the Unix domain socket frame transport. */
+	public static final String UNIX_SCHEME = "unix";
+	/** Default port of the TCP frame transport. */
+	public static final int DEFAULT_PORT = 7070;
+	
+	private static final URLStreamHandler URL_HANDLER = new URLStreamHandler() {
+		@Override
+		protected URLConnection openConnection(URL pUrl) throws IOException {
+			throw new IOException("Not an URL connection, use FrameObjectBus: " + pUrl);
+		}
+		
+		@Override
+		protected int getDefaultPort() {
+			return DEFAULT_PORT;
+		}
+	};
+	
+	private static final ConcurrentHashMap<String,FrameConnection> connections = 
+			new ConcurrentHashMap<String,FrameConnection>();
+	
+	/**
+	 * Creates a frame transport URL.
+	 * <p>The JDK does not know the <code>hobes</code> and <code>unix</code> schemes,
+	 * so such URLs can't be created with <code>new URL(spec)</code>.
+	 * 
+	 * @param pSpec The URL, e.g. <code>hobes://localhost:7070</code> 
+	 * or <code>unix:///var/run/hobes.sock</code>.
+	 * 
+	 * @return The URL.
+	 * 
+	 * @throws HobesTransportException When the URL is malformed.
+	 */
+	public static URL createUrl(String pSpec) throws HobesTransportException {
+		try {
+			return new URL(null, pSpec, URL_HANDLER);
+		}
+		catch (MalformedURLException e) {
+			throw new HobesTransportException(pSpec, e);
+		}
+	}
+	
+	/**
+	 * Answers whether an URL designates a frame transport endpoint.
+	 * 
+	 * @param pUrl The URL.
+	 * 
+	 * @return That's it.
+	 */
+	public static boolean isFrameUrl(URL pUrl) {
+		return TCP_SCHEME.equals(pUrl.getProtocol()) 
+				|| UNIX_SCHEME.equals(pUrl.getProtocol());
+	}
+	
+	/**
+	 * Sends a request frame, and waits for its response.
+	 * 
+	 * @param pUrl The endpoint.
+	 * @param pRequest The request payload.
+	 * @param pTcpTimeout The TCP connection timeout, used if the
+	 * connection has to be (re)opened.
+	 * @param pReadTimeout The response timeout.
+	 * @param pUseResponseFlag Determines whether a response is expected.
+	 * 
+	 * @return The response payload, or <code>null</code> if the
+	 * <code>pUseResponseFlag</code> is not set.
+	 * 
+	 * @throws HobesException When an error occurs, of the kind the server 
+	 * failed with if it did.
+	 */
+	public static byte[] exchange(URL pUrl,
+			byte[] pRequest,
+			int pTcpTimeout,
+			int pReadTimeout,
+			boolean pUseResponseFlag) throws HobesException {
+		return connect(pUrl, pTcpTimeout).exchange(pRequest, pUseResponseFlag, pReadTimeout);
+	}
+	
+	/** 
+	 * Serializes an object as the payload of a request frame.
+	 * <p> When the <code>pUseResponseFlag</code> parameter is set,
+	 * the function also deserializes an object from the response frame.
+	 * 
+	 * @param pUrl The location of an agent that conforms to the
+	 * {@link org.marl.hobes.ObjectBus#read} and
+	 * {@link org.marl.hobes.ObjectBus#write} API.
+	 * @param pData A serializable object.
+	 * @param pTcpTimeout The TCP connection timeout.
+	 * @param pReadTimeout The response timeout.
+	 * @param pUseResponseFlag Determines whether an object will be deserialized
+	 * from the response.
+	 * 
+	 * @return The deserialized object, or <code>null</code> if the
+	 * <code>pUseResponseFlag</code> is not set.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public static Object post(URL pUrl,
+			Object pData, 
+			int pTcpTimeout,
+			int pReadTimeout,
+			boolean pUseResponseFlag) throws HobesException {
+		byte[] response = exchange(pUrl, ObjectBus.toBytes(pData), 
+				pTcpTimeout, pReadTimeout, pUseResponseFlag);
+		return pUseResponseFlag ? ObjectBus.fromBytes(response) : null;
+	}
+	
+	/** 
+	 * Serializes an object as the payload of a request frame, along with the 
+	 * information identifying its source.
+	 * <p> When the <code>pUseResponseFlag</code> parameter is set,
+	 * the function also deserializes an object from the response frame.
+	 * 
+	 * @param pSourceId The source identifier.
+	 * @param pUrl The location of an agent that conforms to the
+	 * {@link org.marl.hobes.ObjectBus#readWithSource} API.
+	 * @param pData A serializable object.
+	 * @param pTcpTimeout The TCP connection timeout.
+	 * @param pReadTimeout The response timeout.
+	 * @param pUseResponseFlag Determines whether an object will be deserialized
+	 * from the response.
+	 * 
+	 * @return The deserialized object, or <code>null</code> if the
+	 * <code>pUseResponseFlag</code> is not set.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public static Object postWithSource(String pSourceId,
+			URL pUrl,
+			Object pData, 
+			int pTcpTimeout,
+			int pReadTimeout,
+			boolean pUseResponseFlag) throws HobesException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectBus.writeWithSource(pSourceId, bos, pData);
+		byte[] response = exchange(pUrl, bos.toByteArray(), 
+				pTcpTimeout, pReadTimeout, pUseResponseFlag);
+		return pUseResponseFlag ? ObjectBus.fromBytes(response) : null;
+	}
+	
+	/** Closes all open connections. */
+	public static void closeConnections() {
+		for (FrameConnection connection : connections.values()){
+			connection.close();
+		}
+		connections.clear();
+	}
+	
+	private static FrameConnection connect(URL pUrl, int pTcpTimeout) 
+			throws HobesTransportException {
+		String key = pUrl.getProtocol() + "://" + pUrl.getAuthority() + pUrl.getPath();
+		FrameConnection connection = connections.get(key);
+		if ((connection != null) && connection.isOpen()){
+			return connection;
+		}
+		synchronized (connections) {
+			connection = connections.get(key);
+			if ((connection == null) || ! connection.isOpen()){
+				connection = new FrameConnection(key, openChannel(pUrl, pTcpTimeout));
+				connections.put(key, connection);
+			}
+			return connection;
+		}
+	}
+	
+	private static SocketChannel openChannel(URL pUrl, int pTcpTimeout) 
+			throws HobesTransportException {
+		SocketChannel channel = null;
+		try {
+			if (UNIX_SCHEME.equals(pUrl.getProtocol())){
+				// local connections are immediate, there's no timeout to honor
+				channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+				channel.connect(UnixDomainSocketAddress.of(pUrl.getPath()));
+				return channel;
+			}
+			int port = (pUrl.getPort() != -1) ? pUrl.getPort() : DEFAULT_PORT;
+			channel = SocketChannel.open();
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().connect(new InetSocketAddress(pUrl.getHost(), port), pTcpTimeout);
+			return channel;
+		}
+		catch (IOException e) {
+			if (channel != null){
+				try {
+					channel.close();
+				}
+				catch (IOException e1) {
+					// already failing
+				}
+			}
+			throw new HobesTransportException(pUrl.toExternalForm(), e);
+		}
+	}
+}
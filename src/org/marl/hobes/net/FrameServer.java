@@ -0,0 +1,422 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ctx.PKCS3BobContext;
+
+/**
+ * A selector-based server for HOBes frames over persistent connections,
+ * either TCP or Unix domain socket ones.
+ * <p>A single selector thread accepts connections, decodes incoming 
+ * {@link Frame frames} and writes responses back; requests are served
+ * by a {@link FrameHandler} on a pool of worker threads, so that responses
+ * to the requests of a connection are sent as soon as they are ready.
+ * 
+ * @see FrameObjectBus
+ */
+public class FrameServer {
+
+	/** Initial size of a connection read buffer. */
+	public static final int READ_BUFFER_SIZE = 1024 * 64;
+	
+	/** The server side of a connection. */
+	private class Session {
+		private final SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+		
+		Session(SocketChannel pChannel) {
+			this.channel = pChannel;
+		}
+		
+		void send(Frame pFrame) {
+			// header and payload are queued together so that frames never interleave
+			ByteBuffer[] buffers = pFrame.encode();
+			ByteBuffer frame = ByteBuffer.allocate(buffers[0].remaining() + buffers[1].remaining());
+			frame.put(buffers[0]).put(buffers[1]).flip();
+			this.writeQueue.add(frame);
+			pendingWrites.add(this);
+			selector.wakeup();
+		}
+	}
+	
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final ExecutorService workers;
+	private final FrameHandler handler;
+	private final Queue<Session> pendingWrites = new ConcurrentLinkedQueue<Session>();
+	private Thread selectorThread;
+	private volatile IOException failure;
+	
+	/**
+	 * Creates a server upon a bound server channel.
+	 * 
+	 * @param pServerChannel A bound server channel.
+	 * @param pHandler The handler serving requests.
+	 * @param pWorkers The pool serving requests.
+	 * 
+	 * @throws HobesTransportException When the selector can't be opened.
+	 */
+	public FrameServer(ServerSocketChannel pServerChannel, 
+			FrameHandler pHandler,
+			ExecutorService pWorkers) throws HobesTransportException {
+		try {
+			this.serverChannel = pServerChannel;
+			this.serverChannel.configureBlocking(false);
+			this.selector = Selector.open();
+			this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+		this.handler = pHandler;
+		this.workers = pWorkers;
+	}
+	
+	/**
+	 * Creates a server, served by as many workers as available processors.
+	 * 
+	 * @param pAddress The address to listen on, either an
+	 * <code>InetSocketAddress</code> or an <code>UnixDomainSocketAddress</code>.
+	 * @param pHandler The handler serving requests.
+	 * 
+	 * @throws HobesTransportException When the address can't be bound.
+	 */
+	public FrameServer(SocketAddress pAddress, FrameHandler pHandler) 
+			throws HobesTransportException {
+		this(bind(pAddress), pHandler, 
+				Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+	}
+	
+	/**
+	 * Answers the address this server is bound to.
+	 * 
+	 * @return That's it, including the actual port when an ephemeral one was asked.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	public SocketAddress getAddress() throws HobesTransportException {
+		try {
+			return this.serverChannel.getLocalAddress();
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	/**
+	 * Answers the error that stopped this server, in which case it closed 
+	 * its connections and no longer accepts any.
+	 * 
+	 * @return The error, or <code>null</code> while the server is running or
+	 * when it was stopped.
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+	
+	/** Starts serving connections, on a dedicated selector thread. */
+	public void start() {
+		this.selectorThread = new Thread("hobes-frame-server " + this.serverChannel) {
+			@Override
+			public void run() {
+				select();
+			}
+		};
+		this.selectorThread.start();
+	}
+	
+	/**
+	 * Stops this server: connections are closed, and requests in progress 
+	 * are given some time to complete.
+	 * 
+	 * @param pGracePeriod The maximum time to wait for requests in progress, in seconds.
+	 */
+	public void stop(int pGracePeriod) {
+		this.workers.shutdown();
+		try {
+			this.workers.awaitTermination(pGracePeriod, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.workers.shutdownNow();
+		try {
+			SocketAddress address = this.serverChannel.getLocalAddress();
+			this.selector.close();
+			this.serverChannel.close();
+			if (address instanceof UnixDomainSocketAddress){
+				Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+			}
+		}
+		catch (IOException e) {
+			// closing anyway
+		}
+		if (this.selectorThread != null){
+			try {
+				this.selectorThread.join(1000L * pGracePeriod + 1000);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Runs a server delegating to a Bob context.
+	 * <p>Usage: hobes_framed [&lt;port&gt;|&lt;socket path&gt;] [&lt;bob context properties&gt;].
+	 * 
+	 * @param args An optional TCP port, defaults to 7070, or Unix domain socket path, 
+	 * and an optional Bob context configuration, defaults to the 
+	 * <code>org/marl/hobes/ctx/bob.properties</code> resource.
+	 */
+	public static void main(String[] args) {
+		String listenOn = args.length > 0 ? args[0] : String.valueOf(FrameObjectBus.DEFAULT_PORT);
+		String ctxPath = args.length > 1 ? args[1] : null;
+		
+		try {
+			SocketAddress address;
+			try {
+				address = new InetSocketAddress(Integer.parseInt(listenOn));
+			}
+			catch (NumberFormatException e) {
+				address = UnixDomainSocketAddress.of(listenOn);
+			}
+			final FrameServer server = new FrameServer(address, 
+					new BobFrameHandler(new PKCS3BobContext(ctxPath)));
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					server.stop(5);
+				}
+			});
+			server.start();
+			System.out.println("... HOBes frame server listening on: " + server.getAddress());
+		}
+		catch (HobesException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static ServerSocketChannel bind(SocketAddress pAddress) throws HobesTransportException {
+		try {
+			ServerSocketChannel channel;
+			if (pAddress instanceof UnixDomainSocketAddress){
+				// a socket file left by a previous run would prevent binding
+				Files.deleteIfExists(((UnixDomainSocketAddress) pAddress).getPath());
+				channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			}
+			else {
+				channel = ServerSocketChannel.open();
+				channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			}
+			channel.bind(pAddress);
+			return channel;
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(String.valueOf(pAddress), e);
+		}
+	}
+	
+	private void select() {
+		try {
+			while (this.selector.isOpen()){
+				this.selector.select();
+				
+				Session session;
+				while ((session = this.pendingWrites.poll()) != null){
+					if (session.key.isValid()){
+						session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					}
+				}
+				
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (! key.isValid()){
+							continue;
+						}
+						if (key.isAcceptable()){
+							accept();
+							continue;
+						}
+						if (key.isReadable()){
+							read((Session) key.attachment());
+						}
+						if (key.isValid() && key.isWritable()){
+							write((Session) key.attachment());
+						}
+					}
+					catch (IOException e) {
+						closeSession(key);
+					}
+				}
+			}
+		}
+		catch (ClosedSelectorException e) {
+			// stopped
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+		catch (RuntimeException e) {
+			fail(new IOException(e));
+		}
+	}
+	
+	// the selector is unusable: connections are closed rather than left unanswered
+	private void fail(IOException pCause) {
+		this.failure = pCause;
+		pCause.printStackTrace();
+		try {
+			for (SelectionKey key : this.selector.keys()){
+				closeSession(key);
+			}
+			this.selector.close();
+			this.serverChannel.close();
+		}
+		catch (IOException e) {
+			// closing anyway
+		}
+		catch (ClosedSelectorException e) {
+			// closing anyway
+		}
+		this.workers.shutdown();
+	}
+	
+	private void accept() throws IOException {
+		SocketChannel channel = this.serverChannel.accept();
+		if (channel == null){
+			return;
+		}
+		channel.configureBlocking(false);
+		Session session = new Session(channel);
+		session.key = channel.register(this.selector, SelectionKey.OP_READ, session);
+	}
+	
+	private void read(Session pSession) throws IOException {
+		if (pSession.channel.read(pSession.readBuffer) < 0){
+			closeSession(pSession.key);
+			return;
+		}
+		ByteBuffer buffer = pSession.readBuffer;
+		buffer.flip();
+		Frame frame;
+		while ((frame = Frame.decode(buffer)) != null){
+			dispatch(pSession, frame);
+		}
+		if ((buffer.remaining() >= 4) && (Frame.peekSize(buffer) > buffer.capacity())){
+			// grow to hold the next frame
+			ByteBuffer larger = ByteBuffer.allocate(Frame.peekSize(buffer));
+			larger.put(buffer);
+			pSession.readBuffer = larger;
+		}
+		else {
+			buffer.compact();
+		}
+	}
+	
+	private void write(Session pSession) throws IOException {
+		ByteBuffer buffer;
+		while ((buffer = pSession.writeQueue.peek()) != null){
+			pSession.channel.write(buffer);
+			if (buffer.hasRemaining()){
+				return;
+			}
+			pSession.writeQueue.poll();
+		}
+		pSession.key.interestOps(SelectionKey.OP_READ);
+		if (! pSession.writeQueue.isEmpty()){
+			// a worker queued a frame meanwhile
+			pSession.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+	
+	private void dispatch(final Session pSession, final Frame pRequest) {
+		try {
+			this.workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					serve(pSession, pRequest);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			reply(pSession, pRequest, new HobesTransportException("Server is stopping"));
+		}
+	}
+	
+	private void serve(Session pSession, Frame pRequest) {
+		try {
+			byte[] response = this.handler.onFrame(pRequest.getPayload());
+			if (! pRequest.hasFlag(Frame.FLAG_NO_REPLY)){
+				pSession.send(new Frame(pRequest.getRequestId(), (byte) 0, 
+						response != null ? response : new byte[0]));
+			}
+		}
+		catch (HobesException e) {
+			reply(pSession, pRequest, e);
+		}
+		catch (RuntimeException e) {
+			reply(pSession, pRequest, e);
+		}
+	}
+	
+	// the error kind goes along, so that the client rethrows the same exception
+	private void reply(Session pSession, Frame pRequest, Exception pError) {
+		if (! pRequest.hasFlag(Frame.FLAG_NO_REPLY)){
+			pSession.send(Frame.error(pRequest.getRequestId(), pError));
+		}
+	}
+	
+	private void closeSession(SelectionKey pKey) {
+		pKey.cancel();
+		try {
+			pKey.channel().close();
+		}
+		catch (IOException e) {
+			// closing anyway
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.SourcedObject;
+
+/**
+ * Serves the requests posted to a {@link LocalObjectBus} endpoint.
+ * <p>Handlers are called from the posting thread, and receive object 
+ * references rather than serialized forms.
+ */
+public interface LocalHandler {
+
+	/**
+	 * Serves a request.
+	 * 
+	 * @param pRequest The request source and payload. Anonymous requests are
+	 * attributed to {@link SourcedObject#GUEST_ID}.
+	 * 
+	 * @return The response, possibly <code>null</code>.
+	 * 
+	 * @throws HobesException When the request can't be served.
+	 */
+	public Object onRequest(SourcedObject pRequest) throws HobesException;
+
+}
@@ -0,0 +1,182 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.net;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.SourcedObject;
+
+/** 
+ * Provides an API similar to {@link org.marl.hobes.http.HttpObjectBus}, but adapted
+ * to agents living in the same JVM, e.g. Alice and Bob in tests or in a single
+ * deployment unit.
+ * <p>Endpoints are designated by <code>local://name</code> URLs created with 
+ * {@link #createUrl(String)}, and are bound to a {@link LocalHandler} with
+ * {@link #bind(String, LocalHandler, boolean)}. The {@link org.marl.hobes.http.HttpObjectBus}
+ * and {@link org.marl.hobes.http.DesObjectBusHttp} functions delegate to this API 
+ * when given such URLs, so switching transport only takes changing the URL.
+ * <p>Requests are served from the posting thread, and objects are passed by reference:
+ * nothing is serialized, unless the endpoint was bound in copy mode. Then request
+ * and response are deep copied with a serialization round trip, so that neither side
+ * can observe the other's later mutations, as with a remote transport.
+ */
+public class LocalObjectBus {
+	private LocalObjectBus() {}
+	
+	/** URL scheme of the in-process transport. */
+	public static final String LOCAL_SCHEME = "local";
+	
+	private static final URLStreamHandler URL_HANDLER = new URLStreamHandler() {
+		@Override
+		protected URLConnection openConnection(URL pUrl) throws IOException {
+			throw new IOException("Not an URL connection, use LocalObjectBus: " + pUrl);
+		}
+	};
+	
+	private static final ConcurrentHashMap<String,Binding> bindings = 
+			new ConcurrentHashMap<String,Binding>();
+	
+	/**
+	 * Creates an in-process transport URL.
+	 * <p>The JDK does not know the <code>local</code> scheme,
+	 * so such URLs can't be created with <code>new URL(spec)</code>.
+	 * 
+	 * @param pSpec The URL, e.g. <code>local://bob</code>.
+	 * 
+	 * @return The URL.
+	 * 
+	 * @throws HobesTransportException When the URL is malformed.
+	 */
+	public static URL createUrl(String pSpec) throws HobesTransportException {
+		try {
+			return new URL(null, pSpec, URL_HANDLER);
+		}
+		catch (MalformedURLException e) {
+			throw new HobesTransportException(pSpec, e);
+		}
+	}
+	
+	/**
+	 * Answers whether an URL designates an in-process endpoint.
+	 * 
+	 * @param pUrl The URL.
+	 * 
+	 * @return That's it.
+	 */
+	public static boolean isLocalUrl(URL pUrl) {
+		return LOCAL_SCHEME.equals(pUrl.getProtocol());
+	}
+	
+	/**
+	 * Binds a handler to an endpoint name, replacing any previous binding.
+	 * 
+	 * @param pName The endpoint name, i.e. the host part of its URL.
+	 * @param pHandler The handler requests are delegated to.
+	 * @param pCopyFlag Determines whether requests and responses are deep copied,
+	 * rather than passed by reference.
+	 * 
+	 * @return The endpoint URL.
+	 * 
+	 * @throws HobesTransportException When the name is not a valid URL host.
+	 */
+	public static URL bind(String pName, LocalHandler pHandler, boolean pCopyFlag) 
+			throws HobesTransportException {
+		URL url = createUrl(LOCAL_SCHEME + "://" + pName);
+		bindings.put(url.getHost(), new Binding(pHandler, pCopyFlag));
+		return url;
+	}
+	
+	/**
+	 * Removes an endpoint binding.
+	 * 
+	 * @param pName The endpoint name.
+	 */
+	public static void unbind(String pName) {
+		bindings.remove(pName);
+	}
+	
+	/** 
+	 * Posts an object to an in-process endpoint, on behalf of an anonymous source.
+	 * 
+	 * @param pUrl The endpoint URL.
+	 * @param pData The request object.
+	 * @param pUseResponseFlag Determines whether the response is answered.
+	 * 
+	 * @return The response object, or <code>null</code> if the
+	 * <code>pUseResponseFlag</code> is not set.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public static Object post(URL pUrl,
+			Object pData, 
+			boolean pUseResponseFlag) throws HobesException {
+		return postWithSource(SourcedObject.GUEST_ID, pUrl, pData, pUseResponseFlag);
+	}
+	
+	/** 
+	 * Posts an object to an in-process endpoint, along with the 
+	 * information identifying its source.
+	 * 
+	 * @param pSourceId The source identifier.
+	 * @param pUrl The endpoint URL.
+	 * @param pData The request object.
+	 * @param pUseResponseFlag Determines whether the response is answered.
+	 * 
+	 * @return The response object, or <code>null</code> if the
+	 * <code>pUseResponseFlag</code> is not set.
+	 * 
+	 * @throws HobesException When an error occurs.
+	 */
+	public static Object postWithSource(String pSourceId,
+			URL pUrl,
+			Object pData, 
+			boolean pUseResponseFlag) throws HobesException {
+		Binding binding = bindings.get(pUrl.getHost());
+		if (binding == null){
+			throw new HobesTransportException("Unbound local endpoint: " + pUrl.toExternalForm());
+		}
+		Object request = binding.copyFlag ? copy(pData) : pData;
+		Object response = binding.handler.onRequest(new SourcedObject(pSourceId, request));
+		if (! pUseResponseFlag){
+			return null;
+		}
+		return binding.copyFlag ? copy(response) : response;
+	}
+	
+	private static Object copy(Object pData) throws HobesException {
+		return (pData == null) ? null : ObjectBus.fromBytes(ObjectBus.toBytes(pData));
+	}
+	
+	private static class Binding {
+		private final LocalHandler handler;
+		private final boolean copyFlag;
+		
+		private Binding(LocalHandler pHandler, boolean pCopyFlag) {
+			this.handler = pHandler;
+			this.copyFlag = pCopyFlag;
+		}
+	}
+}
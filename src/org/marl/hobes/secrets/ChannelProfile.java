@@ -0,0 +1,188 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.Serializable;
+
+import org.marl.hobes.HobesSecurityException;
+
+/**
+ * What the two ends of a channel agreed on during the PKCS3 handshake:
+ * the cipher suite, the compression codec, and the framing version.
+ * <p>Alice offers every combination it supports in a {@link HandshakeHello}, 
+ * and Bob picks the first entries of its own preference lists that Alice offered,
+ * answering a {@link HandshakeReply}. Alice clients sending a bare public value
+ * get the {@link #LEGACY} profile, so that new features can be enabled 
+ * on Bob side before all clients are upgraded.
+ */
+public class ChannelProfile implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Objects are serialized as is. */
+	public static final int CODEC_NONE = 0;
+	/** Objects are deflated before they're ciphered, at the fastest level. */
+	public static final int CODEC_DEFLATE = 1;
+	
+	/** Serialized <code>SealedObject</code>s, with keys truncated from the agreed secret. */
+	public static final int FRAMING_SEALED_OBJECT = 1;
+	/** {@link SealedFrame}s, with keys derived from the agreed secret. */
+	public static final int FRAMING_SEALED_FRAME = 2;
+	/** {@link SealedFrame}s, with keys derived from the agreed secret, then 
+	 * rekeyed in-band, see {@link KeyEpochs}. */
+	public static final int FRAMING_KEY_EPOCHS = 3;
+	/** {@link SealedFrame}s, rekeyed in-band, with large payloads sealed as 
+	 * parallel chunks. */
+	public static final int FRAMING_PARALLEL_CHUNKS = 4;
+	
+	/** Supported suites, fastest first. The authenticate-only {@link CipherSuite#HMAC_SHA256} 
+	 * is left out: peers must both offer it explicitly, on trusted networks. */
+	public static final int[] SUPPORTED_SUITES = 
+		{ CipherSuite.AES_128_GCM, CipherSuite.AES_256_GCM, CipherSuite.DES };
+	/** Supported codecs, fastest first. */
+	public static final int[] SUPPORTED_CODECS = { CODEC_NONE, CODEC_DEFLATE };
+	/** Supported framing versions, fastest first. */
+	public static final int[] SUPPORTED_FRAMINGS = 
+		{ FRAMING_PARALLEL_CHUNKS, FRAMING_KEY_EPOCHS, FRAMING_SEALED_FRAME, FRAMING_SEALED_OBJECT };
+	
+	/** Profile of channels established with a bare public value. */
+	public static final ChannelProfile LEGACY = 
+			new ChannelProfile(CipherSuite.DES, CODEC_NONE, FRAMING_SEALED_OBJECT);
+	
+	/** Profile of channels established without negotiation. */
+	public static final ChannelProfile DEFAULT = 
+			new ChannelProfile(CipherSuite.DEFAULT, CODEC_NONE, FRAMING_SEALED_FRAME);
+	
+	private final int suite;
+	private final int codec;
+	private final int framing;
+	
+	/**
+	 * @param pSuite One of the {@link CipherSuite} identifiers.
+	 * @param pCodec One of {@link #CODEC_NONE}, {@link #CODEC_DEFLATE}.
+	 * @param pFraming One of {@link #FRAMING_SEALED_OBJECT}, {@link #FRAMING_SEALED_FRAME},
+	 * {@link #FRAMING_KEY_EPOCHS}, {@link #FRAMING_PARALLEL_CHUNKS}.
+	 */
+	public ChannelProfile(int pSuite, int pCodec, int pFraming) {
+		this.suite = pSuite;
+		this.codec = pCodec;
+		this.framing = pFraming;
+	}
+	
+	/**
+	 * Picks the first of our preferred suites, codecs and framing versions that a
+	 * peer supports.
+	 * 
+	 * @param pHello The peer capabilities.
+	 * @param pSuites Our suites, in order of preference.
+	 * @param pCodecs Our codecs, in order of preference.
+	 * @param pFramings Our framing versions, in order of preference.
+	 * 
+	 * @return The agreed profile.
+	 * 
+	 * @throws HobesSecurityException When there's no common suite, codec or framing version.
+	 */
+	public static ChannelProfile negotiate(HandshakeHello pHello, 
+			int[] pSuites, int[] pCodecs, int[] pFramings) throws HobesSecurityException {
+		int framing = pick(pFramings, pHello.getFramings(), "framing version");
+		// former framing only knows of plain DES sealed objects
+		if (framing == FRAMING_SEALED_OBJECT){
+			pick(new int[] { CipherSuite.DES }, pHello.getSuites(), "cipher suite");
+			pick(new int[] { CODEC_NONE }, pHello.getCodecs(), "codec");
+			return LEGACY;
+		}
+		return new ChannelProfile(pick(pSuites, pHello.getSuites(), "cipher suite"), 
+				pick(pCodecs, pHello.getCodecs(), "codec"), framing);
+	}
+	
+	/**
+	 * Checks that a profile Bob answered is one Alice offered: the handshake isn't
+	 * authenticated, a man-in-the-middle could otherwise downgrade the channel.
+	 * 
+	 * @param pSuites The offered suites.
+	 * @param pCodecs The offered codecs.
+	 * @param pFramings The offered framing versions.
+	 * 
+	 * @throws HobesSecurityException When the suite, codec or framing version wasn't offered.
+	 */
+	public void checkOffered(int[] pSuites, int[] pCodecs, int[] pFramings) throws HobesSecurityException {
+		pick(new int[] { this.suite }, pSuites, "cipher suite");
+		pick(new int[] { this.codec }, pCodecs, "codec");
+		pick(new int[] { this.framing }, pFramings, "framing version");
+	}
+	
+	private static int pick(int[] pOurs, int[] pTheirs, String pWhat) throws HobesSecurityException {
+		if (pTheirs == null){
+			throw new HobesSecurityException("No common " + pWhat);
+		}
+		for (int ours : pOurs){
+			for (int theirs : pTheirs){
+				if (ours == theirs){
+					return ours;
+				}
+			}
+		}
+		throw new HobesSecurityException("No common " + pWhat);
+	}
+	
+	/**
+	 * Answers the cipher suite.
+	 * 
+	 * @return One of the {@link CipherSuite} identifiers.
+	 */
+	public int getSuite() {
+		return suite;
+	}
+	
+	/**
+	 * Answers the compression codec.
+	 * 
+	 * @return One of {@link #CODEC_NONE}, {@link #CODEC_DEFLATE}.
+	 */
+	public int getCodec() {
+		return codec;
+	}
+	
+	/**
+	 * Answers the framing version.
+	 * 
+	 * @return One of {@link #FRAMING_SEALED_OBJECT}, {@link #FRAMING_SEALED_FRAME},
+	 * {@link #FRAMING_KEY_EPOCHS}, {@link #FRAMING_PARALLEL_CHUNKS}.
+	 */
+	public int getFraming() {
+		return framing;
+	}
+	
+	@Override
+	public boolean equals(Object pOther) {
+		if (! (pOther instanceof ChannelProfile)){
+			return false;
+		}
+		ChannelProfile other = (ChannelProfile) pOther;
+		return (suite == other.suite) && (codec == other.codec) && (framing == other.framing);
+	}
+	
+	@Override
+	public int hashCode() {
+		return (suite * 31 + codec) * 31 + framing;
+	}
+	
+	@Override
+	public String toString() {
+		return "suite=" + suite + ", codec=" + codec + ", framing=" + framing;
+	}
+}
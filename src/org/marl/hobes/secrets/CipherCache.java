@@ -0,0 +1,350 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKeyFactory;
+
+import org.marl.hobes.HobesSecurityException;
+
+/**
+ * Caches cryptography engines, since looking them up from the security 
+ * providers costs more than using them on small messages.
+ * <p>Ciphers and factories are kept per thread, one per algorithm, so that 
+ * concurrent users of a same channel never share an engine. Ciphers and MACs
+ * are re-initialized on every use, and the cache keeps no reference to the keys
+ * they're used with: a channel key that's replaced or dropped is not kept 
+ * reachable by the threads that used it, whose engines only hold the state of 
+ * the last key until their next use. Key agreements are not cached: they keep 
+ * their private key once the secret is generated, and pooling them would keep 
+ * the ephemeral keys reachable.
+ */
+public abstract class CipherCache {
+	private CipherCache() {}
+	
+	private static final ThreadLocal<HashMap<String,CipherContext>> ciphers = 
+			new ThreadLocal<HashMap<String,CipherContext>>() {
+		@Override
+		protected HashMap<String,CipherContext> initialValue() {
+			return new HashMap<String,CipherContext>();
+		}
+	};
+	private static final ThreadLocal<HashMap<String,KeyFactory>> keyFactories = 
+			new ThreadLocal<HashMap<String,KeyFactory>>() {
+		@Override
+		protected HashMap<String,KeyFactory> initialValue() {
+			return new HashMap<String,KeyFactory>();
+		}
+	};
+	private static final ThreadLocal<HashMap<String,SecretKeyFactory>> secretKeyFactories = 
+			new ThreadLocal<HashMap<String,SecretKeyFactory>>() {
+		@Override
+		protected HashMap<String,SecretKeyFactory> initialValue() {
+			return new HashMap<String,SecretKeyFactory>();
+		}
+	};
+	private static final ThreadLocal<HashMap<String,MessageDigest>> messageDigests = 
+			new ThreadLocal<HashMap<String,MessageDigest>>() {
+		@Override
+		protected HashMap<String,MessageDigest> initialValue() {
+			return new HashMap<String,MessageDigest>();
+		}
+	};
+	private static final ThreadLocal<HashMap<String,Mac>> macs = 
+			new ThreadLocal<HashMap<String,Mac>>() {
+		@Override
+		protected HashMap<String,Mac> initialValue() {
+			return new HashMap<String,Mac>();
+		}
+	};
+	private static final ThreadLocal<HashMap<String,KeyPairGenerator>> keyPairGenerators = 
+			new ThreadLocal<HashMap<String,KeyPairGenerator>>() {
+		@Override
+		protected HashMap<String,KeyPairGenerator> initialValue() {
+			return new HashMap<String,KeyPairGenerator>();
+		}
+	};
+	private static final AtomicInteger lookups = new AtomicInteger();
+	
+	/**
+	 * Answers a cipher initialized for a key, to be given back with 
+	 * {@link #releaseCipher(Cipher, boolean)} once the operation is complete.
+	 * <p>The cipher must be used from the calling thread only. Should the thread
+	 * need a second cipher of the same transformation meanwhile, a new one is created.
+	 * 
+	 * @param pTransformation The cipher transformation, e.g. {@link SecretFactory#ENCRYPTION_ALGORITHM}.
+	 * @param pMode <code>Cipher.ENCRYPT_MODE</code> or <code>Cipher.DECRYPT_MODE</code>.
+	 * @param pKey The key.
+	 * 
+	 * @return The cipher.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static Cipher acquireCipher(String pTransformation, int pMode, Key pKey) 
+			throws HobesSecurityException {
+		return acquireCipher(pTransformation, pMode, pKey, null);
+	}
+	
+	/**
+	 * Answers a cipher initialized for a key and parameters, to be given back with 
+	 * {@link #releaseCipher(Cipher, boolean)} once the operation is complete.
+	 * 
+	 * @param pTransformation The cipher transformation.
+	 * @param pMode <code>Cipher.ENCRYPT_MODE</code> or <code>Cipher.DECRYPT_MODE</code>.
+	 * @param pKey The key.
+	 * @param pParams The algorithm parameters, or <code>null</code>.
+	 * 
+	 * @return The cipher.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static Cipher acquireCipher(String pTransformation, int pMode, Key pKey, 
+			AlgorithmParameterSpec pParams) throws HobesSecurityException {
+		try {
+			HashMap<String,CipherContext> contexts = ciphers.get();
+			CipherContext context = contexts.get(pTransformation);
+			if (context == null){
+				lookups.incrementAndGet();
+				context = new CipherContext(Cipher.getInstance(pTransformation));
+				contexts.put(pTransformation, context);
+			}
+			else if (context.busy){
+				// reentrant use, don't disturb the cached cipher
+				lookups.incrementAndGet();
+				Cipher cipher = Cipher.getInstance(pTransformation);
+				init(cipher, pMode, pKey, pParams);
+				return cipher;
+			}
+			init(context.cipher, pMode, pKey, pParams);
+			context.busy = true;
+			return context.cipher;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new HobesSecurityException(e);
+		}
+		catch (NoSuchPaddingException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	/**
+	 * Gives back a cipher answered by {@link #acquireCipher(String, int, Key)}.
+	 * 
+	 * @param pCipher The cipher.
+	 * @param pReusableFlag Whether the last operation completed normally; a cipher
+	 * left in an unknown state is dropped rather than cached.
+	 */
+	public static void releaseCipher(Cipher pCipher, boolean pReusableFlag) {
+		HashMap<String,CipherContext> contexts = ciphers.get();
+		CipherContext context = contexts.get(pCipher.getAlgorithm());
+		if ((context != null) && (context.cipher == pCipher)){
+			context.busy = false;
+			if (! pReusableFlag){
+				contexts.remove(pCipher.getAlgorithm());
+			}
+		}
+	}
+	
+	/**
+	 * Answers this thread key factory for an algorithm.
+	 * 
+	 * @param pAlgorithm The algorithm, e.g. {@link SecretFactory#KEY_AGREEMENT_ALGORITHM}.
+	 * 
+	 * @return The key factory, to be used from the calling thread only.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static KeyFactory getKeyFactory(String pAlgorithm) throws HobesSecurityException {
+		HashMap<String,KeyFactory> factories = keyFactories.get();
+		KeyFactory factory = factories.get(pAlgorithm);
+		if (factory == null){
+			try {
+				lookups.incrementAndGet();
+				factory = KeyFactory.getInstance(pAlgorithm);
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new HobesSecurityException(e);
+			}
+			factories.put(pAlgorithm, factory);
+		}
+		return factory;
+	}
+	
+	/**
+	 * Answers this thread secret key factory for an algorithm.
+	 * 
+	 * @param pAlgorithm The algorithm, e.g. {@link SecretFactory#ENCRYPTION_ALGORITHM}.
+	 * 
+	 * @return The secret key factory, to be used from the calling thread only.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static SecretKeyFactory getSecretKeyFactory(String pAlgorithm) throws HobesSecurityException {
+		HashMap<String,SecretKeyFactory> factories = secretKeyFactories.get();
+		SecretKeyFactory factory = factories.get(pAlgorithm);
+		if (factory == null){
+			try {
+				lookups.incrementAndGet();
+				factory = SecretKeyFactory.getInstance(pAlgorithm);
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new HobesSecurityException(e);
+			}
+			factories.put(pAlgorithm, factory);
+		}
+		return factory;
+	}
+	
+	/**
+	 * Answers this thread message digest for an algorithm, reset.
+	 * 
+	 * @param pAlgorithm The algorithm, e.g. {@link CipherSuite#KDF_ALGORITHM}.
+	 * 
+	 * @return The message digest, to be used from the calling thread only.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static MessageDigest getMessageDigest(String pAlgorithm) throws HobesSecurityException {
+		HashMap<String,MessageDigest> digests = messageDigests.get();
+		MessageDigest digest = digests.get(pAlgorithm);
+		if (digest == null){
+			try {
+				lookups.incrementAndGet();
+				digest = MessageDigest.getInstance(pAlgorithm);
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new HobesSecurityException(e);
+			}
+			digests.put(pAlgorithm, digest);
+		}
+		digest.reset();
+		return digest;
+	}
+	
+	/**
+	 * Answers this thread MAC for an algorithm, initialized with a key.
+	 * 
+	 * @param pAlgorithm The algorithm, e.g. <code>HmacSHA256</code>.
+	 * @param pKey The key.
+	 * 
+	 * @return The MAC, to be used from the calling thread only.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static Mac getMac(String pAlgorithm, Key pKey) throws HobesSecurityException {
+		HashMap<String,Mac> instances = macs.get();
+		Mac mac = instances.get(pAlgorithm);
+		try {
+			if (mac == null){
+				lookups.incrementAndGet();
+				mac = Mac.getInstance(pAlgorithm);
+				instances.put(pAlgorithm, mac);
+			}
+			mac.init(pKey);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new HobesSecurityException(e);
+		}
+		catch (InvalidKeyException e) {
+			throw new HobesSecurityException(e);
+		}
+		return mac;
+	}
+	
+	/**
+	 * Answers this thread key pair generator for an algorithm, initialized
+	 * with the given parameters.
+	 * 
+	 * @param pAlgorithm The algorithm, e.g. {@link SecretFactory#KEY_AGREEMENT_ALGORITHM}.
+	 * @param pParams The key generation parameters.
+	 * 
+	 * @return The key pair generator, to be used from the calling thread only.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static KeyPairGenerator getKeyPairGenerator(String pAlgorithm, AlgorithmParameterSpec pParams) 
+			throws HobesSecurityException {
+		HashMap<String,KeyPairGenerator> generators = keyPairGenerators.get();
+		KeyPairGenerator generator = generators.get(pAlgorithm);
+		try {
+			if (generator == null){
+				lookups.incrementAndGet();
+				generator = KeyPairGenerator.getInstance(pAlgorithm);
+				generators.put(pAlgorithm, generator);
+			}
+			generator.initialize(pParams);
+			return generator;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new HobesSecurityException(e);
+		}
+		catch (InvalidAlgorithmParameterException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	/**
+	 * Answers the number of engines looked up from the security providers 
+	 * so far, i.e. cache misses.
+	 * 
+	 * @return That's it.
+	 */
+	public static int getLookupCount() {
+		return lookups.get();
+	}
+	
+	private static void init(Cipher pCipher, int pMode, Key pKey, AlgorithmParameterSpec pParams) 
+			throws HobesSecurityException {
+		try {
+			if (pParams == null){
+				pCipher.init(pMode, pKey);
+			}
+			else {
+				pCipher.init(pMode, pKey, pParams);
+			}
+		}
+		catch (InvalidKeyException e) {
+			throw new HobesSecurityException(e);
+		}
+		catch (InvalidAlgorithmParameterException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	private static class CipherContext {
+		private final Cipher cipher;
+		private boolean busy;
+		
+		private CipherContext(Cipher pCipher) {
+			this.cipher = pCipher;
+		}
+	}
+}
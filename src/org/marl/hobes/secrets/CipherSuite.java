@@ -0,0 +1,440 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.DESKeySpec;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.marl.hobes.HobesSecurityException;
+
+/**
+ * Describes how a channel ciphers its messages: the symmetric algorithm, 
+ * its key length, and the per-message nonce, if any.
+ * <p>AES-GCM suites are the default: AES runs on dedicated instructions on most 
+ * processors, and GCM authenticates the ciphertext. Each message is ciphered 
+ * with a new random nonce, carried along with the ciphertext. The DES suite is 
+ * kept to read and write with former peers.
+ * <p>The HMAC-SHA256 suite does not cipher: messages are sent in the clear, 
+ * followed by their MAC, for networks where integrity and source authentication 
+ * are needed but not confidentiality. It's never negotiated unless both peers
+ * explicitly offer it.
+ * <p>A suite is identified by the algorithm and length of its keys, so that 
+ * APIs given a key need not be told the suite.
+ */
+public class CipherSuite {
+	
+	/** DES (56 bits) in ECB mode, the original suite. */
+	public static final int DES = 0;
+	/** AES with a 128 bits key, in Galois/Counter mode. */
+	public static final int AES_128_GCM = 1;
+	/** AES with a 256 bits key, in Galois/Counter mode. */
+	public static final int AES_256_GCM = 2;
+	/** No cipher, messages are authenticated with HMAC-SHA256 only. */
+	public static final int HMAC_SHA256 = 3;
+	
+	/** Suite used to derive keys from Diffie-Hellman agreed secrets, unless told otherwise. */
+	public static final int DEFAULT = AES_256_GCM;
+	
+	/** GCM nonce length, in bytes. */
+	public static final int GCM_NONCE_LENGTH = 12;
+	/** GCM authentication tag length, in bits. */
+	public static final int GCM_TAG_LENGTH = 128;
+	
+	/** Digest used to derive keys from agreed secrets. */
+	public static final String KDF_ALGORITHM = "SHA-256";
+	
+	private static final CipherSuite[] suites = {
+		new CipherSuite(DES, "DES", SecretFactory.ENCRYPTION_ALGORITHM, 
+				SecretFactory.ENCRYPTION_ALGORITHM, DESKeySpec.DES_KEY_LEN, 0),
+		new CipherSuite(AES_128_GCM, "AES-128-GCM", "AES", "AES/GCM/NoPadding", 16, GCM_NONCE_LENGTH),
+		new CipherSuite(AES_256_GCM, "AES-256-GCM", "AES", "AES/GCM/NoPadding", 32, GCM_NONCE_LENGTH),
+		new CipherSuite(HMAC_SHA256, "HMAC-SHA256", "HmacSHA256", "HmacSHA256", 32, 0)
+	};
+	
+	private static final ThreadLocal<SecureRandom> randoms = new ThreadLocal<SecureRandom>() {
+		@Override
+		protected SecureRandom initialValue() {
+			return new SecureRandom();
+		}
+	};
+	
+	private final int id;
+	private final String name;
+	private final String keyAlgorithm;
+	private final String transformation;
+	private final int keyLength;
+	private final int nonceLength;
+	
+	private CipherSuite(int pId, String pName, String pKeyAlgorithm, String pTransformation,
+			int pKeyLength, int pNonceLength) {
+		this.id = pId;
+		this.name = pName;
+		this.keyAlgorithm = pKeyAlgorithm;
+		this.transformation = pTransformation;
+		this.keyLength = pKeyLength;
+		this.nonceLength = pNonceLength;
+	}
+	
+	/**
+	 * Answers a suite.
+	 * 
+	 * @param pId One of {@link #DES}, {@link #AES_128_GCM}, {@link #AES_256_GCM}, 
+	 * {@link #HMAC_SHA256}.
+	 * 
+	 * @return The suite.
+	 * 
+	 * @throws HobesSecurityException When the suite is unknown.
+	 */
+	public static CipherSuite getInstance(int pId) throws HobesSecurityException {
+		if ((pId < 0) || (pId >= suites.length)){
+			throw new HobesSecurityException("Unknown cipher suite: " + pId);
+		}
+		return suites[pId];
+	}
+	
+	/**
+	 * Answers the suite a key is to be used with.
+	 * 
+	 * @param pKey A symmetric key.
+	 * 
+	 * @return The suite.
+	 * 
+	 * @throws HobesSecurityException When no suite uses such keys.
+	 */
+	public static CipherSuite getInstance(SecretKey pKey) throws HobesSecurityException {
+		if (SecretFactory.ENCRYPTION_ALGORITHM.equals(pKey.getAlgorithm())){
+			return suites[DES];
+		}
+		if ("AES".equals(pKey.getAlgorithm())){
+			byte[] encoded = pKey.getEncoded();
+			if ((encoded != null) && (encoded.length == suites[AES_128_GCM].keyLength)){
+				return suites[AES_128_GCM];
+			}
+			if ((encoded != null) && (encoded.length == suites[AES_256_GCM].keyLength)){
+				return suites[AES_256_GCM];
+			}
+		}
+		if (suites[HMAC_SHA256].keyAlgorithm.equals(pKey.getAlgorithm())){
+			return suites[HMAC_SHA256];
+		}
+		throw new HobesSecurityException("No cipher suite for key: " + pKey.getAlgorithm());
+	}
+	
+	/**
+	 * Answers the default suite.
+	 * 
+	 * @return That's it, see {@link #DEFAULT}.
+	 */
+	public static CipherSuite getDefault() {
+		return suites[DEFAULT];
+	}
+	
+	/**
+	 * Answers this suite identifier.
+	 * 
+	 * @return One of {@link #DES}, {@link #AES_128_GCM}, {@link #AES_256_GCM}, 
+	 * {@link #HMAC_SHA256}.
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * Answers this suite name.
+	 * 
+	 * @return A name, e.g. <code>AES-256-GCM</code>.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Answers this suite cipher transformation.
+	 * 
+	 * @return A transformation, e.g. <code>AES/GCM/NoPadding</code>.
+	 */
+	public String getTransformation() {
+		return transformation;
+	}
+	
+	/**
+	 * Answers this suite key length.
+	 * 
+	 * @return The length of encoded keys, in bytes.
+	 */
+	public int getKeyLength() {
+		return keyLength;
+	}
+	
+	/**
+	 * Answers this suite nonce length.
+	 * 
+	 * @return The length of nonces, in bytes, 0 if this suite does not use nonces.
+	 */
+	public int getNonceLength() {
+		return nonceLength;
+	}
+	
+	/**
+	 * Answers whether messages ciphered with this suite carry a nonce, 
+	 * and are authenticated.
+	 * <p>MAC-only suites authenticate messages, but don't cipher them.
+	 * 
+	 * @return That's it.
+	 */
+	public boolean isAuthenticated() {
+		return (nonceLength > 0);
+	}
+	
+	/**
+	 * Answers whether this suite only authenticates messages, sent in the clear.
+	 * 
+	 * @return That's it.
+	 * 
+	 * @see #acquireMac(SecretKey)
+	 */
+	public boolean isMacOnly() {
+		return (id == HMAC_SHA256);
+	}
+	
+	/**
+	 * Generates a random key.
+	 * 
+	 * @return The new key.
+	 * 
+	 * @throws HobesSecurityException When the algorithm is unavailable.
+	 */
+	public SecretKey createKey() throws HobesSecurityException {
+		try {
+			KeyGenerator generator = KeyGenerator.getInstance(keyAlgorithm);
+			if (id != DES){
+				generator.init(keyLength * 8);
+			}
+			return generator.generateKey();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	/**
+	 * Creates a key from its encoded form.
+	 * 
+	 * @param pEncodedKey The key encoded form.
+	 * 
+	 * @return The key.
+	 * 
+	 * @throws HobesSecurityException When the encoded form does not suit this suite.
+	 */
+	public SecretKey createKey(byte[] pEncodedKey) throws HobesSecurityException {
+		if (pEncodedKey.length < keyLength){
+			throw new HobesSecurityException("Key too short for " + name + ": " + pEncodedKey.length);
+		}
+		if (id == DES){
+			try {
+				return CipherCache.getSecretKeyFactory(keyAlgorithm)
+						.generateSecret(new DESKeySpec(pEncodedKey));
+			}
+			catch (InvalidKeySpecException e) {
+				throw new HobesSecurityException(e);
+			}
+			catch (InvalidKeyException e) {
+				throw new HobesSecurityException(e);
+			}
+		}
+		return new SecretKeySpec(pEncodedKey, 0, keyLength, keyAlgorithm);
+	}
+	
+	/**
+	 * Derives a key from the raw secret agreed on by the Diffie-Hellman protocol.
+	 * <p>The key is the digest of this suite name followed by the secret, truncated
+	 * to this suite key length, so that suites never share a key.
+	 * 
+	 * @param pAgreedSecret The agreed secret.
+	 * 
+	 * @return The derived key.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public SecretKey deriveKey(byte[] pAgreedSecret) throws HobesSecurityException {
+		return deriveKey(pAgreedSecret, null);
+	}
+	
+	/**
+	 * Derives a key from the raw secret agreed on by the Diffie-Hellman protocol,
+	 * bound to the handshake that negotiated it.
+	 * <p>The transcript digest follows the secret, so that both ends only agree
+	 * on a key when they saw the same negotiation.
+	 * 
+	 * @param pAgreedSecret The agreed secret.
+	 * @param pTranscript The handshake transcript digest, <code>null</code> for none.
+	 * 
+	 * @return The derived key.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 * 
+	 * @see HandshakeHello#getTranscript(byte[], ChannelProfile)
+	 */
+	public SecretKey deriveKey(byte[] pAgreedSecret, byte[] pTranscript) throws HobesSecurityException {
+		MessageDigest digest = CipherCache.getMessageDigest(KDF_ALGORITHM);
+		digest.update(name.getBytes(StandardCharsets.US_ASCII));
+		digest.update(pAgreedSecret);
+		if (pTranscript != null){
+			digest.update(pTranscript);
+		}
+		byte[] material = digest.digest();
+		try {
+			return createKey(material);
+		}
+		finally {
+			Arrays.fill(material, (byte) 0);
+		}
+	}
+	
+	/**
+	 * Derives the key of the next epoch of a channel from the current one.
+	 * <p>The key is the digest of this suite name, the epoch number and the 
+	 * current key, truncated to this suite key length. Both ends derive the same 
+	 * keys, without exchanging anything but the epoch number.
+	 * 
+	 * @param pKey The current key.
+	 * @param pEpoch The number of the next epoch.
+	 * 
+	 * @return The next key.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public SecretKey rekey(SecretKey pKey, int pEpoch) throws HobesSecurityException {
+		MessageDigest digest = CipherCache.getMessageDigest(KDF_ALGORITHM);
+		digest.update(name.getBytes(StandardCharsets.US_ASCII));
+		digest.update(new byte[] { (byte) (pEpoch >>> 24), (byte) (pEpoch >>> 16), 
+				(byte) (pEpoch >>> 8), (byte) pEpoch });
+		byte[] encodedKey = pKey.getEncoded();
+		digest.update(encodedKey);
+		Arrays.fill(encodedKey, (byte) 0);
+		byte[] material = digest.digest();
+		try {
+			return createKey(material);
+		}
+		finally {
+			Arrays.fill(material, (byte) 0);
+		}
+	}
+	
+	/**
+	 * Generates a nonce for a new message.
+	 * 
+	 * @return The nonce, or <code>null</code> if this suite does not use nonces.
+	 */
+	public byte[] createNonce() {
+		if (nonceLength == 0){
+			return null;
+		}
+		byte[] nonce = new byte[nonceLength];
+		randoms.get().nextBytes(nonce);
+		return nonce;
+	}
+	
+	/**
+	 * Answers a cipher initialized for a message, to be given back with 
+	 * {@link CipherCache#releaseCipher(Cipher, boolean)} once the message is complete.
+	 * 
+	 * @param pMode <code>Cipher.ENCRYPT_MODE</code> or <code>Cipher.DECRYPT_MODE</code>.
+	 * @param pKey A key of this suite.
+	 * @param pNonce The message nonce, see {@link #createNonce()}.
+	 * 
+	 * @return The cipher.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs, or the nonce is missing.
+	 */
+	public Cipher acquireCipher(int pMode, SecretKey pKey, byte[] pNonce) 
+			throws HobesSecurityException {
+		if (isMacOnly()){
+			throw new HobesSecurityException(name + " does not cipher");
+		}
+		if (nonceLength == 0){
+			return CipherCache.acquireCipher(transformation, pMode, pKey);
+		}
+		if ((pNonce == null) || (pNonce.length != nonceLength)){
+			throw new HobesSecurityException("Invalid nonce for " + name);
+		}
+		return CipherCache.acquireCipher(transformation, pMode, pKey, 
+				new GCMParameterSpec(GCM_TAG_LENGTH, pNonce));
+	}
+	
+	/**
+	 * Answers a MAC initialized for a message, for MAC-only suites.
+	 * 
+	 * @param pKey A key of this suite.
+	 * 
+	 * @return The MAC, to be used from the calling thread only.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs, or this suite ciphers.
+	 */
+	public Mac acquireMac(SecretKey pKey) throws HobesSecurityException {
+		if (! isMacOnly()){
+			throw new HobesSecurityException(name + " is not MAC-only");
+		}
+		return CipherCache.getMac(transformation, pKey);
+	}
+	
+	/**
+	 * Extracts the nonce from encoded GCM parameters, as found in sealed objects.
+	 * <p>The encoding is the DER sequence of the nonce octet string, optionally 
+	 * followed by the tag length integer.
+	 * 
+	 * @param pEncodedParams The encoded parameters.
+	 * 
+	 * @return The nonce.
+	 * 
+	 * @throws HobesSecurityException When the parameters can't be decoded, 
+	 * or don't suit this suite.
+	 */
+	byte[] decodeNonce(byte[] pEncodedParams) throws HobesSecurityException {
+		if ((pEncodedParams == null) || (pEncodedParams.length < 4 + nonceLength)
+				|| (pEncodedParams[0] != 0x30) || (pEncodedParams[2] != 0x04) 
+				|| (pEncodedParams[3] != nonceLength)){
+			throw new HobesSecurityException("Invalid parameters for " + name);
+		}
+		int tail = 4 + nonceLength;
+		if ((pEncodedParams.length > tail) && ! ((pEncodedParams.length == tail + 3) 
+				&& (pEncodedParams[tail] == 0x02) && (pEncodedParams[tail + 1] == 1)
+				&& (pEncodedParams[tail + 2] * 8 == GCM_TAG_LENGTH))){
+			throw new HobesSecurityException("Unsupported tag length for " + name);
+		}
+		return Arrays.copyOfRange(pEncodedParams, 4, tail);
+	}
+	
+	@Override
+	public String toString() {
+		return name;
+	}
+}
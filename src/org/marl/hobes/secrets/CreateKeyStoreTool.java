@@ -0,0 +1,67 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.security.KeyPair;
+import java.security.spec.NamedParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a key store of X25519 trusted keys, valid from now on for some days,
+ * for Bob, along with its public counterpart for Alice.
+ * 
+ * @see MappedKeyStore#create(String, List, boolean)
+ */
+public class CreateKeyStoreTool {
+
+	/** Usage: create_keystore &lt;path&gt; &lt;days&gt; &lt;key id&gt;...
+	 * <p>Creates <code>path</code> for Bob, and <code>path.public</code> for Alice.
+	 * 
+	 * @param args 
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3){
+			System.out.println("Usage: create_keystore <path> <days> <key id>...");
+			return;
+		}
+		try{
+			long notBefore = System.currentTimeMillis();
+			long notAfter = notBefore + Long.parseLong(args[1]) * 24 * 3600 * 1000;
+			List<TrustedKeyEntry> entries = new ArrayList<TrustedKeyEntry>();
+			for (int i = 2; i < args.length; i++){
+				KeyPair keys = CipherCache.getKeyPairGenerator(SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, 
+						NamedParameterSpec.X25519).generateKeyPair();
+				entries.add(new TrustedKeyEntry(args[i], SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM, 
+						keys.getPublic(), keys.getPrivate(), notBefore, notAfter));
+			}
+			MappedKeyStore.create(args[0], entries, true);
+			MappedKeyStore.create(args[0] + ".public", entries, false);
+			
+			System.out.println("... Verifying key store: "+args[0]);
+			MappedKeyStore store = new MappedKeyStore(args[0]);
+			for (TrustedKeyEntry entry : entries){
+				assert(store.get(entry.getKeyId()).getPrivateValue() != null);
+			}
+			System.out.println("done.");
+		}
+		catch(Exception e){
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package org.marl.hobes.secrets;
+
+import java.io.FileInputStream;
+import java.security.KeyPair;
+import java.util.Arrays;
+
+import org.marl.hobes.ObjectBus;
+
+/**
+ * Generates the trusted X25519 keys, in their raw RFC 7748 form.
+ * 
+ * @see SecretFactory#createXdhPVx(String)
+ */
+public class CreateXdhPVxFilesTool {
+
+	/** Usage: create_xdh_pvx [<prefix>].
+	 * 
+	 * @param args 
+	 */
+	public static void main(String[] args) {
+		String prefix = args.length > 0 ? args[0] 
+				: "src/org/marl/hobes/secrets/bob.x25519";
+	
+		try{
+			KeyPair generatedKeys = SecretFactory.createXdhPVx(prefix);
+			System.out.println("PV: "
+					+ObjectBus.bytestoHex(SecretFactory.encodeXdhPublicKey(generatedKeys.getPublic())));
+			
+			String pvPath = prefix + ".PV";
+			System.out.println("... Verifying public key file: "+pvPath);
+			FileInputStream fis = new FileInputStream(pvPath);
+			byte[] rawPV = SecretFactory.readXdhKey(fis);
+			fis.close();
+			assert(Arrays.equals(SecretFactory.createXdhPublicKey(rawPV).getEncoded(),
+					generatedKeys.getPublic().getEncoded()));
+			
+			String xPath = prefix + ".x";
+			System.out.println("... Verifying private key file: "+xPath);
+			fis = new FileInputStream(xPath);
+			byte[] rawX = SecretFactory.readXdhKey(fis);
+			fis.close();
+			assert(Arrays.equals(SecretFactory.createXdhPrivateKey(rawX).getEncoded(),
+					generatedKeys.getPrivate().getEncoded()));
+			
+			System.out.println("done.");
+		}
+		catch(Exception e){
+			e.printStackTrace();
+		}
+	}
+}
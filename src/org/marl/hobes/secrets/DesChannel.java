@@ -31,6 +31,8 @@ import org.marl.hobes.SourcedObject;
 /**
  * Represents a DES encrypted commuication channel.
  * It's a symmetric channel.
+ * <p>Channels with the {@link ChannelProfile#FRAMING_KEY_EPOCHS} profile may
+ * rekey in-band, see {@link #setRekeyPolicy(long, long, long)}.
  * 
  * @author chris
  *
@@ -39,6 +41,13 @@ public class DesChannel {
 
 	protected String id;
 	protected SecretKey sharedSecret = null;
+	protected ChannelProfile profile = ChannelProfile.DEFAULT;
+	
+	// the keys derived from the shared secret, and when to derive them
+	private KeyEpochs keyEpochs = null;
+	private long rekeyMessages = 0;
+	private long rekeyAge = 0;
+	private long rekeyOverlap = KeyEpochs.DEFAULT_OVERLAP;
 	
 	/** 
 	 * Initialize a new DES channel.
@@ -73,6 +82,88 @@ public class DesChannel {
 		return this.sharedSecret;
 	}
 
+
+	/**
+	 * Answers how messages are written on this channel.
+	 * 
+	 * @return The channel profile, {@link ChannelProfile#DEFAULT} unless agreed on otherwise.
+	 */
+	public ChannelProfile getProfile() {
+		return profile;
+	}
+	
+	/**
+	 * Answers the suite messages are ciphered with on this channel.
+	 * 
+	 * @return The suite of this channel key.
+	 * @throws HobesSecurityException When the secret has not been set.
+	 */
+	public CipherSuite getCipherSuite() throws HobesSecurityException {
+		return CipherSuite.getInstance(getSecretKey());
+	}
+	
+	/**
+	 * Sets when this end moves to the next key, without a new key agreement.
+	 * <p>Both ends derive the same keys, the other end follows the epoch named 
+	 * in messages. Only channels with the {@link ChannelProfile#FRAMING_KEY_EPOCHS}
+	 * profile rekey.
+	 * 
+	 * @param pMaxMessages Messages sent per key, <code>0</code> for no limit.
+	 * @param pMaxAge Key duration, in milliseconds, <code>0</code> for no limit.
+	 * @param pOverlap Time the former key is still accepted, in milliseconds.
+	 * 
+	 * @see KeyEpochs
+	 */
+	public synchronized void setRekeyPolicy(long pMaxMessages, long pMaxAge, long pOverlap) {
+		this.rekeyMessages = pMaxMessages;
+		this.rekeyAge = pMaxAge;
+		this.rekeyOverlap = pOverlap;
+		if (this.keyEpochs != null){
+			this.keyEpochs.setPolicy(pMaxMessages, pMaxAge, pOverlap);
+		}
+	}
+	
+	/**
+	 * Answers the epoch of the key this end currently sends with.
+	 * 
+	 * @return The {@link KeyEpochs} epoch number, <code>0</code> for the agreed key.
+	 * 
+	 * @throws HobesSecurityException When the secret has not been set.
+	 */
+	public int getKeyEpoch() throws HobesSecurityException {
+		return getKeyEpochs().getEpoch();
+	}
+	
+	/**
+	 * Answers the keys derived from the current secret, starting over when 
+	 * the secret changes, e.g. after a new key agreement.
+	 * 
+	 * @return The keys.
+	 * 
+	 * @throws HobesSecurityException When the secret has not been set.
+	 */
+	protected synchronized KeyEpochs getKeyEpochs() throws HobesSecurityException {
+		SecretKey secret = getSecretKey();
+		if ((this.keyEpochs == null) || (this.keyEpochs.getInitialKey() != secret)){
+			this.keyEpochs = new KeyEpochs(secret, System.currentTimeMillis());
+			this.keyEpochs.setPolicy(this.rekeyMessages, this.rekeyAge, this.rekeyOverlap);
+		}
+		return this.keyEpochs;
+	}
+	
+	/**
+	 * Starts the keys over from the current secret, at epoch <code>0</code>.
+	 */
+	protected synchronized void resetKeyEpochs() {
+		this.keyEpochs = null;
+	}
+	
+	private KeyEpoch nextKey() throws HobesSecurityException {
+		if (getProfile().getFraming() < ChannelProfile.FRAMING_KEY_EPOCHS){
+			return new KeyEpoch(0, getSecretKey());
+		}
+		return getKeyEpochs().next(System.currentTimeMillis());
+	}
 	
 	/** 
 	 * Serializes  an object to a stream, using this channel DES
@@ -87,7 +178,8 @@ public class DesChannel {
 	 */
 	public void write(OutputStream pOutStream, Object pData) 
 			throws HobesTransportException, HobesSecurityException{
-		DesObjectBus.write(pOutStream, pData, getSecretKey());
+		KeyEpoch key = nextKey();
+		DesObjectBus.write(pOutStream, pData, key.getKey(), getProfile(), key.getEpoch());
 	}
 
 	/** 
@@ -103,7 +195,8 @@ public class DesChannel {
 	 */
 	public void writeWithSource(String pSourceId, OutputStream pOutStream, Object pData)
 			throws HobesTransportException, HobesSecurityException{
-		DesObjectBus.writeWithSource(pSourceId, pOutStream, pData, getSecretKey());
+		KeyEpoch key = nextKey();
+		DesObjectBus.writeWithSource(pSourceId, pOutStream, pData, key.getKey(), getProfile(), key.getEpoch());
 	}
 	
 	/** 
@@ -121,7 +214,7 @@ public class DesChannel {
 	 */
 	public Object read(InputStream pInStream) 
 			throws HobesTransportException, HobesDataException, HobesSecurityException{
-		return DesObjectBus.read(pInStream, getSecretKey());
+		return decipher(DesObjectBus.readSealed(pInStream));
 	}
 
 	/** 
@@ -139,15 +232,46 @@ public class DesChannel {
 	 */
 	public SourcedObject readWithSource(InputStream pInStream) 
 			throws HobesTransportException, HobesDataException, HobesSecurityException{
-		return DesObjectBus.readWithSource(pInStream, getSecretKey());
+		SourcedObject sealed = DesObjectBus.readWithSource(pInStream);
+		return new SourcedObject(sealed.getSource(), decipher(sealed.getPayload()));
 	}
 	
+	/**
+	 * Deciphers a payload with the key of the epoch it names, then moves to 
+	 * that epoch if it's ahead.
+	 * 
+	 * @param pData A {@link SealedFrame}, or a sealed object.
+	 * 
+	 * @return The deciphered data.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs, or the epoch is over.
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a marshaling error occurs.
+	 */
 	public Object decipher(Object pData) throws HobesSecurityException, HobesTransportException, HobesDataException {
-		return DesObjectBus.decipher((SealedObject) pData,getSecretKey());
+		if (getProfile().getFraming() < ChannelProfile.FRAMING_KEY_EPOCHS){
+			return DesObjectBus.decipher(pData, getSecretKey());
+		}
+		int epoch = DesObjectBus.getKeyEpoch(pData);
+		KeyEpochs epochs = getKeyEpochs();
+		Object data = DesObjectBus.decipher(pData, epochs.getKey(epoch, System.currentTimeMillis()));
+		epochs.accept(epoch, System.currentTimeMillis());
+		return data;
 	}
-			
+	
+	/**
+	 * Ciphers an object with the current key of this end.
+	 * 
+	 * @param pData A serializable object.
+	 * 
+	 * @return A sealed object, naming the key epoch if it's not <code>0</code>.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
 	public SealedObject cipher(Object pData) throws HobesSecurityException, HobesTransportException{
-		return DesObjectBus.cipher(pData, getSecretKey());
+		KeyEpoch key = nextKey();
+		return DesObjectBus.cipher(pData, key.getKey(), key.getEpoch());
 	}
 
 }
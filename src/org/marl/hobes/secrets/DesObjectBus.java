@@ -23,16 +23,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.Serializable;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.Mac;
+import javax.crypto.NullCipher;
 import javax.crypto.SealedObject;
 import javax.crypto.SecretKey;
 
@@ -44,6 +45,12 @@ import org.marl.hobes.SourcedObject;
 
 /**
  * Adds DES encryption support to the {@link org.marl.hobes.ObjectBus} API.
+ * <p>Despite the name, objects are ciphered with the {@link CipherSuite} of the given key,
+ * DES for the original keys, AES-GCM for keys agreed on by default. With MAC-only 
+ * suites, objects are only authenticated: sealed objects then hold the object in the
+ * clear, along with its MAC.
+ * <p>Streams are written as {@link SealedFrame}s. Streams written as serialized 
+ * <code>SealedObject</code>s by former versions are still read.
  * 
  * @author chris
  *
@@ -52,7 +59,8 @@ public abstract class DesObjectBus {
 	private DesObjectBus() {}
 	
 	/** 
-	 * Ciphers an object using DES-encryption.
+	 * Ciphers an object using DES-encryption, or the suite of the key.
+	 * <p>AES-GCM sealed objects carry their nonce in their algorithm parameters.
 	 * 
 	 * @param pData A serializable object.
 	 * @param pSharedSecret The symmetric key to use.
@@ -65,19 +73,16 @@ public abstract class DesObjectBus {
 	public static SealedObject cipher(Object pData,	SecretKey pSharedSecret)
 			throws HobesSecurityException, HobesTransportException{
 		
-		try {
-			Cipher cipher = Cipher.getInstance(SecretFactory.ENCRYPTION_ALGORITHM);
-			cipher.init(Cipher.ENCRYPT_MODE, pSharedSecret);
-			return new SealedObject((Serializable) pData, cipher);
-		} 
-		catch (NoSuchAlgorithmException e) {
-			throw new HobesSecurityException(e);
-		} 
-		catch (NoSuchPaddingException e) {
-			throw new HobesSecurityException(e);
+		CipherSuite suite = CipherSuite.getInstance(pSharedSecret);
+		if (suite.isMacOnly()){
+			return new MacSealedObject(pData, pSharedSecret, 0);
 		}
-		catch (InvalidKeyException e) {
-			throw new HobesSecurityException(e);
+		Cipher cipher = suite.acquireCipher(Cipher.ENCRYPT_MODE, pSharedSecret, suite.createNonce());
+		boolean isReusable = false;
+		try {
+			SealedObject sealedObject = new SealedObject((Serializable) pData, cipher);
+			isReusable = true;
+			return sealedObject;
 		} 
 		catch (IllegalBlockSizeException e) {
 			throw new HobesSecurityException(e);
@@ -85,6 +90,51 @@ public abstract class DesObjectBus {
 		catch (IOException e) {
 			throw new HobesTransportException(e);
 		}
+		finally {
+			CipherCache.releaseCipher(cipher, isReusable);
+		}
+	}
+	
+	/** 
+	 * Ciphers an object with the key of some epoch of a rekeyed channel.
+	 * 
+	 * @param pData A serializable object.
+	 * @param pSharedSecret The symmetric key to use.
+	 * @param pEpoch The {@link KeyEpochs} epoch of the key, <code>0</code> for the agreed key.
+	 * 
+	 * @return A sealed object containing the ciphered data, and naming the epoch 
+	 * unless it's <code>0</code>.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	public static SealedObject cipher(Object pData, SecretKey pSharedSecret, int pEpoch)
+			throws HobesSecurityException, HobesTransportException{
+		if (CipherSuite.getInstance(pSharedSecret).isMacOnly()){
+			return new MacSealedObject(pData, pSharedSecret, pEpoch);
+		}
+		SealedObject sealedObject = cipher(pData, pSharedSecret);
+		return (pEpoch == 0) ? sealedObject : new EpochSealedObject(sealedObject, pEpoch);
+	}
+	
+	/**
+	 * Answers the epoch of the key a payload is ciphered with.
+	 * 
+	 * @param pSealed A {@link SealedFrame}, or a sealed object.
+	 * 
+	 * @return The {@link KeyEpochs} epoch number, <code>0</code> for the agreed key.
+	 */
+	public static int getKeyEpoch(Object pSealed) {
+		if (pSealed instanceof SealedFrame){
+			return ((SealedFrame) pSealed).getKeyEpoch();
+		}
+		if (pSealed instanceof EpochSealedObject){
+			return ((EpochSealedObject) pSealed).epoch;
+		}
+		if (pSealed instanceof MacSealedObject){
+			return ((MacSealedObject) pSealed).epoch;
+		}
+		return 0;
 	}
 	
 	/**
@@ -102,20 +152,23 @@ public abstract class DesObjectBus {
 	public static Object decipher(SealedObject sealedObject, SecretKey pSharedSecret) 
 			throws HobesSecurityException, HobesTransportException, HobesDataException {
 		
-		try {
-			Cipher cipher = Cipher.getInstance(SecretFactory.ENCRYPTION_ALGORITHM);
-			cipher.init(Cipher.DECRYPT_MODE, pSharedSecret);
-			return sealedObject.getObject(cipher);
+		CipherSuite suite = CipherSuite.getInstance(pSharedSecret);
+		if (sealedObject instanceof MacSealedObject){
+			return ((MacSealedObject) sealedObject).getObject(pSharedSecret);
 		}
-		catch (NoSuchAlgorithmException e) {
-			throw new HobesSecurityException(e);
+		if (! suite.getTransformation().equals(sealedObject.getAlgorithm())){
+			throw new HobesSecurityException("Cipher suite mismatch: " + sealedObject.getAlgorithm()
+					+ " sealed object, " + suite + " key");
 		}
-		catch (NoSuchPaddingException e) {
-			throw new HobesSecurityException(e);
+		byte[] nonce = suite.isAuthenticated() ? 
+				suite.decodeNonce(new SealedParameters(sealedObject).getEncodedParams()) : null;
+		Cipher cipher = suite.acquireCipher(Cipher.DECRYPT_MODE, pSharedSecret, nonce);
+		boolean isReusable = false;
+		try {
+			Object data = sealedObject.getObject(cipher);
+			isReusable = true;
+			return data;
 		}
-		catch (InvalidKeyException e) {
-			throw new HobesSecurityException(e);
-		} 
 		catch (ClassNotFoundException e) {
 			throw new HobesDataException(e);
 		} 
@@ -128,6 +181,33 @@ public abstract class DesObjectBus {
 		catch (IOException e) {
 			throw new HobesTransportException(e);
 		}
+		finally {
+			CipherCache.releaseCipher(cipher, isReusable);
+		}
+	}
+	
+	/**
+	 * Deciphers a DES encrypted payload, as answered by {@link #readWithSource(InputStream)}.
+	 * 
+	 * @param pSealed A {@link SealedFrame}, or a sealed object containing the ciphered data.
+	 * @param pSharedSecret The symmetric key to use.
+	 * 
+	 * @return The deciphered data.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a marshaling error occurs, or the payload is not ciphered.
+	 */
+	public static Object decipher(Object pSealed, SecretKey pSharedSecret) 
+			throws HobesSecurityException, HobesTransportException, HobesDataException {
+		if (pSealed instanceof SealedFrame){
+			return ((SealedFrame) pSealed).getObject(pSharedSecret);
+		}
+		if (pSealed instanceof SealedObject){
+			return decipher((SealedObject) pSealed, pSharedSecret);
+		}
+		throw new HobesDataException("Not a ciphered payload: " 
+				+ ((pSealed == null) ? null : pSealed.getClass().getName()));
 	}
 
 	/** 
@@ -145,7 +225,55 @@ public abstract class DesObjectBus {
 			SecretKey pSharedSecret)
 					throws HobesTransportException, HobesSecurityException {
 		
+			SealedFrame.write(pOutStream, null, pData, pSharedSecret);
+	}
+	
+	/** 
+	 * Serializes an object to a DES-encrypted stream, as agreed on for a channel.
+	 * 
+	 * @param pOutStream An open stream to write to. This stream should not be re-open.
+	 * @param pData A serializable object.
+	 * @param pSharedSecret The symmetric key to use.
+	 * @param pProfile The channel profile, for its codec and framing version.
+	 * 
+	 * @throws HobesTransportException When the stream is corrupted.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static void write(OutputStream pOutStream, 
+			Object pData,
+			SecretKey pSharedSecret,
+			ChannelProfile pProfile)
+					throws HobesTransportException, HobesSecurityException {
+		write(pOutStream, pData, pSharedSecret, pProfile, 0);
+	}
+	
+	/** 
+	 * Serializes an object to a DES-encrypted stream, as agreed on for a channel,
+	 * with the key of some epoch.
+	 * 
+	 * @param pOutStream An open stream to write to. This stream should not be re-open.
+	 * @param pData A serializable object.
+	 * @param pSharedSecret The symmetric key to use.
+	 * @param pProfile The channel profile, for its codec and framing version.
+	 * @param pEpoch The {@link KeyEpochs} epoch of the key, <code>0</code> for the agreed key.
+	 * 
+	 * @throws HobesTransportException When the stream is corrupted.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static void write(OutputStream pOutStream, 
+			Object pData,
+			SecretKey pSharedSecret,
+			ChannelProfile pProfile,
+			int pEpoch)
+					throws HobesTransportException, HobesSecurityException {
+		
+		if (pProfile.getFraming() == ChannelProfile.FRAMING_SEALED_OBJECT){
 			ObjectBus.write(pOutStream, cipher(pData, pSharedSecret));
+		}
+		else {
+			SealedFrame.write(pOutStream, null, pData, pSharedSecret, pProfile.getCodec(), pEpoch,
+					pProfile.getFraming() >= ChannelProfile.FRAMING_PARALLEL_CHUNKS);
+		}
 	}
 
 	/** 
@@ -193,15 +321,58 @@ public abstract class DesObjectBus {
 			Object pData,
 			SecretKey pSharedSecret) throws HobesTransportException, HobesSecurityException {
 		
-		try{
-			ObjectOutputStream oos = new ObjectOutputStream(pOutStream);
-			oos.writeObject(pSourceId);
-			oos.writeObject(cipher(pData, pSharedSecret));
-			oos.close();
+		SealedFrame.write(pOutStream, pSourceId, pData, pSharedSecret);
+	}
+	
+	/** 
+	 * Serializes an object to a DES encrypted stream, along with the information
+	 * identifying its source, as agreed on for a channel.
+	 * 
+	 * @param pSourceId The source identifier.
+	 * @param pOutStream An open stream to write to. This stream should not be re-open.
+	 * @param pData A serializable object.
+	 * @param pSharedSecret The symmetric key to use.
+	 * @param pProfile The channel profile, for its codec and framing version.
+	 * 
+	 * @throws HobesTransportException When the stream is corrupted.
+	 * @throws HobesSecurityException When a cryptography error.
+	 */
+	public static void writeWithSource(String pSourceId,
+			OutputStream pOutStream, 
+			Object pData,
+			SecretKey pSharedSecret,
+			ChannelProfile pProfile) throws HobesTransportException, HobesSecurityException {
+		writeWithSource(pSourceId, pOutStream, pData, pSharedSecret, pProfile, 0);
+	}
+	
+	/** 
+	 * Serializes an object to a DES encrypted stream, along with the information
+	 * identifying its source, as agreed on for a channel, with the key of some epoch.
+	 * 
+	 * @param pSourceId The source identifier.
+	 * @param pOutStream An open stream to write to. This stream should not be re-open.
+	 * @param pData A serializable object.
+	 * @param pSharedSecret The symmetric key to use.
+	 * @param pProfile The channel profile, for its codec and framing version.
+	 * @param pEpoch The {@link KeyEpochs} epoch of the key, <code>0</code> for the agreed key.
+	 * 
+	 * @throws HobesTransportException When the stream is corrupted.
+	 * @throws HobesSecurityException When a cryptography error.
+	 */
+	public static void writeWithSource(String pSourceId,
+			OutputStream pOutStream, 
+			Object pData,
+			SecretKey pSharedSecret,
+			ChannelProfile pProfile,
+			int pEpoch) throws HobesTransportException, HobesSecurityException {
+		
+		if (pProfile.getFraming() == ChannelProfile.FRAMING_SEALED_OBJECT){
+			ObjectBus.writeWithSource(pSourceId, pOutStream, cipher(pData, pSharedSecret));
+		}
+		else {
+			SealedFrame.write(pOutStream, pSourceId, pData, pSharedSecret, pProfile.getCodec(), pEpoch,
+					pProfile.getFraming() >= ChannelProfile.FRAMING_PARALLEL_CHUNKS);
 		}
-		catch (IOException e) {
-			throw new HobesTransportException(e);
-		}		
 	}
 	
 	/** 
@@ -252,8 +423,12 @@ public abstract class DesObjectBus {
 			SecretKey pSharedSecret)
 			throws HobesTransportException, HobesDataException, HobesSecurityException {
 
+		PushbackInputStream in = SealedFrame.sniffable(pInStream);
+		if (SealedFrame.isSealedFrame(in)){
+			return SealedFrame.read(in).getObject(pSharedSecret);
+		}
 		try {
-			ObjectInputStream ois = new ObjectInputStream(pInStream);
+			ObjectInputStream ois = new ObjectInputStream(in);
 			SealedObject sealedObject = (SealedObject) ois.readObject();
 			ois.close();
 			return decipher(sealedObject, pSharedSecret);
@@ -266,6 +441,26 @@ public abstract class DesObjectBus {
 		}
 	}
 
+	/** 
+	 * Reads a ciphered object from a stream, without deciphering it, so that 
+	 * its key can be chosen first.
+	 * 
+	 * @param pInStream An open stream to read from. This stream should not be re-open.
+	 * 
+	 * @return A {@link SealedFrame}, still reading from the stream, or a sealed object.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a marshaling error occurs.
+	 */
+	public static Object readSealed(InputStream pInStream)
+			throws HobesTransportException, HobesDataException {
+		PushbackInputStream in = SealedFrame.sniffable(pInStream);
+		if (SealedFrame.isSealedFrame(in)){
+			return SealedFrame.read(in);
+		}
+		return ObjectBus.read(in);
+	}
+
 	/** 
 	 * Deserializes an object from a DES encrypted file.
 	 * <p>The payload is the plain object deciphered using the provided key.
@@ -301,17 +496,28 @@ public abstract class DesObjectBus {
 	 * 
 	 * @param pInStream An open stream to read from. This stream should not be re-open.
 	 * 
-	 * @return The source identifier and the deserialized <b>sealed</b> object as payload.
+	 * <p>For sealed frames, the payload is a {@link SealedFrame} which reads 
+	 * the ciphertext from the stream when deciphered: the stream should be left 
+	 * open until then. Streams written by former versions answer whatever object follows 
+	 * the source identifier, usually a <code>SealedObject</code>.
+	 * 
+	 * @return The source identifier and the deserialized <b>sealed</b> object as payload,
+	 * to be deciphered with {@link #decipher(Object, SecretKey)}.
 	 * 
 	 * @throws HobesTransportException When an I/O error occurs.
 	 * @throws HobesDataException When a marshaling error occurs.
 	 */
 	public static SourcedObject readWithSource(InputStream pInStream)
 			throws HobesTransportException, HobesDataException {
+		PushbackInputStream in = SealedFrame.sniffable(pInStream);
+		if (SealedFrame.isSealedFrame(in)){
+			SealedFrame frame = SealedFrame.read(in);
+			return new SourcedObject(frame.getSource(), frame);
+		}
 		try{
-			ObjectInputStream ois = new ObjectInputStream(pInStream);
+			ObjectInputStream ois = new ObjectInputStream(in);
 			String sourceId = (String) ois.readObject();
-			SealedObject sealedPayload = (SealedObject) ois.readObject();
+			Object sealedPayload = ois.readObject();
 			ois.close();
 			return new SourcedObject(sourceId, sealedPayload);
 		}
@@ -340,6 +546,11 @@ public abstract class DesObjectBus {
 		try{
 			FileInputStream fis = new FileInputStream(pPath);
 			SourcedObject sourcedObj = readWithSource(fis);
+			if (sourcedObj.getPayload() instanceof SealedFrame){
+				// the file is closed below
+				sourcedObj = new SourcedObject(sourcedObj.getSource(), 
+						((SealedFrame) sourcedObj.getPayload()).detach());
+			}
 			fis.close();
 			return sourcedObj;
 		}
@@ -364,8 +575,13 @@ public abstract class DesObjectBus {
 	 */
 	public static SourcedObject readWithSource(InputStream pInStream, SecretKey pSharedSecret)
 			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		PushbackInputStream in = SealedFrame.sniffable(pInStream);
+		if (SealedFrame.isSealedFrame(in)){
+			SealedFrame frame = SealedFrame.read(in);
+			return new SourcedObject(frame.getSource(), frame.getObject(pSharedSecret));
+		}
 		try{
-			ObjectInputStream ois = new ObjectInputStream(pInStream);
+			ObjectInputStream ois = new ObjectInputStream(in);
 			String sourceId = (String) ois.readObject();
 			SealedObject sealedPayload = (SealedObject) ois.readObject();
 			Object obj = decipher(sealedPayload,pSharedSecret);
@@ -409,4 +625,97 @@ public abstract class DesObjectBus {
 			throw new HobesTransportException(e);
 		}
 	}
-}
\ No newline at end of file
+
+	/** Gives access to the parameters sealed objects are ciphered with. */
+	private static class SealedParameters extends SealedObject {
+		private static final long serialVersionUID = 1L;
+
+		private SealedParameters(SealedObject pSealedObject) {
+			super(pSealedObject);
+		}
+		
+		private byte[] getEncodedParams() {
+			return this.encodedParams;
+		}
+	}
+	
+	/** 
+	 * A sealed object of a MAC-only suite, naming the epoch of its key.
+	 * <p>Its content is the serialized object in the clear, sealed with a null
+	 * cipher, and is only deserialized once its MAC is checked. The MAC covers 
+	 * the epoch along with the content, so that neither can be altered.
+	 */
+	private static class MacSealedObject extends SealedObject {
+		private static final long serialVersionUID = 1L;
+		
+		private final byte[] mac;
+		private final int epoch;
+		
+		private MacSealedObject(Object pData, SecretKey pKey, int pEpoch) 
+				throws HobesSecurityException, HobesTransportException {
+			this(ObjectBus.toBytes(pData), pKey, pEpoch);
+		}
+		
+		private MacSealedObject(byte[] pContent, SecretKey pKey, int pEpoch) 
+				throws HobesSecurityException, HobesTransportException {
+			super(seal(pContent));
+			this.mac = mac(pKey, pEpoch, pContent);
+			this.epoch = pEpoch;
+		}
+		
+		private static byte[] mac(SecretKey pKey, int pEpoch, byte[] pContent) throws HobesSecurityException {
+			Mac mac = CipherSuite.getInstance(pKey).acquireMac(pKey);
+			mac.update(ByteBuffer.allocate(4).putInt(pEpoch).array());
+			return mac.doFinal(pContent);
+		}
+		
+		private static SealedObject seal(byte[] pContent) throws HobesTransportException {
+			try {
+				return new SealedObject(pContent, new NullCipher());
+			}
+			catch (IllegalBlockSizeException e) {
+				throw new HobesTransportException(e);
+			}
+			catch (IOException e) {
+				throw new HobesTransportException(e);
+			}
+		}
+		
+		private Object getObject(SecretKey pKey) 
+				throws HobesSecurityException, HobesTransportException, HobesDataException {
+			byte[] content;
+			try {
+				content = (byte[]) getObject(new NullCipher());
+			}
+			catch (ClassNotFoundException e) {
+				throw new HobesDataException(e);
+			}
+			catch (IllegalBlockSizeException e) {
+				throw new HobesTransportException(e);
+			}
+			catch (BadPaddingException e) {
+				throw new HobesTransportException(e);
+			}
+			catch (IOException e) {
+				throw new HobesTransportException(e);
+			}
+			byte[] expected = mac(pKey, this.epoch, content);
+			if ((this.mac == null) || ! MessageDigest.isEqual(expected, this.mac)){
+				throw new HobesSecurityException("MAC mismatch");
+			}
+			return ObjectBus.fromBytes(content);
+		}
+	}
+	
+	/** A sealed object naming the epoch of its key. */
+	private static class EpochSealedObject extends SealedObject {
+		private static final long serialVersionUID = 1L;
+		
+		private final int epoch;
+
+		private EpochSealedObject(SealedObject pSealedObject, int pEpoch) {
+			super(pSealedObject);
+			this.epoch = pEpoch;
+		}
+	}
+}
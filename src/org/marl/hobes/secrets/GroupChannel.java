@@ -0,0 +1,319 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+
+/**
+ * Sends the same objects to many {@link DesChannel}s, enciphering them once.
+ * <p>The group has its own content key, which seals each payload once into a 
+ * {@link SealedFrame}. Each member gets a {@link GroupEnvelope} holding that 
+ * frame, and the content key wrapped under the member channel secret. Wraps are 
+ * cached until the content key rotates, or the member agrees on a new secret:
+ * fanning out to N members costs one encryption, and N small key wraps at most.
+ * <p>The content key rotates when a member is removed, so that former members 
+ * can't open later messages, and may be rotated at will with {@link #rotate()}.
+ * Members with an authenticate-only suite are refused, as they can't wrap keys.
+ */
+public class GroupChannel {
+	
+	private final String id;
+	private final CipherSuite suite;
+	private final int codec;
+	private final Map<String,DesChannel> members = new LinkedHashMap<String,DesChannel>();
+	private final Map<String,Wrap> wraps = new HashMap<String,Wrap>();
+	private SecretKey contentKey;
+	private int epoch = 0;
+	private long wrapCount = 0;
+	
+	/**
+	 * Creates a group with a content key of some suite.
+	 * 
+	 * @param pId The group identifier, which is the source of its messages.
+	 * @param pSuite The suite of the content key.
+	 * @param pCodec One of {@link ChannelProfile#CODEC_NONE}, {@link ChannelProfile#CODEC_DEFLATE}.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public GroupChannel(String pId, CipherSuite pSuite, int pCodec) throws HobesSecurityException {
+		this.id = pId;
+		this.suite = pSuite;
+		this.codec = pCodec;
+		this.contentKey = pSuite.createKey();
+	}
+	
+	/**
+	 * Creates a group with a content key of the default suite, without compression.
+	 * 
+	 * @param pId The group identifier, which is the source of its messages.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public GroupChannel(String pId) throws HobesSecurityException {
+		this(pId, CipherSuite.getDefault(), ChannelProfile.CODEC_NONE);
+	}
+
+	/** 
+	 * Answers this group identifier.
+	 * 
+	 * @return An identifier to refer to this group.
+	 */
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * Answers the epoch of the current content key.
+	 * 
+	 * @return The number of rotations so far.
+	 */
+	public synchronized int getEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * Adds a member, or replaces the member channel of the same identifier.
+	 * 
+	 * @param pMember The member channel, whose secret wraps the content key.
+	 * 
+	 * @throws HobesSecurityException When the member secret has not been set, 
+	 * or its suite is authenticate-only.
+	 */
+	public synchronized void addMember(DesChannel pMember) throws HobesSecurityException {
+		if (pMember.getCipherSuite().isMacOnly()){
+			throw new HobesSecurityException("Can't wrap keys with " + pMember.getCipherSuite());
+		}
+		this.members.put(pMember.getId(), pMember);
+	}
+	
+	/**
+	 * Removes a member, and rotates the content key if it was one.
+	 * 
+	 * @param pId The member channel identifier.
+	 * 
+	 * @return Whether the channel was a member.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public synchronized boolean removeMember(String pId) throws HobesSecurityException {
+		if (this.members.remove(pId) == null){
+			return false;
+		}
+		rotate();
+		return true;
+	}
+	
+	/**
+	 * Answers the number of members.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized int getMemberCount() {
+		return this.members.size();
+	}
+	
+	/**
+	 * Moves to a new content key, dropping the cached wraps.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public synchronized void rotate() throws HobesSecurityException {
+		this.contentKey = this.suite.createKey();
+		this.epoch++;
+		this.wraps.clear();
+	}
+	
+	/**
+	 * Answers the number of key wraps computed so far, cached ones excluded.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized long getWrapCount() {
+		return this.wrapCount;
+	}
+	
+	/**
+	 * Seals an object once, for all the current members.
+	 * 
+	 * @param pData A serializable object.
+	 * 
+	 * @return The envelope of each member, by member channel identifier, in the 
+	 * order they were added. The envelopes share the same payload.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public Map<String,GroupEnvelope> seal(Object pData) 
+			throws HobesTransportException, HobesSecurityException {
+		KeyEpoch content;
+		DesChannel[] recipients;
+		synchronized (this) {
+			content = new KeyEpoch(this.epoch, this.contentKey);
+			recipients = this.members.values().toArray(new DesChannel[this.members.size()]);
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		SealedFrame.write(bos, this.id, pData, content.getKey(), this.codec, content.getEpoch(), true);
+		byte[] payload = bos.toByteArray();
+		Map<String,GroupEnvelope> envelopes = new LinkedHashMap<String,GroupEnvelope>();
+		for (DesChannel member : recipients){
+			envelopes.put(member.getId(), new GroupEnvelope(this.id, content.getEpoch(), 
+					getWrap(member, content), payload));
+		}
+		return envelopes;
+	}
+	
+	/**
+	 * Opens an envelope on the member side.
+	 * 
+	 * @param pEnvelope An envelope sealed by {@link #seal(Object)}.
+	 * @param pMemberSecret The secret of the member channel the envelope was sealed for.
+	 * 
+	 * @return The deciphered object.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a marshaling error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs, e.g. the 
+	 * envelope was sealed for another member.
+	 */
+	public static Object open(GroupEnvelope pEnvelope, SecretKey pMemberSecret) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		SealedFrame frame = SealedFrame.read(new ByteArrayInputStream(pEnvelope.getPayload()));
+		if (frame.getKeyEpoch() != pEnvelope.getEpoch()){
+			throw new HobesSecurityException("Group epoch mismatch: " + frame.getKeyEpoch());
+		}
+		byte[] encodedKey = unwrap(pEnvelope, pMemberSecret);
+		try {
+			return frame.getObject(frame.getCipherSuite().createKey(encodedKey));
+		}
+		finally {
+			Arrays.fill(encodedKey, (byte) 0);
+		}
+	}
+	
+	// answers the cached wrap of the content key for a member, unless it's stale
+	private synchronized byte[] getWrap(DesChannel pMember, KeyEpoch pContent) 
+			throws HobesSecurityException {
+		SecretKey secret = pMember.getSecretKey();
+		Wrap wrap = this.wraps.get(pMember.getId());
+		if ((wrap != null) && (wrap.secret == secret) && (wrap.epoch == pContent.getEpoch())){
+			return wrap.bytes;
+		}
+		wrap = new Wrap(secret, pContent.getEpoch(), wrap(this.id, pContent, secret));
+		this.wrapCount++;
+		// a rotation while sealing makes the wrap stale already
+		if (pContent.getEpoch() == this.epoch){
+			this.wraps.put(pMember.getId(), wrap);
+		}
+		return wrap.bytes;
+	}
+	
+	private static byte[] wrap(String pGroupId, KeyEpoch pContent, SecretKey pSecret) 
+			throws HobesSecurityException {
+		CipherSuite suite = CipherSuite.getInstance(pSecret);
+		byte[] nonce = suite.createNonce();
+		byte[] encodedKey = pContent.getKey().getEncoded();
+		Cipher cipher = suite.acquireCipher(Cipher.ENCRYPT_MODE, pSecret, nonce);
+		boolean isReusable = false;
+		try {
+			byte[] wrapped;
+			if (nonce == null){
+				wrapped = cipher.doFinal(encodedKey);
+			}
+			else {
+				cipher.updateAAD(createAad(pGroupId, pContent.getEpoch()));
+				byte[] ciphertext = cipher.doFinal(encodedKey);
+				wrapped = Arrays.copyOf(nonce, nonce.length + ciphertext.length);
+				System.arraycopy(ciphertext, 0, wrapped, nonce.length, ciphertext.length);
+			}
+			isReusable = true;
+			return wrapped;
+		}
+		catch (GeneralSecurityException e) {
+			throw new HobesSecurityException(e);
+		}
+		finally {
+			CipherCache.releaseCipher(cipher, isReusable);
+			Arrays.fill(encodedKey, (byte) 0);
+		}
+	}
+	
+	private static byte[] unwrap(GroupEnvelope pEnvelope, SecretKey pSecret) 
+			throws HobesSecurityException {
+		CipherSuite suite = CipherSuite.getInstance(pSecret);
+		byte[] wrapped = pEnvelope.getWrappedKey();
+		int nonceLength = suite.getNonceLength();
+		if (wrapped.length < nonceLength){
+			throw new HobesSecurityException("Truncated key wrap");
+		}
+		byte[] nonce = (nonceLength > 0) ? Arrays.copyOf(wrapped, nonceLength) : null;
+		Cipher cipher = suite.acquireCipher(Cipher.DECRYPT_MODE, pSecret, nonce);
+		boolean isReusable = false;
+		try {
+			if (nonce != null){
+				cipher.updateAAD(createAad(pEnvelope.getGroupId(), pEnvelope.getEpoch()));
+			}
+			byte[] encodedKey = cipher.doFinal(wrapped, nonceLength, wrapped.length - nonceLength);
+			isReusable = true;
+			return encodedKey;
+		}
+		catch (GeneralSecurityException e) {
+			throw new HobesSecurityException(e);
+		}
+		finally {
+			CipherCache.releaseCipher(cipher, isReusable);
+		}
+	}
+	
+	// binds a wrap to its group and epoch
+	private static byte[] createAad(String pGroupId, int pEpoch) {
+		byte[] id = pGroupId.getBytes(StandardCharsets.UTF_8);
+		byte[] aad = Arrays.copyOf(id, id.length + 4);
+		aad[id.length] = (byte) (pEpoch >>> 24);
+		aad[id.length + 1] = (byte) (pEpoch >>> 16);
+		aad[id.length + 2] = (byte) (pEpoch >>> 8);
+		aad[id.length + 3] = (byte) pEpoch;
+		return aad;
+	}
+	
+	// a content key wrapped under a member secret
+	private static class Wrap {
+		final SecretKey secret;
+		final int epoch;
+		final byte[] bytes;
+		
+		Wrap(SecretKey pSecret, int pEpoch, byte[] pBytes) {
+			this.secret = pSecret;
+			this.epoch = pEpoch;
+			this.bytes = pBytes;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.Serializable;
+
+/**
+ * A message of a {@link GroupChannel}, as handed to one of its members: the 
+ * group content key wrapped under the member channel secret, and the payload
+ * sealed once with the content key, shared by the envelopes of all members.
+ * <p>The envelope protects itself, and is sent as a plain object, e.g. with 
+ * {@link org.marl.hobes.ObjectBus} or through a {@link org.marl.hobes.broker.Broker}.
+ * 
+ * @see GroupChannel#open(GroupEnvelope, javax.crypto.SecretKey)
+ */
+public class GroupEnvelope implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final String groupId;
+	private final int epoch;
+	private final byte[] wrappedKey;
+	private final byte[] payload;
+	
+	/**
+	 * @param pGroupId The group identifier.
+	 * @param pEpoch The epoch of the group content key.
+	 * @param pWrappedKey The content key, wrapped under the member channel secret.
+	 * @param pPayload The {@link SealedFrame} sealed with the content key.
+	 */
+	public GroupEnvelope(String pGroupId, int pEpoch, byte[] pWrappedKey, byte[] pPayload) {
+		this.groupId = pGroupId;
+		this.epoch = pEpoch;
+		this.wrappedKey = pWrappedKey;
+		this.payload = pPayload;
+	}
+
+	/**
+	 * @return The group identifier.
+	 */
+	public String getGroupId() {
+		return groupId;
+	}
+
+	/**
+	 * @return The epoch of the group content key.
+	 */
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return The content key, wrapped under the member channel secret.
+	 */
+	public byte[] getWrappedKey() {
+		return wrappedKey;
+	}
+
+	/**
+	 * @return The {@link SealedFrame} sealed with the content key.
+	 */
+	public byte[] getPayload() {
+		return payload;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.MessageDigest;
+
+import org.marl.hobes.HobesSecurityException;
+
+/**
+ * Opens a negotiated PKCS3 handshake: Alice public value, along with the 
+ * cipher suites, codecs and framing versions Alice supports.
+ * <p>The public value results from the key agreement Alice chose, Bob can only
+ * accept or refuse it. Hellos without key agreement, from former Alice clients, 
+ * mean Diffie-Hellman. Even older clients send their bare public value instead.
+ * <p>Alice may name the id of the trusted keys, in Bob {@link MappedKeyStore}. 
+ * Without key id, both ends use the {@link SecretManager} keys.
+ * 
+ * @see ChannelProfile
+ */
+public class HandshakeHello implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final byte[] publicValue;
+	private final int[] suites;
+	private final int[] codecs;
+	private final int[] framings;
+	private final String agreement;
+	private final String keyId;
+	
+	/**
+	 * Creates a hello offering everything this side supports.
+	 * 
+	 * @param pPublicValue Alice X509 byte-encoded public key.
+	 */
+	public HandshakeHello(byte[] pPublicValue) {
+		this(SecretFactory.KEY_AGREEMENT_ALGORITHM, pPublicValue);
+	}
+	
+	/**
+	 * Creates a hello offering everything this side supports.
+	 * 
+	 * @param pAgreement The key agreement algorithm of Alice public value.
+	 * @param pPublicValue Alice X509 byte-encoded public key.
+	 */
+	public HandshakeHello(String pAgreement, byte[] pPublicValue) {
+		this(pAgreement, pPublicValue, ChannelProfile.SUPPORTED_SUITES, 
+				ChannelProfile.SUPPORTED_CODECS, ChannelProfile.SUPPORTED_FRAMINGS);
+	}
+	
+	/**
+	 * @param pPublicValue Alice X509 byte-encoded Diffie-Hellman public key.
+	 * @param pSuites The offered {@link CipherSuite} identifiers.
+	 * @param pCodecs The offered codecs.
+	 * @param pFramings The offered framing versions.
+	 */
+	public HandshakeHello(byte[] pPublicValue, int[] pSuites, int[] pCodecs, int[] pFramings) {
+		this(SecretFactory.KEY_AGREEMENT_ALGORITHM, pPublicValue, pSuites, pCodecs, pFramings);
+	}
+	
+	/**
+	 * @param pAgreement The key agreement algorithm of Alice public value.
+	 * @param pPublicValue Alice X509 byte-encoded public key.
+	 * @param pSuites The offered {@link CipherSuite} identifiers.
+	 * @param pCodecs The offered codecs.
+	 * @param pFramings The offered framing versions.
+	 */
+	public HandshakeHello(String pAgreement, byte[] pPublicValue, 
+			int[] pSuites, int[] pCodecs, int[] pFramings) {
+		this(pAgreement, null, pPublicValue, pSuites, pCodecs, pFramings);
+	}
+	
+	/**
+	 * Creates a hello offering everything this side supports.
+	 * 
+	 * @param pAgreement The key agreement algorithm of Alice public value.
+	 * @param pKeyId The id of the trusted keys, or <code>null</code>.
+	 * @param pPublicValue Alice X509 byte-encoded public key.
+	 */
+	public HandshakeHello(String pAgreement, String pKeyId, byte[] pPublicValue) {
+		this(pAgreement, pKeyId, pPublicValue, ChannelProfile.SUPPORTED_SUITES, 
+				ChannelProfile.SUPPORTED_CODECS, ChannelProfile.SUPPORTED_FRAMINGS);
+	}
+	
+	/**
+	 * @param pAgreement The key agreement algorithm of Alice public value.
+	 * @param pKeyId The id of the trusted keys, or <code>null</code>.
+	 * @param pPublicValue Alice X509 byte-encoded public key.
+	 * @param pSuites The offered {@link CipherSuite} identifiers.
+	 * @param pCodecs The offered codecs.
+	 * @param pFramings The offered framing versions.
+	 */
+	public HandshakeHello(String pAgreement, String pKeyId, byte[] pPublicValue, 
+			int[] pSuites, int[] pCodecs, int[] pFramings) {
+		this.agreement = pAgreement;
+		this.keyId = pKeyId;
+		this.publicValue = pPublicValue;
+		this.suites = pSuites;
+		this.codecs = pCodecs;
+		this.framings = pFramings;
+	}
+	
+	/**
+	 * @return The key agreement algorithm of Alice public value, 
+	 * {@link SecretFactory#KEY_AGREEMENT_ALGORITHM} for former clients.
+	 */
+	public String getAgreement() {
+		return (agreement != null) ? agreement : SecretFactory.KEY_AGREEMENT_ALGORITHM;
+	}
+
+	/**
+	 * @return The id of the trusted keys, <code>null</code> for the 
+	 * {@link SecretManager} keys.
+	 */
+	public String getKeyId() {
+		return keyId;
+	}
+
+	/**
+	 * @return Alice X509 byte-encoded public key.
+	 */
+	public byte[] getPublicValue() {
+		return publicValue;
+	}
+
+	/**
+	 * @return The offered {@link CipherSuite} identifiers.
+	 */
+	public int[] getSuites() {
+		return suites;
+	}
+
+	/**
+	 * @return The offered codecs.
+	 */
+	public int[] getCodecs() {
+		return codecs;
+	}
+
+	/**
+	 * @return The offered framing versions.
+	 */
+	public int[] getFramings() {
+		return framings;
+	}
+
+	/**
+	 * Digests the negotiation this hello opened: this hello, Bob public value
+	 * and the profile Bob answered.
+	 * <p>Both ends mix the transcript into the channel key, so that a negotiation
+	 * tampered with on the way ends up with keys that don't match.
+	 * 
+	 * @param pBobPublicValue Bob X509 byte-encoded public key.
+	 * @param pProfile The negotiated profile.
+	 * 
+	 * @return The transcript digest.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public byte[] getTranscript(byte[] pBobPublicValue, ChannelProfile pProfile) 
+			throws HobesSecurityException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeUTF(getAgreement());
+			out.writeBoolean(this.keyId != null);
+			if (this.keyId != null){
+				out.writeUTF(this.keyId);
+			}
+			writeBytes(out, this.publicValue);
+			writeInts(out, this.suites);
+			writeInts(out, this.codecs);
+			writeInts(out, this.framings);
+			writeBytes(out, pBobPublicValue);
+			out.writeInt(pProfile.getSuite());
+			out.writeInt(pProfile.getCodec());
+			out.writeInt(pProfile.getFraming());
+			out.flush();
+		}
+		catch (IOException e) {
+			throw new HobesSecurityException(e);
+		}
+		MessageDigest digest = CipherCache.getMessageDigest(CipherSuite.KDF_ALGORITHM);
+		return digest.digest(bytes.toByteArray());
+	}
+	
+	private static void writeBytes(DataOutputStream pOut, byte[] pBytes) throws IOException {
+		if (pBytes == null){
+			pOut.writeInt(-1);
+			return;
+		}
+		pOut.writeInt(pBytes.length);
+		pOut.write(pBytes);
+	}
+	
+	private static void writeInts(DataOutputStream pOut, int[] pInts) throws IOException {
+		if (pInts == null){
+			pOut.writeInt(-1);
+			return;
+		}
+		pOut.writeInt(pInts.length);
+		for (int i : pInts){
+			pOut.writeInt(i);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.Serializable;
+
+/**
+ * Answers a {@link HandshakeHello}: Bob public value, along with the 
+ * profile Bob picked for the channel, and possibly a session ticket.
+ * <p>Also answers a {@link HandshakeResume}, without public value.
+ */
+public class HandshakeReply implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final byte[] publicValue;
+	private final ChannelProfile profile;
+	private final byte[] ticket;
+	private final long ticketExpiry;
+	
+	/**
+	 * @param pPublicValue Bob X509 byte-encoded public key.
+	 * @param pProfile The agreed profile.
+	 */
+	public HandshakeReply(byte[] pPublicValue, ChannelProfile pProfile) {
+		this(pPublicValue, pProfile, null, 0);
+	}
+	
+	/**
+	 * @param pPublicValue Bob X509 byte-encoded public key, 
+	 * <code>null</code> when resuming a channel.
+	 * @param pProfile The agreed profile, <code>null</code> when refusing a ticket.
+	 * @param pTicket A session ticket for the channel, or <code>null</code>.
+	 * @param pTicketExpiry The ticket expiry, in milliseconds since the epoch.
+	 */
+	public HandshakeReply(byte[] pPublicValue, ChannelProfile pProfile, 
+			byte[] pTicket, long pTicketExpiry) {
+		this.publicValue = pPublicValue;
+		this.profile = pProfile;
+		this.ticket = pTicket;
+		this.ticketExpiry = pTicketExpiry;
+	}
+
+	/**
+	 * @return Bob X509 byte-encoded public key.
+	 */
+	public byte[] getPublicValue() {
+		return publicValue;
+	}
+
+	/**
+	 * @return The agreed profile.
+	 */
+	public ChannelProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return A session ticket for the channel, or <code>null</code> 
+	 * when Bob does not issue tickets.
+	 */
+	public byte[] getTicket() {
+		return ticket;
+	}
+
+	/**
+	 * @return The ticket expiry, in milliseconds since the epoch.
+	 */
+	public long getTicketExpiry() {
+		return ticketExpiry;
+	}
+}
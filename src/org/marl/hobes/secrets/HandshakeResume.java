@@ -0,0 +1,49 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.Serializable;
+
+/**
+ * Opens an abbreviated PKCS3 handshake: Alice presents a session ticket
+ * instead of a public value, and both ends skip the key agreement.
+ * <p>Bob answers a {@link HandshakeReply} without public value, holding the
+ * restored profile and a renewed ticket, or without profile when the
+ * ticket is refused, in which case Alice proceeds to a full handshake.
+ * 
+ * @see SessionTicket
+ */
+public class HandshakeResume implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final byte[] ticket;
+	
+	/**
+	 * @param pTicket The sealed ticket Bob issued.
+	 */
+	public HandshakeResume(byte[] pTicket) {
+		this.ticket = pTicket;
+	}
+
+	/**
+	 * @return The sealed ticket Bob issued.
+	 */
+	public byte[] getTicket() {
+		return ticket;
+	}
+}
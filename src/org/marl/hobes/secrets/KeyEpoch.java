@@ -0,0 +1,54 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A key of a channel, along with the number of its epoch.
+ * 
+ * @see KeyEpochs
+ */
+public class KeyEpoch {
+	
+	private final int epoch;
+	private final SecretKey key;
+	
+	/**
+	 * @param pEpoch The epoch number, <code>0</code> for the agreed key.
+	 * @param pKey The key.
+	 */
+	public KeyEpoch(int pEpoch, SecretKey pKey) {
+		this.epoch = pEpoch;
+		this.key = pKey;
+	}
+
+	/**
+	 * @return The epoch number, <code>0</code> for the agreed key.
+	 */
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return The key.
+	 */
+	public SecretKey getKey() {
+		return key;
+	}
+}
@@ -0,0 +1,200 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesSecurityException;
+
+/**
+ * Rekeys a channel in-band, without a new key agreement.
+ * <p>The agreed key is epoch <code>0</code>. Each following key is derived from 
+ * the former one, see {@link CipherSuite#rekey(SecretKey, int)}. A sender moves to 
+ * the next epoch after some messages or some time, and names the epoch of each 
+ * message. A receiver follows, deriving the keys up to the named epoch. Either 
+ * end may move first: both derive the same keys.
+ * <p>Former keys are kept for an overlap window, so that messages still in 
+ * flight decipher, up to {@link #MAX_RECENT_EPOCHS} of them: both directions of 
+ * a channel share the epochs, a sender may have moved several epochs ahead of 
+ * the replies in flight. Keys are forgotten once their window is over.
+ * 
+ * @see ChannelProfile#FRAMING_KEY_EPOCHS
+ */
+public class KeyEpochs {
+	
+	/** Default time the former key is still accepted, in milliseconds. */
+	public static final long DEFAULT_OVERLAP = 30 * 1000;
+	/** Maximum number of epochs a receiver derives at once. */
+	public static final int MAX_SKIPPED_EPOCHS = 64;
+	/** Maximum number of former epochs whose keys are still accepted. */
+	public static final int MAX_RECENT_EPOCHS = 8;
+	
+	private final SecretKey initialKey;
+	private final CipherSuite suite;
+	private int epoch = 0;
+	private SecretKey currentKey;
+	// former keys by epoch, oldest first
+	private final LinkedHashMap<Integer,RecentKey> recentKeys = new LinkedHashMap<Integer,RecentKey>();
+	private long messages = 0;
+	private long epochStart;
+	private long maxMessages = 0;
+	private long maxAge = 0;
+	private long overlap = DEFAULT_OVERLAP;
+	
+	/**
+	 * Starts at epoch <code>0</code>, without rekeying until a policy is set.
+	 * 
+	 * @param pInitialKey The agreed key.
+	 * @param pNow The current time, in milliseconds.
+	 * 
+	 * @throws HobesSecurityException When the key suite is unknown.
+	 */
+	public KeyEpochs(SecretKey pInitialKey, long pNow) throws HobesSecurityException {
+		this.initialKey = pInitialKey;
+		this.currentKey = pInitialKey;
+		this.suite = CipherSuite.getInstance(pInitialKey);
+		this.epochStart = pNow;
+	}
+	
+	/**
+	 * Sets when the sender moves to the next epoch.
+	 * 
+	 * @param pMaxMessages Messages sent per epoch, <code>0</code> for no limit.
+	 * @param pMaxAge Epoch duration, in milliseconds, <code>0</code> for no limit.
+	 * @param pOverlap Time the former key is still accepted, in milliseconds.
+	 */
+	public synchronized void setPolicy(long pMaxMessages, long pMaxAge, long pOverlap) {
+		this.maxMessages = pMaxMessages;
+		this.maxAge = pMaxAge;
+		this.overlap = pOverlap;
+	}
+	
+	/**
+	 * Answers the key to send a message with, moving to the next epoch first
+	 * if the policy says so.
+	 * 
+	 * @param pNow The current time, in milliseconds.
+	 * 
+	 * @return The key, and its epoch.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public synchronized KeyEpoch next(long pNow) throws HobesSecurityException {
+		if (((this.maxMessages > 0) && (this.messages >= this.maxMessages))
+				|| ((this.maxAge > 0) && (pNow - this.epochStart >= this.maxAge))){
+			advance(pNow);
+		}
+		this.messages++;
+		return new KeyEpoch(this.epoch, this.currentKey);
+	}
+	
+	/**
+	 * Answers the key to receive a message of some epoch with. 
+	 * <p>Keys of epochs ahead are derived, but the receiver only moves to their 
+	 * epoch once the message deciphers, see {@link #accept(int, long)}: a forged
+	 * epoch number can't make it forget the current key.
+	 * 
+	 * @param pEpoch The message epoch.
+	 * @param pNow The current time, in milliseconds.
+	 * 
+	 * @return The key.
+	 * 
+	 * @throws HobesSecurityException When the epoch is over, or too far ahead.
+	 */
+	public synchronized SecretKey getKey(int pEpoch, long pNow) throws HobesSecurityException {
+		if (pEpoch == this.epoch){
+			return this.currentKey;
+		}
+		if (pEpoch < this.epoch){
+			RecentKey recent = this.recentKeys.get(pEpoch);
+			if ((recent != null) && (pNow < recent.expiry)){
+				return recent.key;
+			}
+		}
+		if ((pEpoch > this.epoch) && (pEpoch - this.epoch <= MAX_SKIPPED_EPOCHS)){
+			SecretKey key = this.currentKey;
+			for (int e = this.epoch + 1; e <= pEpoch; e++){
+				key = this.suite.rekey(key, e);
+			}
+			return key;
+		}
+		throw new HobesSecurityException("Key epoch out of window: " + pEpoch + ", now " + this.epoch);
+	}
+	
+	/**
+	 * Moves to the epoch of a message that deciphered, if it's ahead.
+	 * 
+	 * @param pEpoch The message epoch.
+	 * @param pNow The current time, in milliseconds.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public synchronized void accept(int pEpoch, long pNow) throws HobesSecurityException {
+		if (pEpoch - this.epoch > MAX_SKIPPED_EPOCHS){
+			return;
+		}
+		while (this.epoch < pEpoch){
+			advance(pNow);
+		}
+	}
+	
+	/**
+	 * @return The current epoch number.
+	 */
+	public synchronized int getEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * @return The agreed key, epoch <code>0</code>.
+	 */
+	public SecretKey getInitialKey() {
+		return initialKey;
+	}
+	
+	private void advance(long pNow) throws HobesSecurityException {
+		SecretKey nextKey = this.suite.rekey(this.currentKey, this.epoch + 1);
+		this.recentKeys.put(this.epoch, new RecentKey(this.currentKey, pNow + this.overlap));
+		Iterator<RecentKey> recents = this.recentKeys.values().iterator();
+		while (recents.hasNext()){
+			RecentKey recent = recents.next();
+			if ((this.recentKeys.size() > MAX_RECENT_EPOCHS) || (pNow >= recent.expiry)){
+				recents.remove();
+			}
+			else break;
+		}
+		this.currentKey = nextKey;
+		this.epoch++;
+		this.messages = 0;
+		this.epochStart = pNow;
+	}
+	
+	// a former key, and the end of its overlap window
+	private static class RecentKey {
+		final SecretKey key;
+		final long expiry;
+		
+		RecentKey(SecretKey pKey, long pExpiry) {
+			this.key = pKey;
+			this.expiry = pExpiry;
+		}
+	}
+}
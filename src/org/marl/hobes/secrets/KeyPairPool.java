@@ -0,0 +1,258 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.security.KeyPair;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.NamedParameterSpec;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.spec.DHParameterSpec;
+
+import org.marl.hobes.HobesSecurityException;
+
+/**
+ * Keeps ephemeral key pairs generated ahead of the handshakes that need them.
+ * <p>Pairs are reserved per key agreement algorithm and parameters. Once half
+ * of a reserve is taken, low priority background threads refill it up to its
+ * depth, so that key generation leaves the critical path of the handshake. 
+ * Refills start after {@link #REFILL_DELAY}, not to compete for the processor 
+ * with the handshake that just took a pair, but to run while it waits for Bob. 
+ * A pair is never handed out twice. When a reserve is empty, the pair is 
+ * generated inline, and counted as a miss.
+ * 
+ * @see PKCS3Alice#protocolPhaseI()
+ */
+public class KeyPairPool {
+	
+	/** Default number of pairs kept per algorithm and parameters. */
+	public static final int DEFAULT_DEPTH = 8;
+	/** Default number of background generator threads. */
+	public static final int DEFAULT_THREADS = 1;
+	/** Delay before a reserve is refilled, in microseconds. */
+	public static final long REFILL_DELAY = 1000;
+	
+	private static KeyPairPool shared = null;
+	
+	private final int depth;
+	private final ScheduledExecutorService generators;
+	private final ConcurrentHashMap<String,Reserve> reserves = new ConcurrentHashMap<String,Reserve>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong generated = new AtomicLong();
+	
+	/**
+	 * @param pDepth The number of pairs kept per algorithm and parameters.
+	 * @param pThreads The number of background generator threads.
+	 */
+	public KeyPairPool(int pDepth, int pThreads) {
+		this.depth = pDepth;
+		ThreadFactory daemons = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable pTask) {
+				Thread thread = new Thread(pTask, "hobes-keypairs");
+				thread.setDaemon(true);
+				// handshakes in progress come first
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		};
+		this.generators = Executors.newScheduledThreadPool(pThreads, daemons);
+	}
+	
+	/**
+	 * Answers the pool Alice agents use by default, created on first use
+	 * with the default depth and threads.
+	 * 
+	 * @return The shared pool.
+	 */
+	public static synchronized KeyPairPool getShared() {
+		if (shared == null){
+			shared = new KeyPairPool(DEFAULT_DEPTH, DEFAULT_THREADS);
+		}
+		return shared;
+	}
+	
+	/**
+	 * Takes a pair from the reserve of an algorithm and parameters, and
+	 * has the reserve refilled in the background if it's half empty.
+	 * 
+	 * @param pAlgorithm The key agreement algorithm, e.g. {@link SecretFactory#KEY_AGREEMENT_ALGORITHM}.
+	 * @param pParams The key generation parameters.
+	 * 
+	 * @return A pair nobody else got, generated inline if the reserve was empty.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public KeyPair take(String pAlgorithm, AlgorithmParameterSpec pParams) 
+			throws HobesSecurityException {
+		Reserve reserve = getReserve(pAlgorithm, pParams);
+		KeyPair pair = reserve.pairs.poll();
+		if (pair != null){
+			reserve.size.decrementAndGet();
+			this.hits.incrementAndGet();
+		}
+		if (reserve.size.get() <= this.depth / 2){
+			// waking a generator costs a context switch, we rather batch them
+			refill(reserve);
+		}
+		if (pair == null){
+			this.misses.incrementAndGet();
+			pair = CipherCache.getKeyPairGenerator(pAlgorithm, pParams).generateKeyPair();
+		}
+		return pair;
+	}
+	
+	/**
+	 * Has the reserve of an algorithm and parameters filled in the background,
+	 * typically at start-up, before the first handshake.
+	 * 
+	 * @param pAlgorithm The key agreement algorithm.
+	 * @param pParams The key generation parameters.
+	 */
+	public void prime(String pAlgorithm, AlgorithmParameterSpec pParams) {
+		refill(getReserve(pAlgorithm, pParams));
+	}
+	
+	/**
+	 * @param pAlgorithm The key agreement algorithm.
+	 * @param pParams The key generation parameters.
+	 * 
+	 * @return The number of pairs currently reserved for them.
+	 */
+	public int getSize(String pAlgorithm, AlgorithmParameterSpec pParams) {
+		Reserve reserve = this.reserves.get(getReserveKey(pAlgorithm, pParams));
+		return (reserve != null) ? reserve.size.get() : 0;
+	}
+	
+	/**
+	 * @return The number of pairs kept per algorithm and parameters.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+	
+	/**
+	 * @return The number of pairs taken from a reserve so far.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * @return The number of pairs generated inline so far, reserves being empty.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * @return The number of pairs generated in the background so far.
+	 */
+	public long getGenerated() {
+		return generated.get();
+	}
+	
+	/**
+	 * Stops the background threads. Pairs are generated inline from then on.
+	 */
+	public void shutdown() {
+		this.generators.shutdownNow();
+	}
+	
+	private Reserve getReserve(String pAlgorithm, AlgorithmParameterSpec pParams) {
+		String key = getReserveKey(pAlgorithm, pParams);
+		Reserve reserve = this.reserves.get(key);
+		if (reserve == null){
+			reserve = new Reserve(pAlgorithm, pParams);
+			Reserve previous = this.reserves.putIfAbsent(key, reserve);
+			if (previous != null){
+				reserve = previous;
+			}
+		}
+		return reserve;
+	}
+	
+	private static String getReserveKey(String pAlgorithm, AlgorithmParameterSpec pParams) {
+		// parameter specs don't implement equals()
+		if (pParams instanceof DHParameterSpec){
+			DHParameterSpec dhspec = (DHParameterSpec) pParams;
+			return pAlgorithm + ":" + dhspec.getP().toString(Character.MAX_RADIX) 
+					+ ":" + dhspec.getG().toString(Character.MAX_RADIX) + ":" + dhspec.getL();
+		}
+		if (pParams instanceof NamedParameterSpec){
+			return pAlgorithm + ":" + ((NamedParameterSpec) pParams).getName();
+		}
+		return pAlgorithm + ":" + String.valueOf(pParams);
+	}
+	
+	private void refill(final Reserve pReserve) {
+		if ((pReserve.size.get() >= this.depth) || (! pReserve.isFilling.compareAndSet(false, true))){
+			return;
+		}
+		try {
+			this.generators.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (pReserve.size.get() < depth){
+							KeyPair pair = CipherCache.getKeyPairGenerator(pReserve.algorithm, 
+									pReserve.params).generateKeyPair();
+							pReserve.pairs.offer(pair);
+							pReserve.size.incrementAndGet();
+							generated.incrementAndGet();
+						}
+					}
+					catch (HobesSecurityException e) {
+						// the same error is raised inline to whoever takes a pair
+					}
+					finally {
+						pReserve.isFilling.set(false);
+					}
+				}
+			}, REFILL_DELAY, TimeUnit.MICROSECONDS);
+		}
+		catch (RejectedExecutionException e) {
+			// shut down
+			pReserve.isFilling.set(false);
+		}
+	}
+	
+	/** Pairs reserved for an algorithm and parameters. */
+	private static class Reserve {
+		final String algorithm;
+		final AlgorithmParameterSpec params;
+		final ConcurrentLinkedQueue<KeyPair> pairs = new ConcurrentLinkedQueue<KeyPair>();
+		final AtomicInteger size = new AtomicInteger();
+		final AtomicBoolean isFilling = new AtomicBoolean();
+		
+		Reserve(String pAlgorithm, AlgorithmParameterSpec pParams) {
+			this.algorithm = pAlgorithm;
+			this.params = pParams;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+
+/**
+ * Maps key ids to trusted key pairs, e.g. one per tenant and region, in a single 
+ * memory-mapped file.
+ * <p>The file starts with a hash index of the key ids, followed by the entries:
+ * <pre>
+ * header  : int magic | int entries | int buckets
+ * index   : int offset[buckets], 0 for an empty bucket
+ * entry   : int idLength | id (UTF-8) | int algorithmLength | algorithm
+ *           | long notBefore | long notAfter
+ *           | int pvLength | X509 public value | int xLength | PKCS8 private value
+ * </pre>
+ * <p>A lookup hashes the key id, and probes the buckets from there, comparing 
+ * the mapped bytes: it costs the same whatever the number of keys, and only the 
+ * entries actually looked up are decoded onto the heap, once.
+ * <p>Alice side stores are created without private values.
+ * 
+ * @see TrustedKeyEntry
+ */
+public class MappedKeyStore {
+	
+	/** The store file magic number, "HKS1". */
+	public static final int MAGIC = 0x484B5331;
+	
+	private static final int HEADER_LENGTH = 12;
+	
+	private final String path;
+	private final MappedByteBuffer buffer;
+	private final int entries;
+	private final int buckets;
+	private final ConcurrentHashMap<String,TrustedKeyEntry> decodedEntries = 
+			new ConcurrentHashMap<String,TrustedKeyEntry>();
+	
+	/**
+	 * Maps a store file.
+	 * 
+	 * @param pPath The file path, as created by {@link #create(String, List, boolean)}.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When the file is not a key store.
+	 */
+	public MappedKeyStore(String pPath) throws HobesTransportException, HobesDataException {
+		this.path = pPath;
+		try {
+			RandomAccessFile file = new RandomAccessFile(pPath, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				if (channel.size() < HEADER_LENGTH){
+					throw new HobesDataException("Not a key store: "+pPath);
+				}
+				this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			finally {
+				file.close();
+			}
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(pPath, e);
+		}
+		if (this.buffer.getInt(0) != MAGIC){
+			throw new HobesDataException("Not a key store: "+pPath);
+		}
+		this.entries = this.buffer.getInt(4);
+		this.buckets = this.buffer.getInt(8);
+		if ((this.buckets <= 0) || (HEADER_LENGTH + 4L * this.buckets > this.buffer.capacity())){
+			throw new HobesDataException("Corrupted key store: "+pPath);
+		}
+	}
+	
+	/**
+	 * Writes a store file.
+	 * 
+	 * @param pPath The file path.
+	 * @param pEntries The entries, with unique key ids.
+	 * @param pWithPrivateValues Whether to store private values, i.e. for Bob side.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a key id is duplicated, or a private value missing.
+	 */
+	public static void create(String pPath, List<TrustedKeyEntry> pEntries, boolean pWithPrivateValues) 
+			throws HobesTransportException, HobesDataException {
+		// half full at most, probes stay short
+		int buckets = Math.max(2 * pEntries.size(), 1);
+		List<byte[]> records = new ArrayList<byte[]>(pEntries.size());
+		int[] index = new int[buckets];
+		HashSet<String> keyIds = new HashSet<String>();
+		int offset = HEADER_LENGTH + 4 * buckets;
+		for (TrustedKeyEntry entry : pEntries){
+			byte[] id = entry.getKeyId().getBytes(StandardCharsets.UTF_8);
+			byte[] algorithm = entry.getAlgorithm().getBytes(StandardCharsets.UTF_8);
+			byte[] pv = entry.getPublicValue().getEncoded();
+			byte[] x = new byte[0];
+			if (pWithPrivateValues){
+				if (entry.getPrivateValue() == null){
+					throw new HobesDataException("No private value for key id: "+entry.getKeyId());
+				}
+				x = entry.getPrivateValue().getEncoded();
+			}
+			ByteBuffer record = ByteBuffer.allocate(4 + id.length + 4 + algorithm.length 
+					+ 16 + 4 + pv.length + 4 + x.length);
+			record.putInt(id.length).put(id);
+			record.putInt(algorithm.length).put(algorithm);
+			record.putLong(entry.getNotBefore()).putLong(entry.getNotAfter());
+			record.putInt(pv.length).put(pv);
+			record.putInt(x.length).put(x);
+			
+			if (! keyIds.add(entry.getKeyId())){
+				throw new HobesDataException("Duplicated key id: "+entry.getKeyId());
+			}
+			int bucket = getBucket(id, buckets);
+			while (index[bucket] != 0){
+				bucket = (bucket + 1) % buckets;
+			}
+			index[bucket] = offset;
+			records.add(record.array());
+			offset += record.capacity();
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + 4 * buckets);
+		header.putInt(MAGIC).putInt(pEntries.size()).putInt(buckets);
+		for (int bucketOffset : index){
+			header.putInt(bucketOffset);
+		}
+		try {
+			FileOutputStream fos = new FileOutputStream(pPath);
+			try {
+				fos.write(header.array());
+				for (byte[] record : records){
+					fos.write(record);
+				}
+			}
+			finally {
+				fos.close();
+			}
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(pPath, e);
+		}
+	}
+	
+	/**
+	 * Looks a key id up.
+	 * 
+	 * @param pKeyId The key id.
+	 * 
+	 * @return The entry, or <code>null</code> if the key id is unknown.
+	 * 
+	 * @throws HobesDataException When the store is corrupted.
+	 * @throws HobesSecurityException When a key fails to decode.
+	 */
+	public TrustedKeyEntry get(String pKeyId) throws HobesDataException, HobesSecurityException {
+		TrustedKeyEntry entry = this.decodedEntries.get(pKeyId);
+		if (entry != null){
+			return entry;
+		}
+		int offset = find(pKeyId.getBytes(StandardCharsets.UTF_8));
+		if (offset == 0){
+			return null;
+		}
+		entry = decode(offset);
+		TrustedKeyEntry previous = this.decodedEntries.putIfAbsent(pKeyId, entry);
+		return (previous != null) ? previous : entry;
+	}
+	
+	/**
+	 * Selects the key id Alice should name, among those starting with a prefix:
+	 * the valid one that started last, i.e. the newest key during a rotation overlap.
+	 * <p>Unlike {@link #get(String)}, this walks through all the entries. 
+	 * 
+	 * @param pPrefix The key id prefix, e.g. <code>acme/eu-west/</code>.
+	 * @param pNow The current time, in milliseconds since the epoch.
+	 * 
+	 * @return The key id, or <code>null</code> if no key is valid.
+	 * 
+	 * @throws HobesDataException When the store is corrupted.
+	 */
+	public String select(String pPrefix, long pNow) throws HobesDataException {
+		String selected = null;
+		long selectedStart = Long.MIN_VALUE;
+		int offset = HEADER_LENGTH + 4 * this.buckets;
+		for (int i = 0; i < this.entries; i++){
+			String keyId = readString(offset);
+			int algorithmOffset = offset + 4 + this.buffer.getInt(offset);
+			int validityOffset = algorithmOffset + 4 + this.buffer.getInt(algorithmOffset);
+			long notBefore = this.buffer.getLong(validityOffset);
+			long notAfter = this.buffer.getLong(validityOffset + 8);
+			if (keyId.startsWith(pPrefix) && (pNow >= notBefore) && (pNow < notAfter)
+					&& (notBefore >= selectedStart)){
+				selected = keyId;
+				selectedStart = notBefore;
+			}
+			int pvOffset = validityOffset + 16;
+			int xOffset = pvOffset + 4 + this.buffer.getInt(pvOffset);
+			offset = xOffset + 4 + this.buffer.getInt(xOffset);
+		}
+		return selected;
+	}
+	
+	/**
+	 * @return The number of entries.
+	 */
+	public int getSize() {
+		return entries;
+	}
+	
+	/**
+	 * @return The number of entries decoded onto the heap so far.
+	 */
+	public int getDecodedSize() {
+		return decodedEntries.size();
+	}
+	
+	/**
+	 * @return The store file path.
+	 */
+	public String getPath() {
+		return path;
+	}
+	
+	private int find(byte[] pKeyId) throws HobesDataException {
+		int bucket = getBucket(pKeyId, this.buckets);
+		for (int probes = 0; probes < this.buckets; probes++){
+			int offset = this.buffer.getInt(HEADER_LENGTH + 4 * bucket);
+			if (offset == 0){
+				return 0;
+			}
+			if (isKeyId(offset, pKeyId)){
+				return offset;
+			}
+			bucket = (bucket + 1) % this.buckets;
+		}
+		return 0;
+	}
+	
+	private boolean isKeyId(int pOffset, byte[] pKeyId) throws HobesDataException {
+		checkBounds(pOffset, 4);
+		if (this.buffer.getInt(pOffset) != pKeyId.length){
+			return false;
+		}
+		checkBounds(pOffset + 4, pKeyId.length);
+		for (int i = 0; i < pKeyId.length; i++){
+			if (this.buffer.get(pOffset + 4 + i) != pKeyId[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private TrustedKeyEntry decode(int pOffset) throws HobesDataException, HobesSecurityException {
+		String keyId = readString(pOffset);
+		int algorithmOffset = pOffset + 4 + this.buffer.getInt(pOffset);
+		String algorithm = readString(algorithmOffset);
+		int validityOffset = algorithmOffset + 4 + this.buffer.getInt(algorithmOffset);
+		checkBounds(validityOffset, 16);
+		long notBefore = this.buffer.getLong(validityOffset);
+		long notAfter = this.buffer.getLong(validityOffset + 8);
+		int pvOffset = validityOffset + 16;
+		PublicKey pv = SecretFactory.createPublicKey(algorithm, readBytes(pvOffset));
+		int xOffset = pvOffset + 4 + this.buffer.getInt(pvOffset);
+		byte[] encodedX = readBytes(xOffset);
+		PrivateKey x = (encodedX.length > 0) ? SecretFactory.createPrivateKey(algorithm, encodedX) : null;
+		return new TrustedKeyEntry(keyId, algorithm, pv, x, notBefore, notAfter);
+	}
+	
+	private String readString(int pOffset) throws HobesDataException {
+		return new String(readBytes(pOffset), StandardCharsets.UTF_8);
+	}
+	
+	private byte[] readBytes(int pOffset) throws HobesDataException {
+		checkBounds(pOffset, 4);
+		int length = this.buffer.getInt(pOffset);
+		checkBounds(pOffset + 4, length);
+		byte[] bytes = new byte[length];
+		this.buffer.get(pOffset + 4, bytes);
+		return bytes;
+	}
+	
+	private void checkBounds(int pOffset, int pLength) throws HobesDataException {
+		if ((pOffset < HEADER_LENGTH) || (pLength < 0) || ((long) pOffset + pLength > this.buffer.capacity())){
+			throw new HobesDataException("Corrupted key store: "+this.path);
+		}
+	}
+	
+	// FNV-1a, the bucket must not depend on the JVM
+	private static int getBucket(byte[] pBytes, int pBuckets) {
+		int hash = 0x811C9DC5;
+		for (int i = 0; i < pBytes.length; i++){
+			hash ^= (pBytes[i] & 0xFF);
+			hash *= 0x01000193;
+		}
+		return (hash & 0x7FFFFFFF) % pBuckets;
+	}
+}
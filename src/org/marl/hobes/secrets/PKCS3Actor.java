@@ -17,15 +17,16 @@ along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
 */
 package org.marl.hobes.secrets;
 
-import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 
 import javax.crypto.KeyAgreement;
 import javax.crypto.SecretKey;
-import javax.crypto.interfaces.DHPublicKey;
 import javax.crypto.spec.DHParameterSpec;
 
 import org.marl.hobes.HobesException;
@@ -37,9 +38,11 @@ import org.marl.hobes.HobesSecurityException;
  * <p>This participant implement the two phases of the protocol, as described
  * in <a href="pkcs-3.txt">PKCS #3: Diffie-Hellman Key-Agreement Standard</a>:
  * <ul>
- * <li>{@link #protocolPhaseI(DHParameterSpec)}</li>
+ * <li>{@link #protocolPhaseI(AlgorithmParameterSpec)}</li>
  * <li>{@link #protocolPhaseII(byte[])}</li>
  * </ul>
+ * <p>The same phases apply to the X25519 elliptic-curve key agreement, 
+ * see {@link #setKeyAgreementAlgorithm(String)}.
  * 
  * @see PKCS3Bob Bob
  * @see PKCS3Alice Alice
@@ -69,7 +72,14 @@ public class PKCS3Actor extends DesChannel {
 	protected SecretKey secretKey = null;
 	
 	// the agent public and private keys
-	protected DHPublicKey publicValue = null;
+	protected PublicKey publicValue = null;
+	
+	// the key agreement algorithm, DH or X25519
+	protected String keyAgreementAlgorithm = SecretFactory.KEY_AGREEMENT_ALGORITHM;
+	
+	// the store and id of the trusted keys, null for the SecretManager ones
+	protected MappedKeyStore keyStore = null;
+	protected String keyId = null;
 	
 	// the DH key agreement protocol implementation
 	protected KeyAgreement dhProtocolAgreement = null;
@@ -108,16 +118,152 @@ public class PKCS3Actor extends DesChannel {
 		return this.secretKey;
 	}
 
+	/**
+	 * Answers the suite the agreed secret is derived for.
+	 * 
+	 * @return The cipher suite of this agent profile.
+	 * 
+	 * @throws HobesSecurityException When the profile suite is unknown.
+	 */
+	@Override
+	public CipherSuite getCipherSuite() throws HobesSecurityException {
+		return CipherSuite.getInstance(this.profile.getSuite());
+	}
+	
+	/**
+	 * Sets the suite the agreed secret is derived for, keeping the other
+	 * profile settings. Both agents must use the same suite.
+	 * 
+	 * @param pSuite One of the {@link CipherSuite} identifiers.
+	 * 
+	 * @throws HobesSecurityException When the suite is unknown, or the 
+	 * secret has already been agreed on.
+	 */
+	public void setCipherSuite(int pSuite) throws HobesSecurityException {
+		CipherSuite.getInstance(pSuite);
+		setProfile(new ChannelProfile(pSuite, this.profile.getCodec(), this.profile.getFraming()));
+	}
+	
+	/**
+	 * Sets what both agents agreed on, typically during the handshake.
+	 * 
+	 * @param pProfile The channel profile.
+	 * 
+	 * @throws HobesSecurityException When the secret has already been agreed on.
+	 */
+	public void setProfile(ChannelProfile pProfile) throws HobesSecurityException {
+		if (getState() >= STATE_PHASE_II){
+			throw new HobesSecurityException(new IllegalStateException(String.valueOf(getState())));
+		}
+		this.profile = pProfile;
+	}
+
+	/**
+	 * Answers the key agreement algorithm this agent runs.
+	 * 
+	 * @return {@link SecretFactory#KEY_AGREEMENT_ALGORITHM}, the default, 
+	 * or {@link SecretFactory#XDH_KEY_AGREEMENT_ALGORITHM}.
+	 */
+	public String getKeyAgreementAlgorithm() {
+		return keyAgreementAlgorithm;
+	}
+	
+	/**
+	 * Sets the key agreement algorithm this agent runs. Both agents must use
+	 * the same algorithm, with the same trusted keys.
+	 * 
+	 * @param pAlgorithm {@link SecretFactory#KEY_AGREEMENT_ALGORITHM} or 
+	 * {@link SecretFactory#XDH_KEY_AGREEMENT_ALGORITHM}.
+	 * 
+	 * @throws HobesSecurityException When the algorithm is not supported, or
+	 * this agent is in the middle of the protocol. Agreed agents may change the
+	 * algorithm for their next agreement.
+	 */
+	public void setKeyAgreementAlgorithm(String pAlgorithm) throws HobesSecurityException {
+		if (! SecretFactory.KEY_AGREEMENT_ALGORITHM.equals(pAlgorithm)
+				&& ! SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM.equals(pAlgorithm)){
+			throw new HobesSecurityException("Unsupported key agreement: "+pAlgorithm);
+		}
+		if (getState() == STATE_PHASE_I){
+			throw new HobesSecurityException(new IllegalStateException(String.valueOf(getState())));
+		}
+		this.keyAgreementAlgorithm = pAlgorithm;
+	}
+
+	/**
+	 * @return The id of the trusted keys, <code>null</code> for the 
+	 * {@link SecretManager} ones.
+	 */
+	public String getKeyId() {
+		return keyId;
+	}
+	
+	/**
+	 * Agrees on a secret with trusted keys of a store, rather than the 
+	 * {@link SecretManager} ones. The key agreement algorithm becomes the one
+	 * of these keys.
+	 * 
+	 * @param pKeyStore The store.
+	 * @param pKeyId The id of the trusted keys.
+	 * 
+	 * @throws HobesException When the key id is unknown, or this agent is in 
+	 * the middle of the protocol.
+	 */
+	public void setTrustedKey(MappedKeyStore pKeyStore, String pKeyId) throws HobesException {
+		TrustedKeyEntry entry = pKeyStore.get(pKeyId);
+		if (entry == null){
+			throw new HobesSecurityException("Unknown key id: "+pKeyId);
+		}
+		setKeyAgreementAlgorithm(entry.getAlgorithm());
+		this.keyStore = pKeyStore;
+		this.keyId = pKeyId;
+	}
+	
+	/**
+	 * Answers the trusted keys set by {@link #setTrustedKey(MappedKeyStore, String)}, 
+	 * provided they're valid now.
+	 * 
+	 * @return The trusted keys.
+	 * 
+	 * @throws HobesException When the keys are not valid now.
+	 */
+	protected TrustedKeyEntry getTrustedKey() throws HobesException {
+		TrustedKeyEntry entry = this.keyStore.get(this.keyId);
+		if ((entry == null) || ! entry.isValid(System.currentTimeMillis())){
+			throw new HobesSecurityException("Key id not valid: "+this.keyId);
+		}
+		return entry;
+	}
+
+	/**
+	 * Restores a channel from a session ticket, skipping the key agreement.
+	 * <p>The agent then finds itself in state <code>STATE_PHASE_II</code>, 
+	 * without public value.
+	 * 
+	 * @param pTicket The ticket, as issued by Bob or opened by Bob {@link TicketKeyRing}.
+	 */
+	public void resumeSession(SessionTicket pTicket) {
+		// an agreement in progress holds a private key, it's not given back
+		this.dhProtocolAgreement = null;
+		this.publicValue = null;
+		this.secretKey = pTicket.getSecret();
+		this.profile = pTicket.getProfile();
+		// Bob restores the agreed key, both ends start over from it
+		resetKeyEpochs();
+		this.state = STATE_PHASE_II;
+	}
+
 	/**
 	 * Answers this agent public key. 
 	 * 
 	 * @return The public key X509 byte-encoded form.
 	 * 
 	 * @throws HobesSecurityException When this agent has not completed
-	 * Diffie-Hellman protocol phase I.
+	 * Diffie-Hellman protocol phase I, or resumed its session from a ticket.
 	 */
 	public byte[] getPublicValue() throws HobesSecurityException {
-		if (getState() < STATE_PHASE_I){
+		if ((getState() < STATE_PHASE_I) || (publicValue == null)){
+			// resumed sessions have no public value
 			throw new HobesSecurityException (new IllegalStateException(String.valueOf(getState())));
 		}
 		return publicValue.getEncoded();
@@ -136,24 +282,44 @@ public class PKCS3Actor extends DesChannel {
 	 * @throws HobesSecurityException When a cryptography error occurs.
 	 */
 	public void protocolPhaseI(DHParameterSpec dhspec) throws HobesSecurityException{
+		protocolPhaseI((AlgorithmParameterSpec) dhspec);
+	}
+	
+	/** 
+	 * Proceeds to the first phase of the key agreement, with parameters of any
+	 * supported algorithm.
+	 * 
+	 * @param dhspec The input Diffie-Hellman parameters, a {@link DHParameterSpec},
+	 * or <code>NamedParameterSpec.X25519</code> for the elliptic-curve key agreement.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public void protocolPhaseI(AlgorithmParameterSpec dhspec) throws HobesSecurityException{
+		KeyPairGenerator kpairGen = 
+				CipherCache.getKeyPairGenerator(this.keyAgreementAlgorithm, dhspec);
+		protocolPhaseI(kpairGen.generateKeyPair());
+	}
+	
+	/** 
+	 * Proceeds to the first phase of the key agreement, with a key pair
+	 * generated beforehand, e.g. by a {@link KeyPairPool}.
+	 * 
+	 * @param keyPair Ephemeral keys of this agent key agreement algorithm,
+	 * not used by any other agent.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	protected void protocolPhaseI(KeyPair keyPair) throws HobesSecurityException{
 		try{
-			KeyPairGenerator kpairGen = 
-					KeyPairGenerator.getInstance(SecretFactory.KEY_AGREEMENT_ALGORITHM);
-			kpairGen.initialize(dhspec);
-			KeyPair keyPair = kpairGen.generateKeyPair();
-			
-			this.publicValue = (DHPublicKey) keyPair.getPublic();
-			this.dhProtocolAgreement = KeyAgreement.getInstance(SecretFactory.KEY_AGREEMENT_ALGORITHM); 
+			this.publicValue = keyPair.getPublic();
+			this.dhProtocolAgreement = KeyAgreement.getInstance(this.keyAgreementAlgorithm); 
 			this.dhProtocolAgreement.init(keyPair.getPrivate());
 			
 			this.state = STATE_PHASE_I;
 		}
 		catch (NoSuchAlgorithmException e) {
 			throw new HobesSecurityException(e);
-		} 
-		catch (InvalidAlgorithmParameterException e) {
-			throw new HobesSecurityException(e);
-		} 
+		}
 		catch (InvalidKeyException e) {
 			throw new HobesSecurityException(e);
 		}
@@ -167,6 +333,9 @@ public class PKCS3Actor extends DesChannel {
 	 * <p> At the end of this phase, the agent should find itself
 	 *  in state <code>STATE_PHASE_II</code>, and be able to read and write
 	 *  on the established DES channel.
+	 * <p>The symmetric key is derived from the raw agreed secret for 
+	 * this agent {@link CipherSuite}. With the former framing, the DES key is 
+	 * truncated from the agreed secret instead, as former agents did.
 	 * 
 	 * @param peerEncodedPV The peer byte-encoded public key.
 	 * 
@@ -174,17 +343,48 @@ public class PKCS3Actor extends DesChannel {
 	 */
 	public void protocolPhaseII(byte[] peerEncodedPV) 
 			throws HobesException{
+		protocolPhaseII(peerEncodedPV, null);
+	}
+	
+	/**
+	 * Proceeds to the second phase of Diffie-Hellman key agreement, binding
+	 * the key to the negotiation.
+	 * <p>With a transcript, the key is always derived from the agreed secret
+	 * and the transcript, whatever the framing.
+	 * 
+	 * @param peerEncodedPV The peer byte-encoded public key.
+	 * @param pTranscript The handshake transcript digest, <code>null</code> for 
+	 * former peers that didn't negotiate.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 * 
+	 * @see HandshakeHello#getTranscript(byte[], ChannelProfile)
+	 */
+	public void protocolPhaseII(byte[] peerEncodedPV, byte[] pTranscript) 
+			throws HobesException{
 		
 		if (getState() != STATE_PHASE_I){
 			throw new HobesSecurityException(new IllegalStateException(String.valueOf(getState())));
 		}
 		
 		try{
-			this.dhProtocolAgreement.doPhase(SecretFactory.createPublicKey(peerEncodedPV), true);
+			this.dhProtocolAgreement.doPhase(
+					SecretFactory.createPublicKey(this.keyAgreementAlgorithm, peerEncodedPV), true);
+			
+			byte[] agreedSecret = this.dhProtocolAgreement.generateSecret();
 			
-			this.secretKey = 
-					this.dhProtocolAgreement.generateSecret(SecretFactory.ENCRYPTION_ALGORITHM);
+			this.dhProtocolAgreement = null;
 			
+			if (pTranscript != null){
+				this.secretKey = getCipherSuite().deriveKey(agreedSecret, pTranscript);
+			}
+			else if (this.profile.getFraming() == ChannelProfile.FRAMING_SEALED_OBJECT){
+				this.secretKey = getCipherSuite().createKey(agreedSecret);
+			}
+			else {
+				this.secretKey = getCipherSuite().deriveKey(agreedSecret);
+			}
+			Arrays.fill(agreedSecret, (byte) 0);
 			this.state = STATE_PHASE_II;
 		} 
 		catch (InvalidKeyException e) {
@@ -192,9 +392,6 @@ public class PKCS3Actor extends DesChannel {
 		} 
 		catch (IllegalStateException e) {
 			throw new HobesSecurityException(e);
-		} 
-		catch (NoSuchAlgorithmException e) {
-			throw new HobesSecurityException(e);
 		}
 	}
 }
@@ -18,6 +18,9 @@ along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
 package org.marl.hobes.secrets;
 
 import java.security.InvalidAlgorithmParameterException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.NamedParameterSpec;
+import java.util.Arrays;
 
 import javax.crypto.interfaces.DHPublicKey;
 
@@ -28,7 +31,7 @@ import org.marl.hobes.HobesTransportException;
 
 public class PKCS3Alice extends PKCS3Actor {
 
-	private DHPublicKey trustedPV;
+	private KeyPairPool keyPairs = KeyPairPool.getShared();
 	
 	/**
 	 * Creates an Alice PKCS3 actor.
@@ -41,23 +44,68 @@ public class PKCS3Alice extends PKCS3Actor {
 	 */
 	public PKCS3Alice(String id) throws HobesException {
 		super(id);
-		this.trustedPV = SecretManager.getTrustedPublicValue();
 	}
 
 	/**
+	 * Answers the pool Alice keys are taken from.
+	 * 
+	 * @return The pool, {@link KeyPairPool#getShared()} by default, or 
+	 * <code>null</code> if keys are generated inline.
+	 */
+	public KeyPairPool getKeyPairPool() {
+		return keyPairs;
+	}
+	
+	/**
+	 * Sets the pool Alice keys are taken from.
+	 * 
+	 * @param pKeyPairs The pool, or <code>null</code> to generate keys inline.
+	 */
+	public void setKeyPairPool(KeyPairPool pKeyPairs) {
+		this.keyPairs = pKeyPairs;
+	}
+
+	/**
+	 * Takes Alice keys from the pool, for the parameters of the trusted 
+	 * Diffie-Hellman public value, or on Curve25519 with the X25519 key agreement.
+	 * <p>The trusted public value is the one of the key id, if any.
+	 * 
 	 * @throws InvalidAlgorithmParameterException
 	 * @throws HobesException
 	 */
 	public void protocolPhaseI()
 			throws HobesException {
-		super.protocolPhaseI(this.trustedPV.getParams());
+		AlgorithmParameterSpec params;
+		if (SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM.equals(getKeyAgreementAlgorithm())){
+			params = NamedParameterSpec.X25519;
+		}
+		else if (this.keyId != null){
+			params = ((DHPublicKey) getTrustedKey().getPublicValue()).getParams();
+		}
+		else {
+			DHPublicKey trustedPV = SecretManager.getTrustedPublicValue();
+			params = trustedPV.getParams();
+		}
+		if (this.keyPairs == null){
+			super.protocolPhaseI(params);
+		}
+		else {
+			super.protocolPhaseI(this.keyPairs.take(getKeyAgreementAlgorithm(), params));
+		}
 	}
 
 	@Override
-	public void protocolPhaseII(byte[] bobEncodedPV)
+	public void protocolPhaseII(byte[] bobEncodedPV, byte[] pTranscript)
 			throws HobesException {
-		if (SecretManager.isTrustedPublicValue(bobEncodedPV)){
-			super.protocolPhaseII(bobEncodedPV);
+		boolean isTrusted;
+		if (this.keyId != null){
+			isTrusted = Arrays.equals(getTrustedKey().getPublicValue().getEncoded(), bobEncodedPV);
+		}
+		else {
+			isTrusted = SecretManager.isTrustedPublicValue(getKeyAgreementAlgorithm(), bobEncodedPV);
+		}
+		if (isTrusted){
+			super.protocolPhaseII(bobEncodedPV, pTranscript);
 		}
 		else throw new HobesSecurityException("UNTRUSTED PUBLIC VALUE!");
 	}
@@ -3,9 +3,9 @@ package org.marl.hobes.secrets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 
 import javax.crypto.KeyAgreement;
-import javax.crypto.interfaces.DHPrivateKey;
 
 import org.marl.hobes.HobesDataException;
 import org.marl.hobes.HobesException;
@@ -14,7 +14,7 @@ import org.marl.hobes.HobesTransportException;
 
 public class PKCS3Bob extends PKCS3Actor {
 
-	protected DHPrivateKey privateValue;
+	protected PrivateKey privateValue;
 	
 	/**
 	 * @param id
@@ -26,8 +26,6 @@ public class PKCS3Bob extends PKCS3Actor {
 	public PKCS3Bob(String id) 
 			throws HobesTransportException, HobesDataException, HobesSecurityException {
 		super(id);
-		this.publicValue = SecretManager.getTrustedPublicValue();
-		this.privateValue = SecretManager.getTrustedPrivateValue();
 	}
 	
 	/**
@@ -38,8 +36,21 @@ public class PKCS3Bob extends PKCS3Actor {
 	 */
 	public void protocolPhaseI()
 			throws HobesException{
+		// the trusted keys depend on the key id, or the key agreement algorithm
+		if (this.keyId != null){
+			TrustedKeyEntry entry = getTrustedKey();
+			if (entry.getPrivateValue() == null){
+				throw new HobesSecurityException("No private value for key id: "+this.keyId);
+			}
+			this.publicValue = entry.getPublicValue();
+			this.privateValue = entry.getPrivateValue();
+		}
+		else {
+			this.publicValue = SecretManager.getTrustedPublicValue(getKeyAgreementAlgorithm());
+			this.privateValue = SecretManager.getTrustedPrivateValue(getKeyAgreementAlgorithm());
+		}
 		try{
-			this.dhProtocolAgreement = KeyAgreement.getInstance(SecretFactory.KEY_AGREEMENT_ALGORITHM);
+			this.dhProtocolAgreement = KeyAgreement.getInstance(getKeyAgreementAlgorithm());
 			this.dhProtocolAgreement.init(this.privateValue);
 			
 			this.state = STATE_PHASE_I;
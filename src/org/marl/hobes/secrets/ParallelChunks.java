@@ -0,0 +1,271 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+
+/**
+ * Seals large {@link SealedFrame} payloads as independent chunks, on all cores.
+ * <p>Each chunk is sealed on its own with an authenticated suite: its nonce is 
+ * the frame nonce with the chunk index xor-ed into its last bytes, and the frame 
+ * header, which holds the number of chunks, is authenticated along with the 
+ * chunk index. Chunks can't be dropped, reordered or moved to another frame.
+ * <p>Chunks are sealed and opened by a fork-join pool. Writers send chunks in
+ * order as soon as they're sealed, readers open chunks while the next ones 
+ * are still being read, and release each chunk as soon as it's verified.
+ */
+class ParallelChunks {
+	
+	private static final ForkJoinPool pool = 
+			new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	
+	private ParallelChunks() {}
+	
+	/**
+	 * Answers how many chunks a payload is split into.
+	 * 
+	 * @param pLength The payload length.
+	 * @param pChunkSize The plain bytes per chunk.
+	 * 
+	 * @return That's it.
+	 */
+	static int getChunkCount(int pLength, int pChunkSize) {
+		return Math.max((pLength + pChunkSize - 1) / pChunkSize, 1);
+	}
+	
+	/**
+	 * Seals a payload, writing its chunks in order.
+	 * 
+	 * @param pOutStream The stream to write the sealed chunks to.
+	 * @param pPlain The payload.
+	 * @param pLength The payload length.
+	 * @param pChunkSize The plain bytes per chunk.
+	 * @param pSuite An authenticated suite.
+	 * @param pKey The key.
+	 * @param pHeader The frame header.
+	 * @param pNonce The frame nonce.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	static void seal(OutputStream pOutStream, final byte[] pPlain, int pLength, int pChunkSize, 
+			CipherSuite pSuite, SecretKey pKey, byte[] pHeader, byte[] pNonce) 
+					throws HobesTransportException, HobesSecurityException {
+		int count = getChunkCount(pLength, pChunkSize);
+		List<ForkJoinTask<byte[]>> tasks = new ArrayList<ForkJoinTask<byte[]>>(count);
+		for (int i = 0; i < count; i++){
+			final int offset = i * pChunkSize;
+			final int length = Math.min(pChunkSize, pLength - offset);
+			tasks.add(pool.submit(new ChunkTask(Cipher.ENCRYPT_MODE, pSuite, pKey, pHeader, pNonce, i) {
+				@Override
+				byte[] apply(Cipher pCipher) throws GeneralSecurityException {
+					return pCipher.doFinal(pPlain, offset, length);
+				}
+			}));
+		}
+		try {
+			for (ForkJoinTask<byte[]> task : tasks){
+				pOutStream.write(join(task));
+			}
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+		finally {
+			for (ForkJoinTask<byte[]> task : tasks){
+				task.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * Opens the chunks of a payload, as they're read.
+	 * 
+	 * @param pInStream The stream to read the sealed chunks from, up to its end.
+	 * @param pCount The number of chunks, at most {@link SealedFrame#MAX_PARALLEL_CHUNKS}.
+	 * @param pChunkSize The plain bytes per chunk, {@link SealedFrame#PARALLEL_CHUNK_SIZE}.
+	 * @param pSuite The authenticated suite of the frame.
+	 * @param pKey The key.
+	 * @param pHeader The frame header.
+	 * @param pNonce The frame nonce.
+	 * 
+	 * @return The payload, released chunk by chunk once verified.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs, or the frame is truncated.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	static InputStream open(InputStream pInStream, int pCount, int pChunkSize, 
+			CipherSuite pSuite, SecretKey pKey, byte[] pHeader, byte[] pNonce) 
+					throws HobesTransportException, HobesSecurityException {
+		int sealedSize = pChunkSize + CipherSuite.GCM_TAG_LENGTH / 8;
+		// the count isn't verified yet, chunks are only allocated as they're read
+		final List<ForkJoinTask<byte[]>> tasks = new ArrayList<ForkJoinTask<byte[]>>();
+		try {
+			DataInputStream dis = new DataInputStream(pInStream);
+			for (int i = 0; i < pCount; i++){
+				final byte[] sealed;
+				if (i < pCount - 1){
+					sealed = new byte[sealedSize];
+					dis.readFully(sealed);
+				}
+				else {
+					sealed = dis.readNBytes(sealedSize + 1);
+					if ((sealed.length > sealedSize) || (sealed.length < CipherSuite.GCM_TAG_LENGTH / 8)){
+						throw new HobesSecurityException("Invalid last chunk: " + sealed.length);
+					}
+				}
+				tasks.add(pool.submit(new ChunkTask(Cipher.DECRYPT_MODE, pSuite, pKey, pHeader, pNonce, i) {
+					@Override
+					byte[] apply(Cipher pCipher) throws GeneralSecurityException {
+						return pCipher.doFinal(sealed);
+					}
+				}));
+			}
+			pInStream.close();
+		}
+		catch (EOFException e) {
+			cancel(tasks);
+			throw new HobesTransportException(e);
+		}
+		catch (IOException e) {
+			cancel(tasks);
+			throw new HobesTransportException(e);
+		}
+		catch (HobesSecurityException e) {
+			cancel(tasks);
+			throw e;
+		}
+		return new InputStream() {
+			private int next = 0;
+			private InputStream current = new ByteArrayInputStream(new byte[0]);
+			
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int count;
+				while ((count = current.read(b, off, len)) == -1){
+					if (next == tasks.size()){
+						return -1;
+					}
+					try {
+						current = new ByteArrayInputStream(join(tasks.get(next)));
+					}
+					catch (HobesSecurityException e) {
+						cancel(tasks);
+						// as cipher streams report wrong keys
+						throw new IOException(e.getCause());
+					}
+					tasks.set(next++, null);
+				}
+				return count;
+			}
+		};
+	}
+	
+	private static byte[] join(ForkJoinTask<byte[]> pTask) throws HobesSecurityException {
+		try {
+			return pTask.get();
+		}
+		catch (ExecutionException e) {
+			// fork-join tasks wrap their exceptions, find the cipher one
+			Throwable cause = e.getCause();
+			while ((cause.getCause() != null) && ! (cause instanceof GeneralSecurityException)){
+				cause = cause.getCause();
+			}
+			throw new HobesSecurityException(cause);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	private static void cancel(List<ForkJoinTask<byte[]>> pTasks) {
+		for (ForkJoinTask<byte[]> task : pTasks){
+			if (task != null){
+				task.cancel(false);
+			}
+		}
+	}
+	
+	/** Seals or opens one chunk, with a cipher of the pool thread. */
+	private static abstract class ChunkTask implements Callable<byte[]> {
+		private final int mode;
+		private final CipherSuite suite;
+		private final SecretKey key;
+		private final byte[] header;
+		private final byte[] nonce;
+		private final int index;
+		
+		ChunkTask(int pMode, CipherSuite pSuite, SecretKey pKey, byte[] pHeader, byte[] pNonce, int pIndex) {
+			this.mode = pMode;
+			this.suite = pSuite;
+			this.key = pKey;
+			this.header = pHeader;
+			this.nonce = pNonce;
+			this.index = pIndex;
+		}
+		
+		abstract byte[] apply(Cipher pCipher) throws GeneralSecurityException;
+		
+		@Override
+		public byte[] call() throws Exception {
+			byte[] chunkNonce = nonce.clone();
+			byte[] indexBytes = { (byte) (index >>> 24), (byte) (index >>> 16), 
+					(byte) (index >>> 8), (byte) index };
+			for (int i = 0; i < indexBytes.length; i++){
+				chunkNonce[chunkNonce.length - indexBytes.length + i] ^= indexBytes[i];
+			}
+			Cipher cipher = suite.acquireCipher(mode, key, chunkNonce);
+			boolean isReusable = false;
+			try {
+				cipher.updateAAD(header);
+				cipher.updateAAD(indexBytes);
+				byte[] result = apply(cipher);
+				isReusable = true;
+				return result;
+			}
+			finally {
+				CipherCache.releaseCipher(cipher, isReusable);
+			}
+		}
+	}
+}
@@ -0,0 +1,808 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+
+/**
+ * An encrypted object, as read from a stream before its key is known.
+ * <p>Sealed frames replace the serialized <code>SealedObject</code> of the
+ * first {@link DesObjectBus} versions, which serialized the object into a byte array, 
+ * ciphered it, then serialized the result again along with the algorithm parameters.
+ * Frames are ciphered on the fly instead: the object is serialized through a
+ * <code>CipherOutputStream</code> straight to the target stream, and
+ * deciphered the same way.
+ * <p>The stream layout is:
+ * <pre>
+ *   byte[4] magic       // MAGIC, never the 0xACED of serialization streams
+ *   byte    flags       // FLAG_SOURCE | FLAG_SUITE | FLAG_DEFLATE | FLAG_EPOCH | FLAG_PARALLEL
+ *   byte    suite       // CipherSuite identifier, present with FLAG_SUITE, DES otherwise
+ *   int     epoch       // KeyEpochs epoch number, present with FLAG_EPOCH, 0 otherwise
+ *   int     chunkSize   // plain bytes per sealed chunk, present with FLAG_PARALLEL
+ *   int     chunkCount  // number of sealed chunks, present with FLAG_PARALLEL
+ *   UTF     sourceId    // modified UTF-8, present with FLAG_SOURCE
+ *   byte[]  nonce       // present for authenticated suites
+ *   { int length; byte[length] ciphertext; }*
+ *   int     0           // end of frame
+ * </pre>
+ * The ciphertext is chunked so that a reader knows where the frame ends without
+ * relying on the end of stream, and detects truncated frames. With authenticated 
+ * suites, the header up to the nonce is authenticated along with the ciphertext.
+ * With <code>FLAG_DEFLATE</code>, the object is deflated before it's ciphered.
+ * <code>FLAG_EPOCH</code> is only written by rekeyed channels.
+ * <p>With MAC-only suites, the chunks hold the object in the clear, followed by 
+ * the MAC of the header and the object: the object is only deserialized once the
+ * MAC is checked.
+ * <p>With <code>FLAG_PARALLEL</code>, the ciphertext holds <code>chunkCount</code> chunks
+ * sealed independently, each of them <code>chunkSize</code> bytes long but the last one, 
+ * followed by its tag. Such frames are only written with authenticated suites, for payloads 
+ * of at least {@link #PARALLEL_THRESHOLD} bytes, by channels that agreed on 
+ * {@link ChannelProfile#FRAMING_PARALLEL_CHUNKS}: their chunks are sealed and opened 
+ * on all cores, rather than by one sequential cipher.
+ */
+public class SealedFrame {
+	
+	/** First bytes of a sealed frame. */
+	public static final byte[] MAGIC = { 'H', 'S', 'F', 1 };
+	/** Maximum number of ciphertext bytes per chunk. */
+	public static final int CHUNK_SIZE = 1 << 13;
+	/** Minimum serialized size of payloads sealed as parallel chunks. */
+	public static final int PARALLEL_THRESHOLD = 1 << 20;
+	/** Plain bytes per parallel chunk. */
+	public static final int PARALLEL_CHUNK_SIZE = 1 << 18;
+	/** Maximum number of parallel chunks, those of the largest payload. */
+	public static final int MAX_PARALLEL_CHUNKS = Integer.MAX_VALUE / PARALLEL_CHUNK_SIZE + 1;
+	
+	private static final int FLAG_SOURCE = 0x01;
+	private static final int FLAG_SUITE = 0x02;
+	private static final int FLAG_DEFLATE = 0x04;
+	private static final int FLAG_EPOCH = 0x08;
+	private static final int FLAG_PARALLEL = 0x10;
+	
+	private final byte[] header;
+	private final CipherSuite suite;
+	private final int epoch;
+	private final String source;
+	private final byte[] nonce;
+	private final boolean isDeflated;
+	private final int parallelChunkSize;
+	private final int parallelChunkCount;
+	private final InputStream chunks;
+	private boolean isConsumed = false;
+	
+	private SealedFrame(byte[] pHeader, CipherSuite pSuite, int pEpoch, String pSource, byte[] pNonce, 
+			boolean pDeflatedFlag, int pParallelChunkSize, int pParallelChunkCount, InputStream pChunks) {
+		this.header = pHeader;
+		this.suite = pSuite;
+		this.epoch = pEpoch;
+		this.source = pSource;
+		this.nonce = pNonce;
+		this.isDeflated = pDeflatedFlag;
+		this.parallelChunkSize = pParallelChunkSize;
+		this.parallelChunkCount = pParallelChunkCount;
+		this.chunks = pChunks;
+	}
+	
+	/**
+	 * Answers the source identifier.
+	 * 
+	 * @return That's it, or <code>null</code> if the frame was written without a source.
+	 */
+	public String getSource() {
+		return source;
+	}
+	
+	/**
+	 * Answers the suite this frame is ciphered with.
+	 * 
+	 * @return That's it.
+	 */
+	public CipherSuite getCipherSuite() {
+		return suite;
+	}
+	
+	/**
+	 * Answers the epoch of the key this frame is ciphered with.
+	 * 
+	 * @return The {@link KeyEpochs} epoch number, <code>0</code> for the agreed key.
+	 */
+	public int getKeyEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * Answers whether this frame is sealed as parallel chunks.
+	 * 
+	 * @return That's it.
+	 */
+	public boolean isParallel() {
+		return parallelChunkCount > 0;
+	}
+	
+	/**
+	 * Deciphers and deserializes the frame object, reading the rest of the 
+	 * frame from its stream, which is then closed. 
+	 * <p>This can only be done once, before the stream is closed by its owner.
+	 * 
+	 * @param pSharedSecret The symmetric key to use.
+	 * 
+	 * @return The deserialized object.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs, or the frame is truncated.
+	 * @throws HobesDataException When a marshaling error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs, typically a wrong key.
+	 */
+	public synchronized Object getObject(SecretKey pSharedSecret) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		if (this.isConsumed){
+			throw new HobesDataException(new IllegalStateException("Sealed frame already read"));
+		}
+		if (CipherSuite.getInstance(pSharedSecret) != this.suite){
+			throw new HobesSecurityException("Cipher suite mismatch: " + this.suite + " frame, "
+					+ CipherSuite.getInstance(pSharedSecret) + " key");
+		}
+		this.isConsumed = true;
+		if (isParallel()){
+			return getParallelObject(pSharedSecret);
+		}
+		if (this.suite.isMacOnly()){
+			return getAuthenticatedObject(pSharedSecret);
+		}
+		Cipher cipher = this.suite.acquireCipher(Cipher.DECRYPT_MODE, pSharedSecret, this.nonce);
+		boolean isReusable = false;
+		Inflater inflater = this.isDeflated ? new Inflater() : null;
+		try {
+			if (this.suite.isAuthenticated()){
+				// authenticated ciphers release nothing before checking the tag, and 
+				// cipher streams copy what they buffer on each read: decipher at once
+				cipher.updateAAD(this.header);
+				byte[] plain = cipher.doFinal(this.chunks.readAllBytes());
+				this.chunks.close();
+				Object obj = new ObjectInputStream(inflate(new ByteArrayInputStream(plain), inflater))
+						.readObject();
+				isReusable = true;
+				return obj;
+			}
+			CipherInputStream cis = new CipherInputStream(this.chunks, cipher);
+			Object obj = new ObjectInputStream(inflate(cis, inflater)).readObject();
+			// reach the end of frame, so that padding or tag is checked
+			byte[] rest = new byte[64];
+			while (cis.read(rest) != -1){
+				// nothing should be left but padding
+			}
+			this.chunks.close();
+			isReusable = true;
+			return obj;
+		}
+		catch (ClassNotFoundException e) {
+			throw new HobesDataException(e);
+		}
+		catch (GeneralSecurityException e) {
+			throw new HobesSecurityException(e);
+		}
+		catch (EOFException e) {
+			throw new HobesTransportException(e);
+		}
+		catch (IOException e) {
+			// wrong keys fail on padding, which cipher streams report as I/O errors
+			if (e.getCause() instanceof GeneralSecurityException){
+				throw new HobesSecurityException(e.getCause());
+			}
+			throw new HobesTransportException(e);
+		}
+		finally {
+			CipherCache.releaseCipher(cipher, isReusable);
+			if (inflater != null){
+				inflater.end();
+			}
+		}
+	}
+	
+	private Object getAuthenticatedObject(SecretKey pSharedSecret) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		Inflater inflater = this.isDeflated ? new Inflater() : null;
+		try {
+			byte[] content = this.chunks.readAllBytes();
+			this.chunks.close();
+			Mac mac = this.suite.acquireMac(pSharedSecret);
+			int length = content.length - mac.getMacLength();
+			if (length < 0){
+				throw new HobesSecurityException("Truncated MAC");
+			}
+			mac.update(this.header);
+			mac.update(content, 0, length);
+			if (! MessageDigest.isEqual(mac.doFinal(), Arrays.copyOfRange(content, length, content.length))){
+				throw new HobesSecurityException("MAC mismatch");
+			}
+			return new ObjectInputStream(inflate(new ByteArrayInputStream(content, 0, length), inflater))
+					.readObject();
+		}
+		catch (ClassNotFoundException e) {
+			throw new HobesDataException(e);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+		finally {
+			if (inflater != null){
+				inflater.end();
+			}
+		}
+	}
+	
+	private Object getParallelObject(SecretKey pSharedSecret) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		Inflater inflater = this.isDeflated ? new Inflater() : null;
+		try {
+			InputStream plain = ParallelChunks.open(this.chunks, this.parallelChunkCount, 
+					this.parallelChunkSize, this.suite, pSharedSecret, this.header, this.nonce);
+			return new ObjectInputStream(inflate(plain, inflater)).readObject();
+		}
+		catch (ClassNotFoundException e) {
+			throw new HobesDataException(e);
+		}
+		catch (EOFException e) {
+			throw new HobesTransportException(e);
+		}
+		catch (IOException e) {
+			// chunks failing their tag are reported as I/O errors
+			if (e.getCause() instanceof GeneralSecurityException){
+				throw new HobesSecurityException(e.getCause());
+			}
+			throw new HobesTransportException(e);
+		}
+		finally {
+			if (inflater != null){
+				inflater.end();
+			}
+		}
+	}
+	
+	private static InputStream inflate(InputStream pInStream, Inflater pInflater) {
+		return (pInflater == null) ? pInStream : new InflaterInputStream(pInStream, pInflater);
+	}
+	
+	/**
+	 * Reads the rest of the frame ciphertext in memory, so that the frame
+	 * can be deciphered after its stream is closed.
+	 * 
+	 * @return A new frame, with the same source.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs, or the frame is truncated.
+	 */
+	SealedFrame detach() throws HobesTransportException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try {
+			ChunkedOutputStream cos = new ChunkedOutputStream(bos);
+			this.chunks.transferTo(cos);
+			cos.close();
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+		this.isConsumed = true;
+		return new SealedFrame(this.header, this.suite, this.epoch, this.source, this.nonce, this.isDeflated,
+				this.parallelChunkSize, this.parallelChunkCount, new ChunkedInputStream(new DataInputStream(new ByteArrayInputStream(bos.toByteArray()))));
+	}
+	
+	/**
+	 * Writes an object as a sealed frame, and closes the stream.
+	 * 
+	 * @param pOutStream An open stream to write to. This stream should not be re-open.
+	 * @param pSourceId The source identifier, or <code>null</code>.
+	 * @param pData A serializable object.
+	 * @param pSharedSecret The symmetric key to use.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static void write(OutputStream pOutStream, String pSourceId, Object pData, 
+			SecretKey pSharedSecret) throws HobesTransportException, HobesSecurityException {
+		write(pOutStream, pSourceId, pData, pSharedSecret, ChannelProfile.CODEC_NONE);
+	}
+	
+	/**
+	 * Writes an object as a sealed frame, compressed with a codec, and closes the stream.
+	 * 
+	 * @param pOutStream An open stream to write to. This stream should not be re-open.
+	 * @param pSourceId The source identifier, or <code>null</code>.
+	 * @param pData A serializable object.
+	 * @param pSharedSecret The symmetric key to use.
+	 * @param pCodec One of {@link ChannelProfile#CODEC_NONE}, {@link ChannelProfile#CODEC_DEFLATE}.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static void write(OutputStream pOutStream, String pSourceId, Object pData, 
+			SecretKey pSharedSecret, int pCodec) throws HobesTransportException, HobesSecurityException {
+		write(pOutStream, pSourceId, pData, pSharedSecret, pCodec, 0);
+	}
+	
+	/**
+	 * Writes an object as a sealed frame, compressed with a codec, with the key 
+	 * of some epoch, and closes the stream.
+	 * 
+	 * @param pOutStream An open stream to write to. This stream should not be re-open.
+	 * @param pSourceId The source identifier, or <code>null</code>.
+	 * @param pData A serializable object.
+	 * @param pSharedSecret The symmetric key to use.
+	 * @param pCodec One of {@link ChannelProfile#CODEC_NONE}, {@link ChannelProfile#CODEC_DEFLATE}.
+	 * @param pEpoch The {@link KeyEpochs} epoch of the key, <code>0</code> for the agreed key.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static void write(OutputStream pOutStream, String pSourceId, Object pData, 
+			SecretKey pSharedSecret, int pCodec, int pEpoch) 
+					throws HobesTransportException, HobesSecurityException {
+		write(pOutStream, pSourceId, pData, pSharedSecret, pCodec, pEpoch, false);
+	}
+	
+	/**
+	 * Writes an object as a sealed frame, compressed with a codec, with the key 
+	 * of some epoch, possibly as parallel chunks, and closes the stream.
+	 * <p>Large payloads are sealed as parallel chunks when allowed, and only with 
+	 * authenticated suites; they're serialized in memory first.
+	 * 
+	 * @param pOutStream An open stream to write to. This stream should not be re-open.
+	 * @param pSourceId The source identifier, or <code>null</code>.
+	 * @param pData A serializable object.
+	 * @param pSharedSecret The symmetric key to use.
+	 * @param pCodec One of {@link ChannelProfile#CODEC_NONE}, {@link ChannelProfile#CODEC_DEFLATE}.
+	 * @param pEpoch The {@link KeyEpochs} epoch of the key, <code>0</code> for the agreed key.
+	 * @param pParallelFlag Whether the reader supports {@link ChannelProfile#FRAMING_PARALLEL_CHUNKS}.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static void write(OutputStream pOutStream, String pSourceId, Object pData, 
+			SecretKey pSharedSecret, int pCodec, int pEpoch, boolean pParallelFlag) 
+					throws HobesTransportException, HobesSecurityException {
+		CipherSuite suite = CipherSuite.getInstance(pSharedSecret);
+		if (pParallelFlag && suite.isAuthenticated()){
+			writeBuffered(pOutStream, pSourceId, pData, pSharedSecret, pCodec, pEpoch);
+			return;
+		}
+		if (suite.isMacOnly()){
+			writeAuthenticated(pOutStream, pSourceId, pData, pSharedSecret, pCodec, pEpoch);
+			return;
+		}
+		byte[] nonce = suite.createNonce();
+		Cipher cipher = suite.acquireCipher(Cipher.ENCRYPT_MODE, pSharedSecret, nonce);
+		boolean isReusable = false;
+		Deflater deflater = (pCodec == ChannelProfile.CODEC_DEFLATE) ? 
+				new Deflater(Deflater.BEST_SPEED) : null;
+		try {
+			byte[] header = createHeader(suite, pSourceId, deflater != null, pEpoch, 0, 0);
+			pOutStream.write(header);
+			if (nonce != null){
+				cipher.updateAAD(header);
+				pOutStream.write(nonce);
+			}
+			OutputStream cos = new CipherOutputStream(new ChunkedOutputStream(pOutStream), cipher);
+			ObjectOutputStream oos = new ObjectOutputStream((deflater != null) ? 
+					new DeflaterOutputStream(cos, deflater, CHUNK_SIZE) : cos);
+			oos.writeObject(pData);
+			oos.close();
+			isReusable = true;
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+		finally {
+			CipherCache.releaseCipher(cipher, isReusable);
+			if (deflater != null){
+				deflater.end();
+			}
+		}
+	}
+	
+	private static void writeAuthenticated(OutputStream pOutStream, String pSourceId, Object pData, 
+			SecretKey pSharedSecret, int pCodec, int pEpoch) 
+					throws HobesTransportException, HobesSecurityException {
+		CipherSuite suite = CipherSuite.getInstance(pSharedSecret);
+		Mac mac = suite.acquireMac(pSharedSecret);
+		Deflater deflater = (pCodec == ChannelProfile.CODEC_DEFLATE) ? 
+				new Deflater(Deflater.BEST_SPEED) : null;
+		try {
+			byte[] header = createHeader(suite, pSourceId, deflater != null, pEpoch, 0, 0);
+			pOutStream.write(header);
+			mac.update(header);
+			OutputStream mos = new MacOutputStream(new ChunkedOutputStream(pOutStream), mac);
+			ObjectOutputStream oos = new ObjectOutputStream((deflater != null) ? 
+					new DeflaterOutputStream(mos, deflater, CHUNK_SIZE) : mos);
+			oos.writeObject(pData);
+			oos.close();
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+		finally {
+			if (deflater != null){
+				deflater.end();
+			}
+		}
+	}
+	
+	private static void writeBuffered(OutputStream pOutStream, String pSourceId, Object pData, 
+			SecretKey pSharedSecret, int pCodec, int pEpoch) 
+					throws HobesTransportException, HobesSecurityException {
+		CipherSuite suite = CipherSuite.getInstance(pSharedSecret);
+		Deflater deflater = (pCodec == ChannelProfile.CODEC_DEFLATE) ? 
+				new Deflater(Deflater.BEST_SPEED) : null;
+		try {
+			ExposedByteArrayOutputStream plain = new ExposedByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream((deflater != null) ? 
+					new DeflaterOutputStream(plain, deflater, CHUNK_SIZE) : plain);
+			oos.writeObject(pData);
+			oos.close();
+			byte[] nonce = suite.createNonce();
+			if (plain.size() >= PARALLEL_THRESHOLD){
+				byte[] header = createHeader(suite, pSourceId, deflater != null, pEpoch, 
+						PARALLEL_CHUNK_SIZE, ParallelChunks.getChunkCount(plain.size(), PARALLEL_CHUNK_SIZE));
+				pOutStream.write(header);
+				pOutStream.write(nonce);
+				ChunkedOutputStream cos = new ChunkedOutputStream(pOutStream);
+				ParallelChunks.seal(cos, plain.getBuffer(), plain.size(), PARALLEL_CHUNK_SIZE, 
+						suite, pSharedSecret, header, nonce);
+				cos.close();
+				return;
+			}
+			// small payloads: as sequential frames, but ciphered at once
+			byte[] header = createHeader(suite, pSourceId, deflater != null, pEpoch, 0, 0);
+			pOutStream.write(header);
+			pOutStream.write(nonce);
+			Cipher cipher = suite.acquireCipher(Cipher.ENCRYPT_MODE, pSharedSecret, nonce);
+			boolean isReusable = false;
+			try {
+				cipher.updateAAD(header);
+				ChunkedOutputStream cos = new ChunkedOutputStream(pOutStream);
+				cos.write(cipher.doFinal(plain.getBuffer(), 0, plain.size()));
+				cos.close();
+				isReusable = true;
+			}
+			finally {
+				CipherCache.releaseCipher(cipher, isReusable);
+			}
+		}
+		catch (GeneralSecurityException e) {
+			throw new HobesSecurityException(e);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+		finally {
+			if (deflater != null){
+				deflater.end();
+			}
+		}
+	}
+	
+	private static byte[] createHeader(CipherSuite pSuite, String pSourceId, boolean pDeflatedFlag, 
+			int pEpoch, int pParallelChunkSize, int pParallelChunkCount) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.write(MAGIC);
+		dos.writeByte(FLAG_SUITE | ((pSourceId != null) ? FLAG_SOURCE : 0)
+				| (pDeflatedFlag ? FLAG_DEFLATE : 0) | ((pEpoch != 0) ? FLAG_EPOCH : 0)
+				| ((pParallelChunkCount > 0) ? FLAG_PARALLEL : 0));
+		dos.writeByte(pSuite.getId());
+		if (pEpoch != 0){
+			dos.writeInt(pEpoch);
+		}
+		if (pParallelChunkCount > 0){
+			dos.writeInt(pParallelChunkSize);
+			dos.writeInt(pParallelChunkCount);
+		}
+		if (pSourceId != null){
+			dos.writeUTF(pSourceId);
+		}
+		return bos.toByteArray();
+	}
+	
+	/**
+	 * Prepares a stream for {@link #isSealedFrame(PushbackInputStream)}.
+	 * 
+	 * @param pInStream An open stream.
+	 * 
+	 * @return A stream that can be sniffed.
+	 */
+	public static PushbackInputStream sniffable(InputStream pInStream) {
+		if (pInStream instanceof PushbackInputStream){
+			return (PushbackInputStream) pInStream;
+		}
+		return new PushbackInputStream(pInStream, MAGIC.length);
+	}
+	
+	/**
+	 * Answers whether a stream starts with a sealed frame, rather than with
+	 * a serialized object, without consuming it.
+	 * 
+	 * @param pInStream A stream prepared by {@link #sniffable(InputStream)}.
+	 * 
+	 * @return That's it.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	public static boolean isSealedFrame(PushbackInputStream pInStream) throws HobesTransportException {
+		byte[] magic = new byte[MAGIC.length];
+		try {
+			int n = 0;
+			int count;
+			while ((n < magic.length) && ((count = pInStream.read(magic, n, magic.length - n)) != -1)){
+				n += count;
+			}
+			pInStream.unread(magic, 0, n);
+			return (n == magic.length) && Arrays.equals(magic, MAGIC);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	/**
+	 * Answers whether bytes start with a sealed frame, rather than with a serialized object.
+	 * 
+	 * @param pBytes The bytes.
+	 * 
+	 * @return That's it.
+	 */
+	public static boolean isSealedFrame(byte[] pBytes) {
+		return (pBytes.length >= MAGIC.length) 
+				&& Arrays.equals(Arrays.copyOf(pBytes, MAGIC.length), MAGIC);
+	}
+	
+	/**
+	 * Reads a sealed frame header, leaving its ciphertext in the stream
+	 * until {@link #getObject(SecretKey)} is called.
+	 * 
+	 * @param pInStream An open stream, positioned at a sealed frame.
+	 * 
+	 * @return The sealed frame.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When the stream does not start with a sealed frame.
+	 */
+	public static SealedFrame read(InputStream pInStream) 
+			throws HobesTransportException, HobesDataException {
+		try {
+			DataInputStream dis = new DataInputStream(pInStream);
+			byte[] magic = new byte[MAGIC.length];
+			dis.readFully(magic);
+			if (! Arrays.equals(magic, MAGIC)){
+				throw new HobesDataException("Not a sealed frame");
+			}
+			int flags = dis.readUnsignedByte();
+			int suiteId = ((flags & FLAG_SUITE) != 0) ? dis.readUnsignedByte() : CipherSuite.DES;
+			int epoch = ((flags & FLAG_EPOCH) != 0) ? dis.readInt() : 0;
+			int parallelChunkSize = ((flags & FLAG_PARALLEL) != 0) ? dis.readInt() : 0;
+			int parallelChunkCount = ((flags & FLAG_PARALLEL) != 0) ? dis.readInt() : 0;
+			String source = ((flags & FLAG_SOURCE) != 0) ? dis.readUTF() : null;
+			CipherSuite suite;
+			try {
+				suite = CipherSuite.getInstance(suiteId);
+			}
+			catch (HobesSecurityException e) {
+				throw new HobesDataException(e);
+			}
+			// the header is only authenticated once read, don't trust it to allocate
+			if (((flags & FLAG_PARALLEL) != 0) && (! suite.isAuthenticated() 
+					|| (parallelChunkSize != PARALLEL_CHUNK_SIZE) 
+					|| (parallelChunkCount <= 0) || (parallelChunkCount > MAX_PARALLEL_CHUNKS))){
+				throw new HobesDataException("Invalid parallel chunks: " + parallelChunkCount 
+						+ " x " + parallelChunkSize + " bytes, " + suite);
+			}
+			// rebuild the header as written, it's authenticated
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream dos = new DataOutputStream(bos);
+			dos.write(MAGIC);
+			dos.writeByte(flags);
+			if ((flags & FLAG_SUITE) != 0){
+				dos.writeByte(suiteId);
+			}
+			if ((flags & FLAG_EPOCH) != 0){
+				dos.writeInt(epoch);
+			}
+			if ((flags & FLAG_PARALLEL) != 0){
+				dos.writeInt(parallelChunkSize);
+				dos.writeInt(parallelChunkCount);
+			}
+			if (source != null){
+				dos.writeUTF(source);
+			}
+			byte[] nonce = null;
+			if (suite.isAuthenticated()){
+				nonce = new byte[suite.getNonceLength()];
+				dis.readFully(nonce);
+			}
+			return new SealedFrame(bos.toByteArray(), suite, epoch, source, nonce, 
+					(flags & FLAG_DEFLATE) != 0, parallelChunkSize, parallelChunkCount, new ChunkedInputStream(dis));
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	/** Writes data as length-prefixed chunks, and a zero length when closed. */
+	private static class ChunkedOutputStream extends FilterOutputStream {
+		private final byte[] buffer = new byte[CHUNK_SIZE];
+		private int count = 0;
+		
+		private ChunkedOutputStream(OutputStream pOutStream) {
+			super(new DataOutputStream(pOutStream));
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			if (count == buffer.length){
+				flushChunk();
+			}
+			buffer[count++] = (byte) b;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0){
+				if (count == buffer.length){
+					flushChunk();
+				}
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			// chunks are only cut when full, flushing must not make them smaller
+		}
+		
+		@Override
+		public void close() throws IOException {
+			flushChunk();
+			DataOutputStream dos = (DataOutputStream) out;
+			dos.writeInt(0);
+			dos.flush();
+			dos.close();
+		}
+		
+		private void flushChunk() throws IOException {
+			if (count > 0){
+				DataOutputStream dos = (DataOutputStream) out;
+				dos.writeInt(count);
+				dos.write(buffer, 0, count);
+				count = 0;
+			}
+		}
+	}
+	
+	/** Authenticates the data it writes, and writes the MAC when closed. */
+	private static class MacOutputStream extends FilterOutputStream {
+		private final Mac mac;
+		
+		private MacOutputStream(OutputStream pOutStream, Mac pMac) {
+			super(pOutStream);
+			this.mac = pMac;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			mac.update((byte) b);
+			out.write(b);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			mac.update(b, off, len);
+			out.write(b, off, len);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			out.write(mac.doFinal());
+			out.close();
+		}
+	}
+	
+	/** Gives access to its buffer, so that large payloads aren't copied. */
+	private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+		private byte[] getBuffer() {
+			return buf;
+		}
+	}
+	
+	/** Reads length-prefixed chunks, up to the zero length. */
+	private static class ChunkedInputStream extends InputStream {
+		private final DataInputStream in;
+		private int remaining = 0;
+		private boolean isEnded = false;
+		
+		private ChunkedInputStream(DataInputStream pInStream) {
+			this.in = pInStream;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0){
+				return 0;
+			}
+			while ((remaining == 0) && ! isEnded){
+				remaining = in.readInt();
+				if (remaining < 0){
+					throw new IOException("Invalid chunk length: " + remaining);
+				}
+				isEnded = (remaining == 0);
+			}
+			if (isEnded){
+				return -1;
+			}
+			int n = in.read(b, off, Math.min(len, remaining));
+			if (n == -1){
+				throw new EOFException("Truncated sealed frame");
+			}
+			remaining -= n;
+			return n;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return Math.min(remaining, in.available());
+		}
+		
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,700 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+
+/**
+ * An encrypted, append-only store of objects by key, in segment files.
+ * <p>Unlike {@link DesObjectBus#write(String, Object, SecretKey)}, which ciphers
+ * one object per file, each record is sealed on its own, with its own nonce: 
+ * a record is read and deciphered without touching its neighbours. Records are 
+ * appended to the last segment, a new one being started beyond the segment size.
+ * The latest record of a key replaces the former ones, removals append tombstones.
+ * <p>The segment layout is:
+ * <pre>
+ *   byte[4] magic       // MAGIC
+ *   byte    flags       // FLAG_COMPACTED
+ *   byte    suite       // CipherSuite identifier
+ *   byte[8] fingerprint // of the store key
+ *   { int length; byte flags; UTF key; byte[] nonce; byte[] ciphertext; }*
+ * </pre>
+ * The record header, along with its segment and offset, is authenticated with 
+ * the ciphertext: records can't be altered or moved. Keys are authenticated, 
+ * not ciphered. The index of the keys is rebuilt in memory when the store is 
+ * opened, from the records that authenticate: neither records nor tombstones
+ * can be forged. A record partially written by a crash at the end of the last 
+ * segment is discarded then, any other corruption fails the opening.
+ * <p>{@link #compact(SecretKey)} copies the live records to a new segment, 
+ * sealed under a new key when keys rotate, and deletes the former segments. 
+ * A compacted segment is only renamed once complete: if a crash occurs before 
+ * the former segments are deleted, they're deleted when the store is reopened.
+ * <p>Only authenticated suites are supported.
+ */
+public class SealedStore {
+	
+	/** First bytes of a segment. */
+	public static final byte[] MAGIC = { 'H', 'S', 'S', 1 };
+	/** Default size beyond which a new segment is started, in bytes. */
+	public static final long DEFAULT_SEGMENT_SIZE = 1L << 26;
+	
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int FLAG_COMPACTED = 0x01;
+	private static final int FLAG_REMOVED = 0x01;
+	private static final int FINGERPRINT_LENGTH = 8;
+	private static final int HEADER_LENGTH = MAGIC.length + 2 + FINGERPRINT_LENGTH;
+	private static final byte[] FINGERPRINT_LABEL = "hobes-sealed-store".getBytes(StandardCharsets.US_ASCII);
+	
+	private final File dir;
+	private final long segmentSize;
+	private SecretKey key;
+	private CipherSuite suite;
+	private byte[] fingerprint;
+	private TreeMap<Integer,Segment> segments = new TreeMap<Integer,Segment>();
+	private HashMap<String,Location> index = new HashMap<String,Location>();
+	private long liveBytes = 0;
+	private long totalBytes = 0;
+	
+	/**
+	 * Opens a store with the default segment size, creating it if need be.
+	 * 
+	 * @param pDir The store directory.
+	 * @param pKey The store key, of an authenticated suite.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a segment is corrupted.
+	 * @throws HobesSecurityException When the store is sealed under another key.
+	 */
+	public SealedStore(File pDir, SecretKey pKey) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		this(pDir, pKey, DEFAULT_SEGMENT_SIZE);
+	}
+	
+	/**
+	 * Opens a store, creating it if need be.
+	 * 
+	 * @param pDir The store directory.
+	 * @param pKey The store key, of an authenticated suite.
+	 * @param pSegmentSize The size beyond which a new segment is started, in bytes.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a segment is corrupted.
+	 * @throws HobesSecurityException When the store is sealed under another key.
+	 */
+	public SealedStore(File pDir, SecretKey pKey, long pSegmentSize) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		this.dir = pDir;
+		this.segmentSize = pSegmentSize;
+		this.key = pKey;
+		this.suite = getAuthenticatedSuite(pKey);
+		if (! pDir.isDirectory() && ! pDir.mkdirs()){
+			throw new HobesTransportException("Can't create " + pDir.getPath());
+		}
+		File[] files = pDir.listFiles();
+		int compacted = 0;
+		for (File file : files){
+			if (file.getName().endsWith(TEMP_SUFFIX)){
+				// compaction interrupted before completion
+				file.delete();
+			}
+			else if (file.getName().endsWith(SEGMENT_SUFFIX)){
+				Segment segment = Segment.open(file, getNumber(file));
+				this.segments.put(segment.number, segment);
+				if (segment.isCompacted){
+					compacted = Math.max(compacted, segment.number);
+				}
+			}
+		}
+		// segments preceding the last compacted one were compacted into it
+		while (! this.segments.isEmpty() && (this.segments.firstKey() < compacted)){
+			this.segments.pollFirstEntry().getValue().delete();
+		}
+		this.fingerprint = getFingerprint(pKey);
+		for (Segment segment : this.segments.values()){
+			if (! Arrays.equals(this.fingerprint, segment.fingerprint) || (segment.suiteId != this.suite.getId())){
+				close();
+				throw new HobesSecurityException("Store sealed under another key: " + segment.file.getPath());
+			}
+			try {
+				scan(segment, segment.number == this.segments.lastKey());
+			}
+			catch (HobesDataException e) {
+				close();
+				throw e;
+			}
+		}
+		if (this.segments.isEmpty()){
+			Segment segment = Segment.create(getSegmentFile(1, false), 1, false, this.suite, this.fingerprint);
+			this.segments.put(segment.number, segment);
+		}
+	}
+	
+	private static CipherSuite getAuthenticatedSuite(SecretKey pKey) throws HobesSecurityException {
+		CipherSuite suite = CipherSuite.getInstance(pKey);
+		if (! suite.isAuthenticated()){
+			throw new HobesSecurityException("Sealed stores need an authenticated suite: " + suite);
+		}
+		return suite;
+	}
+	
+	private static int getNumber(File pFile) throws HobesDataException {
+		String name = pFile.getName();
+		try {
+			return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+		}
+		catch (NumberFormatException e) {
+			throw new HobesDataException("Not a segment: " + pFile.getPath(), e);
+		}
+	}
+	
+	private File getSegmentFile(int pNumber, boolean pTempFlag) {
+		return new File(this.dir, String.format("%08d", pNumber) + SEGMENT_SUFFIX 
+				+ (pTempFlag ? TEMP_SUFFIX : ""));
+	}
+	
+	private static byte[] getFingerprint(SecretKey pKey) throws HobesSecurityException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(FINGERPRINT_LABEL);
+			return Arrays.copyOf(digest.digest(pKey.getEncoded()), FINGERPRINT_LENGTH);
+		}
+		catch (GeneralSecurityException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	/** 
+	 * Indexes the records of a segment once authenticated. A trailing partial record
+	 * of the last segment, left by a crash, is discarded.
+	 */
+	private void scan(Segment pSegment, boolean pLastFlag) 
+			throws HobesTransportException, HobesDataException {
+		try {
+			long size = pSegment.channel.size();
+			long position = HEADER_LENGTH;
+			ByteBuffer head = ByteBuffer.allocate(7);
+			while (position < size){
+				String error = null;
+				int length = 0;
+				if (position + head.capacity() > size){
+					error = "Truncated record";
+				}
+				else {
+					head.clear();
+					readFully(pSegment.channel, head, position);
+					length = head.getInt(0);
+					int keyLength = head.getShort(5) & 0xFFFF;
+					if ((length < 3 + keyLength + this.suite.getNonceLength()) 
+							|| (position + 4 + length > size)){
+						error = "Invalid record length: " + length;
+					}
+				}
+				if (error == null){
+					Location location = new Location(pSegment, position, length);
+					byte[] record = read(location);
+					String recordKey = new DataInputStream(new ByteArrayInputStream(record, 1, 
+							record.length - 1)).readUTF();
+					try {
+						open(location, record, recordKey, this.key);
+					}
+					catch (HobesSecurityException e) {
+						error = "Record fails authentication: " + recordKey;
+					}
+					if (error == null){
+						if ((record[0] & FLAG_REMOVED) != 0){
+							unindex(recordKey);
+						}
+						else {
+							index(recordKey, location);
+						}
+						this.totalBytes += 4 + length;
+						position += 4 + length;
+						continue;
+					}
+				}
+				// only the last record of the last segment may be torn by a crash
+				if (! pLastFlag || ((length > 0) && (position + 4 + length < size))){
+					throw new HobesDataException("Corrupted segment " + pSegment.file.getPath() 
+							+ " at " + position + ": " + error);
+				}
+				pSegment.channel.truncate(position);
+				break;
+			}
+			pSegment.end = position;
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(pSegment.file.getPath(), e);
+		}
+	}
+	
+	private void index(String pKey, Location pLocation) {
+		Location former = this.index.put(pKey, pLocation);
+		if (former != null){
+			this.liveBytes -= 4 + former.length;
+		}
+		this.liveBytes += 4 + pLocation.length;
+	}
+	
+	private void unindex(String pKey) {
+		Location former = this.index.remove(pKey);
+		if (former != null){
+			this.liveBytes -= 4 + former.length;
+		}
+	}
+	
+	/**
+	 * Seals and appends an object, replacing any former object of the same key.
+	 * <p>Records are written, not forced to disk, see {@link #sync()}.
+	 * 
+	 * @param pKey The object key, at most 65535 bytes in modified UTF-8.
+	 * @param pData A serializable object.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public synchronized void put(String pKey, Object pData) 
+			throws HobesTransportException, HobesSecurityException {
+		byte[] plain = ObjectBus.toBytes(pData);
+		Segment segment = getWritableSegment();
+		index(pKey, append(segment, 0, pKey, plain, this.key, this.suite));
+	}
+	
+	/**
+	 * Removes an object, appending a tombstone.
+	 * 
+	 * @param pKey The object key.
+	 * 
+	 * @return Whether the store held an object for the key.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public synchronized boolean remove(String pKey) 
+			throws HobesTransportException, HobesSecurityException {
+		if (! this.index.containsKey(pKey)){
+			return false;
+		}
+		Segment segment = getWritableSegment();
+		// tombstones are sealed too, so that they can't be forged
+		append(segment, FLAG_REMOVED, pKey, new byte[0], this.key, this.suite);
+		unindex(pKey);
+		return true;
+	}
+	
+	/**
+	 * Reads and deciphers one object, without reading any other record.
+	 * 
+	 * @param pKey The object key.
+	 * 
+	 * @return The object, or <code>null</code> if the store holds none for the key.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a marshaling error occurs.
+	 * @throws HobesSecurityException When the record fails authentication.
+	 */
+	public Object get(String pKey) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		Location location;
+		byte[] record;
+		SecretKey recordKey;
+		synchronized (this) {
+			location = this.index.get(pKey);
+			if (location == null){
+				return null;
+			}
+			record = read(location);
+			recordKey = this.key;
+		}
+		// deciphered outside the lock, so that reads run concurrently
+		return ObjectBus.fromBytes(open(location, record, pKey, recordKey));
+	}
+	
+	/**
+	 * Answers whether the store holds an object for a key.
+	 * 
+	 * @param pKey The object key.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized boolean containsKey(String pKey) {
+		return this.index.containsKey(pKey);
+	}
+	
+	/**
+	 * Answers the keys of the objects of the store.
+	 * 
+	 * @return A copy of the keys.
+	 */
+	public synchronized Set<String> keySet() {
+		return new HashSet<String>(this.index.keySet());
+	}
+	
+	/**
+	 * Answers the number of objects of the store.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized int size() {
+		return this.index.size();
+	}
+	
+	/**
+	 * Answers the number of segments of the store.
+	 * 
+	 * @return That's it.
+	 */
+	public synchronized int getSegmentCount() {
+		return this.segments.size();
+	}
+	
+	/**
+	 * Answers the size of the live records, the latest of each key.
+	 * 
+	 * @return That's it, in bytes.
+	 */
+	public synchronized long getLiveBytes() {
+		return this.liveBytes;
+	}
+	
+	/**
+	 * Answers the size of all the records, including replaced ones and tombstones,
+	 * which {@link #compact(SecretKey)} reclaims.
+	 * 
+	 * @return That's it, in bytes.
+	 */
+	public synchronized long getTotalBytes() {
+		return this.totalBytes;
+	}
+	
+	/**
+	 * Copies the live records to a new segment, sealed under a new key, then deletes 
+	 * the former segments. The new key replaces the store key.
+	 * 
+	 * @param pNewKey The new store key, of an authenticated suite, or the store key 
+	 * to only reclaim space.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException When a record fails authentication.
+	 */
+	public synchronized void compact(SecretKey pNewKey) 
+			throws HobesTransportException, HobesSecurityException {
+		CipherSuite newSuite = getAuthenticatedSuite(pNewKey);
+		byte[] newFingerprint = getFingerprint(pNewKey);
+		int number = this.segments.lastKey() + 1;
+		Segment target = Segment.create(getSegmentFile(number, true), number, true, 
+				newSuite, newFingerprint);
+		HashMap<String,Location> newIndex = new HashMap<String,Location>();
+		try {
+			for (Map.Entry<String,Location> entry : this.index.entrySet()){
+				byte[] plain = open(entry.getValue(), read(entry.getValue()), entry.getKey(), this.key);
+				newIndex.put(entry.getKey(), append(target, 0, entry.getKey(), plain, pNewKey, newSuite));
+			}
+			target.channel.force(true);
+			File file = getSegmentFile(number, false);
+			Files.move(target.file.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			target.file = file;
+		}
+		catch (IOException e) {
+			target.delete();
+			throw new HobesTransportException(target.file.getPath(), e);
+		}
+		catch (HobesException e) {
+			target.delete();
+			throw e;
+		}
+		for (Segment segment : this.segments.values()){
+			segment.delete();
+		}
+		this.segments = new TreeMap<Integer,Segment>();
+		this.segments.put(number, target);
+		this.index = newIndex;
+		this.key = pNewKey;
+		this.suite = newSuite;
+		this.fingerprint = newFingerprint;
+		this.liveBytes = target.end - HEADER_LENGTH;
+		this.totalBytes = this.liveBytes;
+	}
+	
+	/**
+	 * Forces the records written so far to disk.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	public synchronized void sync() throws HobesTransportException {
+		Segment segment = this.segments.lastEntry().getValue();
+		try {
+			segment.channel.force(false);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(segment.file.getPath(), e);
+		}
+	}
+	
+	/**
+	 * Forces the records to disk, and closes the segments.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	public synchronized void close() throws HobesTransportException {
+		if (! this.segments.isEmpty()){
+			sync();
+		}
+		for (Segment segment : this.segments.values()){
+			segment.close();
+		}
+	}
+	
+	private Segment getWritableSegment() throws HobesTransportException {
+		Segment segment = this.segments.lastEntry().getValue();
+		if (segment.end < this.segmentSize){
+			return segment;
+		}
+		// former segments stay open, for their records are still read
+		int number = segment.number + 1;
+		segment = Segment.create(getSegmentFile(number, false), number, false, this.suite, this.fingerprint);
+		this.segments.put(number, segment);
+		return segment;
+	}
+	
+	private Location append(Segment pSegment, int pFlags, String pKey, byte[] pPlain, 
+			SecretKey pSecret, CipherSuite pSuite) throws HobesTransportException, HobesSecurityException {
+		long position = pSegment.end;
+		byte[] head = createHead(pFlags, pKey);
+		byte[] nonce = pSuite.createNonce();
+		byte[] ciphertext;
+		Cipher cipher = pSuite.acquireCipher(Cipher.ENCRYPT_MODE, pSecret, nonce);
+		boolean isReusable = false;
+		try {
+			cipher.updateAAD(createAad(pSegment.number, position, head));
+			ciphertext = cipher.doFinal(pPlain);
+			isReusable = true;
+		}
+		catch (GeneralSecurityException e) {
+			throw new HobesSecurityException(e);
+		}
+		finally {
+			CipherCache.releaseCipher(cipher, isReusable);
+		}
+		int length = head.length + nonce.length + ciphertext.length;
+		ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+		buffer.putInt(length).put(head).put(nonce).put(ciphertext).flip();
+		try {
+			long next = position;
+			while (buffer.hasRemaining()){
+				next += pSegment.channel.write(buffer, next);
+			}
+			pSegment.end = next;
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(pSegment.file.getPath(), e);
+		}
+		this.totalBytes += 4 + length;
+		return new Location(pSegment, position, length);
+	}
+	
+	private static byte[] createHead(int pFlags, String pKey) throws HobesTransportException {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream dos = new DataOutputStream(bos);
+			dos.writeByte(pFlags);
+			dos.writeUTF(pKey);
+			return bos.toByteArray();
+		}
+		catch (IOException e) {
+			// keys longer than 65535 bytes
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	private static byte[] createAad(int pSegment, long pPosition, byte[] pHead) {
+		return ByteBuffer.allocate(12 + pHead.length).putInt(pSegment).putLong(pPosition).put(pHead).array();
+	}
+	
+	private static byte[] read(Location pLocation) throws HobesTransportException {
+		ByteBuffer buffer = ByteBuffer.allocate(pLocation.length);
+		try {
+			readFully(pLocation.segment.channel, buffer, pLocation.position + 4);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(pLocation.segment.file.getPath(), e);
+		}
+		return buffer.array();
+	}
+	
+	private static void readFully(FileChannel pChannel, ByteBuffer pBuffer, long pPosition) throws IOException {
+		long position = pPosition;
+		while (pBuffer.hasRemaining()){
+			int count = pChannel.read(pBuffer, position);
+			if (count == -1){
+				throw new IOException("Truncated segment");
+			}
+			position += count;
+		}
+	}
+	
+	private byte[] open(Location pLocation, byte[] pRecord, String pKey, SecretKey pSecret) 
+			throws HobesSecurityException {
+		CipherSuite suite = CipherSuite.getInstance(pSecret);
+		int headLength = 3 + (((pRecord[1] & 0xFF) << 8) | (pRecord[2] & 0xFF));
+		int nonceLength = suite.getNonceLength();
+		if (pRecord.length < headLength + nonceLength){
+			throw new HobesSecurityException("Corrupted record: " + pKey);
+		}
+		byte[] head = Arrays.copyOf(pRecord, headLength);
+		byte[] nonce = Arrays.copyOfRange(pRecord, headLength, headLength + nonceLength);
+		Cipher cipher = suite.acquireCipher(Cipher.DECRYPT_MODE, pSecret, nonce);
+		boolean isReusable = false;
+		try {
+			cipher.updateAAD(createAad(pLocation.segment.number, pLocation.position, head));
+			byte[] plain = cipher.doFinal(pRecord, headLength + nonceLength, 
+					pRecord.length - headLength - nonceLength);
+			isReusable = true;
+			return plain;
+		}
+		catch (GeneralSecurityException e) {
+			throw new HobesSecurityException(e);
+		}
+		finally {
+			CipherCache.releaseCipher(cipher, isReusable);
+		}
+	}
+	
+	/** Where the latest record of a key is. */
+	private static class Location {
+		private final Segment segment;
+		private final long position;
+		private final int length;
+		
+		private Location(Segment pSegment, long pPosition, int pLength) {
+			this.segment = pSegment;
+			this.position = pPosition;
+			this.length = pLength;
+		}
+	}
+	
+	/** One segment file. */
+	private static class Segment {
+		private final int number;
+		private final boolean isCompacted;
+		private final int suiteId;
+		private final byte[] fingerprint;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private File file;
+		private long end = HEADER_LENGTH;
+		
+		private Segment(File pFile, int pNumber, boolean pCompactedFlag, int pSuiteId, 
+				byte[] pFingerprint, RandomAccessFile pRaf) {
+			this.file = pFile;
+			this.number = pNumber;
+			this.isCompacted = pCompactedFlag;
+			this.suiteId = pSuiteId;
+			this.fingerprint = pFingerprint;
+			this.raf = pRaf;
+			this.channel = pRaf.getChannel();
+		}
+		
+		private static Segment create(File pFile, int pNumber, boolean pCompactedFlag, 
+				CipherSuite pSuite, byte[] pFingerprint) throws HobesTransportException {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(pFile, "rw");
+				raf.setLength(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+				header.put(MAGIC).put((byte) (pCompactedFlag ? FLAG_COMPACTED : 0))
+						.put((byte) pSuite.getId()).put(pFingerprint).flip();
+				Segment segment = new Segment(pFile, pNumber, pCompactedFlag, pSuite.getId(), pFingerprint, raf);
+				while (header.hasRemaining()){
+					segment.channel.write(header);
+				}
+				return segment;
+			}
+			catch (IOException e) {
+				throw new HobesTransportException(pFile.getPath(), e);
+			}
+		}
+		
+		private static Segment open(File pFile, int pNumber) 
+				throws HobesTransportException, HobesDataException {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(pFile, "rw");
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+				if (raf.length() >= HEADER_LENGTH){
+					readFully(raf.getChannel(), header, 0);
+				}
+				byte[] magic = new byte[MAGIC.length];
+				header.get(0, magic);
+				if (! Arrays.equals(magic, MAGIC)){
+					raf.close();
+					throw new HobesDataException("Not a segment: " + pFile.getPath());
+				}
+				byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+				header.get(MAGIC.length + 2, fingerprint);
+				return new Segment(pFile, pNumber, (header.get(MAGIC.length) & FLAG_COMPACTED) != 0, 
+						header.get(MAGIC.length + 1) & 0xFF, fingerprint, raf);
+			}
+			catch (IOException e) {
+				throw new HobesTransportException(pFile.getPath(), e);
+			}
+		}
+		
+		private void close() throws HobesTransportException {
+			try {
+				this.raf.close();
+			}
+			catch (IOException e) {
+				throw new HobesTransportException(this.file.getPath(), e);
+			}
+		}
+		
+		private void delete() throws HobesTransportException {
+			close();
+			if (! this.file.delete()){
+				throw new HobesTransportException("Can't delete " + this.file.getPath());
+			}
+		}
+	}
+}
@@ -23,25 +23,31 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.math.BigInteger;
 import java.security.AlgorithmParameterGenerator;
 import java.security.AlgorithmParameters;
 import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.XECPrivateKey;
+import java.security.interfaces.XECPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.InvalidParameterSpecException;
+import java.security.spec.NamedParameterSpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.security.spec.XECPrivateKeySpec;
+import java.security.spec.XECPublicKeySpec;
+import java.util.Optional;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.interfaces.DHPrivateKey;
 import javax.crypto.interfaces.DHPublicKey;
-import javax.crypto.spec.DESKeySpec;
 import javax.crypto.spec.DHParameterSpec;
 
 import org.marl.hobes.HobesDataException;
@@ -165,6 +171,19 @@ public class SecretFactory {
 		}
 	}
 	
+	/** 
+	 * Generate a symmetric key for a cipher suite.
+	 * 
+	 * @param pSuite One of the {@link CipherSuite} identifiers.
+	 * 
+	 * @return The new secret.
+	 * 
+	 * @throws HobesSecurityException When the suite is unknown or unavailable.
+	 */
+	public static SecretKey createSecretKey(int pSuite) throws HobesSecurityException {
+		return CipherSuite.getInstance(pSuite).createKey();
+	}
+	
 	/**
 	 * Writes a DES symmetric key to a stream.
 	 * 
@@ -209,6 +228,7 @@ public class SecretFactory {
 
 	/** 
 	 * Creates a DES symmetric key from a byte-encoded form.
+	 * <p>Encoded forms of AES keys, 16 or 32 bytes long, create AES keys.
 	 * 
 	 * @param bytes The byte-encoded key.
 	 * 
@@ -217,20 +237,12 @@ public class SecretFactory {
 	 * @throws HobesSecurityException When a cryptography error occurs.
 	 */
 	public static SecretKey createSecretKey(byte[] bytes) throws HobesSecurityException {
-		
-		try {
-			return SecretKeyFactory.getInstance(ENCRYPTION_ALGORITHM)
-					.generateSecret(new DESKeySpec(bytes));
-		}
-		catch (InvalidKeySpecException e) {
-			throw new HobesSecurityException(e);
-		}
-		catch (NoSuchAlgorithmException e) {
-			throw new HobesSecurityException(e);
-		}
-		catch (InvalidKeyException e) {
-			throw new HobesSecurityException(e);
+		for (int suite = CipherSuite.AES_128_GCM; suite <= CipherSuite.AES_256_GCM; suite++){
+			if (bytes.length == CipherSuite.getInstance(suite).getKeyLength()){
+				return CipherSuite.getInstance(suite).createKey(bytes);
+			}
 		}
+		return CipherSuite.getInstance(CipherSuite.DES).createKey(bytes);
 	}
 
 	/** 
@@ -289,13 +301,25 @@ public class SecretFactory {
 	 */
 	public static DHPublicKey createPublicKey(byte[] pEncodedKey)
 			throws HobesSecurityException{
+		return (DHPublicKey) createPublicKey(KEY_AGREEMENT_ALGORITHM, pEncodedKey);
+	}
+
+	/**
+	 * Creates a public key of some key agreement algorithm from a (X509) byte-encoded form.
+	 * 
+	 * @param pAlgorithm {@link #KEY_AGREEMENT_ALGORITHM} or {@link #XDH_KEY_AGREEMENT_ALGORITHM}.
+	 * @param pEncodedKey The key byte-encoded form.
+	 * 
+	 * @return The created public key.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static PublicKey createPublicKey(String pAlgorithm, byte[] pEncodedKey)
+			throws HobesSecurityException{
 		try{
-			KeyFactory keyFactory = KeyFactory.getInstance(KEY_AGREEMENT_ALGORITHM);
+			KeyFactory keyFactory = CipherCache.getKeyFactory(pAlgorithm);
 			X509EncodedKeySpec x509KeySpec = new X509EncodedKeySpec(pEncodedKey);
-			return (DHPublicKey) keyFactory.generatePublic(x509KeySpec);
-		} 
-		catch (NoSuchAlgorithmException e) {
-			throw new HobesSecurityException(e);
+			return keyFactory.generatePublic(x509KeySpec);
 		} 
 		catch (InvalidKeySpecException e) {
 			throw new HobesSecurityException(e);
@@ -313,13 +337,25 @@ public class SecretFactory {
 	 */
 	public static DHPrivateKey createPrivateKey(byte[] pEncodedKey)
 			throws HobesSecurityException{
+		return (DHPrivateKey) createPrivateKey(KEY_AGREEMENT_ALGORITHM, pEncodedKey);
+	}
+
+	/**
+	 * Creates a private key of some key agreement algorithm from a (PKCS8) byte-encoded form.
+	 * 
+	 * @param pAlgorithm {@link #KEY_AGREEMENT_ALGORITHM} or {@link #XDH_KEY_AGREEMENT_ALGORITHM}.
+	 * @param pEncodedKey The key byte-encoded form.
+	 * 
+	 * @return The created private key.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static PrivateKey createPrivateKey(String pAlgorithm, byte[] pEncodedKey)
+			throws HobesSecurityException{
 		try{
-			KeyFactory keyFactory = KeyFactory.getInstance(KEY_AGREEMENT_ALGORITHM);
+			KeyFactory keyFactory = CipherCache.getKeyFactory(pAlgorithm);
 			PKCS8EncodedKeySpec pkcs8KeySpec = new PKCS8EncodedKeySpec(pEncodedKey);
-			return (DHPrivateKey) keyFactory.generatePrivate(pkcs8KeySpec);
-		} 
-		catch (NoSuchAlgorithmException e) {
-			throw new HobesSecurityException(e);
+			return keyFactory.generatePrivate(pkcs8KeySpec);
 		} 
 		catch (InvalidKeySpecException e) {
 			throw new HobesSecurityException(e);
@@ -398,10 +434,165 @@ public class SecretFactory {
 		} 
 	}
 	
+	/**
+	 * Creates X25519 files suitable for trusted communication.
+	 * <p>Unlike Diffie-Hellman ones, these files are not serialized Java objects: 
+	 * the <code>.PV</code> file contains the raw 32 bytes public key (the 
+	 * little-endian u-coordinate), and the <code>.x</code> file the raw 32 bytes 
+	 * private scalar, as specified by RFC 7748. 
+	 * 
+	 * @param prefix The generated files will be <code>prefix.PV</code>
+	 * and <code>prefix.x</code>.
+	 * 
+	 * @return The generated public and private keys.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesSecurityException when a cryptography error occurs.
+	 */
+	public static KeyPair createXdhPVx(String prefix) 
+			throws HobesTransportException, HobesSecurityException{
+		
+		KeyPair keys = CipherCache.getKeyPairGenerator(XDH_KEY_AGREEMENT_ALGORITHM, 
+				NamedParameterSpec.X25519).generateKeyPair();
+		writeXdhKey(prefix+".PV", encodeXdhPublicKey(keys.getPublic()));
+		writeXdhKey(prefix+".x", encodeXdhPrivateKey(keys.getPrivate()));
+		return keys;
+	}
+	
+	/**
+	 * Creates a X25519 public key from its raw RFC 7748 form.
+	 * 
+	 * @param pRawKey The 32 bytes little-endian u-coordinate.
+	 * 
+	 * @return The created public key.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static PublicKey createXdhPublicKey(byte[] pRawKey) throws HobesSecurityException {
+		if (pRawKey.length != XDH_KEY_LENGTH){
+			throw new HobesSecurityException("Invalid X25519 key length: "+pRawKey.length);
+		}
+		byte[] bigEndian = new byte[XDH_KEY_LENGTH];
+		for (int i = 0; i < XDH_KEY_LENGTH; i++){
+			bigEndian[i] = pRawKey[XDH_KEY_LENGTH - 1 - i];
+		}
+		try{
+			KeyFactory keyFactory = CipherCache.getKeyFactory(XDH_KEY_AGREEMENT_ALGORITHM);
+			return keyFactory.generatePublic(
+					new XECPublicKeySpec(NamedParameterSpec.X25519, new BigInteger(1, bigEndian)));
+		} 
+		catch (InvalidKeySpecException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	/**
+	 * Creates a X25519 private key from its raw RFC 7748 form.
+	 * 
+	 * @param pRawKey The 32 bytes private scalar.
+	 * 
+	 * @return The created private key.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public static PrivateKey createXdhPrivateKey(byte[] pRawKey) throws HobesSecurityException {
+		if (pRawKey.length != XDH_KEY_LENGTH){
+			throw new HobesSecurityException("Invalid X25519 key length: "+pRawKey.length);
+		}
+		try{
+			KeyFactory keyFactory = CipherCache.getKeyFactory(XDH_KEY_AGREEMENT_ALGORITHM);
+			return keyFactory.generatePrivate(
+					new XECPrivateKeySpec(NamedParameterSpec.X25519, pRawKey));
+		} 
+		catch (InvalidKeySpecException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	/**
+	 * Answers the raw RFC 7748 form of a X25519 public key.
+	 * 
+	 * @param pKey The public key.
+	 * 
+	 * @return The 32 bytes little-endian u-coordinate.
+	 */
+	public static byte[] encodeXdhPublicKey(PublicKey pKey) {
+		byte[] bigEndian = ((XECPublicKey) pKey).getU().toByteArray();
+		byte[] raw = new byte[XDH_KEY_LENGTH];
+		// toByteArray() may add a sign byte, or omit leading zeros
+		for (int i = 0; i < XDH_KEY_LENGTH && i < bigEndian.length; i++){
+			raw[i] = bigEndian[bigEndian.length - 1 - i];
+		}
+		return raw;
+	}
+	
+	/**
+	 * Answers the raw RFC 7748 form of a X25519 private key.
+	 * 
+	 * @param pKey The private key.
+	 * 
+	 * @return The 32 bytes private scalar.
+	 * 
+	 * @throws HobesSecurityException When the key does not reveal its scalar.
+	 */
+	public static byte[] encodeXdhPrivateKey(PrivateKey pKey) throws HobesSecurityException {
+		Optional<byte[]> scalar = ((XECPrivateKey) pKey).getScalar();
+		if (! scalar.isPresent()){
+			throw new HobesSecurityException("X25519 private scalar unavailable");
+		}
+		return scalar.get();
+	}
+	
+	/**
+	 * Reads a raw X25519 key, as written by {@link #createXdhPVx(String)}.
+	 * 
+	 * @param pInStream The stream to read the key from. 
+	 * 
+	 * @return The 32 bytes raw key.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When the stream does not contain a X25519 key.
+	 */
+	public static byte[] readXdhKey(InputStream pInStream) 
+			throws HobesTransportException, HobesDataException {
+		try{
+			byte[] raw = pInStream.readNBytes(XDH_KEY_LENGTH + 1);
+			if (raw.length != XDH_KEY_LENGTH){
+				throw new HobesDataException("Invalid X25519 key length: "+raw.length);
+			}
+			return raw;
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+	}
+	
+	private static void writeXdhKey(String pPath, byte[] pRawKey) throws HobesTransportException {
+		try{
+			FileOutputStream fos = new FileOutputStream(pPath);
+			fos.write(pRawKey);
+			fos.close();
+		}
+		catch (FileNotFoundException e) {
+			throw new HobesTransportException(pPath, e);
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(e);
+		}
+	}
+	
 	/** Diffie-Hellman key agreement algorithm.
 	 */
 	public static final String KEY_AGREEMENT_ALGORITHM = "DH";
 	
+	/** X25519 elliptic-curve Diffie-Hellman key agreement algorithm (RFC 7748).
+	 */
+	public static final String XDH_KEY_AGREEMENT_ALGORITHM = "X25519";
+	
+	/** Length in bytes of raw X25519 public and private keys.
+	 */
+	public static final int XDH_KEY_LENGTH = 32;
+	
 	/** DES (56 bits) encryption.
 	 */
 	public static final String ENCRYPTION_ALGORITHM = "DES";
@@ -18,9 +18,8 @@ along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
 package org.marl.hobes.secrets;
 
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Arrays;
+import java.security.PrivateKey;
+import java.security.PublicKey;
 
 import javax.crypto.SecretKey;
 import javax.crypto.interfaces.DHPrivateKey;
@@ -31,7 +30,6 @@ import org.marl.hobes.HobesDataException;
 import org.marl.hobes.HobesException;
 import org.marl.hobes.HobesSecurityException;
 import org.marl.hobes.HobesTransportException;
-import org.marl.hobes.ObjectBus;
 
 /** Tools to generate and store DES symmetric keys and Diffie-Hellman parameters.
  * 
@@ -67,7 +65,8 @@ public class SecretManager {
 	 * Answers the Diffie-Hellman public value (PV) that is trusted on this site.
 	 * <p>The X509 encoded form of this key is deserialized from the resource
 	 * <code>org/marl/hobes/secrets/bob.PV</code>. This resource should be available
-	 * at both ends of the channel.
+	 * at both ends of the channel. It is decoded once, and then served by the
+	 * {@link TrustedKeyRegistry#getDefault() default registry}.
 	 * 
 	 * @return The public key to use to initialize a Diffie-Hellman protocol.
 	 * @throws HobesDataException 
@@ -76,17 +75,7 @@ public class SecretManager {
 	 */
 	public static DHPublicKey getTrustedPublicValue() 
 			throws HobesTransportException, HobesDataException, HobesSecurityException{
-		
-		InputStream is = 
-				SecretFactory.class.getClassLoader().getResourceAsStream("org/marl/hobes/secrets/bob.PV");
-		byte[] encodedKey = (byte[]) ObjectBus.read(is);
-		try{
-			is.close();
-		}
-		catch(IOException e){
-			throw new HobesSecurityException(e);
-		}
-		return SecretFactory.createPublicKey(encodedKey);
+		return (DHPublicKey) getTrustedPublicValue(SecretFactory.KEY_AGREEMENT_ALGORITHM);
 	}
 	
 	/**
@@ -98,7 +87,7 @@ public class SecretManager {
 	 */
 	public static boolean isTrustedPublicValue(byte[] pEncodedPV)
 			throws HobesTransportException, HobesDataException, HobesSecurityException{
-		return Arrays.equals(getTrustedPublicValue().getEncoded(), pEncodedPV);
+		return isTrustedPublicValue(SecretFactory.KEY_AGREEMENT_ALGORITHM, pEncodedPV);
 	}
 	
 	/**
@@ -115,16 +104,61 @@ public class SecretManager {
 	 */
 	public static DHPrivateKey getTrustedPrivateValue() 
 			throws HobesTransportException, HobesDataException, HobesSecurityException{
-		
-		InputStream is = 
-				SecretFactory.class.getClassLoader().getResourceAsStream("org/marl/hobes/secrets/bob.x");
-		byte[] encodedKey = (byte[]) ObjectBus.read(is);
-		try{
-			is.close();
-		}
-		catch(IOException e){
-			throw new HobesSecurityException(e);
-		}
-		return SecretFactory.createPrivateKey(encodedKey);
+		return (DHPrivateKey) getTrustedPrivateValue(SecretFactory.KEY_AGREEMENT_ALGORITHM);
+	}
+	
+	/**
+	 * Answers the public value (PV) trusted on this site for a key agreement algorithm.
+	 * <p>Diffie-Hellman keys are described at {@link #getTrustedPublicValue()}. The
+	 * raw X25519 key is read from the resource <code>org/marl/hobes/secrets/bob.x25519.PV</code>,
+	 * as written by {@link SecretFactory#createXdhPVx(String)}.
+	 * 
+	 * @param pAlgorithm {@link SecretFactory#KEY_AGREEMENT_ALGORITHM} or 
+	 * {@link SecretFactory#XDH_KEY_AGREEMENT_ALGORITHM}.
+	 * 
+	 * @return The public key to use to initialize the key agreement.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When the resource is missing or corrupted.
+	 * @throws HobesSecurityException When the algorithm is not supported.
+	 */
+	public static PublicKey getTrustedPublicValue(String pAlgorithm) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException{
+		return TrustedKeyRegistry.getDefault().getPublicValue(pAlgorithm);
+	}
+	
+	/**
+	 * @param pAlgorithm The key agreement algorithm.
+	 * @param pEncodedPV A X509 byte-encoded public key.
+	 * 
+	 * @return Whether this key is the trusted public value for the algorithm.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When the resource is missing or corrupted.
+	 * @throws HobesSecurityException When the algorithm is not supported.
+	 */
+	public static boolean isTrustedPublicValue(String pAlgorithm, byte[] pEncodedPV)
+			throws HobesTransportException, HobesDataException, HobesSecurityException{
+		return TrustedKeyRegistry.getDefault().isTrusted(pAlgorithm, pEncodedPV);
+	}
+	
+	/**
+	 * Answers the private value trusted on this site for a key agreement algorithm.
+	 * <p>The raw X25519 private scalar is read from the resource 
+	 * <code>org/marl/hobes/secrets/bob.x25519.x</code>, which should only be 
+	 * available at Bob side of the channel.
+	 * 
+	 * @param pAlgorithm {@link SecretFactory#KEY_AGREEMENT_ALGORITHM} or 
+	 * {@link SecretFactory#XDH_KEY_AGREEMENT_ALGORITHM}.
+	 * 
+	 * @return The private key to use to initialize the key agreement.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When the resource is missing or corrupted.
+	 * @throws HobesSecurityException When the algorithm is not supported.
+	 */
+	public static PrivateKey getTrustedPrivateValue(String pAlgorithm) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException{
+		return TrustedKeyRegistry.getDefault().getPrivateValue(pAlgorithm);
 	}
 }
@@ -0,0 +1,102 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.Serializable;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A PKCS3 channel, as restored from a session ticket.
+ * <p>The ticket itself is opaque to Alice: it holds the channel secret and
+ * profile sealed by Bob {@link TicketKeyRing}, so that any Bob node sharing the
+ * ring can restore the channel without key agreement nor server-side lookup.
+ * Alice keeps the ticket along with its own copy of the secret, and may
+ * serialize both to resume the channel after a restart. 
+ * 
+ * @see HandshakeResume
+ */
+public class SessionTicket implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final String source;
+	private final byte[] ticket;
+	private final SecretKey secret;
+	private final ChannelProfile profile;
+	private final long expiry;
+	
+	/**
+	 * @param pSource The source identifier of the channel.
+	 * @param pTicket The sealed ticket.
+	 * @param pSecret The channel secret.
+	 * @param pProfile The channel profile.
+	 * @param pExpiry The ticket expiry, in milliseconds since the epoch.
+	 */
+	public SessionTicket(String pSource, byte[] pTicket, SecretKey pSecret, 
+			ChannelProfile pProfile, long pExpiry) {
+		this.source = pSource;
+		this.ticket = pTicket;
+		this.secret = pSecret;
+		this.profile = pProfile;
+		this.expiry = pExpiry;
+	}
+
+	/**
+	 * @return The source identifier of the channel.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return The sealed ticket, to present to Bob.
+	 */
+	public byte[] getTicket() {
+		return ticket;
+	}
+
+	/**
+	 * @return The channel secret.
+	 */
+	public SecretKey getSecret() {
+		return secret;
+	}
+
+	/**
+	 * @return The channel profile.
+	 */
+	public ChannelProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return The ticket expiry, in milliseconds since the epoch.
+	 */
+	public long getExpiry() {
+		return expiry;
+	}
+	
+	/**
+	 * @param pNow The current time, in milliseconds since the epoch.
+	 * 
+	 * @return Whether Bob would refuse this ticket by now.
+	 */
+	public boolean isExpired(long pNow) {
+		return pNow >= expiry;
+	}
+}
@@ -0,0 +1,272 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.marl.hobes.HobesSecurityException;
+
+/**
+ * Seals and opens PKCS3 session tickets, under keys rotating every period.
+ * <p>The key of a period is derived from a master secret and the period 
+ * number, hence Bob nodes sharing the master secret, or restarted with it, 
+ * open each other tickets without sharing any state. A ticket is:
+ * <pre>
+ *   version (1 byte) | period (8 bytes) | nonce (12 bytes) | AES-256-GCM sealed body
+ * </pre>
+ * where the body holds the source identifier, the channel secret and profile,
+ * and the ticket expiry, and the version and period are authenticated along.
+ * Keys of periods older than the ticket lifetime are forgotten.
+ * 
+ * @see SessionTicket
+ */
+public class TicketKeyRing implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private static final byte VERSION = 1;
+	private static final int HEADER_LENGTH = 9;
+	private static final byte[] KDF_LABEL = "hobes ticket".getBytes(StandardCharsets.US_ASCII);
+	
+	private final byte[] masterSecret;
+	private final long period;
+	private final long lifetime;
+	private final ConcurrentHashMap<Long,SecretKey> keys = new ConcurrentHashMap<Long,SecretKey>();
+	
+	/**
+	 * Creates a ring with a random master secret: tickets survive Alice
+	 * restarts, but not this ring.
+	 * 
+	 * @param pPeriod The key rotation period, in milliseconds.
+	 * @param pLifetime The ticket lifetime, in milliseconds.
+	 */
+	public TicketKeyRing(long pPeriod, long pLifetime) {
+		this(createMasterSecret(), pPeriod, pLifetime);
+	}
+	
+	/**
+	 * @param pMasterSecret The secret shared by the Bob nodes, 
+	 * e.g. the encoded form of a key file.
+	 * @param pPeriod The key rotation period, in milliseconds.
+	 * @param pLifetime The ticket lifetime, in milliseconds.
+	 */
+	public TicketKeyRing(byte[] pMasterSecret, long pPeriod, long pLifetime) {
+		if ((pPeriod <= 0) || (pLifetime <= 0)){
+			throw new IllegalArgumentException(pPeriod + "/" + pLifetime);
+		}
+		this.masterSecret = pMasterSecret.clone();
+		this.period = pPeriod;
+		this.lifetime = pLifetime;
+	}
+	
+	private static byte[] createMasterSecret() {
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		return secret;
+	}
+
+	/**
+	 * @return The key rotation period, in milliseconds.
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * @return The ticket lifetime, in milliseconds.
+	 */
+	public long getLifetime() {
+		return lifetime;
+	}
+	
+	/**
+	 * Issues a ticket for a channel, under the key of the current period.
+	 * 
+	 * @param pSource The source identifier of the channel.
+	 * @param pSecret The channel secret.
+	 * @param pProfile The channel profile.
+	 * 
+	 * @return The ticket.
+	 * 
+	 * @throws HobesSecurityException When a cryptography error occurs.
+	 */
+	public SessionTicket seal(String pSource, SecretKey pSecret, ChannelProfile pProfile) 
+			throws HobesSecurityException {
+		long now = System.currentTimeMillis();
+		long expiry = now + this.lifetime;
+		long number = now / this.period;
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+			DataOutputStream dos = new DataOutputStream(bos);
+			dos.writeByte(VERSION);
+			dos.writeLong(number);
+			byte[] header = bos.toByteArray();
+			
+			bos.reset();
+			dos.writeUTF(pSource);
+			dos.writeLong(expiry);
+			dos.writeByte(pProfile.getSuite());
+			dos.writeByte(pProfile.getCodec());
+			dos.writeByte(pProfile.getFraming());
+			byte[] encodedSecret = pSecret.getEncoded();
+			dos.writeShort(encodedSecret.length);
+			dos.write(encodedSecret);
+			byte[] body = bos.toByteArray();
+			Arrays.fill(encodedSecret, (byte) 0);
+			
+			CipherSuite suite = CipherSuite.getInstance(CipherSuite.AES_256_GCM);
+			byte[] nonce = suite.createNonce();
+			Cipher cipher = suite.acquireCipher(Cipher.ENCRYPT_MODE, getKey(number), nonce);
+			boolean isReusable = false;
+			try {
+				cipher.updateAAD(header);
+				byte[] sealed = cipher.doFinal(body);
+				isReusable = true;
+				
+				byte[] ticket = new byte[HEADER_LENGTH + nonce.length + sealed.length];
+				System.arraycopy(header, 0, ticket, 0, HEADER_LENGTH);
+				System.arraycopy(nonce, 0, ticket, HEADER_LENGTH, nonce.length);
+				System.arraycopy(sealed, 0, ticket, HEADER_LENGTH + nonce.length, sealed.length);
+				return new SessionTicket(pSource, ticket, pSecret, pProfile, expiry);
+			}
+			finally {
+				Arrays.fill(body, (byte) 0);
+				CipherCache.releaseCipher(cipher, isReusable);
+			}
+		}
+		catch (IOException e) {
+			throw new HobesSecurityException(e);
+		}
+		catch (GeneralSecurityException e) {
+			throw new HobesSecurityException(e);
+		}
+	}
+	
+	/**
+	 * Opens a ticket presented by a source.
+	 * 
+	 * @param pSource The source identifier presenting the ticket.
+	 * @param pTicket The ticket.
+	 * 
+	 * @return The channel sealed in the ticket.
+	 * 
+	 * @throws HobesSecurityException When the ticket is corrupted, expired, 
+	 * sealed under a forgotten key, or issued to another source.
+	 */
+	public SessionTicket open(String pSource, byte[] pTicket) throws HobesSecurityException {
+		CipherSuite suite = CipherSuite.getInstance(CipherSuite.AES_256_GCM);
+		if ((pTicket == null) || (pTicket.length < HEADER_LENGTH + suite.getNonceLength()) 
+				|| (pTicket[0] != VERSION)){
+			throw new HobesSecurityException("Invalid session ticket");
+		}
+		long now = System.currentTimeMillis();
+		long number = 0;
+		for (int i = 1; i < HEADER_LENGTH; i++){
+			number = (number << 8) | (pTicket[i] & 0xFF);
+		}
+		long current = now / this.period;
+		// tolerate another node clock being a period ahead
+		if ((number > current + 1) || (number < current - getRetainedPeriods())){
+			throw new HobesSecurityException("Expired session ticket");
+		}
+		byte[] nonce = Arrays.copyOfRange(pTicket, HEADER_LENGTH, HEADER_LENGTH + suite.getNonceLength());
+		Cipher cipher = suite.acquireCipher(Cipher.DECRYPT_MODE, getKey(number), nonce);
+		boolean isReusable = false;
+		byte[] body = null;
+		try {
+			cipher.updateAAD(pTicket, 0, HEADER_LENGTH);
+			int offset = HEADER_LENGTH + nonce.length;
+			body = cipher.doFinal(pTicket, offset, pTicket.length - offset);
+			isReusable = true;
+			
+			DataInputStream dis = new DataInputStream(new ByteArrayInputStream(body));
+			String source = dis.readUTF();
+			long expiry = dis.readLong();
+			ChannelProfile profile = new ChannelProfile(dis.readByte(), dis.readByte(), dis.readByte());
+			byte[] encodedSecret = new byte[dis.readUnsignedShort()];
+			dis.readFully(encodedSecret);
+			SecretKey secret = CipherSuite.getInstance(profile.getSuite()).createKey(encodedSecret);
+			Arrays.fill(encodedSecret, (byte) 0);
+			
+			if (! source.equals(pSource)){
+				throw new HobesSecurityException("Session ticket issued to another source");
+			}
+			if (now >= expiry){
+				throw new HobesSecurityException("Expired session ticket");
+			}
+			return new SessionTicket(source, pTicket, secret, profile, expiry);
+		}
+		catch (IOException e) {
+			throw new HobesSecurityException(e);
+		}
+		catch (GeneralSecurityException e) {
+			// includes AEADBadTagException
+			throw new HobesSecurityException("Invalid session ticket", e);
+		}
+		finally {
+			if (body != null){
+				Arrays.fill(body, (byte) 0);
+			}
+			CipherCache.releaseCipher(cipher, isReusable);
+		}
+	}
+	
+	private long getRetainedPeriods() {
+		return (this.lifetime + this.period - 1) / this.period;
+	}
+	
+	private SecretKey getKey(long pNumber) throws HobesSecurityException {
+		SecretKey key = this.keys.get(pNumber);
+		if (key != null){
+			return key;
+		}
+		MessageDigest digest = CipherCache.getMessageDigest(CipherSuite.KDF_ALGORITHM);
+		digest.update(KDF_LABEL);
+		digest.update(this.masterSecret);
+		for (int shift = 56; shift >= 0; shift -= 8){
+			digest.update((byte) (pNumber >>> shift));
+		}
+		byte[] material = digest.digest();
+		key = CipherSuite.getInstance(CipherSuite.AES_256_GCM).createKey(material);
+		Arrays.fill(material, (byte) 0);
+		this.keys.put(pNumber, key);
+		
+		// forget the keys of periods whose tickets are all expired
+		long oldest = System.currentTimeMillis() / this.period - getRetainedPeriods();
+		for (Iterator<Long> numbers = this.keys.keySet().iterator(); numbers.hasNext(); ){
+			if (numbers.next() < oldest){
+				numbers.remove();
+			}
+		}
+		return key;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * A trusted key pair of a {@link MappedKeyStore}, named by its key id, and 
+ * valid within a time window.
+ * <p>Keys rotate by adding a new key id whose window overlaps the former one: 
+ * during the overlap, Bob accepts both ids, and Alice may switch at any time.
+ * 
+ * @see MappedKeyStore
+ */
+public class TrustedKeyEntry {
+	
+	private final String keyId;
+	private final String algorithm;
+	private final PublicKey publicValue;
+	private final PrivateKey privateValue;
+	private final long notBefore;
+	private final long notAfter;
+	
+	/**
+	 * @param pKeyId The key id, e.g. <code>acme/eu-west/2026-10</code>.
+	 * @param pAlgorithm {@link SecretFactory#KEY_AGREEMENT_ALGORITHM} or 
+	 * {@link SecretFactory#XDH_KEY_AGREEMENT_ALGORITHM}.
+	 * @param pPublicValue The trusted public value.
+	 * @param pPrivateValue The trusted private value, or <code>null</code> at Alice side.
+	 * @param pNotBefore Start of the validity window, in milliseconds since the epoch.
+	 * @param pNotAfter End of the validity window, in milliseconds since the epoch, 
+	 * {@link Long#MAX_VALUE} for no end.
+	 */
+	public TrustedKeyEntry(String pKeyId, String pAlgorithm, PublicKey pPublicValue, 
+			PrivateKey pPrivateValue, long pNotBefore, long pNotAfter) {
+		this.keyId = pKeyId;
+		this.algorithm = pAlgorithm;
+		this.publicValue = pPublicValue;
+		this.privateValue = pPrivateValue;
+		this.notBefore = pNotBefore;
+		this.notAfter = pNotAfter;
+	}
+
+	/**
+	 * @return The key id.
+	 */
+	public String getKeyId() {
+		return keyId;
+	}
+
+	/**
+	 * @return The key agreement algorithm.
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return The trusted public value.
+	 */
+	public PublicKey getPublicValue() {
+		return publicValue;
+	}
+
+	/**
+	 * @return The trusted private value, <code>null</code> at Alice side.
+	 */
+	public PrivateKey getPrivateValue() {
+		return privateValue;
+	}
+
+	/**
+	 * @return Start of the validity window, in milliseconds since the epoch.
+	 */
+	public long getNotBefore() {
+		return notBefore;
+	}
+
+	/**
+	 * @return End of the validity window, in milliseconds since the epoch.
+	 */
+	public long getNotAfter() {
+		return notAfter;
+	}
+	
+	/**
+	 * @param pNow The current time, in milliseconds since the epoch.
+	 * 
+	 * @return Whether this key may be used at this time.
+	 */
+	public boolean isValid(long pNow) {
+		return (pNow >= this.notBefore) && (pNow < this.notAfter);
+	}
+}
@@ -0,0 +1,358 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.secrets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesException;
+import org.marl.hobes.HobesSecurityException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+
+/**
+ * Caches the decoded keys trusted on this site, as described by {@link SecretManager}.
+ * <p>Key files are read and decoded the first time they're needed, then served
+ * from memory. Keys are read from the classpath, or from a directory holding 
+ * files of the same names, e.g. <code>bob.PV</code> and <code>bob.x25519.PV</code>.
+ * <p>A registry reading a directory may watch it: when a key file changes, every 
+ * key in use is decoded again, and the new keys replace the former ones at once. 
+ * Should a file fail to decode, e.g. while being written, the former keys are kept
+ * until the next change. Rotating keys then costs nothing to the requests served
+ * meanwhile.
+ * 
+ * @see SecretManager
+ */
+public class TrustedKeyRegistry {
+	
+	private static final String RESOURCE_PATH = "org/marl/hobes/secrets/";
+	
+	private static TrustedKeyRegistry defaultRegistry = null;
+	
+	private final File directory;
+	private volatile ConcurrentHashMap<String,TrustedKey> keys = new ConcurrentHashMap<String,TrustedKey>();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong reloads = new AtomicLong();
+	private final AtomicLong failedReloads = new AtomicLong();
+	private WatchService watchService = null;
+	
+	/**
+	 * Creates a registry reading keys from the classpath.
+	 */
+	public TrustedKeyRegistry() {
+		this(null);
+	}
+	
+	/**
+	 * Creates a registry reading keys from a directory.
+	 * 
+	 * @param pDirectory The directory, or <code>null</code> to read the classpath.
+	 */
+	public TrustedKeyRegistry(File pDirectory) {
+		this.directory = pDirectory;
+	}
+	
+	/**
+	 * Answers the registry {@link SecretManager} delegates to, 
+	 * reading the classpath unless replaced.
+	 * 
+	 * @return The default registry.
+	 */
+	public static synchronized TrustedKeyRegistry getDefault() {
+		if (defaultRegistry == null){
+			defaultRegistry = new TrustedKeyRegistry();
+		}
+		return defaultRegistry;
+	}
+	
+	/**
+	 * Replaces the default registry, e.g. with one watching a directory.
+	 * 
+	 * @param pRegistry The new default registry.
+	 */
+	public static synchronized void setDefault(TrustedKeyRegistry pRegistry) {
+		defaultRegistry = pRegistry;
+	}
+	
+	/**
+	 * Answers the trusted public value for a key agreement algorithm.
+	 * 
+	 * @param pAlgorithm {@link SecretFactory#KEY_AGREEMENT_ALGORITHM} or 
+	 * {@link SecretFactory#XDH_KEY_AGREEMENT_ALGORITHM}.
+	 * 
+	 * @return The public key.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When the key file is missing or corrupted.
+	 * @throws HobesSecurityException When the algorithm is not supported.
+	 */
+	public PublicKey getPublicValue(String pAlgorithm) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		return (PublicKey) getKey(getFileName(pAlgorithm, ".PV")).key;
+	}
+	
+	/**
+	 * @param pAlgorithm The key agreement algorithm.
+	 * @param pEncodedPV A X509 byte-encoded public key.
+	 * 
+	 * @return Whether this key is the trusted public value for the algorithm.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When the key file is missing or corrupted.
+	 * @throws HobesSecurityException When the algorithm is not supported.
+	 */
+	public boolean isTrusted(String pAlgorithm, byte[] pEncodedPV) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		return Arrays.equals(getKey(getFileName(pAlgorithm, ".PV")).encoded, pEncodedPV);
+	}
+	
+	/**
+	 * Answers the trusted private value for a key agreement algorithm, only 
+	 * available at Bob side.
+	 * 
+	 * @param pAlgorithm {@link SecretFactory#KEY_AGREEMENT_ALGORITHM} or 
+	 * {@link SecretFactory#XDH_KEY_AGREEMENT_ALGORITHM}.
+	 * 
+	 * @return The private key.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When the key file is missing or corrupted.
+	 * @throws HobesSecurityException When the algorithm is not supported.
+	 */
+	public PrivateKey getPrivateValue(String pAlgorithm) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		return (PrivateKey) getKey(getFileName(pAlgorithm, ".x")).key;
+	}
+	
+	/**
+	 * Decodes again every key in use, and replaces them all at once. 
+	 * 
+	 * @throws HobesException When a key file fails to decode, in which case
+	 * the former keys are kept.
+	 */
+	public void reload() throws HobesException {
+		ConcurrentHashMap<String,TrustedKey> reloaded = new ConcurrentHashMap<String,TrustedKey>();
+		try {
+			for (String name : this.keys.keySet()){
+				reloaded.put(name, load(name));
+			}
+		}
+		catch (HobesException e) {
+			this.failedReloads.incrementAndGet();
+			throw e;
+		}
+		this.keys = reloaded;
+		this.reloads.incrementAndGet();
+	}
+	
+	/**
+	 * Starts a daemon thread reloading the keys whenever a key file of the
+	 * directory is created or modified.
+	 * 
+	 * @throws HobesTransportException When the directory can't be watched, 
+	 * or this registry reads the classpath.
+	 */
+	public synchronized void startWatching() throws HobesTransportException {
+		if (this.directory == null){
+			throw new HobesTransportException("Can't watch the classpath");
+		}
+		if (this.watchService != null){
+			return;
+		}
+		try {
+			final WatchService watcher = FileSystems.getDefault().newWatchService();
+			this.directory.toPath().register(watcher, 
+					StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			this.watchService = watcher;
+			Thread thread = new Thread("hobes-keys-watcher " + this.directory) {
+				@Override
+				public void run() {
+					watch(watcher);
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(this.directory.getPath(), e);
+		}
+	}
+	
+	/**
+	 * Stops watching the directory.
+	 */
+	public synchronized void stopWatching() {
+		if (this.watchService != null){
+			try {
+				this.watchService.close();
+			}
+			catch (IOException e) {
+				// the watcher thread stops anyway
+			}
+			this.watchService = null;
+		}
+	}
+	
+	/**
+	 * @return The number of key files read and decoded so far, reloads included.
+	 */
+	public long getLoads() {
+		return loads.get();
+	}
+	
+	/**
+	 * @return The number of successful reloads so far.
+	 */
+	public long getReloads() {
+		return reloads.get();
+	}
+	
+	/**
+	 * @return The number of reloads that kept the former keys so far.
+	 */
+	public long getFailedReloads() {
+		return failedReloads.get();
+	}
+	
+	private void watch(WatchService pWatcher) {
+		try {
+			while (true){
+				WatchKey key = pWatcher.take();
+				boolean isKeyChanged = false;
+				for (WatchEvent<?> event : key.pollEvents()){
+					Object context = event.context();
+					if ((context instanceof Path) && this.keys.containsKey(context.toString())){
+						isKeyChanged = true;
+					}
+				}
+				key.reset();
+				if (isKeyChanged){
+					try {
+						reload();
+					}
+					catch (HobesException e) {
+						// e.g. a file being written, the next event tells
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			// stopped
+		}
+		catch (ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+	
+	private TrustedKey getKey(String pName) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		ConcurrentHashMap<String,TrustedKey> current = this.keys;
+		TrustedKey key = current.get(pName);
+		if (key == null){
+			key = load(pName);
+			TrustedKey previous = current.putIfAbsent(pName, key);
+			if (previous != null){
+				key = previous;
+			}
+		}
+		return key;
+	}
+	
+	private static String getFileName(String pAlgorithm, String pExtension) throws HobesSecurityException {
+		if (SecretFactory.KEY_AGREEMENT_ALGORITHM.equals(pAlgorithm)){
+			return "bob" + pExtension;
+		}
+		if (SecretFactory.XDH_KEY_AGREEMENT_ALGORITHM.equals(pAlgorithm)){
+			return "bob.x25519" + pExtension;
+		}
+		throw new HobesSecurityException("Unsupported key agreement: " + pAlgorithm);
+	}
+	
+	private TrustedKey load(String pName) 
+			throws HobesTransportException, HobesDataException, HobesSecurityException {
+		InputStream is;
+		if (this.directory == null){
+			is = TrustedKeyRegistry.class.getClassLoader().getResourceAsStream(RESOURCE_PATH + pName);
+			if (is == null){
+				throw new HobesDataException("Missing resource: " + RESOURCE_PATH + pName);
+			}
+		}
+		else {
+			try {
+				is = new FileInputStream(new File(this.directory, pName));
+			}
+			catch (FileNotFoundException e) {
+				throw new HobesTransportException(pName, e);
+			}
+		}
+		try {
+			Key key;
+			if (pName.startsWith("bob.x25519")){
+				byte[] rawKey = SecretFactory.readXdhKey(is);
+				key = pName.endsWith(".PV") ? SecretFactory.createXdhPublicKey(rawKey) 
+						: SecretFactory.createXdhPrivateKey(rawKey);
+			}
+			else {
+				Object encodedKey = ObjectBus.read(is);
+				if (! (encodedKey instanceof byte[])){
+					throw new HobesDataException(pName);
+				}
+				key = pName.endsWith(".PV") ? SecretFactory.createPublicKey((byte[]) encodedKey) 
+						: SecretFactory.createPrivateKey((byte[]) encodedKey);
+			}
+			this.loads.incrementAndGet();
+			return new TrustedKey(key);
+		}
+		finally {
+			try {
+				is.close();
+			}
+			catch (IOException e) {
+				// read already
+			}
+		}
+	}
+	
+	/** A decoded key, along with its encoded form. */
+	private static class TrustedKey {
+		final Key key;
+		final byte[] encoded;
+		
+		TrustedKey(Key pKey) {
+			this.key = pKey;
+			this.encoded = pKey.getEncoded();
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.shm;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.locks.LockSupport;
+
+import org.marl.hobes.HobesTransportException;
+
+/**
+ * A ring buffer of byte records, laid out in a memory-mapped file so that
+ * processes on the same host can exchange records without any system call.
+ * <p>The file layout is:
+ * <pre>
+ *   int  magic, version, capacity, mode   // at 0
+ *   long head                             // at 64, next position to consume
+ *   long tail                             // at 128, next position to claim
+ *   byte[capacity] data                   // at 256
+ * </pre>
+ * Positions grow forever, and are masked into the data area. Each record
+ * starts with an int header, its length including the header, and is aligned 
+ * on 8 bytes. A negative header pads the end of the data area, when a record
+ * does not fit there. A zero header means no record was published yet.
+ * <p>Producers claim space by advancing the tail, write their record, then publish
+ * its header with release semantics. The consumer reads headers with acquire 
+ * semantics, zeroes the consumed space, then releases it by advancing the head.
+ * In {@link #MULTI_PRODUCER} mode the tail is advanced by compare-and-set, so
+ * that any number of producers may share the ring. In both modes there must be
+ * a single consumer.
+ */
+public class MappedRing {
+
+	/** A single thread, in a single process, produces records. */
+	public static final int SINGLE_PRODUCER = 0;
+	/** Several threads, possibly in several processes, produce records. */
+	public static final int MULTI_PRODUCER = 1;
+	
+	/** Wait by spinning, lowest latency, burns a core. */
+	public static final int WAIT_SPIN = 0;
+	/** Wait by yielding the processor to other threads. */
+	public static final int WAIT_YIELD = 1;
+	/** Wait by parking the thread, see {@link #PARK_NANOS}. */
+	public static final int WAIT_PARK = 2;
+	
+	/** How long a {@link #WAIT_PARK} wait parks the thread, 50 microseconds. */
+	public static final long PARK_NANOS = 50 * 1000;
+	/** Default data area capacity, 1 MB. */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+	
+	private static final int MAGIC = 0x48524E47; // HRNG
+	private static final int VERSION = 1;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int MODE_OFFSET = 12;
+	// head and tail live on their own cache lines
+	private static final int HEAD_OFFSET = 64;
+	private static final int TAIL_OFFSET = 128;
+	private static final int DATA_OFFSET = 256;
+	private static final int ALIGNMENT = 8;
+	
+	private static final VarHandle INT = 
+			MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	private static final VarHandle LONG = 
+			MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	
+	private final String path;
+	private final int capacity;
+	private final int mode;
+	private final int waitStrategy;
+	private final long mask;
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	
+	/**
+	 * Maps a ring, creating its file if needed.
+	 * 
+	 * @param pPath The file path, typically on a memory file system such as <code>/dev/shm</code>.
+	 * @param pCapacity The data area capacity, a power of two. Records can't exceed half of it.
+	 * @param pMode {@link #SINGLE_PRODUCER} or {@link #MULTI_PRODUCER}.
+	 * @param pWaitStrategy One of the <code>WAIT_</code> constants, used by this side
+	 * of the ring when it has to wait.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs, or when the file
+	 * exists with a different capacity or mode.
+	 */
+	public MappedRing(String pPath, int pCapacity, int pMode, int pWaitStrategy) 
+			throws HobesTransportException {
+		if ((pCapacity < 2 * ALIGNMENT) || (Integer.bitCount(pCapacity) != 1)){
+			throw new IllegalArgumentException("Invalid capacity: " + pCapacity);
+		}
+		this.path = pPath;
+		this.capacity = pCapacity;
+		this.mode = pMode;
+		this.waitStrategy = pWaitStrategy;
+		this.mask = pCapacity - 1;
+		try {
+			this.file = new RandomAccessFile(pPath, "rw");
+			FileChannel channel = this.file.getChannel();
+			FileLock lock = channel.lock();
+			try {
+				if (this.file.length() < DATA_OFFSET + pCapacity){
+					this.file.setLength(DATA_OFFSET + pCapacity);
+				}
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + pCapacity);
+				this.buffer.order(ByteOrder.nativeOrder());
+				if (this.buffer.getInt(0) != MAGIC){
+					this.buffer.putInt(4, VERSION);
+					this.buffer.putInt(CAPACITY_OFFSET, pCapacity);
+					this.buffer.putInt(MODE_OFFSET, pMode);
+					LONG.setRelease(this.buffer, HEAD_OFFSET, 0L);
+					LONG.setRelease(this.buffer, TAIL_OFFSET, 0L);
+					INT.setRelease(this.buffer, 0, MAGIC);
+				}
+				else if ((this.buffer.getInt(CAPACITY_OFFSET) != pCapacity)
+						|| (this.buffer.getInt(MODE_OFFSET) != pMode)){
+					this.file.close();
+					throw new HobesTransportException(pPath + ": ring capacity "
+							+ this.buffer.getInt(CAPACITY_OFFSET) + ", mode "
+							+ this.buffer.getInt(MODE_OFFSET));
+				}
+			}
+			finally {
+				if (lock.isValid()){
+					lock.release();
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new HobesTransportException(pPath, e);
+		}
+	}
+	
+	/**
+	 * Maps a ring with the default capacity and a park wait strategy.
+	 * 
+	 * @param pPath The file path.
+	 * @param pMode {@link #SINGLE_PRODUCER} or {@link #MULTI_PRODUCER}.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 */
+	public MappedRing(String pPath, int pMode) throws HobesTransportException {
+		this(pPath, DEFAULT_CAPACITY, pMode, WAIT_PARK);
+	}
+	
+	public String getPath() {
+		return path;
+	}
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Answers the size of the largest record this ring can carry.
+	 * 
+	 * @return That's it.
+	 */
+	public int getMaxRecordLength() {
+		return (this.capacity / 2) - 4;
+	}
+	
+	/**
+	 * Answers the number of bytes claimed and not yet consumed, padding included.
+	 * 
+	 * @return That's it.
+	 */
+	public long size() {
+		return (long) LONG.getAcquire(this.buffer, TAIL_OFFSET) 
+				- (long) LONG.getAcquire(this.buffer, HEAD_OFFSET);
+	}
+	
+	/**
+	 * Appends a record, if there's room for it.
+	 * 
+	 * @param pRecord The record, at most {@link #getMaxRecordLength()} bytes.
+	 * 
+	 * @return Whether the record was appended.
+	 */
+	public boolean offer(byte[] pRecord) {
+		if (pRecord.length > getMaxRecordLength()){
+			throw new IllegalArgumentException("Record too large: " + pRecord.length);
+		}
+		int length = 4 + pRecord.length;
+		int aligned = align(length);
+		long tail;
+		int index;
+		int padding;
+		while (true) {
+			tail = (long) LONG.getAcquire(this.buffer, TAIL_OFFSET);
+			long head = (long) LONG.getAcquire(this.buffer, HEAD_OFFSET);
+			index = (int) (tail & this.mask);
+			padding = (index + aligned > this.capacity) ? this.capacity - index : 0;
+			long next = tail + padding + aligned;
+			if (next - head > this.capacity){
+				return false;
+			}
+			if (this.mode == SINGLE_PRODUCER){
+				LONG.setRelease(this.buffer, TAIL_OFFSET, next);
+				break;
+			}
+			if (LONG.compareAndSet(this.buffer, TAIL_OFFSET, tail, next)){
+				break;
+			}
+		}
+		if (padding > 0){
+			INT.setRelease(this.buffer, DATA_OFFSET + index, -padding);
+			index = 0;
+		}
+		this.buffer.put(DATA_OFFSET + index + 4, pRecord);
+		INT.setRelease(this.buffer, DATA_OFFSET + index, length);
+		return true;
+	}
+	
+	/**
+	 * Appends a record, waiting for room if needed.
+	 * 
+	 * @param pRecord The record, at most {@link #getMaxRecordLength()} bytes.
+	 * @param pTimeout How long to wait, in milliseconds.
+	 * 
+	 * @return Whether the record was appended before the timeout.
+	 */
+	public boolean offer(byte[] pRecord, long pTimeout) {
+		long deadline = System.nanoTime() + (pTimeout * 1000 * 1000);
+		int round = 0;
+		while (! offer(pRecord)){
+			if (System.nanoTime() - deadline > 0){
+				return false;
+			}
+			idle(round++);
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes the next record, if any. Must only be called by the consumer.
+	 * 
+	 * @return The record, or <code>null</code> if none was published yet.
+	 */
+	public byte[] poll() {
+		while (true) {
+			long head = (long) LONG.getOpaque(this.buffer, HEAD_OFFSET);
+			int index = (int) (head & this.mask);
+			int header = (int) INT.getAcquire(this.buffer, DATA_OFFSET + index);
+			if (header == 0){
+				return null;
+			}
+			if (header < 0){
+				clear(index, -header);
+				LONG.setRelease(this.buffer, HEAD_OFFSET, head - header);
+				continue;
+			}
+			byte[] record = new byte[header - 4];
+			this.buffer.get(DATA_OFFSET + index + 4, record);
+			int aligned = align(header);
+			clear(index, aligned);
+			LONG.setRelease(this.buffer, HEAD_OFFSET, head + aligned);
+			return record;
+		}
+	}
+	
+	/**
+	 * Removes the next record, waiting for one if needed. Must only be called by the consumer.
+	 * 
+	 * @param pTimeout How long to wait, in milliseconds.
+	 * 
+	 * @return The record, or <code>null</code> if none was published before the timeout.
+	 */
+	public byte[] poll(long pTimeout) {
+		long deadline = System.nanoTime() + (pTimeout * 1000 * 1000);
+		int round = 0;
+		byte[] record;
+		while ((record = poll()) == null){
+			if (System.nanoTime() - deadline > 0){
+				return null;
+			}
+			idle(round++);
+		}
+		return record;
+	}
+	
+	/**
+	 * Closes the ring file. The mapping itself is released when garbage collected.
+	 */
+	public void close() {
+		try {
+			this.file.close();
+		}
+		catch (IOException e) {
+			// nothing left to release
+		}
+	}
+	
+	private void idle(int pRound) {
+		switch (this.waitStrategy) {
+		case WAIT_SPIN:
+			Thread.onSpinWait();
+			break;
+		case WAIT_YIELD:
+			Thread.yield();
+			break;
+		default:
+			// spin a little first, most waits are short
+			if (pRound < 100){
+				Thread.onSpinWait();
+			}
+			else {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+	}
+	
+	private void clear(int pIndex, int pLength) {
+		for (int i = 0; i < pLength; i += ALIGNMENT){
+			this.buffer.putLong(DATA_OFFSET + pIndex + i, 0L);
+		}
+	}
+	
+	private static int align(int pLength) {
+		return (pLength + ALIGNMENT - 1) & -ALIGNMENT;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+This file is part of HOBes.
+
+HOBes is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+HOBes is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with HOBes.  If not, see <http://www.gnu.org/licenses/>.
+ 
+*/
+package org.marl.hobes.shm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.marl.hobes.HobesDataException;
+import org.marl.hobes.HobesTransportException;
+import org.marl.hobes.ObjectBus;
+import org.marl.hobes.SourcedObject;
+
+/** 
+ * Provides an API similar to {@link org.marl.hobes.ObjectBus}, but adapted
+ * to the shared memory transport of a {@link MappedRing}.
+ * <p>Each record holds one object, serialized along with its source
+ * exactly as {@link ObjectBus#writeWithSource(String, java.io.OutputStream, Object)} does.
+ */
+public class ShmObjectBus {
+	private ShmObjectBus() {}
+
+	/** 
+	 * Serializes an object to a ring, along with the information
+	 * identifying its source.
+	 * 
+	 * @param pRing The ring to write to.
+	 * @param pSourceId The source identifier.
+	 * @param pData A serializable object.
+	 * @param pTimeout How long to wait for room in the ring, in milliseconds.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs, or the ring remained full.
+	 * @throws HobesDataException When the serialized object exceeds the ring record limit.
+	 */
+	public static void writeWithSource(MappedRing pRing, String pSourceId, Object pData, long pTimeout)
+			throws HobesTransportException, HobesDataException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectBus.writeWithSource(pSourceId, bos, pData);
+		byte[] record = bos.toByteArray();
+		if (record.length > pRing.getMaxRecordLength()){
+			throw new HobesDataException(pRing.getPath() + ": record too large, " + record.length);
+		}
+		if (! pRing.offer(record, pTimeout)){
+			throw new HobesTransportException(pRing.getPath() + ": ring full");
+		}
+	}
+	
+	/** 
+	 * Deserializes an object from a ring, along with the information
+	 * identifying its source.
+	 * 
+	 * @param pRing The ring to read from, this process being its consumer.
+	 * @param pTimeout How long to wait for a record, in milliseconds.
+	 * 
+	 * @return The source identifier and the deserialized object as payload, or 
+	 * <code>null</code> if no record was published before the timeout.
+	 * 
+	 * @throws HobesTransportException When an I/O error occurs.
+	 * @throws HobesDataException When a marshaling error occurs.
+	 */
+	public static SourcedObject readWithSource(MappedRing pRing, long pTimeout)
+			throws HobesTransportException, HobesDataException {
+		byte[] record = pRing.poll(pTimeout);
+		if (record == null){
+			return null;
+		}
+		return ObjectBus.readWithSource(new ByteArrayInputStream(record));
+	}
+}
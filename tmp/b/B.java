@@ -0,0 +1,11 @@
+import javax.crypto.*; import javax.crypto.spec.*; import java.io.*;
+public class B { public static void main(String[] a) throws Exception {
+ SecretKey k = new SecretKeySpec(new byte[32],"AES"); byte[] p=new byte[1<<20];
+ for(int pass=0;pass<3;pass++){
+ long t=System.nanoTime(); byte[] ct=null;
+ for(int i=0;i<20;i++){ Cipher c=Cipher.getInstance("AES/GCM/NoPadding"); byte[] n=new byte[12]; n[0]=(byte)i; n[1]=(byte)pass; c.init(1,k,new GCMParameterSpec(128,n)); ByteArrayOutputStream b=new ByteArrayOutputStream(); CipherOutputStream o=new CipherOutputStream(b,c); for(int j=0;j<p.length;j+=1024) o.write(p,j,1024); o.close(); ct=b.toByteArray();}
+ long t2=System.nanoTime();
+ for(int i=0;i<20;i++){ Cipher c=Cipher.getInstance("AES/GCM/NoPadding"); byte[] n=new byte[12]; n[0]=(byte)19; n[1]=(byte)pass; c.init(2,k,new GCMParameterSpec(128,n)); CipherInputStream in=new CipherInputStream(new ByteArrayInputStream(ct),c); byte[] buf=new byte[1024]; while(in.read(buf)!=-1); }
+ long t3=System.nanoTime();
+ System.out.println("enc "+(20.0*1e9/(t2-t))+" MB/s dec "+(20.0*1e9/(t3-t2))+" MB/s");}
+}}
@@ -0,0 +1,22 @@
+import org.marl.hobes.secrets.*;
+public class BenchProbe {
+  public static void main(String[] a) throws Exception {
+    KeyPairPool pool = new KeyPairPool(8,1);
+    for (int rep=0; rep<2; rep++)
+    for (int mode : new int[]{1,0}) {
+      long phaseI=0, take=0; int n=300;
+      for (int r=0;r<n;r++){
+        PKCS3Alice alice = new PKCS3Alice("alice");
+        alice.setKeyPairPool(mode==0?null:pool);
+        alice.setKeyAgreementAlgorithm("X25519");
+        long s=System.nanoTime();
+        alice.protocolPhaseI();
+        phaseI+=System.nanoTime()-s;
+        Thread.sleep(2);
+        PKCS3Bob bob = new PKCS3Bob("alice"); bob.setKeyAgreementAlgorithm("X25519"); bob.protocolPhaseI(); bob.protocolPhaseII(alice.getPublicValue()); alice.protocolPhaseII(bob.getPublicValue());
+      }
+      System.out.println(mode+" "+phaseI/n/1000+"us");
+    }
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,19 @@
+import org.marl.hobes.secrets.*;
+import java.security.spec.*;
+public class BenchProbe2 {
+  public static void main(String[] a) throws Exception {
+    KeyPairPool pool = new KeyPairPool(8,1);
+    for (int rep=0; rep<10; rep++){
+      long take=0, all=0; int n=300; long hits=pool.getHits();
+      for (int r=0;r<n;r++){
+        long s=System.nanoTime();
+        java.security.KeyPair kp = pool.take("X25519", NamedParameterSpec.X25519);
+        take+=System.nanoTime()-s;
+        Thread.sleep(2);
+        PKCS3Bob bob = new PKCS3Bob("alice"); bob.setKeyAgreementAlgorithm("X25519"); bob.protocolPhaseI(); bob.protocolPhaseII(kp.getPublic().getEncoded());
+      }
+      System.out.println("take "+take/n/1000+"us hits "+(pool.getHits()-hits));
+    }
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,22 @@
+import org.marl.hobes.secrets.*;
+import java.security.spec.*;
+public class PoolProbe {
+  public static void main(String[] a) throws Exception {
+    KeyPairPool pool = new KeyPairPool(8,1);
+    for (int mode=0; mode<4; mode++){
+      long take=0, rest=0; int n=2000;
+      for (int i=0;i<n;i++){
+        long t0=System.nanoTime();
+        java.security.KeyPair kp = (mode%2==1)? pool.take("X25519", NamedParameterSpec.X25519) : null;
+        if (mode%2!=1) kp = java.security.KeyPairGenerator.getInstance("X25519").generateKeyPair();
+        long t1=System.nanoTime();
+        javax.crypto.KeyAgreement ka = javax.crypto.KeyAgreement.getInstance("X25519"); ka.init(kp.getPrivate());
+        long t2=System.nanoTime();
+        take+=t1-t0; rest+=t2-t1;
+        Thread.sleep(2);
+      }
+      System.out.println(mode+" take "+take/n/1000+"us rest "+rest/n/1000+"us");
+    }
+    pool.shutdown();
+  }
+}
@@ -0,0 +1 @@
+rSr?f1LT>
\ No newline at end of file